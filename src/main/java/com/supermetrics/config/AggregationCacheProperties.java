@@ -0,0 +1,30 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import com.supermetrics.model.enums.RollupResolution;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "readings.aggregation-cache")
+public class AggregationCacheProperties {
+
+    // Aggregations are split into chunks aligned to these buckets, whole chunks in the past are cached
+    private boolean enabled = true;
+    private RollupResolution chunk = RollupResolution.DAY;
+
+    // A chunk is closed, and cached, once it ended this long ago. Readings that still arrive for a closed chunk
+    // invalidate it, so this only saves recomputing chunks that usually still change
+    private Duration closeAfter = Duration.ofMinutes(5);
+
+    // Other instances do not invalidate this cache, so chunks that ended less than late-data-horizon ago expire after
+    // time-to-live, for late readings written elsewhere to show up. Older chunks are only evicted for size, readings
+    // that other instances write for them are missing here until then
+    private Duration timeToLive = Duration.ofMinutes(1);
+    private Duration lateDataHorizon = Duration.ofDays(1);
+
+    // Estimated memory of the cached partial aggregates, least valuable chunks are evicted beyond it
+    private DataSize maximumSize = DataSize.ofMegabytes(64);
+}
@@ -0,0 +1,19 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "readings.aggregation-fan-out")
+public class AggregationFanOutProperties {
+
+    // Aggregations over longer ranges or more devices are split into chunks that MongoDB aggregates concurrently
+    private boolean enabled = true;
+    private Duration chunkSize = Duration.ofDays(30);
+    private int maxDevicesPerChunk = 1000;
+
+    // Chunks aggregated at the same time across all requests, which bounds the load on MongoDB
+    private int parallelism = 4;
+}
@@ -0,0 +1,21 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "devices.api-keys")
+public class ApiKeyProperties {
+
+    private String header = "X-API-Key";
+
+    private long cacheMaximumSize = 100_000;
+
+    // Bounds how long a revoked key keeps working on other instances
+    private Duration cacheTtl = Duration.ofMinutes(1);
+
+    // Keeps the shared BCrypt "device" account working for clients that have not moved to API keys yet
+    private boolean basicAuthEnabled = true;
+}
@@ -0,0 +1,22 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "ingestion.deduplication")
+public class DeduplicationProperties {
+
+    private boolean enabled = true;
+
+    // Retries are detected when they arrive within this window of the original reading. The window is split
+    // into generations of Bloom filters and the oldest generation is dropped as time passes
+    private Duration window = Duration.ofMinutes(10);
+    private int generations = 4;
+
+    // Sizing of every generation, about 1.2 MB each for one million readings at 1%
+    private int expectedReadingsPerGeneration = 1_000_000;
+    private double falsePositiveRate = 0.01;
+}
@@ -0,0 +1,19 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "devices.cache")
+public class DeviceCacheProperties {
+
+    private long maximumSize = 100_000;
+
+    // How long a device found in the database is served from memory
+    private Duration ttl = Duration.ofMinutes(5);
+
+    // How long an unknown device id is remembered, kept short so newly registered devices are picked up quickly
+    private Duration negativeTtl = Duration.ofSeconds(10);
+}
@@ -0,0 +1,28 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "devices.import")
+public class DeviceImportProperties {
+
+    // Rows upserted per bulk write; progress is saved after every batch, so a resumed import repeats one batch at most
+    private int batchSize = 1000;
+
+    // Imports running at the same time on this instance
+    private int parallelism = 2;
+
+    // Row errors kept on an import, later ones are only counted
+    private int maxErrors = 1000;
+
+    // An import whose heartbeat is older than this is taken over by the next instance that looks for abandoned imports
+    private Duration lease = Duration.ofMinutes(2);
+
+    // Imports need serial numbers to be unique. Devices registered before that may share one, and startup fails listing
+    // them. When set, the oldest device keeps it and it is removed from the others instead, as long as all of them have
+    // ids generated by MongoDB, which tell the order they were registered in
+    private boolean resolveDuplicateSerialNumbers = false;
+}
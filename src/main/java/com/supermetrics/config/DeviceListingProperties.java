@@ -0,0 +1,16 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "devices.listing")
+public class DeviceListingProperties {
+
+    // Devices fetched from the cursor per round trip, which is all the memory a streamed listing holds at a time
+    private int batchSize = 1000;
+
+    // Page sizes of GET /devices as JSON, streamed NDJSON listings are not limited
+    private int defaultLimit = 1000;
+    private int maxLimit = 10_000;
+}
@@ -0,0 +1,19 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "devices.registry")
+public class DeviceRegistryProperties {
+
+    // Every device is kept in memory and indexed by type, zone and active flag, so device filters never query the database
+    private boolean enabled = true;
+
+    // Changes made by other instances are followed with a change stream, which needs a replica set.
+    // Without one, or with watch disabled, the registry is reloaded every poll interval instead
+    private boolean watch = true;
+    private Duration pollInterval = Duration.ofMinutes(1);
+}
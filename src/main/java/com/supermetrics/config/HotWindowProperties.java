@@ -0,0 +1,29 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "readings.hot-window")
+public class HotWindowProperties {
+
+    // Rolling count, sum, min and max are kept in memory for each of these windows, ending now. Windows only hold the
+    // readings this instance accepted, so when several instances take readings this has to be disabled
+    private boolean enabled = true;
+    private List<Duration> windows = List.of(Duration.ofMinutes(1), Duration.ofMinutes(5), Duration.ofMinutes(15), Duration.ofHours(1));
+
+    // Readings of a device are kept for the longest window, in a buffer that doubles up to the maximum.
+    // Once full, the oldest readings are dropped and windows missing them are answered from the database instead
+    private int initialCapacity = 16;
+    private int maxReadingsPerDevice = 8192;
+    private int maxDevices = 100_000;
+
+    // Readings dated further ahead of the clock of this instance are left out of the windows
+    private Duration maxClockSkew = Duration.ofSeconds(5);
+
+    // Loads the readings of the longest window from the database on startup, so windows are complete after a restart
+    private boolean warmUp = true;
+}
@@ -0,0 +1,19 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "readings.latest")
+public class LatestReadingProperties {
+
+    // Readings dated further ahead of the clock of this instance never become the latest reading, which they would
+    // otherwise stay until the clock reaches them
+    private Duration maxClockSkew = Duration.ofSeconds(5);
+
+    // Reloads the latest reading of every device from the database once a minute, so readings taken by other instances
+    // show up as well. Can be turned off while a single instance takes readings
+    private boolean refresh = true;
+}
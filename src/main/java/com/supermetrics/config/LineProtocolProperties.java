@@ -0,0 +1,30 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "ingestion.line-protocol")
+public class LineProtocolProperties {
+
+    private boolean enabled = false;
+
+    private String host = "0.0.0.0";
+    private int tcpPort = 8094;
+    private int udpPort = 8094;
+    private boolean udpEnabled = true;
+
+    // When required, TCP connections must start with "AUTH <api key>" and UDP datagrams with that line
+    private boolean requireAuth = true;
+
+    // Readings waiting to be written. A full queue stops the listener reading from TCP connections
+    // and drops UDP datagrams
+    private int queueCapacity = 50_000;
+    private int batchSize = 500;
+    private Duration flushInterval = Duration.ofMillis(200);
+
+    private int maxLineLength = 4096;
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+}
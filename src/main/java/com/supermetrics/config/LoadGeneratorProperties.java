@@ -0,0 +1,35 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "simulator.load")
+public class LoadGeneratorProperties {
+
+    // Defaults of a load test for what its request leaves out
+    private int devices = 1000;
+    private double readingsPerSecond = 1.0;
+    private Duration duration = Duration.ofMinutes(1);
+
+    // Largest number of virtual devices in one load test
+    private int maxDevices = 500_000;
+
+    // Resolution of the timer wheel; readings due within one tick are sent together, so it also caps the rate per device
+    private Duration tick = Duration.ofMillis(10);
+
+    // Readings sent and not answered yet. A reading due while all are in flight is dropped instead of queued,
+    // so an overloaded target shows up as dropped readings rather than as memory held by the generator
+    private int maxInFlight = 10_000;
+
+    // Virtual devices upserted per bulk write before readings are sent
+    private int registerBatchSize = 1000;
+
+    // Readings endpoint of the HTTP target and the device account it authenticates with
+    private String baseUrl = "http://localhost:8080/api";
+    private String username = "device";
+    private String password = "device";
+    private Duration requestTimeout = Duration.ofSeconds(10);
+}
@@ -0,0 +1,42 @@
+package com.supermetrics.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "ingestion.rate-limit")
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+
+    // Applied to every device id
+    private Limit device = new Limit(20, 100);
+
+    // Applied to every device configuration (brand key such as BMW_fuel_sensor), unless overridden in brands
+    private Limit brand = new Limit(10_000, 20_000);
+    private Map<String, Limit> brands = new HashMap<>();
+
+    // Bounds the memory used by limiter state, idle keys are forgotten once their bucket would be full again
+    private long maxTrackedKeys = 1_000_000;
+
+    public Limit brandLimit(String deviceKey) {
+        return brands.getOrDefault(deviceKey, brand);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Limit {
+
+        // Sustained readings per second
+        private double rate;
+
+        // Readings accepted at once after an idle period
+        private int burst;
+    }
+}
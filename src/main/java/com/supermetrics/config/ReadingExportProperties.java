@@ -0,0 +1,16 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "readings.export")
+public class ReadingExportProperties {
+
+    // Readings fetched from the cursor per round trip, which is all the memory an export holds at a time
+    private int batchSize = 2000;
+
+    // Page sizes of GET /readings/raw, exports are not limited
+    private int defaultLimit = 1000;
+    private int maxLimit = 10_000;
+}
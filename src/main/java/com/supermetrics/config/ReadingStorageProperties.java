@@ -0,0 +1,48 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "storage.readings")
+public class ReadingStorageProperties {
+
+    // What happens to the original vendor payload of every reading once value and unit have been extracted
+    private RawPayloadPolicy rawPayload = RawPayloadPolicy.KEEP;
+
+    // Share of readings that keep their payload with the SAMPLE policy
+    private double rawPayloadSampleRate = 0.01;
+
+    // Side collection holding the gzip compressed payloads with the COMPRESS policy
+    private String rawPayloadCollection = "reading_payloads";
+
+    private Migration migration = new Migration();
+
+    public enum RawPayloadPolicy {
+        KEEP,
+        DROP,
+        SAMPLE,
+        COMPRESS
+    }
+
+    @Data
+    public static class Migration {
+
+        // Copies the readings of the legacy collection, stored with a previous layout, into the readings collection in
+        // the background. Off by default, as it reads the whole history; legacy readings are left out of queries until then
+        private boolean enabled = false;
+        private int batchSize = 1000;
+
+        // Legacy readings are copied one time range of this length after another
+        private Duration chunk = Duration.ofDays(1);
+
+        // A migration whose heartbeat is older than this is taken over by the next instance that looks for it
+        private Duration lease = Duration.ofMinutes(5);
+
+        // Where readings were stored before the current layout, only dropped once every reading was copied
+        private String legacyCollection = "readings";
+        private boolean dropLegacy = false;
+    }
+}
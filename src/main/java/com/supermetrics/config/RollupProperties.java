@@ -0,0 +1,12 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "storage.rollups")
+public class RollupProperties {
+
+    // Maintains minute, hour and day rollups at ingest and answers aggregations from them where whole buckets fit
+    private boolean enabled = true;
+}
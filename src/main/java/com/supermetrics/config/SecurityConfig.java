@@ -1,5 +1,7 @@
 package com.supermetrics.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
@@ -13,14 +15,25 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+import com.supermetrics.security.ApiKeyAuthenticationFilter;
+import com.supermetrics.service.DeviceCredentialService;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 @EnableWebSecurity
 @EnableMethodSecurity
+@RequiredArgsConstructor
 public class SecurityConfig {
 
+    private final ApiKeyProperties apiKeyProperties;
+    private final WebSocketIngestionProperties webSocketIngestionProperties;
+
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, DeviceCredentialService credentialService,
+                                           ObjectMapper objectMapper) throws Exception {
         http
                 .authorizeHttpRequests(authz -> authz
                         .requestMatchers(
@@ -30,8 +43,11 @@ public class SecurityConfig {
                                 "/v3/api-docs.yaml",
                                 "/swagger-resources/**"
                         ).permitAll()
+                        .requestMatchers(webSocketIngestionProperties.getPath()).hasRole("DEVICE")
                         .anyRequest().authenticated()
                 )
+                .addFilterBefore(new ApiKeyAuthenticationFilter(credentialService, objectMapper, apiKeyProperties.getHeader()),
+                        BasicAuthenticationFilter.class)
                 .httpBasic(httpBasic -> {
                 })
                 .csrf(AbstractHttpConfigurer::disable);
@@ -41,19 +57,22 @@ public class SecurityConfig {
 
     @Bean
     public UserDetailsService userDetailsService(PasswordEncoder passwordEncoder) {
-        UserDetails user = User.builder()
+        List<UserDetails> users = new ArrayList<>();
+        users.add(User.builder()
                 .username("user")
                 .password(passwordEncoder.encode("password"))
                 .roles("USER")
-                .build();
+                .build());
 
-        UserDetails device = User.builder()
-                .username("device")
-                .password(passwordEncoder.encode("device"))
-                .roles("DEVICE")
-                .build();
+        if (apiKeyProperties.isBasicAuthEnabled()) {
+            users.add(User.builder()
+                    .username("device")
+                    .password(passwordEncoder.encode("device"))
+                    .roles("DEVICE")
+                    .build());
+        }
 
-        return new InMemoryUserDetailsManager(user, device);
+        return new InMemoryUserDetailsManager(users);
     }
 
     @Bean
@@ -0,0 +1,28 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "ingestion.websocket")
+public class WebSocketIngestionProperties {
+
+    private String path = "/api/ws/readings";
+
+    // Readings are written and acknowledged together once this many are pending, or after the flush interval.
+    // A full batch is written before the next frame is read, which pushes back on a device sending too fast
+    private int batchSize = 200;
+    private Duration flushInterval = Duration.ofMillis(250);
+
+    // Timed flushes are written by this many workers, with at most this many flushes waiting for one
+    private int flushWorkers = 8;
+    private int flushQueueCapacity = 10_000;
+
+    private int maxMessageSize = 512 * 1024;
+
+    // A connection that does not read its acks within these limits is closed
+    private Duration sendTimeLimit = Duration.ofSeconds(10);
+    private int sendBufferSize = 512 * 1024;
+}
@@ -0,0 +1,26 @@
+package com.supermetrics.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "ingestion.write-behind")
+public class WriteBehindProperties {
+
+    // When disabled, readings are written synchronously on the request thread
+    private boolean enabled = false;
+
+    // Readings of the same device always go to the same partition, keeping their order
+    private int partitions = 4;
+    private int partitionCapacity = 10_000;
+
+    // A partition is flushed when it reaches the batch size or when the flush interval elapses
+    private int batchSize = 500;
+    private Duration flushInterval = Duration.ofMillis(200);
+
+    private int maxFlushAttempts = 3;
+    private Duration retryAfter = Duration.ofSeconds(1);
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+}
@@ -2,6 +2,7 @@ package com.supermetrics.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -9,16 +10,31 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import com.supermetrics.dto.ApiKeyResponse;
 import com.supermetrics.dto.DeviceDTO;
+import com.supermetrics.dto.DevicePatchRequest;
+import com.supermetrics.exception.PreconditionFailedException;
 import com.supermetrics.mapper.DeviceMapper;
+import com.supermetrics.mapper.DeviceWriter;
 import com.supermetrics.model.Device;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.service.DeviceCredentialService;
+import com.supermetrics.service.DeviceListingService;
 import com.supermetrics.service.DeviceService;
 
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 @Slf4j
 @RestController
@@ -28,20 +44,66 @@ import java.util.List;
 @Tag(name = "Device Controller", description = "API endpoints for managing IoT devices")
 public class DeviceController {
 
+    private static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+    private static final Pattern VERSION_TAG = Pattern.compile("\"(\\d{1,18})\"");
+
     private final DeviceService deviceService;
     private final DeviceMapper deviceMapper;
+    private final DeviceCredentialService credentialService;
+    private final DeviceListingService listingService;
+    private final DeviceWriter deviceWriter;
 
-    @Operation(summary = "Get all devices", description = "Retrieves a list of all IoT devices")
+    @Operation(summary = "Get all devices",
+            description = "Lists devices sorted by ID. As JSON one page is returned, with the next one in the Link header. "
+                    + "With Accept: application/x-ndjson every matching device is streamed, one per line")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Successfully retrieved the list of devices",
-                content = @Content(mediaType = "application/json", 
-                schema = @Schema(implementation = DeviceDTO.class)))
+                content = {@Content(mediaType = "application/json",
+                        array = @ArraySchema(schema = @Schema(implementation = DeviceDTO.class))),
+                        @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = DeviceDTO.class))}),
+        @ApiResponse(responseCode = "400", description = "Invalid input data",
+                content = @Content)
     })
     @GetMapping
-    public ResponseEntity<List<DeviceDTO>> getAllDevices() {
-        log.info("Retrieving all devices");
-        List<Device> devices = deviceService.findAll();
-        return ResponseEntity.ok(deviceMapper.toDTOList(devices));
+    public ResponseEntity<StreamingResponseBody> getAllDevices(
+            @Parameter(description = "Filter by device types", array = @ArraySchema(schema = @Schema(implementation = DeviceType.class)))
+            @RequestParam(required = false) List<DeviceType> type,
+
+            @Parameter(description = "Filter by zone where devices are located", example = "Living Room")
+            @RequestParam(required = false) String zone,
+
+            @Parameter(description = "Filter by active flag, both are listed when missing", example = "true")
+            @RequestParam(required = false) Boolean active,
+
+            @Parameter(description = "ID of the last device already received", example = "665f1c2e8b3e4a1d2c9f0a11")
+            @RequestParam(required = false) String after,
+
+            @Parameter(description = "Maximum number of devices, a JSON page holds 1000 by default", example = "1000")
+            @RequestParam(required = false) Integer limit,
+
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        log.info("Retrieving devices with filters - Types: {}, Zone: {}, Active: {}, After: {}", type, zone, active, after);
+        if (acceptsNdjson(accept)) {
+            Stream<DeviceDTO> devices = listingService.stream(type, zone, active, after, limit).map(deviceMapper::toDTO);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .body(outputStream -> {
+                        try (devices) {
+                            deviceWriter.writeNdjson(devices.iterator(), outputStream);
+                        }
+                    });
+        }
+
+        DeviceListingService.DevicePage page = listingService.findPage(type, zone, active, after, limit);
+        List<DeviceDTO> devices = deviceMapper.toDTOList(page.devices());
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (page.nextAfterId() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", page.nextAfterId())
+                    .toUriString();
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(outputStream -> deviceWriter.writeJson(devices.iterator(), outputStream));
     }
 
     @Operation(summary = "Get device by ID", description = "Retrieves a specific device by its ID")
@@ -58,8 +120,7 @@ public class DeviceController {
             @PathVariable String id) {
         log.info("Retrieving device with id: {}", id);
         return deviceService.findById(id)
-                .map(deviceMapper::toDTO)
-                .map(ResponseEntity::ok)
+                .map(device -> ResponseEntity.ok().eTag(eTag(device)).body(deviceMapper.toDTO(device)))
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -69,6 +130,8 @@ public class DeviceController {
                 content = @Content(mediaType = "application/json", 
                 schema = @Schema(implementation = DeviceDTO.class))),
         @ApiResponse(responseCode = "400", description = "Invalid input data",
+                content = @Content),
+        @ApiResponse(responseCode = "409", description = "Serial number already used by another device",
                 content = @Content)
     })
     @PostMapping
@@ -88,6 +151,10 @@ public class DeviceController {
         @ApiResponse(responseCode = "404", description = "Device not found",
                 content = @Content),
         @ApiResponse(responseCode = "400", description = "Invalid input data",
+                content = @Content),
+        @ApiResponse(responseCode = "409", description = "Serial number already used by another device",
+                content = @Content),
+        @ApiResponse(responseCode = "412", description = "Device changed since the version in If-Match",
                 content = @Content)
     })
     @PutMapping("/{id}")
@@ -95,34 +162,114 @@ public class DeviceController {
             @Parameter(description = "ID of the device to update", required = true) 
             @PathVariable String id, 
             @Parameter(description = "Updated device data", required = true) 
-            @RequestBody DeviceDTO deviceDTO) {
-        try {
-            Device updatedDevice = deviceService.update(deviceDTO);
-            return ResponseEntity.ok(deviceMapper.toDTO(updatedDevice));
-        } catch (RuntimeException e) {
-            log.error("Error updating device: {}", e.getMessage());
-            return ResponseEntity.notFound().build();
-        }
+            @RequestBody DeviceDTO deviceDTO,
+            @Parameter(description = "ETag of the device the update is based on", example = "\"3\"")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Device updatedDevice = deviceService.update(deviceDTO, expectedVersion(ifMatch));
+        return ResponseEntity.ok().eTag(eTag(updatedDevice)).body(deviceMapper.toDTO(updatedDevice));
+    }
+
+    @Operation(summary = "Patch a device", description = "Changes only the attributes present in the body, in one atomic write")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Device successfully updated",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = DeviceDTO.class))),
+        @ApiResponse(responseCode = "404", description = "Device not found",
+                content = @Content),
+        @ApiResponse(responseCode = "409", description = "Serial number already used by another device",
+                content = @Content),
+        @ApiResponse(responseCode = "412", description = "Device changed since the version in If-Match",
+                content = @Content)
+    })
+    @PatchMapping(value = "/{id}", consumes = {MediaType.APPLICATION_JSON_VALUE, MERGE_PATCH_JSON_VALUE})
+    public ResponseEntity<DeviceDTO> patchDevice(
+            @Parameter(description = "ID of the device to patch", required = true)
+            @PathVariable String id,
+            @Parameter(description = "Attributes to change", required = true)
+            @RequestBody DevicePatchRequest patch,
+            @Parameter(description = "ETag of the device the patch is based on", example = "\"3\"")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Device patchedDevice = deviceService.patch(id, patch, expectedVersion(ifMatch));
+        return ResponseEntity.ok().eTag(eTag(patchedDevice)).body(deviceMapper.toDTO(patchedDevice));
     }
 
     @Operation(summary = "Delete a device", description = "Deletes an IoT device by its ID")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "204", description = "Device successfully deleted",
                 content = @Content),
-        @ApiResponse(responseCode = "404", description = "Device not found",
+        @ApiResponse(responseCode = "412", description = "Device changed since the version in If-Match",
                 content = @Content)
     })
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteDevice(
             @Parameter(description = "ID of the device to delete", required = true) 
-            @PathVariable String id) {
+            @PathVariable String id,
+            @Parameter(description = "ETag of the device the delete is based on", example = "\"3\"")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         log.info("Deleting device with id: {}", id);
+        deviceService.delete(id, expectedVersion(ifMatch));
+        return ResponseEntity.noContent().build();
+    }
+
+    @Operation(summary = "Issue an API key", description = "Issues a new API key that can submit readings for the device")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "201", description = "API key issued, the key is not retrievable afterwards",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ApiKeyResponse.class))),
+        @ApiResponse(responseCode = "404", description = "Device not found",
+                content = @Content)
+    })
+    @PostMapping("/{id}/api-keys")
+    public ResponseEntity<ApiKeyResponse> issueApiKey(
+            @Parameter(description = "ID of the device the key is bound to", required = true)
+            @PathVariable String id) {
+        log.info("Issuing API key for device with id: {}", id);
+        return ResponseEntity.status(HttpStatus.CREATED).body(credentialService.issue(id));
+    }
+
+    @Operation(summary = "Revoke an API key", description = "Revokes an API key bound to the device")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "204", description = "API key revoked",
+                content = @Content),
+        @ApiResponse(responseCode = "404", description = "API key not found",
+                content = @Content)
+    })
+    @DeleteMapping("/{id}/api-keys/{keyId}")
+    public ResponseEntity<Void> revokeApiKey(
+            @Parameter(description = "ID of the device the key is bound to", required = true)
+            @PathVariable String id,
+            @Parameter(description = "ID of the key to revoke", required = true)
+            @PathVariable String keyId) {
+        log.info("Revoking API key {} for device with id: {}", keyId, id);
+        credentialService.revoke(id, keyId);
+        return ResponseEntity.noContent().build();
+    }
+
+    private static String eTag(Device device) {
+        return "\"" + device.getVersion() + "\"";
+    }
+
+    // If-Match compares strong tags, so a weak or malformed one matches no version. Without it or with * any version is changed
+    private static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        Matcher matcher = VERSION_TAG.matcher(ifMatch.trim());
+        if (!matcher.matches()) {
+            throw new PreconditionFailedException("If-Match does not name a version of the device: " + ifMatch);
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    // JSON unless NDJSON is asked for explicitly, browsers and curl accept anything
+    private static boolean acceptsNdjson(String accept) {
+        if (accept == null) {
+            return false;
+        }
         try {
-            deviceService.delete(id);
-            return ResponseEntity.noContent().build();
-        } catch (Exception e) {
-            log.error("Error deleting device: {}", e.getMessage());
-            return ResponseEntity.notFound().build();
+            return MediaType.parseMediaTypes(accept).stream().anyMatch(MediaType.APPLICATION_NDJSON::equalsTypeAndSubtype);
+        } catch (InvalidMediaTypeException e) {
+            return false;
         }
     }
 }
@@ -0,0 +1,94 @@
+package com.supermetrics.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import com.supermetrics.dto.DeviceImportResponse;
+import com.supermetrics.exception.BadRequestException;
+import com.supermetrics.mapper.DeviceImportMapper;
+import com.supermetrics.mapper.ExportFormat;
+import com.supermetrics.model.DeviceImport;
+import com.supermetrics.service.DeviceImportService;
+
+import java.io.InputStream;
+
+@Slf4j
+@RestController
+@RequestMapping("/devices/imports")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('USER')")
+@Tag(name = "Device Import Controller", description = "API endpoints for registering devices in bulk")
+public class DeviceImportController {
+
+    private final DeviceImportService importService;
+    private final DeviceImportMapper importMapper;
+
+    @Operation(summary = "Import devices",
+            description = "Uploads devices as CSV with a header line or as newline delimited JSON, one device per line. "
+                    + "Devices are created or updated by serial number in the background")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "Import accepted, its progress is available at the Location header",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = DeviceImportResponse.class))),
+        @ApiResponse(responseCode = "415", description = "Body is neither CSV nor NDJSON",
+                content = @Content)
+    })
+    @PostMapping(consumes = {ExportFormat.CSV_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<DeviceImportResponse> importDevices(
+            @Parameter(description = "Format of the uploaded devices", required = true)
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            InputStream body) {
+        ExportFormat format = ExportFormat.fromContentType(MediaType.parseMediaType(contentType))
+                .orElseThrow(() -> new BadRequestException("Unsupported content type: " + contentType));
+        DeviceImport deviceImport = importService.start(body, format);
+        log.info("Started device import {}", deviceImport.getId());
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(deviceImport.getId()).toUri())
+                .body(importMapper.toResponse(deviceImport));
+    }
+
+    @Operation(summary = "Get import progress", description = "Reports the progress of a device import and its failed rows")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Successfully retrieved the import",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = DeviceImportResponse.class))),
+        @ApiResponse(responseCode = "404", description = "Import not found",
+                content = @Content)
+    })
+    @GetMapping("/{id}")
+    public ResponseEntity<DeviceImportResponse> getImport(
+            @Parameter(description = "ID of the import", required = true)
+            @PathVariable String id) {
+        return ResponseEntity.ok(importMapper.toResponse(importService.find(id)));
+    }
+
+    @Operation(summary = "Resume a failed import", description = "Continues a failed import after the last batch it wrote")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "Import resumed, or still running",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = DeviceImportResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Import already completed",
+                content = @Content),
+        @ApiResponse(responseCode = "404", description = "Import not found",
+                content = @Content)
+    })
+    @PostMapping("/{id}/resume")
+    public ResponseEntity<DeviceImportResponse> resumeImport(
+            @Parameter(description = "ID of the import", required = true)
+            @PathVariable String id) {
+        log.info("Resuming device import {}", id);
+        return ResponseEntity.accepted().body(importMapper.toResponse(importService.resume(id)));
+    }
+}
@@ -1,5 +1,9 @@
 package com.supermetrics.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
@@ -11,18 +15,36 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import com.supermetrics.dto.AppleHeartReadingRequest;
+import com.supermetrics.dto.BatchReadingResponse;
+import com.supermetrics.dto.LatestReadingResponse;
+import com.supermetrics.dto.RawReadingResponse;
 import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.dto.ReadingSeriesPoint;
+import com.supermetrics.mapper.ExportFormat;
+import com.supermetrics.mapper.PayloadFormat;
+import com.supermetrics.mapper.RawReadingWriter;
 import com.supermetrics.mapper.ReadingRequestMapper;
 import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.DeviceType;
 import com.supermetrics.dto.ReadingAggregationResponse;
+import com.supermetrics.service.ReadingExportService;
+import com.supermetrics.service.ReadingRollupRepair;
 import com.supermetrics.service.ReadingService;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Slf4j
 @RestController
@@ -33,8 +55,13 @@ public class ReadingController {
 
     private final ReadingService readingService;
     private final ReadingRequestMapper requestMapper;
+    private final ObjectMapper objectMapper;
+    private final ReadingExportService exportService;
+    private final RawReadingWriter rawReadingWriter;
+    private final ReadingRollupRepair rollupRepair;
 
-    @Operation(summary = "Aggregate readings", description = "Retrieves aggregated readings based on various filters")
+    @Operation(summary = "Aggregate readings",
+            description = "Retrieves aggregated readings based on various filters, as JSON, CBOR or Smile depending on the Accept header")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Successfully retrieved aggregated readings",
                 content = @Content(mediaType = "application/json",
@@ -62,7 +89,202 @@ public class ReadingController {
         return readingService.findByDeviceCategoryWithAggregation(category, deviceIds, zone, startTime, endTime);
     }
 
-    @Operation(summary = "Save device reading", description = "Saves a new reading from an IoT device")
+    @Operation(summary = "Readings as a time series",
+            description = "Aggregates readings per device into buckets of the given interval, streamed as a JSON array sorted by device and time")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Successfully retrieved the series",
+                content = @Content(mediaType = "application/json",
+                array = @ArraySchema(schema = @Schema(implementation = ReadingSeriesPoint.class)))),
+        @ApiResponse(responseCode = "400", description = "Invalid input data")
+    })
+    @GetMapping("/series")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<StreamingResponseBody> series(
+            @Parameter(description = "Filter by device category", schema = @Schema(implementation = DeviceCategory.class))
+            @RequestParam(required = false) DeviceCategory category,
+
+            @Parameter(description = "Filter by specific device IDs", example = "device-123 (Use multiple times this parameter)", array = @ArraySchema(schema = @Schema(type = "string")))
+            @RequestParam(required = false) List<String> deviceIds,
+
+            @Parameter(description = "Filter by zone where devices are located", example = "Bedroom")
+            @RequestParam(required = false) String zone,
+
+            @Parameter(description = "Bucket size", example = "1h", schema = @Schema(type = "string", allowableValues = {"1m", "5m", "1h", "1d"}))
+            @RequestParam String interval,
+
+            @Parameter(description = "Start time for the reading", required = true, example = "2024-01-01T00:00:00", schema = @Schema(type = "string", format = "date-time"))
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+
+            @Parameter(description = "End time for the reading", required = true, example = "2024-01-02T23:59:59", schema = @Schema(type = "string", format = "date-time"))
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+
+            @Parameter(description = "Add empty buckets, with a count of 0, where a device has no readings")
+            @RequestParam(defaultValue = "false") boolean fill) {
+
+        Stream<ReadingSeriesPoint> points = readingService.streamSeries(category, deviceIds, zone, interval, startTime, endTime, fill);
+        // Points are flushed by the generator as its buffer fills, not one by one
+        ObjectWriter pointWriter = objectMapper.writerFor(ReadingSeriesPoint.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = outputStream -> {
+            try (points; JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                for (Iterator<ReadingSeriesPoint> iterator = points.iterator(); iterator.hasNext(); ) {
+                    pointWriter.writeValue(generator, iterator.next());
+                }
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    @Operation(summary = "Raw readings",
+            description = "Streams one page of stored readings sorted by device and time, as newline delimited JSON or CSV depending on the Accept header. "
+                    + "The next page starts after the device and timestamp of the last reading")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Successfully retrieved readings",
+                content = {@Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = RawReadingResponse.class)),
+                        @Content(mediaType = ExportFormat.CSV_VALUE)}),
+        @ApiResponse(responseCode = "400", description = "Invalid input data")
+    })
+    @GetMapping("/raw")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<StreamingResponseBody> raw(
+            @Parameter(description = "Filter by device category", schema = @Schema(implementation = DeviceCategory.class))
+            @RequestParam(required = false) DeviceCategory category,
+
+            @Parameter(description = "Filter by specific device IDs", example = "device-123 (Use multiple times this parameter)", array = @ArraySchema(schema = @Schema(type = "string")))
+            @RequestParam(required = false) List<String> deviceIds,
+
+            @Parameter(description = "Filter by zone where devices are located", example = "Bedroom")
+            @RequestParam(required = false) String zone,
+
+            @Parameter(description = "Start time for the reading", required = true, example = "2024-01-01T00:00:00", schema = @Schema(type = "string", format = "date-time"))
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+
+            @Parameter(description = "End time for the reading", required = true, example = "2024-01-02T23:59:59", schema = @Schema(type = "string", format = "date-time"))
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+
+            @Parameter(description = "Device of the last reading already received", example = "device-123456")
+            @RequestParam(required = false) String afterDeviceId,
+
+            @Parameter(description = "Timestamp of the last reading already received", example = "2024-01-01T12:00:00", schema = @Schema(type = "string", format = "date-time"))
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime afterTimestamp,
+
+            @Parameter(description = "Maximum number of readings in the page", example = "1000")
+            @RequestParam(required = false) Integer limit,
+
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+
+        ExportFormat format = ExportFormat.fromAccept(accept);
+        Stream<RawReadingResponse> readings = exportService.streamPage(category, deviceIds, zone, startTime, endTime,
+                afterDeviceId, afterTimestamp, limit);
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .body(rawReadingsBody(readings, format));
+    }
+
+    @Operation(summary = "Export raw readings",
+            description = "Streams every stored reading of the range sorted by device and time as a download, in newline delimited JSON or CSV "
+                    + "depending on the Accept header. An interrupted download is resumed after the device and timestamp of the last reading received")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Successfully exported readings",
+                content = {@Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = RawReadingResponse.class)),
+                        @Content(mediaType = ExportFormat.CSV_VALUE)}),
+        @ApiResponse(responseCode = "400", description = "Invalid input data")
+    })
+    @GetMapping("/raw/export")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<StreamingResponseBody> export(
+            @Parameter(description = "Filter by device category", schema = @Schema(implementation = DeviceCategory.class))
+            @RequestParam(required = false) DeviceCategory category,
+
+            @Parameter(description = "Filter by specific device IDs", example = "device-123 (Use multiple times this parameter)", array = @ArraySchema(schema = @Schema(type = "string")))
+            @RequestParam(required = false) List<String> deviceIds,
+
+            @Parameter(description = "Filter by zone where devices are located", example = "Bedroom")
+            @RequestParam(required = false) String zone,
+
+            @Parameter(description = "Start time for the reading", required = true, example = "2024-01-01T00:00:00", schema = @Schema(type = "string", format = "date-time"))
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+
+            @Parameter(description = "End time for the reading", required = true, example = "2024-01-02T23:59:59", schema = @Schema(type = "string", format = "date-time"))
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+
+            @Parameter(description = "Device of the last reading already received", example = "device-123456")
+            @RequestParam(required = false) String afterDeviceId,
+
+            @Parameter(description = "Timestamp of the last reading already received", example = "2024-01-01T12:00:00", schema = @Schema(type = "string", format = "date-time"))
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime afterTimestamp,
+
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+
+        ExportFormat format = ExportFormat.fromAccept(accept);
+        Stream<RawReadingResponse> readings = exportService.streamExport(category, deviceIds, zone, startTime, endTime,
+                afterDeviceId, afterTimestamp);
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename("readings." + format.getExtension())
+                        .build()
+                        .toString())
+                .body(rawReadingsBody(readings, format));
+    }
+
+    @Operation(summary = "Aggregate recent readings",
+            description = "Aggregates the readings of the last window, e.g. PT5M. Configured windows are answered from memory, others from the database")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Successfully retrieved aggregated readings",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = ReadingAggregationResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid input data")
+    })
+    @GetMapping("/recent")
+    @PreAuthorize("hasRole('USER')")
+    public List<ReadingAggregationResponse> aggregateRecent(
+            @Parameter(description = "Filter by device category", schema = @Schema(implementation = DeviceCategory.class))
+            @RequestParam(required = false) DeviceCategory category,
+
+            @Parameter(description = "Filter by specific device IDs", example = "device-123 (Use multiple times this parameter)", array = @ArraySchema(schema = @Schema(type = "string")))
+            @RequestParam(required = false) List<String> deviceIds,
+
+            @Parameter(description = "Filter by zone where devices are located", example = "Bedroom")
+            @RequestParam(required = false) String zone,
+
+            @Parameter(description = "Length of the window ending now, as an ISO-8601 duration", example = "PT5M", schema = @Schema(type = "string"))
+            @RequestParam(defaultValue = "PT5M") Duration window) {
+
+        return readingService.findRecentWithAggregation(category, deviceIds, zone, window);
+    }
+
+    @Operation(summary = "Latest reading of every device",
+            description = "Returns the current value of every matching active device from memory, with how old it is")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Successfully retrieved latest readings",
+                content = @Content(mediaType = "application/json",
+                array = @ArraySchema(schema = @Schema(implementation = LatestReadingResponse.class)))),
+        @ApiResponse(responseCode = "400", description = "Invalid input data")
+    })
+    @GetMapping("/latest")
+    @PreAuthorize("hasRole('USER')")
+    public List<LatestReadingResponse> latest(
+            @Parameter(description = "Filter by device category", schema = @Schema(implementation = DeviceCategory.class))
+            @RequestParam(required = false) DeviceCategory category,
+
+            @Parameter(description = "Filter by device types", array = @ArraySchema(schema = @Schema(implementation = DeviceType.class)))
+            @RequestParam(required = false) List<DeviceType> types,
+
+            @Parameter(description = "Filter by specific device IDs", example = "device-123 (Use multiple times this parameter)", array = @ArraySchema(schema = @Schema(type = "string")))
+            @RequestParam(required = false) List<String> deviceIds,
+
+            @Parameter(description = "Filter by zone where devices are located", example = "Bedroom")
+            @RequestParam(required = false) String zone) {
+
+        return readingService.findLatest(category, types, deviceIds, zone);
+    }
+
+    @Operation(summary = "Save device reading", description = "Saves a new reading from an IoT device, encoded as JSON, CBOR or Smile")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Reading successfully saved"),
         @ApiResponse(responseCode = "400", description = "Invalid input data")
@@ -72,10 +294,69 @@ public class ReadingController {
     public void save(
             @Parameter(description = "Reading data from device, this is an open endpoint, your device must be mapped in our API like the following example.",
                     required = true, schema = @Schema(implementation = AppleHeartReadingRequest.class))
-            @RequestBody Map<String, Object> request) {
-        log.info("Received sensor data request: {}", request);
-        ReadingRequest readingRequest = requestMapper.mapToReadingRequest(request);
+            @RequestBody byte[] request,
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType) {
+        ReadingRequest readingRequest = requestMapper.readReadingRequest(request, PayloadFormat.fromContentType(contentType));
+        log.debug("Received sensor data request: {}", readingRequest);
         readingService.saveReading(readingRequest);
     }
 
+    @Operation(summary = "Save a batch of device readings",
+            description = "Saves an array of readings (JSON, CBOR or Smile) from any mapped device, reporting the outcome of every reading by its index")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Batch processed",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = BatchReadingResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid input data")
+    })
+    @PreAuthorize("hasRole('DEVICE')")
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, PayloadFormat.SMILE_VALUE})
+    public BatchReadingResponse saveBatch(
+            @Parameter(description = "Readings from devices, each one must be mapped in our API like the single reading endpoint.",
+                    required = true, array = @ArraySchema(schema = @Schema(implementation = AppleHeartReadingRequest.class)))
+            @RequestBody byte[] requests,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType) {
+        List<Supplier<ReadingRequest>> readingRequests = requestMapper.readReadingRequests(requests, PayloadFormat.fromContentType(contentType));
+        log.info("Received batch of {} sensor data requests", readingRequests.size());
+        return readingService.saveReadings(readingRequests);
+    }
+
+    @Operation(summary = "Save a stream of device readings",
+            description = "Saves newline delimited JSON readings from any mapped device, reporting the outcome of every line by its index")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Batch processed",
+                content = @Content(mediaType = "application/json",
+                schema = @Schema(implementation = BatchReadingResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid input data")
+    })
+    @PreAuthorize("hasRole('DEVICE')")
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BatchReadingResponse saveBatchStream(
+            @Parameter(description = "One reading per line, each one must be mapped in our API like the single reading endpoint.", required = true)
+            @RequestBody byte[] requests) {
+        List<Supplier<ReadingRequest>> readingRequests = requestMapper.readReadingRequestLines(requests);
+        log.info("Received stream of {} sensor data requests", readingRequests.size());
+        return readingService.saveReadings(readingRequests);
+    }
+
+    @Operation(summary = "Rebuild the reading rollups",
+            description = "Recomputes the minute, hour and day rollups of every device and day from the readings in the background")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "Rebuild started")
+    })
+    @PreAuthorize("hasRole('USER')")
+    @PostMapping("/rollups/rebuild")
+    public ResponseEntity<Void> rebuildRollups() {
+        log.info("Rebuilding reading rollups");
+        rollupRepair.rebuild();
+        return ResponseEntity.accepted().build();
+    }
+
+    private StreamingResponseBody rawReadingsBody(Stream<RawReadingResponse> readings, ExportFormat format) {
+        return outputStream -> {
+            try (readings) {
+                rawReadingWriter.write(readings.iterator(), outputStream, format);
+            }
+        };
+    }
 }
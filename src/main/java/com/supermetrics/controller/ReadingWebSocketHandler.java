@@ -0,0 +1,212 @@
+package com.supermetrics.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import com.supermetrics.config.WebSocketIngestionProperties;
+import com.supermetrics.dto.BatchReadingItemResult;
+import com.supermetrics.dto.BatchReadingResponse;
+import com.supermetrics.dto.ReadingAck;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.mapper.ReadingRequestMapper;
+import com.supermetrics.service.ReadingService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+
+@Slf4j
+@Component
+public class ReadingWebSocketHandler extends AbstractWebSocketHandler {
+
+    private static final String CONNECTION_ATTRIBUTE = ReadingWebSocketHandler.class.getName() + ".connection";
+
+    private final ReadingService readingService;
+    private final ReadingRequestMapper readingRequestMapper;
+    private final ObjectMapper objectMapper;
+    private final WebSocketIngestionProperties properties;
+    private final ScheduledExecutorService flushScheduler;
+    private final ExecutorService flushWorkers;
+
+    public ReadingWebSocketHandler(ReadingService readingService, ReadingRequestMapper readingRequestMapper,
+                                   ObjectMapper objectMapper, WebSocketIngestionProperties properties) {
+        this.readingService = readingService;
+        this.readingRequestMapper = readingRequestMapper;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        // The timer thread is shared by every connection, so it only hands due flushes to the workers that write them
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("reading-ws-timer-"));
+        this.flushWorkers = new ThreadPoolExecutor(properties.getFlushWorkers(), properties.getFlushWorkers(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getFlushQueueCapacity()), new CustomizableThreadFactory("reading-ws-flush-"));
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+        // The handshake went through the security filter chain, so the connection is authenticated once, here
+        if (!(session.getPrincipal() instanceof Authentication authentication)) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Not authenticated"));
+            return;
+        }
+
+        Connection connection = new Connection(new ConcurrentWebSocketSessionDecorator(session,
+                (int) properties.getSendTimeLimit().toMillis(), properties.getSendBufferSize()), authentication);
+        long interval = properties.getFlushInterval().toMillis();
+        connection.flushTask = flushScheduler.scheduleWithFixedDelay(connection::requestFlush, interval, interval, TimeUnit.MILLISECONDS);
+        session.getAttributes().put(CONNECTION_ATTRIBUTE, connection);
+        log.debug("Opened reading stream {} for {}", session.getId(), authentication.getName());
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        receive(session, message.asBytes());
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws IOException {
+        ByteBuffer payload = message.getPayload();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        receive(session, bytes);
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.warn("Transport error on reading stream {}: {}", session.getId(), exception.getMessage());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = (Connection) session.getAttributes().remove(CONNECTION_ATTRIBUTE);
+        if (connection != null) {
+            connection.flushTask.cancel(false);
+            // Readings already received are still saved, they just cannot be acknowledged anymore
+            connection.flushQuietly();
+            log.debug("Closed reading stream {} with {} readings received", session.getId(), connection.nextSequence);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushScheduler.shutdownNow();
+        flushWorkers.shutdownNow();
+    }
+
+    private void receive(WebSocketSession session, byte[] payload) throws IOException {
+        Connection connection = (Connection) session.getAttributes().get(CONNECTION_ATTRIBUTE);
+        if (connection != null) {
+            // A frame may carry one reading or several newline delimited readings
+            connection.receive(readingRequestMapper.readReadingRequestLines(payload));
+        }
+    }
+
+    private final class Connection {
+
+        private final WebSocketSession session;
+        private final Authentication authentication;
+        private List<Supplier<ReadingRequest>> pending = new ArrayList<>();
+        private long nextSequence;
+        private ScheduledFuture<?> flushTask;
+        private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+        private Connection(WebSocketSession session, Authentication authentication) {
+            this.session = session;
+            this.authentication = authentication;
+        }
+
+        synchronized void receive(List<Supplier<ReadingRequest>> readings) throws IOException {
+            for (Supplier<ReadingRequest> reading : readings) {
+                pending.add(reading);
+                if (pending.size() >= properties.getBatchSize()) {
+                    flush();
+                }
+            }
+        }
+
+        // A connection has at most one timed flush waiting for a worker. When every worker is busy and the queue is
+        // full the flush is skipped, the next tick asks again and a full batch is still flushed by the reading thread
+        void requestFlush() {
+            if (!flushRequested.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                flushWorkers.execute(() -> {
+                    flushRequested.set(false);
+                    flushQuietly();
+                });
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false);
+                log.debug("Flush workers are saturated, delaying the flush of stream {}", session.getId());
+            }
+        }
+
+        void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to acknowledge readings on stream {}: {}", session.getId(), e.getMessage());
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            List<Supplier<ReadingRequest>> batch = pending;
+            pending = new ArrayList<>(properties.getBatchSize());
+            long firstSequence = nextSequence;
+            nextSequence += batch.size();
+
+            ReadingAck ack = save(firstSequence, batch);
+            if (session.isOpen()) {
+                session.sendMessage(new TextMessage(objectMapper.writeValueAsBytes(ack)));
+            }
+        }
+
+        private ReadingAck save(long firstSequence, List<Supplier<ReadingRequest>> batch) {
+            long lastSequence = firstSequence + batch.size() - 1;
+            SecurityContext context = SecurityContextHolder.createEmptyContext();
+            context.setAuthentication(authentication);
+            SecurityContextHolder.setContext(context);
+            try {
+                BatchReadingResponse response = readingService.saveReadings(batch);
+                List<ReadingAck.Rejected> rejected = response.results().stream()
+                        .filter(result -> result.status() == BatchReadingItemResult.Status.REJECTED)
+                        .map(result -> new ReadingAck.Rejected(firstSequence + result.index(), result.message()))
+                        .toList();
+                return new ReadingAck(firstSequence, lastSequence, response.saved(), rejected);
+            } catch (RuntimeException e) {
+                log.error("Failed to save {} readings from stream {}: {}", batch.size(), session.getId(), e.getMessage());
+                List<ReadingAck.Rejected> rejected = LongStream.rangeClosed(firstSequence, lastSequence)
+                        .mapToObj(sequence -> new ReadingAck.Rejected(sequence, e.getMessage()))
+                        .toList();
+                return new ReadingAck(firstSequence, lastSequence, 0, rejected);
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+        }
+    }
+}
@@ -1,21 +1,29 @@
 package com.supermetrics.controller;
 
+import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import com.supermetrics.dto.LoadTestReport;
+import com.supermetrics.dto.LoadTestRequest;
+import com.supermetrics.simulator.LoadGenerator;
 import com.supermetrics.simulator.ReadingsSimulator;
 
 @PreAuthorize("hasRole('USER')")
 @RestController
 @RequestMapping("/simulator")
 @RequiredArgsConstructor
-@Tag(name = "Simulator Controller", description = "API to turn on/off the simulator")
+@Tag(name = "Simulator Controller", description = "API to turn on/off the simulator and run load tests")
 public class SimulatorController {
 
     private final ReadingsSimulator readingsSimulator;
+    private final LoadGenerator loadGenerator;
 
     @PostMapping("/on")
     public String turnOn() {
@@ -29,4 +37,24 @@ public class SimulatorController {
         return "Simulator is OFF";
     }
 
+    @Operation(summary = "Start a load test",
+            description = "Registers virtual devices and sends their readings at a fixed rate for a while, in process or over HTTP")
+    @PostMapping("/load")
+    public ResponseEntity<LoadTestReport> startLoadTest(@RequestBody(required = false) LoadTestRequest request) {
+        LoadTestRequest loadTestRequest = request != null ? request : new LoadTestRequest(null, null, null, null, null);
+        return ResponseEntity.accepted().body(loadGenerator.start(loadTestRequest));
+    }
+
+    @Operation(summary = "Get load test results", description = "Reports throughput and latency percentiles of the last load test")
+    @GetMapping("/load")
+    public LoadTestReport getLoadTest() {
+        return loadGenerator.report();
+    }
+
+    @Operation(summary = "Stop the load test", description = "Stops sending readings, readings in flight are still counted")
+    @PostMapping("/load/stop")
+    public LoadTestReport stopLoadTest() {
+        return loadGenerator.stop();
+    }
+
 }
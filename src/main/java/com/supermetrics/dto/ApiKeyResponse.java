@@ -0,0 +1,18 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.Set;
+
+@Schema(description = "Newly issued device API key, the key is only returned once")
+public record ApiKeyResponse(
+        @Schema(description = "Public identifier of the key, used to revoke it", example = "k3v9q2m8x1r7t5w0")
+        String keyId,
+
+        @Schema(description = "Value to send in the X-API-Key header", example = "k3v9q2m8x1r7t5w0.Zq8pXW3s...")
+        String apiKey,
+
+        @Schema(description = "Devices the key may submit readings for")
+        Set<String> deviceIds
+) {
+}
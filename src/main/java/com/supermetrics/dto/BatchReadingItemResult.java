@@ -0,0 +1,34 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Outcome of a single reading inside a batch")
+public record BatchReadingItemResult(
+        @Schema(description = "Position of the reading in the submitted batch", example = "0")
+        int index,
+
+        @Schema(description = "Whether the reading was saved, already stored by an earlier request, or rejected", example = "SAVED")
+        Status status,
+
+        @Schema(description = "Reason the reading was rejected", example = "Device not found: apple-watch-123")
+        String message
+) {
+
+    public enum Status {
+        SAVED,
+        DUPLICATE,
+        REJECTED
+    }
+
+    public static BatchReadingItemResult saved(int index) {
+        return new BatchReadingItemResult(index, Status.SAVED, null);
+    }
+
+    public static BatchReadingItemResult duplicate(int index) {
+        return new BatchReadingItemResult(index, Status.DUPLICATE, null);
+    }
+
+    public static BatchReadingItemResult rejected(int index, String message) {
+        return new BatchReadingItemResult(index, Status.REJECTED, message);
+    }
+}
@@ -0,0 +1,24 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Response object for a batch of device readings")
+public record BatchReadingResponse(
+        @Schema(description = "Number of readings received in the batch", example = "100")
+        int received,
+
+        @Schema(description = "Number of readings saved", example = "98")
+        int saved,
+
+        @Schema(description = "Number of readings rejected", example = "2")
+        int rejected,
+
+        @Schema(description = "Number of readings skipped because the same device and timestamp were already stored", example = "0")
+        int duplicates,
+
+        @Schema(description = "Outcome of every reading, in submission order")
+        List<BatchReadingItemResult> results
+) {
+}
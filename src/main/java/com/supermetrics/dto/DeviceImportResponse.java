@@ -0,0 +1,44 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import com.supermetrics.model.enums.ImportStatus;
+
+import java.time.Instant;
+import java.util.List;
+
+@Schema(description = "Progress of a bulk device import")
+public record DeviceImportResponse(
+        @Schema(description = "Unique identifier of the import", example = "665f1c2e8b3e4a1d2c9f0a11")
+        String id,
+
+        @Schema(description = "State of the import", example = "RUNNING")
+        ImportStatus status,
+
+        @Schema(description = "Lines of the uploaded file, the CSV header included", example = "200001")
+        long totalLines,
+
+        @Schema(description = "Lines processed so far", example = "85000")
+        long linesRead,
+
+        @Schema(description = "Number of devices created", example = "84000")
+        long created,
+
+        @Schema(description = "Number of existing devices updated", example = "990")
+        long updated,
+
+        @Schema(description = "Number of rows that could not be imported", example = "10")
+        long failed,
+
+        @Schema(description = "First rows that could not be imported")
+        List<DeviceImportRowError> errors,
+
+        @Schema(description = "Why the import failed, when it did")
+        String error,
+
+        @Schema(description = "When the file was uploaded", example = "2024-01-01T12:00:00Z")
+        Instant createdAt,
+
+        @Schema(description = "When the import completed", example = "2024-01-01T12:03:00Z")
+        Instant finishedAt
+) {
+}
@@ -0,0 +1,13 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Row of a device import that could not be imported")
+public record DeviceImportRowError(
+        @Schema(description = "Line of the uploaded file, starting at 1", example = "42")
+        long line,
+
+        @Schema(description = "Why the row was not imported", example = "serialNumber is required")
+        String message
+) {
+}
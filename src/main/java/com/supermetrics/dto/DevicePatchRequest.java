@@ -0,0 +1,26 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import com.supermetrics.model.enums.DeviceType;
+
+@Schema(description = "Partial device update, fields that are left out or null keep their value")
+public record DevicePatchRequest(
+        @Schema(description = "Name of the device", example = "Smart Thermostat")
+        String name,
+
+        @Schema(description = "Brand of the device", example = "SuperMetrics")
+        String brand,
+
+        @Schema(description = "Serial number of the device", example = "SN-0012345678")
+        String serialNumber,
+
+        @Schema(description = "Type of the device", example = "TEMPERATURE_SENSOR")
+        DeviceType type,
+
+        @Schema(description = "Zone where the device is located", example = "Living Room")
+        String zone,
+
+        @Schema(description = "Indicates whether the device is active", example = "true")
+        Boolean active
+) {
+}
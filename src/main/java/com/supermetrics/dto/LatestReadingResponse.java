@@ -0,0 +1,27 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.LocalDateTime;
+
+@Schema(description = "Most recent reading of a device")
+public record LatestReadingResponse(
+        @Schema(description = "Unique identifier of the device", example = "device-123456")
+        String deviceId,
+
+        @Schema(description = "Name of the device", example = "Living Room Thermostat")
+        String deviceName,
+
+        @Schema(description = "Value of the latest reading", example = "22.5")
+        double value,
+
+        @Schema(description = "Unit of the value", example = "celsius")
+        String unit,
+
+        @Schema(description = "When the latest reading was taken", example = "2024-01-01T12:00:00")
+        LocalDateTime timestamp,
+
+        @Schema(description = "Milliseconds between the latest reading and the time of the request", example = "1500")
+        long stalenessMillis
+) {
+}
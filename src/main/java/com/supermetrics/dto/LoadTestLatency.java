@@ -0,0 +1,28 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Latency of the answered readings in milliseconds, measured from when each reading was due")
+public record LoadTestLatency(
+        @Schema(description = "Number of answered readings", example = "600000")
+        long count,
+
+        @Schema(description = "Mean latency", example = "1.8")
+        double mean,
+
+        @Schema(description = "Median latency", example = "1.2")
+        double p50,
+
+        @Schema(description = "90th percentile", example = "3.1")
+        double p90,
+
+        @Schema(description = "99th percentile", example = "9.7")
+        double p99,
+
+        @Schema(description = "99.9th percentile", example = "24.5")
+        double p999,
+
+        @Schema(description = "Highest latency", example = "61.4")
+        double max
+) {
+}
@@ -0,0 +1,60 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import com.supermetrics.model.enums.LoadTarget;
+import com.supermetrics.model.enums.LoadTestStatus;
+
+import java.time.Instant;
+import java.util.Map;
+
+@Schema(description = "Progress and results of a load test")
+public record LoadTestReport(
+        @Schema(description = "State of the load test", example = "RUNNING")
+        LoadTestStatus status,
+
+        @Schema(description = "Where readings are sent", example = "IN_PROCESS")
+        LoadTarget target,
+
+        @Schema(description = "Number of virtual devices", example = "100000")
+        int devices,
+
+        @Schema(description = "Readings per second of every device, rounded to a whole number of timer wheel ticks", example = "0.5")
+        double readingsPerSecond,
+
+        @Schema(description = "Readings per second all devices are meant to send", example = "50000")
+        double targetThroughput,
+
+        @Schema(description = "Readings per second accepted by the target since the first one was sent", example = "49850.2")
+        double achievedThroughput,
+
+        @Schema(description = "Number of readings sent", example = "600000")
+        long sent,
+
+        @Schema(description = "Number of readings accepted", example = "599000")
+        long succeeded,
+
+        @Schema(description = "Number of readings rejected or failed", example = "1000")
+        long failed,
+
+        @Schema(description = "Number of readings not sent because too many were waiting for an answer", example = "0")
+        long dropped,
+
+        @Schema(description = "Number of readings waiting for an answer", example = "12")
+        long inFlight,
+
+        @Schema(description = "Failed readings by reason", example = "{\"TooManyRequestsException\": 1000}")
+        Map<String, Long> failures,
+
+        @Schema(description = "Latency of the answered readings")
+        LoadTestLatency latency,
+
+        @Schema(description = "When the first reading was sent", example = "2024-01-01T12:00:00Z")
+        Instant startedAt,
+
+        @Schema(description = "When the last reading was sent", example = "2024-01-01T12:05:00Z")
+        Instant finishedAt,
+
+        @Schema(description = "Why the load test failed, when it did")
+        String error
+) {
+}
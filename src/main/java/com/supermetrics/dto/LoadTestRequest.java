@@ -0,0 +1,28 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import com.supermetrics.model.enums.LoadTarget;
+
+import java.time.Duration;
+import java.util.Map;
+
+@Schema(description = "Parameters of a load test, the ones left out are taken from the simulator.load settings")
+public record LoadTestRequest(
+        @Schema(description = "Number of virtual devices sending readings", example = "100000")
+        Integer devices,
+
+        @Schema(description = "Readings sent per second by every device", example = "0.5")
+        Double readingsPerSecond,
+
+        @Schema(description = "Relative share of devices per brand, every brand gets the same share when missing",
+                example = "{\"Apple\": 3, \"Nest\": 1}")
+        Map<String, Integer> brandMix,
+
+        @Schema(description = "How long readings are sent", example = "PT5M", type = "string")
+        Duration duration,
+
+        @Schema(description = "Whether readings are passed to the reading service in process or posted to the HTTP endpoint",
+                example = "IN_PROCESS")
+        LoadTarget target
+) {
+}
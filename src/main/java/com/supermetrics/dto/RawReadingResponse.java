@@ -0,0 +1,21 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.LocalDateTime;
+
+@Schema(description = "A stored reading without its vendor payload")
+public record RawReadingResponse(
+        @Schema(description = "Unique identifier of the device", example = "device-123456")
+        String deviceId,
+
+        @Schema(description = "When the reading was taken", example = "2024-01-01T12:00:00")
+        LocalDateTime timestamp,
+
+        @Schema(description = "Value of the reading", example = "22.5")
+        double value,
+
+        @Schema(description = "Unit of the value", example = "celsius")
+        String unit
+) {
+}
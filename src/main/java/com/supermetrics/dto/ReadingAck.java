@@ -0,0 +1,24 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Acknowledgement of a range of readings received over a WebSocket connection")
+public record ReadingAck(
+        @Schema(description = "Sequence number of the first acknowledged reading, counted from 0 per connection", example = "0")
+        long firstSequence,
+
+        @Schema(description = "Sequence number of the last acknowledged reading", example = "199")
+        long lastSequence,
+
+        @Schema(description = "Number of readings saved in the range", example = "199")
+        int saved,
+
+        @Schema(description = "Readings of the range that were not saved, every other reading was")
+        List<Rejected> rejected
+) {
+
+    public record Rejected(long sequence, String message) {
+    }
+}
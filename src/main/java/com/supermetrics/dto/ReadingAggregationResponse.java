@@ -27,4 +27,13 @@ public class ReadingAggregationResponse {
 
     @Schema(description = "Total count of readings", example = "24")
     private Long count;
+
+    @Schema(description = "Median value of readings, estimated within 1%", example = "22.4")
+    private Double p50Value;
+
+    @Schema(description = "95th percentile of reading values, estimated within 1%", example = "24.6")
+    private Double p95Value;
+
+    @Schema(description = "99th percentile of reading values, estimated within 1%", example = "24.9")
+    private Double p99Value;
 }
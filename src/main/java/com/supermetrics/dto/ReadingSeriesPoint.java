@@ -0,0 +1,31 @@
+package com.supermetrics.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.LocalDateTime;
+
+@Schema(description = "Aggregated readings of one device in one time bucket")
+public record ReadingSeriesPoint(
+        @Schema(description = "Unique identifier of the device", example = "device-123456")
+        String deviceId,
+
+        @Schema(description = "Start of the bucket", example = "2024-01-01T12:00:00")
+        LocalDateTime timestamp,
+
+        @Schema(description = "Average value of readings, missing for a filled gap", example = "22.5")
+        Double avgValue,
+
+        @Schema(description = "Maximum value of readings, missing for a filled gap", example = "25.0")
+        Double maxValue,
+
+        @Schema(description = "Minimum value of readings, missing for a filled gap", example = "20.0")
+        Double minValue,
+
+        @Schema(description = "Count of readings in the bucket", example = "60")
+        long count
+) {
+
+    public static ReadingSeriesPoint empty(String deviceId, LocalDateTime timestamp) {
+        return new ReadingSeriesPoint(deviceId, timestamp, null, null, null, 0);
+    }
+}
@@ -0,0 +1,408 @@
+package com.supermetrics.listener;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.LineProtocolProperties;
+import com.supermetrics.dto.BatchReadingResponse;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.exception.TechnicalException;
+import com.supermetrics.mapper.LineProtocolMapper;
+import com.supermetrics.security.ApiKeyAuthenticationToken;
+import com.supermetrics.security.DevicePrincipal;
+import com.supermetrics.service.DeviceCredentialService;
+import com.supermetrics.service.ReadingService;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@Slf4j
+@Component
+public class LineProtocolListener implements SmartLifecycle {
+
+    private static final String AUTH_COMMAND = "AUTH ";
+    private static final byte[] OK = "OK\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_DATAGRAM_SIZE = 65_507;
+    private static final long SELECT_TIMEOUT_MILLIS = 500;
+
+    private final LineProtocolProperties properties;
+    private final LineProtocolMapper lineProtocolMapper;
+    private final ReadingService readingService;
+    private final DeviceCredentialService credentialService;
+    private final BlockingQueue<PendingReading> pending;
+
+    private final Counter receivedReadings;
+    private final Counter savedReadings;
+    private final Counter rejectedReadings;
+    private final Counter droppedReadings;
+
+    private Selector selector;
+    private ServerSocketChannel tcpChannel;
+    private DatagramChannel udpChannel;
+    private ExecutorService workers;
+    private volatile boolean running;
+
+    public LineProtocolListener(LineProtocolProperties properties, LineProtocolMapper lineProtocolMapper,
+                                ReadingService readingService, DeviceCredentialService credentialService,
+                                MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.lineProtocolMapper = lineProtocolMapper;
+        this.readingService = readingService;
+        this.credentialService = credentialService;
+        this.pending = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+
+        this.receivedReadings = Counter.builder("readings.line-protocol.received")
+                .description("Reading lines received over TCP and UDP")
+                .register(meterRegistry);
+        this.savedReadings = Counter.builder("readings.line-protocol.saved")
+                .description("Reading lines saved")
+                .register(meterRegistry);
+        this.rejectedReadings = Counter.builder("readings.line-protocol.rejected")
+                .description("Reading lines that were malformed, not permitted or could not be saved")
+                .register(meterRegistry);
+        this.droppedReadings = Counter.builder("readings.line-protocol.dropped")
+                .description("UDP reading lines dropped because the queue was full")
+                .register(meterRegistry);
+    }
+
+    public int getTcpPort() {
+        return tcpChannel.socket().getLocalPort();
+    }
+
+    public int getUdpPort() {
+        return udpChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        try {
+            selector = Selector.open();
+            tcpChannel = ServerSocketChannel.open();
+            tcpChannel.bind(new InetSocketAddress(properties.getHost(), properties.getTcpPort()));
+            tcpChannel.configureBlocking(false);
+            tcpChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            if (properties.isUdpEnabled()) {
+                udpChannel = DatagramChannel.open();
+                udpChannel.bind(new InetSocketAddress(properties.getHost(), properties.getUdpPort()));
+                udpChannel.configureBlocking(false);
+                udpChannel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(MAX_DATAGRAM_SIZE));
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw new TechnicalException("Failed to open line protocol listener", e);
+        }
+
+        log.info("Listening for line protocol readings on tcp/{}{}", getTcpPort(),
+                udpChannel != null ? " and udp/" + getUdpPort() : "");
+        running = true;
+        workers = Executors.newFixedThreadPool(2, new CustomizableThreadFactory("line-protocol-"));
+        workers.execute(this::listen);
+        workers.execute(this::write);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        log.info("Stopping line protocol listener, writing {} queued readings", pending.size());
+        running = false;
+        selector.wakeup();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(properties.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                log.error("Line protocol listener did not drain in time, {} readings were lost", pending.size());
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+        closeQuietly();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listen() {
+        while (running) {
+            try {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == udpChannel) {
+                        receiveDatagram((ByteBuffer) key.attachment());
+                    } else {
+                        readConnection(key);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Line protocol listener error: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = tcpChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(ByteBuffer.allocate(properties.getMaxLineLength())));
+        }
+    }
+
+    private void readConnection(SelectionKey key) throws InterruptedException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (channel.read(connection.buffer) < 0) {
+                close(key);
+                return;
+            }
+
+            ByteBuffer buffer = connection.buffer.flip();
+            int lineStart = 0;
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    if (!handleConnectionLine(channel, connection, decode(buffer, lineStart, i))) {
+                        close(key);
+                        return;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            buffer.position(lineStart).compact();
+
+            if (!connection.buffer.hasRemaining()) {
+                reply(channel, "ERR line exceeds " + properties.getMaxLineLength() + " bytes");
+                close(key);
+            }
+        } catch (IOException e) {
+            log.debug("Closing line protocol connection: {}", e.getMessage());
+            close(key);
+        }
+    }
+
+    private boolean handleConnectionLine(SocketChannel channel, Connection connection, String line) throws IOException, InterruptedException {
+        if (line.isEmpty()) {
+            return true;
+        }
+
+        if (line.startsWith(AUTH_COMMAND)) {
+            connection.principal = credentialService.authenticate(line.substring(AUTH_COMMAND.length()).trim()).orElse(null);
+            if (connection.principal == null) {
+                reply(channel, "ERR invalid API key");
+                return false;
+            }
+            channel.write(ByteBuffer.wrap(OK));
+            return true;
+        }
+
+        if (properties.isRequireAuth() && connection.principal == null) {
+            reply(channel, "ERR authentication required");
+            return false;
+        }
+
+        // Blocking here stops the listener from reading, which pushes back on every TCP sender until the writer catches up
+        receivedReadings.increment();
+        pending.put(new PendingReading(connection.principal, line));
+        return true;
+    }
+
+    private void receiveDatagram(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        if (udpChannel.receive(buffer) == null) {
+            return;
+        }
+        buffer.flip();
+
+        DevicePrincipal principal = null;
+        boolean firstLine = true;
+        int lineStart = 0;
+        for (int i = 0; i <= buffer.limit(); i++) {
+            if (i < buffer.limit() && buffer.get(i) != '\n') {
+                continue;
+            }
+
+            String line = decode(buffer, lineStart, i);
+            lineStart = i + 1;
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            if (firstLine && line.startsWith(AUTH_COMMAND)) {
+                principal = credentialService.authenticate(line.substring(AUTH_COMMAND.length()).trim()).orElse(null);
+                if (principal == null) {
+                    log.debug("Ignoring line protocol datagram with an invalid API key");
+                    return;
+                }
+            } else if (properties.isRequireAuth() && principal == null) {
+                log.debug("Ignoring unauthenticated line protocol datagram");
+                return;
+            } else {
+                receivedReadings.increment();
+                if (!pending.offer(new PendingReading(principal, line))) {
+                    droppedReadings.increment();
+                }
+            }
+            firstLine = false;
+        }
+    }
+
+    private void write() {
+        long flushIntervalNanos = properties.getFlushInterval().toNanos();
+
+        while (running || !pending.isEmpty()) {
+            try {
+                PendingReading first = pending.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<PendingReading> batch = new ArrayList<>(properties.getBatchSize());
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < properties.getBatchSize() && running) {
+                    pending.drainTo(batch, properties.getBatchSize() - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= properties.getBatchSize() || remaining <= 0) {
+                        break;
+                    }
+                    PendingReading next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                pending.drainTo(batch, properties.getBatchSize() - batch.size());
+
+                save(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Readings are saved per API key, so every key stays limited to the devices it was issued for
+    private void save(List<PendingReading> batch) {
+        Map<DevicePrincipal, List<Supplier<ReadingRequest>>> byPrincipal = new LinkedHashMap<>();
+        batch.forEach(reading -> byPrincipal.computeIfAbsent(reading.principal(), principal -> new ArrayList<>())
+                .add(() -> lineProtocolMapper.mapToReadingRequest(reading.line())));
+
+        byPrincipal.forEach((principal, readings) -> {
+            SecurityContext context = SecurityContextHolder.createEmptyContext();
+            if (principal != null) {
+                context.setAuthentication(new ApiKeyAuthenticationToken(principal));
+            }
+            SecurityContextHolder.setContext(context);
+            try {
+                BatchReadingResponse response = readingService.saveReadings(readings);
+                savedReadings.increment(response.saved());
+                rejectedReadings.increment(response.rejected());
+                if (response.rejected() > 0) {
+                    log.debug("Rejected {} of {} line protocol readings", response.rejected(), response.received());
+                }
+            } catch (RuntimeException e) {
+                rejectedReadings.increment(readings.size());
+                log.error("Failed to save {} line protocol readings: {}", readings.size(), e.getMessage());
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+        });
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        byte[] line = new byte[end - start];
+        buffer.get(start, line);
+        return new String(line, StandardCharsets.UTF_8).trim();
+    }
+
+    private static void reply(SocketChannel channel, String message) throws IOException {
+        channel.write(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("Failed to close line protocol connection: {}", e.getMessage());
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+            if (tcpChannel != null) {
+                tcpChannel.close();
+            }
+            if (udpChannel != null) {
+                udpChannel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close line protocol listener: {}", e.getMessage());
+        }
+    }
+
+    private record PendingReading(DevicePrincipal principal, String line) {
+    }
+
+    private static final class Connection {
+
+        private final ByteBuffer buffer;
+        private DevicePrincipal principal;
+
+        private Connection(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.supermetrics.mapper;
+
+import org.mapstruct.Mapper;
+import com.supermetrics.dto.DeviceImportResponse;
+import com.supermetrics.model.DeviceImport;
+
+@Mapper(componentModel = "spring")
+public interface DeviceImportMapper {
+
+    DeviceImportResponse toResponse(DeviceImport deviceImport);
+
+}
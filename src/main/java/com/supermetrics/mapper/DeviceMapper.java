@@ -1,6 +1,7 @@
 package com.supermetrics.mapper;
 
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 import com.supermetrics.dto.DeviceDTO;
 import com.supermetrics.model.Device;
 
@@ -11,6 +12,7 @@ public interface DeviceMapper {
 
     DeviceDTO toDTO(Device device);
 
+    @Mapping(target = "version", ignore = true)
     Device toEntity(DeviceDTO dto);
 
     List<DeviceDTO> toDTOList(List<Device> devices);
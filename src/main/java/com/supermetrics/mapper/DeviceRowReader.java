@@ -0,0 +1,129 @@
+package com.supermetrics.mapper;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.stereotype.Component;
+import com.supermetrics.dto.DeviceDTO;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads one device per line of an import. CSV rows are turned into the same JSON fields as NDJSON rows, so both are
+// validated alike. Rows failing to read throw IllegalArgumentException with a message meant for whoever sent the file
+@Component
+public class DeviceRowReader {
+
+    private static final String SERIAL_NUMBER = "serialNumber";
+    private static final String TYPE = "type";
+    private static final String ACTIVE = "active";
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final ObjectMapper objectMapper;
+    private final ObjectReader deviceReader;
+
+    public DeviceRowReader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.deviceReader = objectMapper.readerFor(DeviceDTO.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    // Columns are named after the DeviceDTO fields, unknown ones are ignored
+    public List<String> readHeader(String line) {
+        List<String> header = csvFields(stripByteOrderMark(line)).stream().map(String::trim).toList();
+        if (!header.contains(SERIAL_NUMBER) || !header.contains(TYPE)) {
+            throw new IllegalArgumentException("CSV header must name the serialNumber and type columns");
+        }
+        return header;
+    }
+
+    // The id is ignored, devices are matched by serial number. Devices are active unless the row says otherwise
+    public DeviceDTO read(String line, ExportFormat format, List<String> header) {
+        ObjectNode row = switch (format) {
+            case NDJSON -> ndjsonRow(stripByteOrderMark(line));
+            case CSV -> csvRow(line, header);
+        };
+        if (!row.hasNonNull(ACTIVE)) {
+            row.put(ACTIVE, true);
+        }
+
+        DeviceDTO device;
+        try {
+            device = deviceReader.readValue(row);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e instanceof JsonProcessingException json ? json.getOriginalMessage() : e.getMessage());
+        }
+        if (device.serialNumber() == null || device.serialNumber().isBlank()) {
+            throw new IllegalArgumentException("serialNumber is required");
+        }
+        if (device.type() == null) {
+            throw new IllegalArgumentException("type is required");
+        }
+        return device;
+    }
+
+    private ObjectNode ndjsonRow(String line) {
+        try {
+            if (objectMapper.readTree(line) instanceof ObjectNode row) {
+                return row;
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+        }
+        throw new IllegalArgumentException("Expected a JSON object");
+    }
+
+    // Empty fields are left out, as if the column was missing
+    private ObjectNode csvRow(String line, List<String> header) {
+        List<String> fields = csvFields(line);
+        if (fields.size() > header.size()) {
+            throw new IllegalArgumentException("Expected at most " + header.size() + " fields but found " + fields.size());
+        }
+        ObjectNode row = objectMapper.createObjectNode();
+        for (int i = 0; i < fields.size(); i++) {
+            if (!fields.get(i).isEmpty()) {
+                row.put(header.get(i), fields.get(i));
+            }
+        }
+        return row;
+    }
+
+    // Quoted fields may contain commas and doubled quotes, but not line breaks since every row is one line
+    static List<String> csvFields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c != '\r') {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String stripByteOrderMark(String line) {
+        return !line.isEmpty() && line.charAt(0) == BYTE_ORDER_MARK ? line.substring(1) : line;
+    }
+}
@@ -0,0 +1,47 @@
+package com.supermetrics.mapper;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.stereotype.Component;
+import com.supermetrics.dto.DeviceDTO;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+// Writes devices as they come from the cursor, as a JSON array or one JSON object per line. Nothing is flushed per
+// device, the output is only flushed when its buffer fills and at the end
+@Component
+public class DeviceWriter {
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter deviceWriter;
+
+    public DeviceWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.deviceWriter = objectMapper.writerFor(DeviceDTO.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    public void writeJson(Iterator<DeviceDTO> devices, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.writeStartArray();
+            while (devices.hasNext()) {
+                deviceWriter.writeValue(generator, devices.next());
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    public void writeNdjson(Iterator<DeviceDTO> devices, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.setRootValueSeparator(null);
+            while (devices.hasNext()) {
+                deviceWriter.writeValue(generator, devices.next());
+                generator.writeRaw('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.supermetrics.mapper;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+import java.util.Optional;
+
+// Formats raw readings are exported and devices imported in, one record per line in both
+public enum ExportFormat {
+    NDJSON(MediaType.APPLICATION_NDJSON, "ndjson"),
+    CSV(MediaType.valueOf(ExportFormat.CSV_VALUE), "csv");
+
+    public static final String CSV_VALUE = "text/csv";
+
+    private final MediaType mediaType;
+    private final String extension;
+
+    ExportFormat(MediaType mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public static Optional<ExportFormat> fromContentType(MediaType contentType) {
+        for (ExportFormat format : values()) {
+            if (format.mediaType.equalsTypeAndSubtype(contentType)) {
+                return Optional.of(format);
+            }
+        }
+        return Optional.empty();
+    }
+
+    // The first accepted type that is a known format wins, anything else is answered with NDJSON
+    public static ExportFormat fromAccept(String accept) {
+        if (accept == null) {
+            return NDJSON;
+        }
+        try {
+            List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+            for (MediaType mediaType : mediaTypes) {
+                for (ExportFormat format : values()) {
+                    if (format.mediaType.equalsTypeAndSubtype(mediaType)) {
+                        return format;
+                    }
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            return NDJSON;
+        }
+        return NDJSON;
+    }
+}
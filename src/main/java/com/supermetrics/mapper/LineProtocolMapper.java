@@ -0,0 +1,131 @@
+package com.supermetrics.mapper;
+
+import org.springframework.stereotype.Component;
+import com.supermetrics.dto.*;
+import com.supermetrics.exception.BadRequestException;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+// Maps the compact line protocol used by constrained sensors:
+//   <device id>,<brand>,<epoch millis>,<value>[,<field>=<value>...]
+// The value is the measurement the reading is stored with, optional fields use the JSON names of the brand payload
+@Component
+public class LineProtocolMapper {
+
+    private static final char SEPARATOR = ',';
+    private static final char ASSIGNMENT = '=';
+
+    public ReadingRequest mapToReadingRequest(String line) {
+        String[] parts = split(line);
+        if (parts.length < 4) {
+            throw new BadRequestException("Malformed reading line: expected device id, brand, timestamp and value");
+        }
+
+        String deviceId = parts[0];
+        String brand = parts[1];
+        Instant timestamp = Instant.ofEpochMilli(parseLong(parts[2], "timestamp"));
+        String value = parts[3];
+        Map<String, String> fields = fields(parts);
+
+        String deviceKey = ReadingRequestMapper.resolveDeviceKey(brand);
+        if (deviceKey == null) {
+            throw new BadRequestException("Unknown device configuration");
+        }
+
+        return switch (deviceKey) {
+            case ReadingRequestMapper.DEVICE_KEY_BMW_FUEL_SENSOR -> new BMWFuelReadingRequest(deviceId, brand,
+                    fields.get("type"), timestamp, parseInt(value, "value"), parseInt(fields.get("range_km"), "range_km"));
+            case ReadingRequestMapper.DEVICE_KEY_APPLE_HEART -> new AppleHeartReadingRequest(deviceId, brand,
+                    timestamp, parseInt(value, "value"), fields.get("activity"));
+            case ReadingRequestMapper.DEVICE_KEY_NEST_THERMOSTAT -> new NestThermostatReadingRequest(deviceId, brand,
+                    fields.get("type"), timestamp, parseDouble(value, "value"), parseDouble(fields.get("target_temperature_c"), "target_temperature_c"));
+            case ReadingRequestMapper.DEVICE_KEY_FORD_FUEL_SENSOR -> new FordFuelReadingRequest(deviceId, brand,
+                    fields.get("sensorType"), timestamp, parseDouble(value, "value"),
+                    parseDouble(required(fields, "tankCapacityLiters"), "tankCapacityLiters"), parseInt(fields.get("remainingRangeKm"), "remainingRangeKm"));
+            case ReadingRequestMapper.DEVICE_KEY_FITBIT_HEALTH_TRACKER -> new FitbitHeartReadingRequest(deviceId, brand,
+                    fields.get("type"), timestamp, parseInt(value, "value"), fields.get("state"));
+            case ReadingRequestMapper.DEVICE_KEY_HONEYWELL_THERMOSTAT -> new HoneywellThermostatReadingRequest(deviceId, brand,
+                    fields.get("category"), timestamp, parseDouble(value, "value"), parseDouble(fields.get("tempTarget"), "tempTarget"));
+            case ReadingRequestMapper.DEVICE_KEY_GARMIN_BLOOD_OXYGEN -> new GarminBloodOxygenReadingRequest(deviceId, brand,
+                    timestamp, parseInt(value, "value"), fields.get("state"));
+            default -> throw new BadRequestException("Unknown device configuration");
+        };
+    }
+
+    private static String[] split(String line) {
+        int count = 1;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == SEPARATOR) {
+                count++;
+            }
+        }
+
+        String[] parts = new String[count];
+        int start = 0;
+        for (int part = 0; part < count; part++) {
+            int end = line.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = line.length();
+            }
+            parts[part] = line.substring(start, end).trim();
+            start = end + 1;
+        }
+        return parts;
+    }
+
+    private static Map<String, String> fields(String[] parts) {
+        if (parts.length == 4) {
+            return Map.of();
+        }
+
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 4; i < parts.length; i++) {
+            int assignment = parts[i].indexOf(ASSIGNMENT);
+            if (assignment <= 0) {
+                throw new BadRequestException("Malformed reading line: expected field=value but got " + parts[i]);
+            }
+            fields.put(parts[i].substring(0, assignment), parts[i].substring(assignment + 1));
+        }
+        return fields;
+    }
+
+    private static String required(Map<String, String> fields, String field) {
+        String value = fields.get(field);
+        if (value == null) {
+            throw new BadRequestException("Malformed reading line: missing field " + field);
+        }
+        return value;
+    }
+
+    private static int parseInt(String value, String field) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Malformed reading line: " + field + " is not an integer");
+        }
+    }
+
+    private static long parseLong(String value, String field) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Malformed reading line: " + field + " is not an integer");
+        }
+    }
+
+    private static double parseDouble(String value, String field) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Malformed reading line: " + field + " is not a number");
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.supermetrics.mapper;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+// Encodings accepted for reading payloads, the binary ones carry the same fields as the JSON payload
+public enum PayloadFormat {
+    JSON(MediaType.APPLICATION_JSON),
+    CBOR(MediaType.APPLICATION_CBOR),
+    SMILE(MediaType.valueOf(PayloadFormat.SMILE_VALUE));
+
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+
+    private final MediaType mediaType;
+
+    PayloadFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    // Anything that is not a known binary encoding is read as JSON, as the endpoints always did
+    public static PayloadFormat fromContentType(String contentType) {
+        if (contentType == null) {
+            return JSON;
+        }
+        try {
+            MediaType mediaType = MediaType.parseMediaType(contentType);
+            for (PayloadFormat format : values()) {
+                if (format.mediaType.equalsTypeAndSubtype(mediaType)) {
+                    return format;
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            return JSON;
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,80 @@
+package com.supermetrics.mapper;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.stereotype.Component;
+import com.supermetrics.dto.RawReadingResponse;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+
+// Writes raw readings as they come from the cursor. Nothing is flushed per reading, the output is only
+// flushed when its buffer fills and at the end
+@Component
+public class RawReadingWriter {
+
+    private static final String CSV_HEADER = "deviceId,timestamp,value,unit";
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter readingWriter;
+
+    public RawReadingWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.readingWriter = objectMapper.writerFor(RawReadingResponse.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    public void write(Iterator<RawReadingResponse> readings, OutputStream outputStream, ExportFormat format) throws IOException {
+        switch (format) {
+            case NDJSON -> writeNdjson(readings, outputStream);
+            case CSV -> writeCsv(readings, outputStream);
+        }
+    }
+
+    private void writeNdjson(Iterator<RawReadingResponse> readings, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.setRootValueSeparator(null);
+            while (readings.hasNext()) {
+                readingWriter.writeValue(generator, readings.next());
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    // Timestamps are written in the same ISO format as in JSON
+    private static void writeCsv(Iterator<RawReadingResponse> readings, OutputStream outputStream) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+            while (readings.hasNext()) {
+                RawReadingResponse reading = readings.next();
+                writer.write(csvField(reading.deviceId()));
+                writer.write(',');
+                writer.write(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(reading.timestamp()));
+                writer.write(',');
+                writer.write(Double.toString(reading.value()));
+                writer.write(',');
+                writer.write(csvField(reading.unit()));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
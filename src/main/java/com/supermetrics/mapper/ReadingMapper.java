@@ -4,6 +4,7 @@ import com.supermetrics.dto.*;
 import org.springframework.stereotype.Component;
 import com.supermetrics.exception.BadRequestException;
 import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
 
 import java.time.ZoneId;
 import java.util.HashMap;
@@ -43,7 +44,7 @@ public class ReadingMapper {
     private Reading mapAppleHeartSensor(ReadingRequest request) {
         AppleHeartReadingRequest appleRequest = (AppleHeartReadingRequest) request;
         return Reading.builder()
-                .deviceId(appleRequest.id())
+                .meta(ReadingMeta.of(appleRequest.id()))
                 .value(appleRequest.bpm())
                 .unit("bpm")
                 .timestamp(appleRequest.collected_at().atZone(ZoneId.systemDefault()).toLocalDateTime())
@@ -54,7 +55,7 @@ public class ReadingMapper {
     private Reading mapBMWFuelSensor(ReadingRequest request) {
         BMWFuelReadingRequest bmwRequest = (BMWFuelReadingRequest) request;
         return Reading.builder()
-                .deviceId(bmwRequest.device_id())
+                .meta(ReadingMeta.of(bmwRequest.device_id()))
                 .value(bmwRequest.fuel_level_percent())
                 .unit("%")
                 .timestamp(bmwRequest.timestamp().atZone(ZoneId.systemDefault()).toLocalDateTime())
@@ -65,7 +66,7 @@ public class ReadingMapper {
     private Reading mapFitbitHeartSensor(ReadingRequest request) {
         FitbitHeartReadingRequest fitbitRequest = (FitbitHeartReadingRequest) request;
         return Reading.builder()
-                .deviceId(fitbitRequest.device_id())
+                .meta(ReadingMeta.of(fitbitRequest.device_id()))
                 .value(fitbitRequest.heartRate())
                 .unit("bpm")
                 .timestamp(fitbitRequest.timestamp().atZone(ZoneId.systemDefault()).toLocalDateTime())
@@ -76,7 +77,7 @@ public class ReadingMapper {
     private Reading mapGarminBloodLevel(ReadingRequest request) {
         GarminBloodOxygenReadingRequest garminBloodOxygen = (GarminBloodOxygenReadingRequest) request;
         return Reading.builder()
-                .deviceId(garminBloodOxygen.device_id())
+                .meta(ReadingMeta.of(garminBloodOxygen.device_id()))
                 .value(garminBloodOxygen.bloodOxygenLevel())
                 .unit("%")
                 .timestamp(garminBloodOxygen.timestamp().atZone(ZoneId.systemDefault()).toLocalDateTime())
@@ -87,7 +88,7 @@ public class ReadingMapper {
     private Reading mapFordFuelSensor(ReadingRequest request) {
         FordFuelReadingRequest fordRequest = (FordFuelReadingRequest) request;
         return Reading.builder()
-                .deviceId(fordRequest.vehicleId())
+                .meta(ReadingMeta.of(fordRequest.vehicleId()))
                 .value(fordRequest.fuelLiters() / fordRequest.tankCapacityLiters() * 100)
                 .unit("%")
                 .timestamp(fordRequest.time().atZone(ZoneId.systemDefault()).toLocalDateTime())
@@ -98,7 +99,7 @@ public class ReadingMapper {
     private Reading mapHoneywellThermostat(ReadingRequest request) {
         HoneywellThermostatReadingRequest honeywellRequest = (HoneywellThermostatReadingRequest) request;
         return Reading.builder()
-                .deviceId(honeywellRequest.id())
+                .meta(ReadingMeta.of(honeywellRequest.id()))
                 .value(honeywellRequest.tempCurrent())
                 .unit("C")
                 .timestamp(honeywellRequest.time().atZone(ZoneId.systemDefault()).toLocalDateTime())
@@ -109,7 +110,7 @@ public class ReadingMapper {
     private Reading mapNestThermostat(ReadingRequest request) {
         NestThermostatReadingRequest nestRequest = (NestThermostatReadingRequest) request;
         return Reading.builder()
-                .deviceId(nestRequest.device_id())
+                .meta(ReadingMeta.of(nestRequest.device_id()))
                 .value(nestRequest.ambient_temperature_c())
                 .unit("C")
                 .timestamp(nestRequest.timestamp().atZone(ZoneId.systemDefault()).toLocalDateTime())
@@ -1,14 +1,30 @@
 package com.supermetrics.mapper;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
+import com.fasterxml.jackson.databind.DatabindException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.supermetrics.dto.*;
 import org.springframework.stereotype.Component;
 import com.supermetrics.exception.BadRequestException;
 import com.supermetrics.exception.TechnicalException;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 @Component
 public class ReadingRequestMapper {
@@ -36,6 +52,9 @@ public class ReadingRequestMapper {
 
     private final ObjectMapper objectMapper;
     private final Map<String, Class<? extends ReadingRequest>> deviceMappings;
+    private final Map<String, ObjectReader> deviceReaders;
+    private final Map<Class<? extends ReadingRequest>, String> deviceKeys;
+    private final Map<PayloadFormat, JsonFactory> payloadFactories;
 
     public ReadingRequestMapper() {
         this.objectMapper = new ObjectMapper();
@@ -51,6 +70,18 @@ public class ReadingRequestMapper {
                 DEVICE_KEY_HONEYWELL_THERMOSTAT, HoneywellThermostatReadingRequest.class,
                 DEVICE_KEY_GARMIN_BLOOD_OXYGEN, GarminBloodOxygenReadingRequest.class
         );
+
+        this.deviceKeys = new HashMap<>();
+        deviceMappings.forEach((deviceKey, targetClass) -> deviceKeys.put(targetClass, deviceKey));
+
+        this.deviceReaders = new HashMap<>();
+        deviceMappings.forEach((deviceKey, targetClass) -> deviceReaders.put(deviceKey, objectMapper.readerFor(targetClass)));
+
+        // The device readers bind from any parser, so binary payloads only need their own parser factory
+        this.payloadFactories = new EnumMap<>(PayloadFormat.class);
+        payloadFactories.put(PayloadFormat.JSON, objectMapper.getFactory());
+        payloadFactories.put(PayloadFormat.CBOR, new CBORFactory(objectMapper));
+        payloadFactories.put(PayloadFormat.SMILE, new SmileFactory(objectMapper));
     }
 
     public ReadingRequest mapToReadingRequest(Map<String, Object> request) {
@@ -68,12 +99,149 @@ public class ReadingRequestMapper {
         }
     }
 
+    public String deviceKeyOf(ReadingRequest request) {
+        return deviceKeys.get(request.getClass());
+    }
+
+    public ReadingRequest readReadingRequest(byte[] payload) {
+        return readReadingRequest(payload, PayloadFormat.JSON);
+    }
+
+    public ReadingRequest readReadingRequest(byte[] payload, PayloadFormat format) {
+        return readReadingRequest(payloadFactories.get(format), payload, 0, payload.length);
+    }
+
+    public List<Supplier<ReadingRequest>> readReadingRequests(byte[] payload) {
+        return readReadingRequests(payload, PayloadFormat.JSON);
+    }
+
+    // Decodes an array of readings, each element is kept as tokens so a bad reading does not affect the others
+    public List<Supplier<ReadingRequest>> readReadingRequests(byte[] payload, PayloadFormat format) {
+        try (JsonParser parser = payloadFactories.get(format).createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new BadRequestException("Malformed reading payload: expected an array");
+            }
+
+            List<Supplier<ReadingRequest>> requests = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                TokenBuffer element = new TokenBuffer(parser);
+                element.copyCurrentStructure(parser);
+                requests.add(() -> readBufferedReadingRequest(element));
+            }
+            return requests;
+        } catch (IOException e) {
+            throw new BadRequestException("Malformed reading payload: " + originalMessage(e));
+        }
+    }
+
+    // Decodes newline delimited JSON, every line is parsed in place only when its reading is requested
+    public List<Supplier<ReadingRequest>> readReadingRequestLines(byte[] payload) {
+        List<Supplier<ReadingRequest>> requests = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i <= payload.length; i++) {
+            if (i == payload.length || payload[i] == '\n') {
+                int offset = lineStart;
+                int length = i - lineStart;
+                if (!isBlank(payload, offset, length)) {
+                    requests.add(() -> readReadingRequest(objectMapper.getFactory(), payload, offset, length));
+                }
+                lineStart = i + 1;
+            }
+        }
+        return requests;
+    }
+
+    private ReadingRequest readReadingRequest(JsonFactory factory, byte[] payload, int offset, int length) {
+        try (JsonParser parser = factory.createParser(payload, offset, length)) {
+            return readReadingRequest(parser);
+        } catch (IOException e) {
+            throw new BadRequestException("Malformed reading payload: " + originalMessage(e));
+        }
+    }
+
+    private ReadingRequest readBufferedReadingRequest(TokenBuffer element) {
+        try (JsonParser parser = element.asParser()) {
+            return readReadingRequest(parser);
+        } catch (IOException e) {
+            throw new BadRequestException("Malformed reading payload: " + originalMessage(e));
+        }
+    }
+
+    // Reads fields until the brand is found, only the fields before it are buffered, then binds the buffered prefix
+    // followed by the rest of the stream straight into the device record. Like the tree path the brand wins over the
+    // manufacturer, which is only used once the whole object has been buffered without a brand
+    private ReadingRequest readReadingRequest(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new BadRequestException("Malformed reading payload: expected an object");
+        }
+
+        TokenBuffer prefix = new TokenBuffer(parser);
+        prefix.writeStartObject();
+
+        String brand = null;
+        String manufacturer = null;
+        boolean brandFound = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            prefix.writeFieldName(field);
+            prefix.copyCurrentStructure(parser);
+
+            if (FIELD_BRAND.equals(field) && value != JsonToken.VALUE_NULL) {
+                brand = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                brandFound = true;
+                break;
+            }
+            if (FIELD_MANUFACTURER.equals(field)) {
+                manufacturer = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+            }
+        }
+        if (!brandFound) {
+            prefix.writeEndObject();
+        }
+
+        String identifier = brandFound ? brand : manufacturer;
+        String deviceKey = identifier != null ? resolveDeviceKey(identifier) : null;
+        if (deviceKey == null) {
+            throw new BadRequestException("Unknown device configuration");
+        }
+
+        try (JsonParser payload = JsonParserSequence.createFlattened(false, prefix.asParser(parser), parser)) {
+            return deviceReaders.get(deviceKey).readValue(payload);
+        } catch (DatabindException e) {
+            throw new TechnicalException("Failed to map request for device: " + deviceKey, e);
+        }
+    }
+
+    private static boolean isBlank(byte[] payload, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (!Character.isWhitespace(payload[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String originalMessage(IOException e) {
+        return e instanceof JsonProcessingException processingException
+                ? processingException.getOriginalMessage()
+                : e.getMessage();
+    }
+
     private String buildDeviceKey(Map<String, Object> request) {
-        String brand = (String) request.get(FIELD_BRAND);
-        String manufacturer = (String) request.get(FIELD_MANUFACTURER);
-        String deviceIdentifier = brand != null ? brand : manufacturer;
+        Object brand = request.get(FIELD_BRAND);
+        Object manufacturer = request.get(FIELD_MANUFACTURER);
+        Object deviceIdentifier = brand != null ? brand : manufacturer;
+
+        if (!(deviceIdentifier instanceof String identifier)) {
+            return null;
+        }
+
+        return resolveDeviceKey(identifier);
+    }
 
-        return switch (deviceIdentifier.toUpperCase()) {
+    static String resolveDeviceKey(String identifier) {
+        return switch (identifier.toUpperCase()) {
             case BRAND_BMW -> DEVICE_KEY_BMW_FUEL_SENSOR;
             case BRAND_APPLE -> DEVICE_KEY_APPLE_HEART;
             case BRAND_NEST -> DEVICE_KEY_NEST_THERMOSTAT;
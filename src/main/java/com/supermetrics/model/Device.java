@@ -1,6 +1,9 @@
 package com.supermetrics.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -9,6 +12,13 @@ import lombok.NoArgsConstructor;
 import com.supermetrics.model.enums.DeviceType;
 
 @Document(collection = "devices")
+// Filters on type, zone and active flag, ending in the id so device listings page through them in index order.
+// The first one also serves the filters of DeviceRepositoryCustom when the registry is not loaded
+@CompoundIndexes({
+        @CompoundIndex(name = "type_zone_active_id", def = "{'type': 1, 'zone': 1, 'active': 1, '_id': 1}"),
+        @CompoundIndex(name = "zone_active_id", def = "{'zone': 1, 'active': 1, '_id': 1}"),
+        @CompoundIndex(name = "active_id", def = "{'active': 1, '_id': 1}")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -19,10 +29,22 @@ public class Device {
 
     private String name;
     private String brand;
+
+    // Key of bulk imports, which upsert by serial number. Its unique sparse index is created by DeviceSerialNumberMigration
+    // once duplicates of devices registered before it are resolved, so it is not declared here
     private String serialNumber;
 
     private DeviceType type;
 
     private String zone;
     private boolean active;
+
+    // Incremented by every write and exposed as ETag. Not Spring's @Version, which would make save() insert
+    // devices written before versioning; devices without one read as version 0
+    private long version;
+
+    // Set by the write that changes an attribute readings are filtered by, until ReadingMetaReconciler has copied the
+    // attributes to the readings and rollups of the device
+    @Indexed(name = "metaSyncPending", partialFilter = "{'metaSyncPending': true}")
+    private boolean metaSyncPending;
 }
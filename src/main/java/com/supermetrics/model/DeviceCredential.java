@@ -0,0 +1,34 @@
+package com.supermetrics.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Set;
+
+@Document(collection = "device_credentials")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DeviceCredential {
+    @Id
+    private String id;
+
+    // Public half of the API key, used to look the credential up
+    @Indexed(unique = true)
+    private String keyId;
+
+    // SHA-256 of the secret half, the secret itself is never stored
+    private byte[] secretHash;
+
+    private Set<String> deviceIds;
+
+    private Instant createdAt;
+    private boolean revoked;
+}
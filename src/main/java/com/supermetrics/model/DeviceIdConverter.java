@@ -0,0 +1,24 @@
+package com.supermetrics.model;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.convert.MongoConversionContext;
+import org.springframework.data.mongodb.core.convert.MongoValueConverter;
+
+// Device ids generated by MongoDB are stored as 12-byte ObjectIds instead of their 24-character hex form,
+// ids chosen by clients are kept as strings
+public class DeviceIdConverter implements MongoValueConverter<String, Object> {
+
+    @Override
+    public String read(Object value, MongoConversionContext context) {
+        return value instanceof ObjectId objectId ? objectId.toHexString() : value.toString();
+    }
+
+    @Override
+    public Object write(String value, MongoConversionContext context) {
+        return toStored(value);
+    }
+
+    public static Object toStored(String deviceId) {
+        return ObjectId.isValid(deviceId) ? new ObjectId(deviceId) : deviceId;
+    }
+}
@@ -0,0 +1,55 @@
+package com.supermetrics.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import com.supermetrics.mapper.ExportFormat;
+import com.supermetrics.model.enums.ImportStatus;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@Document(collection = "device_imports")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DeviceImport {
+    @Id
+    private String id;
+
+    // Uploaded file in GridFS, kept until the import completes so a failed or interrupted one can be resumed
+    private String fileId;
+    private ExportFormat format;
+
+    @Indexed
+    private ImportStatus status;
+
+    // Lines of the file, the CSV header included. Lines up to linesRead are written and skipped on resume
+    private long totalLines;
+    private long linesRead;
+
+    private long created;
+    private long updated;
+    private long failed;
+
+    // First failed rows only, failed counts all of them
+    @Builder.Default
+    private List<RowError> errors = new ArrayList<>();
+    private String error;
+
+    // Instance running the import, which refreshes the heartbeat with every batch written
+    private String owner;
+    private Instant heartbeatAt;
+
+    private Instant createdAt;
+    private Instant finishedAt;
+
+    public record RowError(long line, String message) {
+    }
+}
@@ -1,9 +1,10 @@
 package com.supermetrics.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
-import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.data.mongodb.core.mapping.TimeSeries;
 import org.springframework.data.mongodb.core.timeseries.Granularity;
 import lombok.AllArgsConstructor;
@@ -13,27 +14,41 @@ import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
 
-@Document(collection = "readings")
-@TimeSeries(collection = "readings", timeField = "timestamp", metaField = "deviceId", granularity = Granularity.SECONDS)
+// Field names are kept to a single letter since they are repeated in every reading. Readings stored with a previous
+// layout stay in the readings collection until ReadingLayoutMigration copies them
+@Document(collection = "readings_compact")
+@TimeSeries(collection = "readings_compact", timeField = "t", metaField = "d", granularity = Granularity.SECONDS)
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-@CompoundIndex(def = "{'deviceId': 1, 'timestamp': -1}", background = true)
-@CompoundIndex(def = "{'deviceId': 1, 'timestamp': 1}", background = true)
+@CompoundIndex(def = "{'d.i': 1, 't': 1}", background = true)
+@CompoundIndex(def = "{'d.c': 1, 'd.z': 1, 't': 1}", background = true)
 public class Reading {
     @Id
     private String id;
 
-    @Indexed
-    private String deviceId;
+    @Field("d")
+    private ReadingMeta meta;
 
+    @Field("t")
     private LocalDateTime timestamp;
 
+    @Field("v")
     private double value;
+
+    @Field("u")
     private String unit;
 
+    // The vendor payload, stored according to storage.readings.raw-payload
+    @Field("r")
     private Object deviceReading;
 
+    @Field("m")
     private Object metadata;
-}
\ No newline at end of file
+
+    @Transient
+    public String getDeviceId() {
+        return meta == null ? null : meta.getDeviceId();
+    }
+}
@@ -0,0 +1,51 @@
+package com.supermetrics.model;
+
+import org.springframework.data.convert.ValueConverter;
+import org.springframework.data.mongodb.core.mapping.Field;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.DeviceType;
+
+// The time series metaField: the device a reading belongs to and the attributes readings are filtered by.
+// MongoDB stores it once per bucket, so the attributes cost next to nothing per reading
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReadingMeta {
+
+    @Field("i")
+    @ValueConverter(DeviceIdConverter.class)
+    private String deviceId;
+
+    @Field("y")
+    private DeviceType type;
+
+    @Field("c")
+    private DeviceCategory category;
+
+    @Field("z")
+    private String zone;
+
+    @Field("a")
+    private boolean active;
+
+    public static ReadingMeta of(String deviceId) {
+        return ReadingMeta.builder()
+                .deviceId(deviceId)
+                .build();
+    }
+
+    public static ReadingMeta of(Device device) {
+        return ReadingMeta.builder()
+                .deviceId(device.getId())
+                .type(device.getType())
+                .category(device.getType() == null ? null : device.getType().getCategory())
+                .zone(device.getZone())
+                .active(device.isActive())
+                .build();
+    }
+}
@@ -0,0 +1,9 @@
+package com.supermetrics.model.enums;
+
+// PENDING and RUNNING imports are picked up again when their worker is gone, FAILED ones only when resumed
+public enum ImportStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
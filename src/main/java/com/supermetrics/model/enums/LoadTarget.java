@@ -0,0 +1,6 @@
+package com.supermetrics.model.enums;
+
+public enum LoadTarget {
+    IN_PROCESS,
+    HTTP
+}
@@ -0,0 +1,10 @@
+package com.supermetrics.model.enums;
+
+// Virtual devices are registered before readings are sent, a run is active in the first two
+public enum LoadTestStatus {
+    REGISTERING,
+    RUNNING,
+    COMPLETED,
+    STOPPED,
+    FAILED
+}
@@ -0,0 +1,32 @@
+package com.supermetrics.model.enums;
+
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+@Getter
+public enum RollupResolution {
+    MINUTE(ChronoUnit.MINUTES, "minute", "reading_rollups_minute"),
+    HOUR(ChronoUnit.HOURS, "hour", "reading_rollups_hour"),
+    DAY(ChronoUnit.DAYS, "day", "reading_rollups_day");
+
+    private final ChronoUnit unit;
+    private final String dateTruncUnit;
+    private final String collection;
+
+    RollupResolution(ChronoUnit unit, String dateTruncUnit, String collection) {
+        this.unit = unit;
+        this.dateTruncUnit = dateTruncUnit;
+        this.collection = collection;
+    }
+
+    public LocalDateTime truncate(LocalDateTime timestamp) {
+        return timestamp.truncatedTo(unit);
+    }
+
+    public LocalDateTime ceil(LocalDateTime timestamp) {
+        LocalDateTime truncated = truncate(timestamp);
+        return truncated.equals(timestamp) ? truncated : truncated.plus(1, unit);
+    }
+}
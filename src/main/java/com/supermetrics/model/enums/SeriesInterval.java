@@ -0,0 +1,42 @@
+package com.supermetrics.model.enums;
+
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Optional;
+
+// Bucket sizes of the series endpoint, each one a whole number of rollup buckets so rollups can answer it
+@Getter
+public enum SeriesInterval {
+    ONE_MINUTE("1m", RollupResolution.MINUTE, 1),
+    FIVE_MINUTES("5m", RollupResolution.MINUTE, 5),
+    ONE_HOUR("1h", RollupResolution.HOUR, 1),
+    ONE_DAY("1d", RollupResolution.DAY, 1);
+
+    private final String value;
+    private final RollupResolution resolution;
+    private final int binSize;
+
+    SeriesInterval(String value, RollupResolution resolution, int binSize) {
+        this.value = value;
+        this.resolution = resolution;
+        this.binSize = binSize;
+    }
+
+    public static Optional<SeriesInterval> fromValue(String value) {
+        return Arrays.stream(values())
+                .filter(interval -> interval.value.equals(value))
+                .findFirst();
+    }
+
+    // Same bucket start as $dateTrunc, whose bins of 5 minutes line up with the hour
+    public LocalDateTime truncate(LocalDateTime timestamp) {
+        LocalDateTime truncated = resolution.truncate(timestamp);
+        return binSize == 1 ? truncated : truncated.minusMinutes(truncated.getMinute() % binSize);
+    }
+
+    public LocalDateTime next(LocalDateTime bucket) {
+        return bucket.plus(binSize, resolution.getUnit());
+    }
+}
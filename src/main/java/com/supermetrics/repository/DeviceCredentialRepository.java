@@ -0,0 +1,14 @@
+package com.supermetrics.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+import com.supermetrics.model.DeviceCredential;
+
+import java.util.Optional;
+
+@Repository
+public interface DeviceCredentialRepository extends MongoRepository<DeviceCredential, String> {
+
+    Optional<DeviceCredential> findByKeyId(String keyId);
+
+}
@@ -4,6 +4,7 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 import com.supermetrics.model.Device;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -11,4 +12,8 @@ public interface DeviceRepository extends MongoRepository<Device, String>, Devic
 
     List<Device> findByActive(boolean active);
 
+    List<Device> findBySerialNumberIn(Collection<String> serialNumbers);
+
+    List<Device> findTop100ByMetaSyncPendingTrue();
+
 }
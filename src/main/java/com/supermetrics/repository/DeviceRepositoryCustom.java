@@ -1,11 +1,24 @@
 package com.supermetrics.repository;
 
+import org.springframework.data.mongodb.core.query.Update;
 import com.supermetrics.model.Device;
 import com.supermetrics.model.enums.DeviceType;
 
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 public interface DeviceRepositoryCustom {
 
     List<Device> findByTypesIdsAndOptionalZone(List<DeviceType> types, List<String> ids, String zone);
+
+    boolean existsByTypesIdsAndOptionalZone(List<DeviceType> types, List<String> ids, String zone);
+
+    Device findAndUpdate(String id, Long expectedVersion, Update update);
+
+    Map<Integer, String> upsertBySerialNumber(List<Device> devices);
+
+    boolean clearMetaSyncPending(String id, long version);
+
+    Stream<Device> streamByFilters(List<DeviceType> types, String zone, Boolean active, String afterId, int limit, int batchSize);
 }
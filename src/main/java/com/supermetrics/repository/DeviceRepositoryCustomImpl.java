@@ -1,14 +1,27 @@
 package com.supermetrics.repository;
 
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 import com.supermetrics.model.Device;
+import com.supermetrics.model.DeviceIdConverter;
 import com.supermetrics.model.enums.DeviceType;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Repository
 public class DeviceRepositoryCustomImpl implements DeviceRepositoryCustom {
@@ -18,6 +31,100 @@ public class DeviceRepositoryCustomImpl implements DeviceRepositoryCustom {
 
     @Override
     public List<Device> findByTypesIdsAndOptionalZone(List<DeviceType> types, List<String> ids, String zone) {
+        return mongoTemplate.find(typesIdsAndOptionalZone(types, ids, zone), Device.class);
+    }
+
+    @Override
+    public boolean existsByTypesIdsAndOptionalZone(List<DeviceType> types, List<String> ids, String zone) {
+        return mongoTemplate.exists(typesIdsAndOptionalZone(types, ids, zone), Device.class);
+    }
+
+    // One atomic round trip, applied only while the device still has the expected version, to any version when null.
+    // Returns the device as it was before the update, null when no device matched
+    @Override
+    public Device findAndUpdate(String id, Long expectedVersion, Update update) {
+        Criteria criteria = Criteria.where("_id").is(id);
+        if (expectedVersion != null) {
+            // Devices written before versioning have no version field and are version 0
+            criteria.and("version").in(expectedVersion == 0 ? new Object[]{0L, null} : new Object[]{expectedVersion});
+        }
+        return mongoTemplate.findAndModify(Query.query(criteria), update, FindAndModifyOptions.options().returnNew(false), Device.class);
+    }
+
+    // Every attribute but the id is taken from the row, new serial numbers get an id generated by MongoDB. Rows marked
+    // metaSyncPending mark their device, an existing mark is never cleared here.
+    // Unordered, so a failing row does not stop the rows after it; failures are returned by row index
+    @Override
+    public Map<Integer, String> upsertBySerialNumber(List<Device> devices) {
+        if (devices.isEmpty()) {
+            return Map.of();
+        }
+
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Device.class);
+        devices.forEach(device -> {
+            Update update = new Update()
+                    .set("name", device.getName())
+                    .set("brand", device.getBrand())
+                    .set("type", device.getType())
+                    .set("zone", device.getZone())
+                    .set("active", device.isActive())
+                    .inc("version", 1);
+            if (device.isMetaSyncPending()) {
+                update.set("metaSyncPending", true);
+            }
+            operations.upsert(Query.query(Criteria.where("serialNumber").is(device.getSerialNumber())), update);
+        });
+        try {
+            operations.execute();
+            return Map.of();
+        } catch (BulkOperationException e) {
+            return e.getErrors().stream()
+                    .collect(Collectors.toMap(BulkWriteError::getIndex, BulkWriteError::getMessage));
+        }
+    }
+
+    // Only while the device is still at the version whose attributes were copied, a later change keeps it marked
+    @Override
+    public boolean clearMetaSyncPending(String id, long version) {
+        return mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(id).and("version").is(version).and("metaSyncPending").is(true)),
+                new Update().unset("metaSyncPending"),
+                Device.class
+        ).getModifiedCount() > 0;
+    }
+
+    // Sorted by id, so the next page starts after the id of the last device and no device is skipped or repeated
+    @Override
+    public Stream<Device> streamByFilters(List<DeviceType> types, String zone, Boolean active, String afterId, int limit, int batchSize) {
+        Criteria criteria = new Criteria();
+        if (types != null && !types.isEmpty()) {
+            criteria.and("type").in(types);
+        }
+        if (zone != null) {
+            criteria.and("zone").is(zone);
+        }
+        if (active != null) {
+            criteria.and("active").is(active);
+        }
+        if (afterId != null) {
+            List<Criteria> after = new ArrayList<>(List.of(Criteria.where("_id").gt(afterId)));
+            // Ids chosen by clients are strings, which sort before every ObjectId but are not compared with them by $gt
+            if (!(DeviceIdConverter.toStored(afterId) instanceof ObjectId)) {
+                after.add(Criteria.where("_id").type(JsonSchemaObject.Type.OBJECT_ID));
+            }
+            criteria = new Criteria().andOperator(criteria, new Criteria().orOperator(after));
+        }
+
+        Query query = Query.query(criteria)
+                .with(Sort.by("_id"))
+                .cursorBatchSize(batchSize);
+        if (limit > 0) {
+            query.limit(limit);
+        }
+        return mongoTemplate.stream(query, Device.class);
+    }
+
+    private static Query typesIdsAndOptionalZone(List<DeviceType> types, List<String> ids, String zone) {
         Query query = new Query();
         if (types != null && !types.isEmpty()) {
             query.addCriteria(Criteria.where("type").in(types));
@@ -33,6 +140,6 @@ public class DeviceRepositoryCustomImpl implements DeviceRepositoryCustom {
 
         query.addCriteria(Criteria.where("active").is(true));
 
-        return mongoTemplate.find(query, Device.class);
+        return query;
     }
 }
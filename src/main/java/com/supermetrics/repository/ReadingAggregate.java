@@ -0,0 +1,31 @@
+package com.supermetrics.repository;
+
+import com.supermetrics.dto.ReadingAggregationResponse;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Partial aggregate of one device, over the whole requested range or over the bucket starting at bucketStart.
+// Partials of the same device merge exactly, only averages and percentiles are derived when the response is built
+public record ReadingAggregate(String deviceId, LocalDateTime bucketStart, double sum, double min, double max, long count,
+                               List<SketchBin> sketch) {
+
+    public record SketchBin(String k, long v) {
+    }
+
+    public ReadingAggregate merge(ReadingAggregate other) {
+        List<SketchBin> bins = new ArrayList<>(sketch.size() + other.sketch.size());
+        bins.addAll(sketch);
+        bins.addAll(other.sketch);
+        return new ReadingAggregate(deviceId, null, sum + other.sum, Math.min(min, other.min), Math.max(max, other.max),
+                count + other.count, bins);
+    }
+
+    public ReadingAggregationResponse toResponse() {
+        ValueSketch values = new ValueSketch();
+        sketch.forEach(bin -> values.add(bin.k(), bin.v()));
+        return new ReadingAggregationResponse(deviceId, null, sum / count, max, min, count,
+                values.quantile(0.5, min, max), values.quantile(0.95, min, max), values.quantile(0.99, min, max));
+    }
+}
@@ -4,7 +4,16 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 import com.supermetrics.model.Reading;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
 @Repository
 public interface ReadingRepository extends MongoRepository<Reading, String>, ReadingRepositoryCustom {
 
+    List<Reading> findByMetaDeviceIdInAndTimestampIn(Collection<String> deviceIds, Collection<LocalDateTime> timestamps);
+
+    Stream<Reading> findByTimestampAfterOrderByMetaDeviceIdAscTimestampAsc(LocalDateTime timestamp);
+
 }
@@ -1,11 +1,34 @@
 package com.supermetrics.repository;
 
-import com.supermetrics.dto.ReadingAggregationResponse;
+import com.supermetrics.dto.ReadingSeriesPoint;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.RollupResolution;
+import com.supermetrics.model.enums.SeriesInterval;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 public interface ReadingRepositoryCustom {
 
-    List<ReadingAggregationResponse> getAllAggregations(List<String> deviceIds, LocalDateTime startTime, LocalDateTime endTime);
+    List<ReadingAggregate> getAllAggregations(DeviceCategory category, List<String> deviceIds, String zone,
+                                              ReadingRollupPlan plan);
+
+    List<ReadingAggregate> getAggregationsByBucket(DeviceCategory category, List<String> deviceIds, String zone,
+                                                   ReadingRollupPlan plan, RollupResolution bucket);
+
+    Stream<ReadingSeriesPoint> streamSeries(DeviceCategory category, List<String> deviceIds, String zone,
+                                            ReadingRollupPlan plan, SeriesInterval interval);
+
+    Stream<Reading> streamRaw(DeviceCategory category, List<String> deviceIds, String zone, LocalDateTime startTime,
+                              LocalDateTime endTime, String afterDeviceId, LocalDateTime afterTimestamp, int limit, int batchSize);
+
+    Map<Integer, String> bulkInsert(List<Reading> readings);
+
+    long updateMeta(ReadingMeta meta);
+
+    Stream<Reading> streamLatestPerDevice(LocalDateTime until);
 }
@@ -1,56 +1,258 @@
 package com.supermetrics.repository;
 
 
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.*;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
 import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
 import org.springframework.stereotype.Repository;
-import com.supermetrics.dto.ReadingAggregationResponse;
+import com.supermetrics.dto.ReadingSeriesPoint;
+import com.supermetrics.model.DeviceIdConverter;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.RollupResolution;
+import com.supermetrics.model.enums.SeriesInterval;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Repository
 public class ReadingRepositoryCustomImpl implements ReadingRepositoryCustom {
 
+    private static final Source READINGS = new Source("$d.i", "$t");
+    private static final Source ROLLUPS = new Source("$_id.i", "$_id.t");
+
     @Autowired
     private MongoTemplate mongoTemplate;
 
     @Override
-    public List<ReadingAggregationResponse> getAllAggregations(List<String> deviceIds, LocalDateTime startTime, LocalDateTime endTime) {
+    public List<ReadingAggregate> getAllAggregations(DeviceCategory category, List<String> deviceIds, String zone,
+                                                     ReadingRollupPlan plan) {
+        return aggregate(metaFilter(category, deviceIds, zone), plan, source -> new Document("i", source.deviceId()));
+    }
 
-        MatchOperation matchStage = Aggregation.match(
-                Criteria.where("deviceId").in(deviceIds)
-                        .and("timestamp").gte(startTime).lte(endTime)
-        );
+    // One partial per device and bucket, buckets without readings are left out
+    @Override
+    public List<ReadingAggregate> getAggregationsByBucket(DeviceCategory category, List<String> deviceIds, String zone,
+                                                          ReadingRollupPlan plan, RollupResolution bucket) {
 
-        GroupOperation groupStage = Aggregation.group("deviceId")
-                .avg("value").as("avgValue")
-                .max("value").as("maxValue")
-                .min("value").as("minValue")
-                .count().as("count");
-
-        ProjectionOperation projectStage = Aggregation.project()
-                .and("_id").as("deviceId")
-                .and("avgValue").as("avgValue")
-                .and("maxValue").as("maxValue")
-                .and("minValue").as("minValue")
-                .and("count").as("count")
-                .andExclude("_id");
-
-        Aggregation aggregation = Aggregation.newAggregation(
-                matchStage,
-                groupStage,
-                projectStage
-        );
+        String timezone = ZoneId.systemDefault().getId();
+        return aggregate(metaFilter(category, deviceIds, zone), plan, source -> new Document()
+                .append("i", source.deviceId())
+                .append("t", new Document("$dateTrunc", new Document("date", source.timestamp())
+                        .append("unit", bucket.getDateTruncUnit())
+                        .append("timezone", timezone))));
+    }
+
+    // Count, sum, min, max and the merged sketch bins per group, only averages and percentiles are computed outside MongoDB
+    private List<ReadingAggregate> aggregate(Document metaFilter, ReadingRollupPlan plan, Function<Source, Document> groupBy) {
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(match(metaFilter, "t", plan.rawRanges()));
+        pipeline.addAll(ReadingRollupRepository.rowsFromReadings(groupBy.apply(READINGS)));
+        plan.rollupRanges().forEach((resolution, ranges) -> pipeline.add(new Document("$unionWith", new Document()
+                .append("coll", resolution.getCollection())
+                .append("pipeline", List.of(
+                        match(metaFilter, "_id.t", ranges),
+                        ReadingRollupRepository.rowsFromRollups(groupBy.apply(ROLLUPS)))))));
+        pipeline.addAll(ReadingRollupRepository.mergeRows());
+        pipeline.add(new Document("$project", new Document()
+                .append("_id", 0)
+                .append("deviceId", "$_id.i")
+                .append("bucketStart", "$_id.t")
+                .append("sum", "$s")
+                .append("min", "$lo")
+                .append("max", "$hi")
+                .append("count", "$n")
+                .append("sketch", "$q")));
+
+        return mongoTemplate.aggregate(
+                Aggregation.newAggregation(pipeline.stream().map(Aggregation::stage).toList())
+                        .withOptions(AggregationOptions.builder().allowDiskUse(true).build()),
+                mongoTemplate.getCollectionName(Reading.class),
+                ReadingAggregate.class
+        ).getMappedResults();
+    }
+
+    // Buckets are computed by MongoDB and streamed in device and time order, so long ranges are never held in memory
+    @Override
+    public Stream<ReadingSeriesPoint> streamSeries(DeviceCategory category, List<String> deviceIds, String zone,
+                                                   ReadingRollupPlan plan, SeriesInterval interval) {
+
+        String timezone = ZoneId.systemDefault().getId();
+        List<Document> pipeline = partialsPipeline(metaFilter(category, deviceIds, zone), plan, source -> new Document()
+                .append("i", source.deviceId())
+                .append("t", new Document("$dateTrunc", new Document("date", source.timestamp())
+                        .append("unit", interval.getResolution().getDateTruncUnit())
+                        .append("binSize", interval.getBinSize())
+                        .append("timezone", timezone))));
+        pipeline.add(new Document("$sort", new Document("_id.i", 1).append("_id.t", 1)));
+        pipeline.add(new Document("$project", new Document()
+                .append("_id", 0)
+                .append("deviceId", "$_id.i")
+                .append("timestamp", "$_id.t")
+                .append("avgValue", new Document("$divide", List.of("$s", "$n")))
+                .append("maxValue", "$hi")
+                .append("minValue", "$lo")
+                .append("count", "$n")));
 
-        AggregationResults<ReadingAggregationResponse> results = mongoTemplate.aggregate(
-                aggregation,
-                "readings",
-                ReadingAggregationResponse.class
+        return mongoTemplate.aggregateStream(
+                Aggregation.newAggregation(pipeline.stream().map(Aggregation::stage).toList())
+                        .withOptions(AggregationOptions.builder().allowDiskUse(true).build()),
+                mongoTemplate.getCollectionName(Reading.class),
+                ReadingSeriesPoint.class
         );
-        return results.getMappedResults();
     }
 
-}
\ No newline at end of file
+    // Sorted by device and time on the {d.i, t} index and resumed after the last reading seen, so pages neither skip nor
+    // repeat readings however long a download takes. Only the fields of a raw reading are read, never the vendor payload
+    @Override
+    public Stream<Reading> streamRaw(DeviceCategory category, List<String> deviceIds, String zone, LocalDateTime startTime,
+                                     LocalDateTime endTime, String afterDeviceId, LocalDateTime afterTimestamp, int limit, int batchSize) {
+
+        Criteria criteria = metaCriteria(category, deviceIds, zone).and("timestamp").gte(startTime).lte(endTime);
+        if (afterDeviceId != null) {
+            List<Criteria> after = new ArrayList<>(List.of(
+                    Criteria.where("meta.deviceId").gt(afterDeviceId),
+                    Criteria.where("meta.deviceId").is(afterDeviceId).and("timestamp").gt(afterTimestamp)));
+            // Ids chosen by clients are strings, which sort before every ObjectId but are not compared with them by $gt
+            if (!(DeviceIdConverter.toStored(afterDeviceId) instanceof ObjectId)) {
+                after.add(Criteria.where("meta.deviceId").type(JsonSchemaObject.Type.OBJECT_ID));
+            }
+            criteria = new Criteria().andOperator(criteria, new Criteria().orOperator(after));
+        }
+
+        Query query = Query.query(criteria)
+                .with(Sort.by("meta.deviceId", "timestamp"))
+                .cursorBatchSize(batchSize);
+        query.fields().include("meta.deviceId", "timestamp", "value", "unit").exclude("id");
+        if (limit > 0) {
+            query.limit(limit);
+        }
+        return mongoTemplate.stream(query, Reading.class);
+    }
+
+    // Device attributes live in the metaField, so the filter runs on bucket metadata without looking up devices first.
+    // Rollups carry the same metaField, so the one mapped filter applies to readings and rollups alike
+    private Document metaFilter(DeviceCategory category, List<String> deviceIds, String zone) {
+        return new QueryMapper(mongoTemplate.getConverter())
+                .getMappedObject(metaCriteria(category, deviceIds, zone).getCriteriaObject(),
+                        mongoTemplate.getConverter().getMappingContext().getPersistentEntity(Reading.class));
+    }
+
+    private static Criteria metaCriteria(DeviceCategory category, List<String> deviceIds, String zone) {
+        Criteria criteria = Criteria.where("meta.active").is(true);
+        if (category != null) {
+            criteria.and("meta.category").is(category);
+        }
+        if (deviceIds != null && !deviceIds.isEmpty()) {
+            criteria.and("meta.deviceId").in(deviceIds);
+        }
+        if (zone != null) {
+            criteria.and("meta.zone").is(zone);
+        }
+        return criteria;
+    }
+
+    // Whole buckets come from the rollup collections and only the unaligned edges of the range are read raw.
+    // Every source is reduced to the same partials (count, sum, min, max) per group key, so they merge exactly in the final group
+    private static List<Document> partialsPipeline(Document metaFilter, ReadingRollupPlan plan, Function<Source, Object> groupBy) {
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(match(metaFilter, "t", plan.rawRanges()));
+        pipeline.add(partials(groupBy.apply(READINGS), 1, "$v", "$v", "$v"));
+        plan.rollupRanges().forEach((resolution, ranges) -> pipeline.add(new Document("$unionWith", new Document()
+                .append("coll", resolution.getCollection())
+                .append("pipeline", List.of(
+                        match(metaFilter, "_id.t", ranges),
+                        partials(groupBy.apply(ROLLUPS), "$n", "$s", "$lo", "$hi"))))));
+        pipeline.add(partials("$_id", "$n", "$s", "$lo", "$hi"));
+        return pipeline;
+    }
+
+    private static Document match(Document metaFilter, String timeField, List<ReadingRollupPlan.TimeRange> ranges) {
+        List<Document> timeFilters = ranges.stream()
+                .map(range -> new Document(timeField, new Document("$gte", ReadingRollupRepository.toDate(range.from()))
+                        .append("$lt", ReadingRollupRepository.toDate(range.to()))))
+                .toList();
+        Document filter = new Document(metaFilter);
+        // An empty $or is invalid, and a range that matches nothing keeps the raw branch cheap when rollups cover everything
+        filter.append("$or", timeFilters.isEmpty() ? List.of(new Document(timeField, new Document("$in", List.of()))) : timeFilters);
+        return new Document("$match", filter);
+    }
+
+    // Where the device id and the time are found in readings and in rollups
+    private record Source(String deviceId, String timestamp) {
+    }
+
+    private static Document partials(Object groupBy, Object count, Object sum, Object min, Object max) {
+        return new Document("$group", new Document("_id", groupBy)
+                .append("n", new Document("$sum", count))
+                .append("s", new Document("$sum", sum))
+                .append("lo", new Document("$min", min))
+                .append("hi", new Document("$max", max)));
+    }
+
+    @Override
+    public Map<Integer, String> bulkInsert(List<Reading> readings) {
+        if (readings.isEmpty()) {
+            return Map.of();
+        }
+
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reading.class)
+                    .insert(readings)
+                    .execute();
+            return Map.of();
+        } catch (BulkOperationException e) {
+            return e.getErrors().stream()
+                    .collect(Collectors.toMap(BulkWriteError::getIndex, BulkWriteError::getMessage));
+        }
+    }
+
+    // Time series collections only allow multi-document updates that touch nothing but the metaField
+    @Override
+    public long updateMeta(ReadingMeta meta) {
+        return mongoTemplate.updateMulti(
+                Query.query(Criteria.where("meta.deviceId").is(meta.getDeviceId())),
+                new Update().set("meta", meta),
+                Reading.class
+        ).getModifiedCount();
+    }
+
+    // Shaped as a time series "lastpoint" query: sorting on the metaField and time in the direction of the
+    // {d.i, t} index lets MongoDB read only the newest bucket of every device instead of every reading
+    @Override
+    public Stream<Reading> streamLatestPerDevice(LocalDateTime until) {
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document("t", new Document("$lte", ReadingRollupRepository.toDate(until)))),
+                new Document("$sort", new Document("d.i", -1).append("t", -1)),
+                new Document("$group", new Document("_id", "$d.i")
+                        .append("t", new Document("$first", "$t"))
+                        .append("v", new Document("$first", "$v"))
+                        .append("u", new Document("$first", "$u"))
+                        .append("d", new Document("$first", "$d"))));
+
+        return mongoTemplate.aggregateStream(
+                Aggregation.newAggregation(pipeline.stream().map(Aggregation::stage).toList())
+                        .withOptions(AggregationOptions.builder().allowDiskUse(true).build()),
+                mongoTemplate.getCollectionName(Reading.class),
+                Reading.class
+        );
+    }
+}
@@ -0,0 +1,93 @@
+package com.supermetrics.repository;
+
+import com.supermetrics.model.enums.RollupResolution;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+// Splits a time range into whole day, hour and minute rollup buckets and the raw edges left at both ends.
+// Ranges are half-open: MongoDB keeps millisecond precision, so [start, end] becomes [start, end + 1ms) once truncated
+public record ReadingRollupPlan(List<TimeRange> rawRanges, Map<RollupResolution, List<TimeRange>> rollupRanges) {
+
+    private static final RollupResolution[] RESOLUTIONS = RollupResolution.values();
+
+    public record TimeRange(LocalDateTime from, LocalDateTime to) {
+    }
+
+    public static ReadingRollupPlan raw(LocalDateTime start, LocalDateTime end) {
+        return new ReadingRollupPlan(List.of(range(start, end)), Map.of());
+    }
+
+    public static ReadingRollupPlan of(LocalDateTime start, LocalDateTime end) {
+        return of(start, end, RESOLUTIONS[RESOLUTIONS.length - 1]);
+    }
+
+    // Only uses buckets up to the given resolution, for results that are grouped by buckets of that size themselves
+    public static ReadingRollupPlan of(LocalDateTime start, LocalDateTime end, RollupResolution coarsest) {
+        TimeRange range = range(start, end);
+        ReadingRollupPlan plan = new ReadingRollupPlan(new ArrayList<>(), new EnumMap<>(RollupResolution.class));
+        plan.cover(range.from(), range.to(), 0, coarsest.ordinal());
+        return plan;
+    }
+
+    // Covers several half-open ranges at once, which must not overlap
+    public static ReadingRollupPlan of(List<TimeRange> ranges, RollupResolution coarsest) {
+        ReadingRollupPlan plan = new ReadingRollupPlan(new ArrayList<>(), new EnumMap<>(RollupResolution.class));
+        ranges.forEach(range -> plan.cover(range.from(), range.to(), 0, coarsest.ordinal()));
+        return plan;
+    }
+
+    public static ReadingRollupPlan raw(List<TimeRange> ranges) {
+        return new ReadingRollupPlan(List.copyOf(ranges), Map.of());
+    }
+
+    public static TimeRange range(LocalDateTime start, LocalDateTime end) {
+        return new TimeRange(start.truncatedTo(ChronoUnit.MILLIS), end.truncatedTo(ChronoUnit.MILLIS).plus(1, ChronoUnit.MILLIS));
+    }
+
+    public boolean isEmpty() {
+        return rawRanges.isEmpty() && rollupRanges.isEmpty();
+    }
+
+    // Covers [from, to) with buckets of the given resolution or coarser ones, leaving the unaligned edges to the next finer level
+    private void cover(LocalDateTime from, LocalDateTime to, int level, int maxLevel) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+
+        RollupResolution resolution = RESOLUTIONS[level];
+        LocalDateTime alignedFrom = resolution.ceil(from);
+        LocalDateTime alignedTo = resolution.truncate(to);
+        if (!alignedFrom.isBefore(alignedTo)) {
+            addFiner(from, to, level);
+            return;
+        }
+
+        addFiner(from, alignedFrom, level);
+        if (level < maxLevel) {
+            cover(alignedFrom, alignedTo, level + 1, maxLevel);
+        } else {
+            add(resolution, alignedFrom, alignedTo);
+        }
+        addFiner(alignedTo, to, level);
+    }
+
+    private void addFiner(LocalDateTime from, LocalDateTime to, int level) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (level == 0) {
+            rawRanges.add(new TimeRange(from, to));
+        } else {
+            add(RESOLUTIONS[level - 1], from, to);
+        }
+    }
+
+    private void add(RollupResolution resolution, LocalDateTime from, LocalDateTime to) {
+        rollupRanges.computeIfAbsent(resolution, ignored -> new ArrayList<>()).add(new TimeRange(from, to));
+    }
+}
@@ -0,0 +1,318 @@
+package com.supermetrics.repository;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Repository;
+import com.supermetrics.model.DeviceIdConverter;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.RollupResolution;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Rollup documents hold partial aggregates that combine exactly: count, sum, min, max and a ValueSketch per device and bucket.
+// _id is {i: device id, t: bucket start}, d is a copy of the readings metaField so rollups filter the same way,
+// q holds the count of every sketch bin by its key.
+// Buckets that missed readings are marked by device and day in reading_rollups_dirty as {_id: {i, t}, at}, and repaired
+// by recomputing the minute, hour and day rollups of that day from the readings
+@Repository
+public class ReadingRollupRepository {
+
+    static final String ID = "_id";
+    static final String DEVICE_ID = "i";
+    static final String BUCKET_START = "t";
+    static final String META = "d";
+    static final String COUNT = "n";
+    static final String SUM = "s";
+    static final String MIN = "lo";
+    static final String MAX = "hi";
+    static final String SKETCH = "q";
+
+    static final String DIRTY_COLLECTION = "reading_rollups_dirty";
+    static final String MARKED_AT = "at";
+
+    private final MongoTemplate mongoTemplate;
+
+    public ReadingRollupRepository(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void ensureIndexes() {
+        for (RollupResolution resolution : RollupResolution.values()) {
+            MongoCollection<Document> collection = mongoTemplate.getCollection(resolution.getCollection());
+            collection.createIndex(Indexes.ascending(META + ".i", ID + "." + BUCKET_START));
+            collection.createIndex(Indexes.ascending(META + ".c", META + ".z", ID + "." + BUCKET_START));
+        }
+    }
+
+    // Adds written readings to their buckets, grouping first so a batch costs one upsert per device and bucket
+    public void record(List<Reading> readings) {
+        if (readings.isEmpty()) {
+            return;
+        }
+
+        for (RollupResolution resolution : RollupResolution.values()) {
+            Map<Document, Partial> partials = new LinkedHashMap<>();
+            for (Reading reading : readings) {
+                Document id = new Document(DEVICE_ID, DeviceIdConverter.toStored(reading.getDeviceId()))
+                        .append(BUCKET_START, toDate(resolution.truncate(reading.getTimestamp())));
+                partials.computeIfAbsent(id, ignored -> new Partial()).add(reading);
+            }
+
+            List<UpdateOneModel<Document>> upserts = new ArrayList<>(partials.size());
+            partials.forEach((id, partial) -> {
+                List<Bson> updates = new ArrayList<>(5 + partial.bins.size());
+                updates.add(Updates.set(META, toDocument(partial.meta)));
+                updates.add(Updates.inc(COUNT, partial.count));
+                updates.add(Updates.inc(SUM, partial.sum));
+                updates.add(Updates.min(MIN, partial.min));
+                updates.add(Updates.max(MAX, partial.max));
+                partial.bins.forEach((key, count) -> updates.add(Updates.inc(SKETCH + "." + key, count)));
+                upserts.add(new UpdateOneModel<>(Filters.eq(ID, id), Updates.combine(updates), new UpdateOptions().upsert(true)));
+            });
+            mongoTemplate.getCollection(resolution.getCollection()).bulkWrite(upserts, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    // The days of the given readings by device, as ids of reading_rollups_dirty
+    public Set<Document> dirtyDays(List<Reading> readings) {
+        Set<Document> days = new LinkedHashSet<>();
+        for (Reading reading : readings) {
+            days.add(new Document(DEVICE_ID, DeviceIdConverter.toStored(reading.getDeviceId()))
+                    .append(BUCKET_START, toDate(RollupResolution.DAY.truncate(reading.getTimestamp()))));
+        }
+        return days;
+    }
+
+    // Marking a day again moves its mark forward, so a repair running meanwhile leaves it for the next one
+    public void markDirty(Collection<Document> days) {
+        if (days.isEmpty()) {
+            return;
+        }
+
+        Date now = new Date();
+        List<UpdateOneModel<Document>> upserts = days.stream()
+                .map(day -> new UpdateOneModel<Document>(Filters.eq(ID, day), Updates.set(MARKED_AT, now), new UpdateOptions().upsert(true)))
+                .toList();
+        mongoTemplate.getCollection(DIRTY_COLLECTION).bulkWrite(upserts, new BulkWriteOptions().ordered(false));
+    }
+
+    // Marks every day of every device that has readings, for the repair to recompute all rollups one day at a time
+    public void markAllDirty() {
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(Reading.class))
+                .aggregate(List.of(
+                        new Document("$group", new Document(ID, new Document(DEVICE_ID, "$d.i")
+                                .append(BUCKET_START, dateTrunc("$t", RollupResolution.DAY)))),
+                        new Document("$set", new Document(MARKED_AT, "$$NOW")),
+                        new Document("$merge", new Document("into", DIRTY_COLLECTION)
+                                .append("whenMatched", "replace")
+                                .append("whenNotMatched", "insert"))))
+                .allowDiskUse(true)
+                .toCollection();
+    }
+
+    public List<Document> findDirty(int limit) {
+        return mongoTemplate.getCollection(DIRTY_COLLECTION).find().limit(limit).into(new ArrayList<>());
+    }
+
+    public boolean hasDirty() {
+        return mongoTemplate.getCollection(DIRTY_COLLECTION).find().limit(1).first() != null;
+    }
+
+    // Only while the day was not marked again since the mark was read
+    public void clearDirty(Document mark) {
+        mongoTemplate.getCollection(DIRTY_COLLECTION).deleteOne(Filters.and(
+                Filters.eq(ID, mark.get(ID)),
+                Filters.eq(MARKED_AT, mark.get(MARKED_AT))));
+    }
+
+    // Recomputes the minute, hour and day rollups of one device and day from its readings, replacing the buckets with $merge
+    // instead of rewriting whole collections. Readings added to the rollups while it runs may be counted twice or not at
+    // all, so the day is only reported repaired once its day rollup counts as many readings as there are
+    public boolean repair(Document mark) {
+        Document day = mark.get(ID, Document.class);
+        Object deviceId = day.get(DEVICE_ID);
+        Date from = day.getDate(BUCKET_START);
+        Date until = toDate(toLocalDateTime(from).plusDays(1));
+        MongoCollection<Document> readings = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Reading.class));
+        Bson readingsOfDay = Filters.and(Filters.eq("d.i", deviceId), Filters.gte("t", from), Filters.lt("t", until));
+
+        long count = readings.countDocuments(readingsOfDay);
+        if (count == 0) {
+            Bson rollupsOfDay = rollupsOf(deviceId, from, until);
+            for (RollupResolution resolution : RollupResolution.values()) {
+                mongoTemplate.getCollection(resolution.getCollection()).deleteMany(rollupsOfDay);
+            }
+            return readings.countDocuments(readingsOfDay) == 0;
+        }
+
+        MongoCollection<Document> source = readings;
+        for (RollupResolution resolution : RollupResolution.values()) {
+            List<Document> pipeline = new ArrayList<>();
+            if (resolution == RollupResolution.MINUTE) {
+                pipeline.add(new Document("$match", readingsOfDay));
+                pipeline.addAll(rowsFromReadings(new Document(DEVICE_ID, "$d.i").append(BUCKET_START, dateTrunc("$t", resolution))));
+            } else {
+                pipeline.add(new Document("$match", rollupsOf(deviceId, from, until)));
+                pipeline.add(rowsFromRollups(new Document(DEVICE_ID, "$_id.i").append(BUCKET_START, dateTrunc("$_id.t", resolution))));
+            }
+            pipeline.addAll(mergeRows());
+            pipeline.add(new Document("$set", new Document(SKETCH, new Document("$arrayToObject", "$" + SKETCH))));
+            pipeline.add(new Document("$merge", new Document("into", resolution.getCollection())
+                    .append("whenMatched", "replace")
+                    .append("whenNotMatched", "insert")));
+
+            source.aggregate(pipeline).toCollection();
+            source = mongoTemplate.getCollection(resolution.getCollection());
+        }
+
+        Document dayRollup = mongoTemplate.getCollection(RollupResolution.DAY.getCollection()).find(Filters.eq(ID, day)).first();
+        return dayRollup != null && ((Number) dayRollup.get(COUNT)).longValue() == readings.countDocuments(readingsOfDay);
+    }
+
+    // Served by the index on the device id of the metaField and the bucket start
+    private static Bson rollupsOf(Object deviceId, Date from, Date until) {
+        return Filters.and(Filters.eq(META + "." + DEVICE_ID, deviceId),
+                Filters.gte(ID + "." + BUCKET_START, from),
+                Filters.lt(ID + "." + BUCKET_START, until));
+    }
+
+    // Sketches merge by adding the counts of equal bins, which a pipeline can only do with one row per bin. Every source is
+    // turned into rows {g: group key, k: bin key, n: count} and rows with a null bin that carry the count, sum, min and max.
+    // Readings are grouped by bin first, so rows stand for all readings of a group in one bin rather than for single readings
+    static List<Document> rowsFromReadings(Object groupBy) {
+        return List.of(
+                new Document("$group", new Document(ID, new Document("g", groupBy).append("k", ValueSketch.keyExpression("$v")))
+                        .append(META, new Document("$last", "$d"))
+                        .append(COUNT, new Document("$sum", 1))
+                        .append(SUM, new Document("$sum", "$v"))
+                        .append(MIN, new Document("$min", "$v"))
+                        .append(MAX, new Document("$max", "$v"))),
+                new Document("$project", new Document(META, 1)
+                        .append("rows", List.of(
+                                totalsRow("$_id.g"),
+                                new Document("g", "$_id.g").append("k", "$_id.k").append(COUNT, "$" + COUNT)))));
+    }
+
+    static Document rowsFromRollups(Object groupBy) {
+        return new Document("$project", new Document(META, 1)
+                .append("rows", new Document("$concatArrays", List.of(
+                        List.of(totalsRow(groupBy)),
+                        new Document("$map", new Document()
+                                .append("input", new Document("$objectToArray", new Document("$ifNull", List.of("$" + SKETCH, new Document()))))
+                                .append("in", new Document("g", groupBy).append("k", "$$this.k").append(COUNT, "$$this.v")))))));
+    }
+
+    // Merges the rows into one document per group key: {_id, d, n, s, lo, hi, q: [{k, v}]}
+    static List<Document> mergeRows() {
+        return List.of(
+                new Document("$unwind", "$rows"),
+                new Document("$group", new Document(ID, new Document("g", "$rows.g").append("k", "$rows.k"))
+                        .append(META, new Document("$last", "$" + META))
+                        .append(COUNT, new Document("$sum", "$rows." + COUNT))
+                        .append(SUM, new Document("$sum", "$rows." + SUM))
+                        .append(MIN, new Document("$min", "$rows." + MIN))
+                        .append(MAX, new Document("$max", "$rows." + MAX))),
+                new Document("$group", new Document(ID, "$_id.g")
+                        .append(META, new Document("$last", "$" + META))
+                        .append(COUNT, new Document("$sum", new Document("$cond", List.of(isTotals(), "$" + COUNT, 0))))
+                        .append(SUM, new Document("$sum", "$" + SUM))
+                        .append(MIN, new Document("$min", "$" + MIN))
+                        .append(MAX, new Document("$max", "$" + MAX))
+                        .append(SKETCH, new Document("$push", new Document("k", "$_id.k").append("v", "$" + COUNT)))),
+                new Document("$set", new Document(SKETCH, new Document("$filter", new Document()
+                        .append("input", "$" + SKETCH)
+                        .append("cond", new Document("$ne", Arrays.asList("$$this.k", null)))))));
+    }
+
+    private static Document totalsRow(Object groupBy) {
+        Document row = new Document("g", groupBy).append("k", null);
+        for (String field : List.of(COUNT, SUM, MIN, MAX)) {
+            row.append(field, "$" + field);
+        }
+        return row;
+    }
+
+    private static Document isTotals() {
+        return new Document("$eq", Arrays.asList("$_id.k", null));
+    }
+
+    private static Document dateTrunc(String date, RollupResolution resolution) {
+        return new Document("$dateTrunc", new Document("date", date)
+                .append("unit", resolution.getDateTruncUnit())
+                .append("timezone", ZoneId.systemDefault().getId()));
+    }
+
+    public boolean isEmpty() {
+        return mongoTemplate.getCollection(RollupResolution.MINUTE.getCollection()).find().limit(1).first() == null;
+    }
+
+    // Rollups written before they carried sketches have to be rebuilt once for percentiles to count every reading
+    public boolean lacksSketches() {
+        Document rollup = mongoTemplate.getCollection(RollupResolution.MINUTE.getCollection()).find().limit(1).first();
+        return rollup != null && !rollup.containsKey(SKETCH);
+    }
+
+    public void updateMeta(ReadingMeta meta) {
+        for (RollupResolution resolution : RollupResolution.values()) {
+            mongoTemplate.getCollection(resolution.getCollection()).updateMany(
+                    Filters.eq(META + "." + DEVICE_ID, DeviceIdConverter.toStored(meta.getDeviceId())),
+                    Updates.set(META, toDocument(meta)));
+        }
+    }
+
+    public void deleteAll() {
+        for (RollupResolution resolution : RollupResolution.values()) {
+            mongoTemplate.getCollection(resolution.getCollection()).deleteMany(new Document());
+        }
+    }
+
+    private Object toDocument(ReadingMeta meta) {
+        return mongoTemplate.getConverter().convertToMongoType(meta);
+    }
+
+    static Date toDate(LocalDateTime timestamp) {
+        return Date.from(timestamp.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static LocalDateTime toLocalDateTime(Date date) {
+        return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+    }
+
+    private static class Partial {
+        private ReadingMeta meta;
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private final Map<String, Long> bins = new HashMap<>();
+
+        private void add(Reading reading) {
+            meta = reading.getMeta();
+            count++;
+            sum += reading.getValue();
+            min = Math.min(min, reading.getValue());
+            max = Math.max(max, reading.getValue());
+            bins.merge(ValueSketch.key(reading.getValue()), 1L, Long::sum);
+        }
+    }
+}
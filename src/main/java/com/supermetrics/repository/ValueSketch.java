@@ -0,0 +1,174 @@
+package com.supermetrics.repository;
+
+import org.bson.Document;
+
+import java.util.List;
+
+// Mergeable quantile sketch in the style of DDSketch: values are counted in logarithmic bins, so any quantile is
+// estimated within 1% of the true value and sketches merge exactly by adding the counts of equal bins.
+// Bins are named by key ("p<index>" for positive, "m<index>" for negative values, "z" for zero), which is also how
+// rollups store them, and MongoDB computes the same key for a value with keyExpression
+public final class ValueSketch {
+
+    static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    // Smaller magnitudes count as zero, which bounds the number of bins
+    private static final double MIN_MAGNITUDE = 1e-9;
+
+    private static final String POSITIVE = "p";
+    private static final String NEGATIVE = "m";
+    private static final String ZERO = "z";
+
+    private final Bins positive = new Bins();
+    private final Bins negative = new Bins();
+    private long zero;
+    private long count;
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    // Only values that were added can be removed, which is what sliding windows need
+    public void remove(double value) {
+        add(value, -1);
+    }
+
+    public void add(String key, long count) {
+        if (key.equals(ZERO)) {
+            zero += count;
+        } else if (key.startsWith(POSITIVE)) {
+            positive.add(Integer.parseInt(key.substring(POSITIVE.length())), count);
+        } else if (key.startsWith(NEGATIVE)) {
+            negative.add(Integer.parseInt(key.substring(NEGATIVE.length())), count);
+        } else {
+            throw new IllegalArgumentException("Unknown sketch bin " + key);
+        }
+        this.count += count;
+    }
+
+    private void add(double value, long count) {
+        if (value > MIN_MAGNITUDE) {
+            positive.add(index(value), count);
+        } else if (value < -MIN_MAGNITUDE) {
+            negative.add(index(-value), count);
+        } else {
+            zero += count;
+        }
+        this.count += count;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    // Lower quantile: the value of the bin holding the reading of rank q * (count - 1)
+    public Double quantile(double q) {
+        if (count <= 0) {
+            return null;
+        }
+
+        double rank = q * (count - 1);
+        long seen = 0;
+        for (int index = negative.maxIndex(); index >= negative.minIndex(); index--) {
+            seen += negative.get(index);
+            if (seen > rank) {
+                return -value(index);
+            }
+        }
+        seen += zero;
+        if (seen > rank) {
+            return 0.0;
+        }
+        for (int index = positive.minIndex(); index <= positive.maxIndex(); index++) {
+            seen += positive.get(index);
+            if (seen > rank) {
+                return value(index);
+            }
+        }
+        throw new IllegalStateException("Sketch bins do not add up to " + count + " values");
+    }
+
+    // Clamped to the exact min and max, which the middle of the outermost bins can overshoot by up to the accuracy
+    public Double quantile(double q, double min, double max) {
+        Double estimate = quantile(q);
+        return estimate == null ? null : Math.min(max, Math.max(min, estimate));
+    }
+
+    public static String key(double value) {
+        if (value > MIN_MAGNITUDE) {
+            return POSITIVE + index(value);
+        }
+        if (value < -MIN_MAGNITUDE) {
+            return NEGATIVE + index(-value);
+        }
+        return ZERO;
+    }
+
+    // The key of a value computed by MongoDB, so readings can be counted into bins without leaving the database
+    public static Document keyExpression(Object value) {
+        return new Document("$switch", new Document()
+                .append("branches", List.of(
+                        new Document("case", new Document("$gt", List.of(value, MIN_MAGNITUDE)))
+                                .append("then", new Document("$concat", List.of(POSITIVE, indexExpression(value)))),
+                        new Document("case", new Document("$lt", List.of(value, -MIN_MAGNITUDE)))
+                                .append("then", new Document("$concat", List.of(NEGATIVE, indexExpression(new Document("$multiply", List.of(value, -1))))))))
+                .append("default", ZERO));
+    }
+
+    private static Document indexExpression(Object magnitude) {
+        return new Document("$toString", new Document("$toLong", new Document("$ceil",
+                new Document("$divide", List.of(new Document("$ln", magnitude), LOG_GAMMA)))));
+    }
+
+    private static int index(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    // Midpoint of the bin (gamma^(index-1), gamma^index], relative to which both bounds are within the accuracy
+    private static double value(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    // Counts of consecutive bin indexes in one array that grows on either side
+    private static final class Bins {
+
+        private long[] counts = new long[0];
+        private int offset;
+
+        private void add(int index, long count) {
+            if (counts.length == 0) {
+                counts = new long[16];
+                offset = index - counts.length / 2;
+            } else if (index < offset || index >= offset + counts.length) {
+                grow(index);
+            }
+            counts[index - offset] += count;
+        }
+
+        private long get(int index) {
+            return counts[index - offset];
+        }
+
+        // An empty range when there are no counts, so loops over it do nothing
+        private int minIndex() {
+            return offset;
+        }
+
+        private int maxIndex() {
+            return offset + counts.length - 1;
+        }
+
+        private void grow(int index) {
+            int low = Math.min(offset, index);
+            int high = Math.max(offset + counts.length - 1, index);
+            int length = Math.max(counts.length * 2, high - low + 1);
+            int grownOffset = index < offset ? high - length + 1 : low;
+            long[] grown = new long[length];
+            System.arraycopy(counts, 0, grown, offset - grownOffset, counts.length);
+            counts = grown;
+            offset = grownOffset;
+        }
+    }
+}
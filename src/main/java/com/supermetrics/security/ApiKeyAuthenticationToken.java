@@ -0,0 +1,25 @@
+package com.supermetrics.security;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+public class ApiKeyAuthenticationToken extends AbstractAuthenticationToken {
+
+    private final DevicePrincipal principal;
+
+    public ApiKeyAuthenticationToken(DevicePrincipal principal) {
+        super(AuthorityUtils.createAuthorityList("ROLE_DEVICE"));
+        this.principal = principal;
+        setAuthenticated(true);
+    }
+
+    @Override
+    public Object getCredentials() {
+        return null;
+    }
+
+    @Override
+    public DevicePrincipal getPrincipal() {
+        return principal;
+    }
+}
@@ -0,0 +1,22 @@
+package com.supermetrics.security;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.function.Predicate;
+
+public final class DeviceAccess {
+
+    private DeviceAccess() {
+    }
+
+    // Callers authenticated with an API key may only write for the devices bound to that key,
+    // anything else (the shared basic auth account, internal callers) is not restricted
+    public static Predicate<String> writableDevices() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof DevicePrincipal principal) {
+            return principal::canWrite;
+        }
+        return deviceId -> true;
+    }
+}
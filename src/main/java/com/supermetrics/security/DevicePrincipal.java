@@ -0,0 +1,15 @@
+package com.supermetrics.security;
+
+import java.util.Set;
+
+public record DevicePrincipal(String keyId, Set<String> deviceIds) {
+
+    public boolean canWrite(String deviceId) {
+        return deviceId != null && deviceIds.contains(deviceId);
+    }
+
+    @Override
+    public String toString() {
+        return "api-key:" + keyId;
+    }
+}
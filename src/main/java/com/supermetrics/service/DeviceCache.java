@@ -0,0 +1,52 @@
+package com.supermetrics.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.DeviceCacheProperties;
+import com.supermetrics.model.Device;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+@Component
+public class DeviceCache {
+
+    private static final String CACHE_NAME = "devices";
+
+    private final Cache<String, Optional<Device>> cache;
+
+    public DeviceCache(DeviceCacheProperties properties, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfter(Expiry.<String, Optional<Device>>writing((id, device) ->
+                        device.isPresent() ? properties.getTtl() : properties.getNegativeTtl()))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    public Optional<Device> get(String id, Function<String, Optional<Device>> loader) {
+        return cache.get(id, loader);
+    }
+
+    public Map<String, Optional<Device>> getAll(Set<String> ids, Function<Set<? extends String>, Map<String, Optional<Device>>> loader) {
+        return cache.getAll(ids, loader);
+    }
+
+    public void invalidate(String id) {
+        if (id != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,365 @@
+package com.supermetrics.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import com.supermetrics.config.DeviceImportProperties;
+import com.supermetrics.exception.BadRequestException;
+import com.supermetrics.exception.NotFoundException;
+import com.supermetrics.mapper.DeviceMapper;
+import com.supermetrics.mapper.DeviceRowReader;
+import com.supermetrics.mapper.ExportFormat;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.DeviceImport;
+import com.supermetrics.model.DeviceImport.RowError;
+import com.supermetrics.model.enums.ImportStatus;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Imports devices from an uploaded CSV or NDJSON file in the background. The file is kept in GridFS and progress is saved
+// after every batch, so an import stopped by a restart or a failure continues after the last batch written, on any instance
+@Slf4j
+@Service
+public class DeviceImportService {
+
+    private final MongoTemplate mongoTemplate;
+    private final GridFsTemplate gridFsTemplate;
+    private final DeviceService deviceService;
+    private final DeviceMapper deviceMapper;
+    private final DeviceRowReader rowReader;
+    private final DeviceImportProperties properties;
+    private final LongSupplier clock;
+    private final ExecutorService executor;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Counter createdRows;
+    private final Counter updatedRows;
+    private final Counter failedRows;
+
+    // Imports submitted on this instance and not finished yet, so an import is never queued twice
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopping;
+
+    @Autowired
+    public DeviceImportService(MongoTemplate mongoTemplate, GridFsTemplate gridFsTemplate, DeviceService deviceService,
+                               DeviceMapper deviceMapper, DeviceRowReader rowReader, DeviceImportProperties properties,
+                               MeterRegistry meterRegistry) {
+        this(mongoTemplate, gridFsTemplate, deviceService, deviceMapper, rowReader, properties, meterRegistry,
+                System::currentTimeMillis);
+    }
+
+    DeviceImportService(MongoTemplate mongoTemplate, GridFsTemplate gridFsTemplate, DeviceService deviceService,
+                        DeviceMapper deviceMapper, DeviceRowReader rowReader, DeviceImportProperties properties,
+                        MeterRegistry meterRegistry, LongSupplier clock) {
+        this.mongoTemplate = mongoTemplate;
+        this.gridFsTemplate = gridFsTemplate;
+        this.deviceService = deviceService;
+        this.deviceMapper = deviceMapper;
+        this.rowReader = rowReader;
+        this.properties = properties;
+        this.clock = clock;
+        this.executor = Executors.newFixedThreadPool(properties.getParallelism(), new CustomizableThreadFactory("device-import-"));
+        this.createdRows = rowCounter(meterRegistry, "created");
+        this.updatedRows = rowCounter(meterRegistry, "updated");
+        this.failedRows = rowCounter(meterRegistry, "failed");
+    }
+
+    // The body is streamed into GridFS, so the size of an upload does not depend on memory
+    public DeviceImport start(InputStream body, ExportFormat format) {
+        LineCountingInputStream file = new LineCountingInputStream(body);
+        ObjectId fileId = gridFsTemplate.store(file, "devices." + format.getExtension(), format.getMediaType().toString());
+        DeviceImport deviceImport = mongoTemplate.insert(DeviceImport.builder()
+                .fileId(fileId.toHexString())
+                .format(format)
+                .status(ImportStatus.PENDING)
+                .totalLines(file.getLines())
+                .createdAt(now())
+                .build());
+        log.info("Accepted device import {} of {} lines", deviceImport.getId(), deviceImport.getTotalLines());
+        submit(deviceImport.getId());
+        return deviceImport;
+    }
+
+    public DeviceImport find(String id) {
+        DeviceImport deviceImport = mongoTemplate.findById(id, DeviceImport.class);
+        if (deviceImport == null) {
+            throw new NotFoundException("Device import not found with id: " + id);
+        }
+        return deviceImport;
+    }
+
+    // Only failed imports need resuming, pending and running ones are picked up again by themselves
+    public DeviceImport resume(String id) {
+        DeviceImport deviceImport = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(id).and("status").is(ImportStatus.FAILED)),
+                new Update().set("status", ImportStatus.PENDING).unset("error"),
+                FindAndModifyOptions.options().returnNew(true),
+                DeviceImport.class);
+        if (deviceImport == null) {
+            DeviceImport current = find(id);
+            if (current.getStatus() == ImportStatus.COMPLETED) {
+                throw new BadRequestException("Device import " + id + " is already completed");
+            }
+            return current;
+        }
+        log.info("Resuming device import {} after line {}", id, deviceImport.getLinesRead());
+        submit(id);
+        return deviceImport;
+    }
+
+    // Picks up imports whose instance stopped while running them, and pending ones no instance has started
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void resumeAbandoned() {
+        Query query = Query.query(abandoned(now()));
+        query.fields().include("_id");
+        mongoTemplate.find(query, DeviceImport.class).forEach(deviceImport -> submit(deviceImport.getId()));
+    }
+
+    // Running imports are left as they are, and continue elsewhere once their lease expires
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        executor.shutdownNow();
+    }
+
+    private void submit(String id) {
+        if (queued.add(id)) {
+            executor.execute(() -> run(id));
+        }
+    }
+
+    void run(String id) {
+        try {
+            DeviceImport deviceImport = claim(id);
+            if (deviceImport == null) {
+                return;
+            }
+            try {
+                if (importRows(deviceImport)) {
+                    complete(deviceImport);
+                } else if (!stopping) {
+                    log.warn("Device import {} was taken over by another instance", id);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (stopping) {
+                    log.info("Device import {} stopped by shutdown after line {}", id, deviceImport.getLinesRead());
+                    return;
+                }
+                log.error("Device import {} failed", id, e);
+                fail(deviceImport, e.getMessage());
+            }
+        } finally {
+            queued.remove(id);
+        }
+    }
+
+    // Atomic, so out of all instances looking at the same import only one runs it
+    private DeviceImport claim(String id) {
+        Instant now = now();
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(id).andOperator(abandoned(now))),
+                new Update().set("status", ImportStatus.RUNNING).set("owner", instanceId).set("heartbeatAt", now),
+                FindAndModifyOptions.options().returnNew(true),
+                DeviceImport.class);
+    }
+
+    private Criteria abandoned(Instant now) {
+        return new Criteria().orOperator(
+                Criteria.where("status").is(ImportStatus.PENDING),
+                Criteria.where("status").is(ImportStatus.RUNNING).and("heartbeatAt").lt(now.minus(properties.getLease())));
+    }
+
+    // False when the import stopped before the end of the file. Lines written before are skipped, the CSV header is
+    // read again since it is always the first line
+    private boolean importRows(DeviceImport deviceImport) throws IOException {
+        GridFSFile file = gridFsTemplate.findOne(fileQuery(deviceImport));
+        if (file == null) {
+            throw new IllegalStateException("The uploaded file of the import no longer exists");
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                gridFsTemplate.getResource(file).getInputStream(), StandardCharsets.UTF_8))) {
+            List<String> header = null;
+            Batch batch = new Batch();
+            long line = 0;
+            String text;
+            while ((text = reader.readLine()) != null) {
+                if (stopping) {
+                    return false;
+                }
+                line++;
+                if (deviceImport.getFormat() == ExportFormat.CSV && header == null) {
+                    header = rowReader.readHeader(text);
+                    continue;
+                }
+                if (line <= deviceImport.getLinesRead() || text.isBlank()) {
+                    continue;
+                }
+                try {
+                    batch.add(line, deviceMapper.toEntity(rowReader.read(text, deviceImport.getFormat(), header)));
+                } catch (IllegalArgumentException e) {
+                    batch.errors.add(new RowError(line, e.getMessage()));
+                }
+                if (batch.size() >= properties.getBatchSize()) {
+                    if (!write(deviceImport, batch, line)) {
+                        return false;
+                    }
+                    batch = new Batch();
+                }
+            }
+            return write(deviceImport, batch, line);
+        }
+    }
+
+    // Saves the progress together with the batch, unless another instance has taken the import over in the meantime
+    private boolean write(DeviceImport deviceImport, Batch batch, long line) {
+        List<RowError> errors = new ArrayList<>(batch.errors);
+        long created = 0;
+        long updated = 0;
+        if (!batch.devices.isEmpty()) {
+            DeviceService.UpsertResult result = deviceService.upsertAll(batch.devices);
+            result.errors().forEach((index, message) -> errors.add(new RowError(batch.lines.get(index), message)));
+            created = result.created();
+            updated = result.updated();
+        }
+        errors.sort(Comparator.comparingLong(RowError::line));
+
+        Update update = new Update()
+                .set("linesRead", line)
+                .set("heartbeatAt", now())
+                .inc("created", created)
+                .inc("updated", updated)
+                .inc("failed", errors.size());
+        if (!errors.isEmpty()) {
+            update.push("errors").slice(properties.getMaxErrors()).each(errors.toArray());
+        }
+        boolean owned = mongoTemplate.updateFirst(owned(deviceImport), update, DeviceImport.class).getMatchedCount() > 0;
+
+        createdRows.increment(created);
+        updatedRows.increment(updated);
+        failedRows.increment(errors.size());
+        deviceImport.setLinesRead(line);
+        return owned;
+    }
+
+    private void complete(DeviceImport deviceImport) {
+        long matched = mongoTemplate.updateFirst(owned(deviceImport),
+                new Update().set("status", ImportStatus.COMPLETED).set("finishedAt", now()).unset("owner"),
+                DeviceImport.class).getMatchedCount();
+        if (matched > 0) {
+            gridFsTemplate.delete(fileQuery(deviceImport));
+            log.info("Device import {} completed after {} lines", deviceImport.getId(), deviceImport.getLinesRead());
+        }
+    }
+
+    // The file is kept, so the import can be resumed after the cause is fixed
+    private void fail(DeviceImport deviceImport, String error) {
+        mongoTemplate.updateFirst(owned(deviceImport),
+                new Update().set("status", ImportStatus.FAILED).set("error", error).unset("owner"),
+                DeviceImport.class);
+    }
+
+    private Query owned(DeviceImport deviceImport) {
+        return Query.query(Criteria.where("_id").is(deviceImport.getId()).and("owner").is(instanceId));
+    }
+
+    private static Query fileQuery(DeviceImport deviceImport) {
+        return Query.query(Criteria.where("_id").is(new ObjectId(deviceImport.getFileId())));
+    }
+
+    private Instant now() {
+        return Instant.ofEpochMilli(clock.getAsLong());
+    }
+
+    private static Counter rowCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("devices.import.rows")
+                .description("Rows of device imports by result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    // Valid rows with the line each came from, and the rows that could not be read
+    private static final class Batch {
+
+        private final List<Device> devices = new ArrayList<>();
+        private final List<Long> lines = new ArrayList<>();
+        private final List<RowError> errors = new ArrayList<>();
+
+        private void add(long line, Device device) {
+            devices.add(device);
+            lines.add(line);
+        }
+
+        private int size() {
+            return devices.size() + errors.size();
+        }
+    }
+
+    // Counts lines while the upload is stored, a last line without a line break included
+    private static final class LineCountingInputStream extends FilterInputStream {
+
+        private long lineBreaks;
+        private int last = '\n';
+
+        private LineCountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            for (int i = offset; i < offset + read; i++) {
+                count(buffer[i]);
+            }
+            return read;
+        }
+
+        private void count(int b) {
+            if (b == '\n') {
+                lineBreaks++;
+            }
+            last = b;
+        }
+
+        private long getLines() {
+            return last == '\n' ? lineBreaks : lineBreaks + 1;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.supermetrics.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import com.supermetrics.config.DeviceListingProperties;
+import com.supermetrics.exception.BadRequestException;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.DeviceRepository;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+// Lists devices in id order from a database cursor, so a listing never holds more than a page or a cursor batch,
+// whatever the size of the fleet. Inactive devices are listed too unless filtered out
+@Service
+@RequiredArgsConstructor
+public class DeviceListingService {
+
+    private final DeviceRepository deviceRepository;
+    private final DeviceListingProperties properties;
+
+    // One device more than the page is read to tell whether another page follows
+    public DevicePage findPage(List<DeviceType> types, String zone, Boolean active, String afterId, Integer limit) {
+        int pageSize = limit == null ? properties.getDefaultLimit() : limit;
+        if (pageSize < 1 || pageSize > properties.getMaxLimit()) {
+            throw new BadRequestException("Limit must be between 1 and " + properties.getMaxLimit());
+        }
+
+        List<Device> devices;
+        try (Stream<Device> stream = deviceRepository.streamByFilters(types, zone, active, afterId, pageSize + 1,
+                properties.getBatchSize())) {
+            devices = stream.toList();
+        }
+        if (devices.size() <= pageSize) {
+            return new DevicePage(devices, null);
+        }
+        List<Device> page = devices.subList(0, pageSize);
+        return new DevicePage(page, page.get(pageSize - 1).getId());
+    }
+
+    // Holds a database cursor and must be closed by the caller
+    public Stream<Device> stream(List<DeviceType> types, String zone, Boolean active, String afterId, Integer limit) {
+        if (limit != null && limit < 1) {
+            throw new BadRequestException("Limit must be positive");
+        }
+        return deviceRepository.streamByFilters(types, zone, active, afterId, limit == null ? 0 : limit, properties.getBatchSize());
+    }
+
+    // The next page starts after nextAfterId, which is null on the last page
+    public record DevicePage(List<Device> devices, String nextAfterId) {
+    }
+}
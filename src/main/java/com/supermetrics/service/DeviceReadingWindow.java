@@ -0,0 +1,250 @@
+package com.supermetrics.service;
+
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.repository.ValueSketch;
+
+import java.util.Arrays;
+
+// Recent readings of one device in primitive ring buffers, with a rolling count, sum, min, max and value sketch for each window.
+// Min and max come from monotonic deques and sketch bins are counted down on expiry, so adding and expiring a reading
+// is O(1) amortized for every window.
+// Positions are absolute sequence numbers, which stay valid when the buffers grow
+final class DeviceReadingWindow {
+
+    private final long[] windowMillis;
+    private final int maxCapacity;
+    private final Window[] windows;
+
+    private long[] timestamps;
+    private double[] values;
+    private long first;
+    private long next;
+    // Newest reading left out while it was still inside the longest window, dropped to stay within the capacity or
+    // refused for arriving after a newer one
+    private long missingTimestamp = Long.MIN_VALUE;
+
+    private String deviceName;
+    private ReadingMeta meta;
+
+    // Windows must be sorted from the shortest to the longest, the longest one decides which readings are kept
+    DeviceReadingWindow(long[] windowMillis, int initialCapacity, int maxCapacity) {
+        this.windowMillis = windowMillis;
+        this.maxCapacity = Integer.highestOneBit(maxCapacity);
+        this.timestamps = new long[Math.min(Integer.highestOneBit(Math.max(initialCapacity, 1)), this.maxCapacity)];
+        this.values = new double[timestamps.length];
+        this.windows = new Window[windowMillis.length];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new Window(windowMillis[i]);
+        }
+    }
+
+    // Readings that are older than the longest window are refused. Windows only append, so readings older than the
+    // newest one are refused too, and leave the windows they belong to incomplete
+    synchronized boolean add(long timestamp, double value, long now) {
+        if (timestamp <= now - windowMillis[windowMillis.length - 1]) {
+            return false;
+        }
+        if (next > first && timestamp < timestamps[index(next - 1)]) {
+            missingTimestamp = Math.max(missingTimestamp, timestamp);
+            return false;
+        }
+
+        if (next - first == timestamps.length) {
+            if (timestamps.length < maxCapacity) {
+                grow();
+            } else {
+                dropOldest();
+            }
+        }
+
+        int index = index(next);
+        timestamps[index] = timestamp;
+        values[index] = value;
+        for (Window window : windows) {
+            window.add(next, value);
+        }
+        next++;
+
+        expire(now);
+        return true;
+    }
+
+    synchronized Statistics statistics(int window, long now) {
+        expire(now);
+        return windows[window].statistics();
+    }
+
+    // A window misses readings until the newest one left out would have expired from it
+    synchronized boolean isIncomplete(int window, long now) {
+        return missingTimestamp > now - windowMillis[window];
+    }
+
+    synchronized boolean isEmpty(long now) {
+        expire(now);
+        return next == first;
+    }
+
+    // The device name and the attributes readings are filtered by, as of the latest reading
+    synchronized void describe(String deviceName, ReadingMeta meta) {
+        this.deviceName = deviceName;
+        this.meta = meta;
+    }
+
+    synchronized String deviceName() {
+        return deviceName;
+    }
+
+    synchronized ReadingMeta meta() {
+        return meta;
+    }
+
+    private void expire(long now) {
+        for (Window window : windows) {
+            window.expire(now - window.millis);
+        }
+        first = windows[windows.length - 1].tail;
+    }
+
+    private void dropOldest() {
+        missingTimestamp = Math.max(missingTimestamp, timestamps[index(first)]);
+        for (Window window : windows) {
+            if (window.tail == first) {
+                window.removeOldest();
+            }
+        }
+        first++;
+    }
+
+    private void grow() {
+        long[] grownTimestamps = new long[timestamps.length * 2];
+        double[] grownValues = new double[values.length * 2];
+        for (long sequence = first; sequence < next; sequence++) {
+            grownTimestamps[(int) (sequence & (grownTimestamps.length - 1))] = timestamps[index(sequence)];
+            grownValues[(int) (sequence & (grownValues.length - 1))] = values[index(sequence)];
+        }
+        timestamps = grownTimestamps;
+        values = grownValues;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & (timestamps.length - 1));
+    }
+
+    record Statistics(long count, double sum, double min, double max, Double p50, Double p95, Double p99) {
+    }
+
+    private final class Window {
+
+        private final long millis;
+        private final SequenceDeque minima = new SequenceDeque();
+        private final SequenceDeque maxima = new SequenceDeque();
+        private final ValueSketch sketch = new ValueSketch();
+
+        private long tail;
+        private long count;
+        private double sum;
+        private double compensation;
+
+        private Window(long millis) {
+            this.millis = millis;
+        }
+
+        private void add(long sequence, double value) {
+            count++;
+            accumulate(value);
+            sketch.add(value);
+            while (!minima.isEmpty() && values[index(minima.peekLast())] >= value) {
+                minima.removeLast();
+            }
+            minima.addLast(sequence);
+            while (!maxima.isEmpty() && values[index(maxima.peekLast())] <= value) {
+                maxima.removeLast();
+            }
+            maxima.addLast(sequence);
+        }
+
+        private void expire(long cutoff) {
+            while (tail < next && timestamps[index(tail)] <= cutoff) {
+                removeOldest();
+            }
+        }
+
+        private void removeOldest() {
+            count--;
+            accumulate(-values[index(tail)]);
+            sketch.remove(values[index(tail)]);
+            if (minima.peekFirst() == tail) {
+                minima.removeFirst();
+            }
+            if (maxima.peekFirst() == tail) {
+                maxima.removeFirst();
+            }
+            tail++;
+            if (count == 0) {
+                sum = 0;
+                compensation = 0;
+            }
+        }
+
+        // Compensated summation, so adding and subtracting the same values for hours does not drift
+        private void accumulate(double value) {
+            double total = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) {
+                compensation += (sum - total) + value;
+            } else {
+                compensation += (value - total) + sum;
+            }
+            sum = total;
+        }
+
+        private Statistics statistics() {
+            if (count == 0) {
+                return null;
+            }
+            double min = values[index(minima.peekFirst())];
+            double max = values[index(maxima.peekFirst())];
+            return new Statistics(count, sum + compensation, min, max,
+                    sketch.quantile(0.5, min, max), sketch.quantile(0.95, min, max), sketch.quantile(0.99, min, max));
+        }
+    }
+
+    // Deque of sequence numbers in a growable ring buffer
+    private static final class SequenceDeque {
+
+        private long[] elements = new long[8];
+        private int head;
+        private int size;
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private long peekFirst() {
+            return elements[head];
+        }
+
+        private long peekLast() {
+            return elements[(head + size - 1) & (elements.length - 1)];
+        }
+
+        private void addLast(long sequence) {
+            if (size == elements.length) {
+                long[] grown = Arrays.copyOf(elements, elements.length * 2);
+                // Move the wrapped part behind the old end so the ring stays contiguous from head
+                System.arraycopy(elements, 0, grown, elements.length, head);
+                elements = grown;
+            }
+            elements[(head + size) & (elements.length - 1)] = sequence;
+            size++;
+        }
+
+        private void removeFirst() {
+            head = (head + 1) & (elements.length - 1);
+            size--;
+        }
+
+        private void removeLast() {
+            size--;
+        }
+    }
+}
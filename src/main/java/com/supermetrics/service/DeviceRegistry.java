@@ -0,0 +1,400 @@
+package com.supermetrics.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.DeviceRegistryProperties;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.DeviceRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Every device in memory under a dense ordinal, with one bitmap of ordinals per type, per zone and for active devices.
+// Device filters become a few bitmap intersections, so aggregation requests never query the devices collection.
+// Writes through DeviceService are applied directly, writes of other instances arrive through a change stream
+@Slf4j
+@Component
+public class DeviceRegistry implements SmartLifecycle {
+
+    // Start after the layout migration, before readings are accepted
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 8188;
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(5);
+
+    private final DeviceRepository deviceRepository;
+    private final MongoTemplate mongoTemplate;
+    private final DeviceRegistryProperties properties;
+    private final ReadingAggregationCache aggregationCache;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile Index index;
+    private volatile boolean running;
+    private ExecutorService watcher;
+
+    public DeviceRegistry(DeviceRepository deviceRepository, MongoTemplate mongoTemplate, DeviceRegistryProperties properties,
+                          ReadingAggregationCache aggregationCache, MeterRegistry meterRegistry) {
+        this.deviceRepository = deviceRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.properties = properties;
+        this.aggregationCache = aggregationCache;
+
+        Gauge.builder("devices.registry.devices", this, registry -> registry.index == null ? 0 : registry.index.size())
+                .description("Devices held by the in-memory registry")
+                .register(meterRegistry);
+    }
+
+    // Until the registry is loaded every lookup misses, and callers fall back to the database
+    public boolean isLoaded() {
+        return index != null;
+    }
+
+    public Optional<Device> find(String id) {
+        return read(index -> index.get(id));
+    }
+
+    public Map<String, Device> findAll(Collection<String> ids) {
+        return read(index -> {
+            Map<String, Device> devices = new HashMap<>();
+            for (String id : ids) {
+                Device device = index.get(id);
+                if (device != null) {
+                    devices.put(id, device);
+                }
+            }
+            return devices;
+        }).orElse(Map.of());
+    }
+
+    // Same filters as DeviceRepositoryCustom.findByTypesIdsAndOptionalZone: optional types, ids and zone, active devices only
+    public List<Device> find(List<DeviceType> types, List<String> ids, String zone) {
+        return read(index -> index.devices(index.matches(types, ids, zone))).orElse(List.of());
+    }
+
+    public boolean exists(List<DeviceType> types, List<String> ids, String zone) {
+        return read(index -> !index.matches(types, ids, zone).isEmpty()).orElse(false);
+    }
+
+    public List<Device> findAllActive() {
+        return read(index -> index.devices(index.active)).orElse(List.of());
+    }
+
+    public void put(Device device) {
+        write(index -> index.put(device));
+    }
+
+    public void putAll(Collection<Device> devices) {
+        write(index -> devices.forEach(index::put));
+    }
+
+    public void remove(String id) {
+        write(index -> index.remove(id));
+    }
+
+    // Replaces the registry with the devices collection, ordinals are given out again without the gaps of removed devices
+    public void reload() {
+        long start = System.nanoTime();
+        Index loaded = new Index();
+        deviceRepository.findAll().forEach(loaded::put);
+
+        lock.writeLock().lock();
+        try {
+            index = loaded;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Loaded {} devices into the registry in {} ms", loaded.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        // The stream is opened before the devices are read, so no change made in between is missed
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> changes = null;
+        if (properties.isWatch()) {
+            try {
+                changes = openChangeStream();
+            } catch (MongoException e) {
+                log.warn("Device change stream unavailable, reloading the registry every {} instead: {}",
+                        properties.getPollInterval(), e.getMessage());
+            }
+        }
+        reload();
+
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> opened = changes;
+        watcher = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("device-registry-"));
+        watcher.submit(() -> {
+            if (opened != null) {
+                watch(opened);
+            } else {
+                poll();
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    // Applies changes until stopped. After a failure the stream is opened again and the registry reloaded, since changes
+    // may have been missed in between
+    private void watch(MongoChangeStreamCursor<ChangeStreamDocument<Document>> changes) {
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changes;
+        while (running) {
+            try {
+                if (cursor == null) {
+                    cursor = openChangeStream();
+                    reload();
+                    aggregationCache.invalidateAll();
+                }
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change != null && !apply(change)) {
+                    cursor.close();
+                    cursor = null;
+                }
+            } catch (RuntimeException e) {
+                if (!running) {
+                    break;
+                }
+                log.warn("Device change stream failed, retrying in {}: {}", RETRY_DELAY, e.getMessage());
+                close(cursor);
+                cursor = null;
+                if (!sleep(RETRY_DELAY)) {
+                    break;
+                }
+            }
+        }
+        close(cursor);
+    }
+
+    private void poll() {
+        while (running && sleep(properties.getPollInterval())) {
+            try {
+                reload();
+            } catch (RuntimeException e) {
+                log.warn("Failed to reload the device registry: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static boolean metaSynced(ChangeStreamDocument<Document> change) {
+        return change.getUpdateDescription() != null
+                && change.getUpdateDescription().getRemovedFields() != null
+                && change.getUpdateDescription().getRemovedFields().contains("metaSyncPending");
+    }
+
+    // False when the stream ended, after the collection was dropped or renamed. Aggregations cached by this instance
+    // were filtered by the previous device attributes, so a change made by another instance clears them. Changes made
+    // here were already put into the registry, so their events find the same attributes. Readings and rollups only
+    // carry new attributes once the metaSyncPending mark is removed, which clears them too, as the instance that
+    // copied them may have been another one
+    private boolean apply(ChangeStreamDocument<Document> change) {
+        switch (change.getOperationType()) {
+            case INSERT, UPDATE, REPLACE -> {
+                // Missing when the device was deleted before the update was looked up, its delete follows
+                if (change.getFullDocument() != null) {
+                    Device device = mongoTemplate.getConverter().read(Device.class, change.getFullDocument());
+                    Optional<ReadingMeta> previousMeta = find(device.getId()).map(ReadingMeta::of);
+                    put(device);
+                    if (previousMeta.isPresent() && !previousMeta.get().equals(ReadingMeta.of(device)) || metaSynced(change)) {
+                        aggregationCache.invalidateAll();
+                    }
+                }
+            }
+            case DELETE -> {
+                String id = toId(change.getDocumentKey().get("_id"));
+                if (find(id).isPresent()) {
+                    aggregationCache.invalidateAll();
+                }
+                remove(id);
+            }
+            case DROP, RENAME, DROP_DATABASE, INVALIDATE -> {
+                return false;
+            }
+            default -> {
+            }
+        }
+        return true;
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openChangeStream() {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Device.class))
+                .watch()
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(1, TimeUnit.SECONDS)
+                .cursor();
+    }
+
+    private <T> Optional<T> read(Function<Index, T> query) {
+        lock.readLock().lock();
+        try {
+            return index == null ? Optional.empty() : Optional.ofNullable(query.apply(index));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Consumer<Index> update) {
+        lock.writeLock().lock();
+        try {
+            if (index != null) {
+                update.accept(index);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String toId(BsonValue id) {
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue();
+    }
+
+    private static void close(MongoChangeStreamCursor<?> cursor) {
+        if (cursor != null) {
+            try {
+                cursor.close();
+            } catch (MongoException e) {
+                log.debug("Failed to close the device change stream: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static boolean sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Ordinals of removed devices stay empty until the next reload
+    private static final class Index {
+
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        private final List<Device> devices = new ArrayList<>();
+        private final Map<DeviceType, BitSet> byType = new EnumMap<>(DeviceType.class);
+        private final Map<String, BitSet> byZone = new HashMap<>();
+        private final BitSet active = new BitSet();
+
+        private int size() {
+            return ordinals.size();
+        }
+
+        private Device get(String id) {
+            Integer ordinal = ordinals.get(id);
+            return ordinal == null ? null : devices.get(ordinal);
+        }
+
+        private void put(Device device) {
+            int ordinal = ordinals.computeIfAbsent(device.getId(), id -> {
+                devices.add(null);
+                return devices.size() - 1;
+            });
+            Device previous = devices.get(ordinal);
+            if (previous != null) {
+                unindex(previous, ordinal);
+            }
+            devices.set(ordinal, device);
+            if (device.getType() != null) {
+                byType.computeIfAbsent(device.getType(), type -> new BitSet()).set(ordinal);
+            }
+            if (device.getZone() != null) {
+                byZone.computeIfAbsent(device.getZone(), zone -> new BitSet()).set(ordinal);
+            }
+            active.set(ordinal, device.isActive());
+        }
+
+        private void remove(String id) {
+            Integer ordinal = ordinals.remove(id);
+            if (ordinal != null) {
+                unindex(devices.get(ordinal), ordinal);
+                devices.set(ordinal, null);
+            }
+        }
+
+        private void unindex(Device device, int ordinal) {
+            Optional.ofNullable(device.getType()).map(byType::get).ifPresent(bits -> bits.clear(ordinal));
+            BitSet zone = device.getZone() == null ? null : byZone.get(device.getZone());
+            if (zone != null) {
+                zone.clear(ordinal);
+                if (zone.isEmpty()) {
+                    byZone.remove(device.getZone());
+                }
+            }
+            active.clear(ordinal);
+        }
+
+        // Starts from the requested ids when there are any, they are usually far fewer than the active devices
+        private BitSet matches(List<DeviceType> types, List<String> ids, String zone) {
+            BitSet matches;
+            if (ids != null && !ids.isEmpty()) {
+                matches = new BitSet();
+                ids.stream().map(ordinals::get).filter(Objects::nonNull).forEach(matches::set);
+                matches.and(active);
+            } else {
+                matches = (BitSet) active.clone();
+            }
+            if (types != null && !types.isEmpty()) {
+                BitSet ofTypes = new BitSet();
+                types.stream().map(byType::get).filter(Objects::nonNull).forEach(ofTypes::or);
+                matches.and(ofTypes);
+            }
+            if (zone != null) {
+                matches.and(byZone.getOrDefault(zone, new BitSet()));
+            }
+            return matches;
+        }
+
+        private List<Device> devices(BitSet ordinals) {
+            List<Device> matching = new ArrayList<>(ordinals.cardinality());
+            ordinals.stream().forEach(ordinal -> matching.add(devices.get(ordinal)));
+            return matching;
+        }
+    }
+}
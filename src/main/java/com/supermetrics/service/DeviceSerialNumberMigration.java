@@ -0,0 +1,134 @@
+package com.supermetrics.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.DeviceImportProperties;
+import com.supermetrics.model.Device;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Creates the unique serial number index that bulk imports upsert by. Devices registered before it may share a serial
+// number, which would make the index fail to build, so startup fails listing them. When allowed, they are resolved
+// instead: the oldest device keeps the serial number and it is removed from the others
+@Slf4j
+@Component
+public class DeviceSerialNumberMigration implements SmartLifecycle {
+
+    // Start after the reading layout migration, before the device registry loads the devices
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 8190;
+
+    private static final String INDEX_NAME = "serialNumber";
+    private static final int LOGGED_DUPLICATES = 10;
+
+    private final MongoTemplate mongoTemplate;
+    private final DeviceImportProperties properties;
+
+    private volatile boolean running;
+
+    public DeviceSerialNumberMigration(MongoTemplate mongoTemplate, DeviceImportProperties properties) {
+        this.mongoTemplate = mongoTemplate;
+        this.properties = properties;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        migrate();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    public void migrate() {
+        IndexOperations indexOperations = mongoTemplate.indexOps(Device.class);
+        if (indexOperations.getIndexInfo().stream().anyMatch(index -> INDEX_NAME.equals(index.getName()))) {
+            return;
+        }
+
+        // A sparse index still holds explicit nulls, so they would collide like duplicates
+        long nulls = mongoTemplate.updateMulti(Query.query(Criteria.where("serialNumber").type(JsonSchemaObject.Type.NULL)),
+                new Update().unset("serialNumber").inc("version", 1), Device.class).getModifiedCount();
+        if (nulls > 0) {
+            log.info("Removed the null serial number of {} devices", nulls);
+        }
+
+        List<Duplicate> duplicates = findDuplicates();
+        if (!duplicates.isEmpty()) {
+            if (!properties.isResolveDuplicateSerialNumbers()) {
+                throw new IllegalStateException(duplicates.size() + " serial numbers are used by more than one device, "
+                        + duplicates.stream().limit(LOGGED_DUPLICATES).toList() + ". Give them distinct serial numbers or set "
+                        + "devices.import.resolve-duplicate-serial-numbers=true to keep each on its oldest device");
+            }
+            List<Duplicate> unordered = duplicates.stream().filter(duplicate -> !duplicate.hasGeneratedIds()).toList();
+            if (!unordered.isEmpty()) {
+                throw new IllegalStateException(unordered.size() + " serial numbers are used by more than one device, "
+                        + unordered.stream().limit(LOGGED_DUPLICATES).toList() + ", and some of them have ids given by "
+                        + "clients, which do not tell which device is the oldest. Give them distinct serial numbers");
+            }
+            duplicates.forEach(this::resolve);
+        }
+
+        indexOperations.createIndex(new Index("serialNumber", Sort.Direction.ASC).named(INDEX_NAME).unique().sparse());
+        log.info("Created the unique serial number index, {} duplicated serial numbers were resolved", duplicates.size());
+    }
+
+    private List<Duplicate> findDuplicates() {
+        List<Duplicate> duplicates = new ArrayList<>();
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(Device.class))
+                .aggregate(List.of(
+                        new Document("$match", new Document("serialNumber", new Document("$type", "string"))),
+                        new Document("$group", new Document("_id", "$serialNumber")
+                                .append("ids", new Document("$push", "$_id"))
+                                .append("count", new Document("$sum", 1))),
+                        new Document("$match", new Document("count", new Document("$gt", 1)))))
+                .allowDiskUse(true)
+                .forEach(group -> duplicates.add(new Duplicate(group.getString("_id"), group.getList("ids", Object.class))));
+        return duplicates;
+    }
+
+    // Ids generated by MongoDB start with their creation time, so the smallest one is the device registered first
+    private void resolve(Duplicate duplicate) {
+        List<ObjectId> ids = duplicate.ids().stream().map(ObjectId.class::cast).sorted().toList();
+        List<ObjectId> others = ids.subList(1, ids.size());
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(others)),
+                new Update().unset("serialNumber").inc("version", 1), Device.class);
+        log.warn("Serial number {} was used by {} devices, kept on device {} and removed from {}",
+                duplicate.serialNumber(), ids.size(), ids.get(0), others);
+    }
+
+    private record Duplicate(String serialNumber, List<Object> ids) {
+
+        boolean hasGeneratedIds() {
+            return ids.stream().allMatch(ObjectId.class::isInstance);
+        }
+
+        @Override
+        public String toString() {
+            return serialNumber + " on devices " + ids;
+        }
+    }
+}
@@ -2,57 +2,261 @@ package com.supermetrics.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import com.supermetrics.dto.DeviceDTO;
+import com.supermetrics.dto.DevicePatchRequest;
+import com.supermetrics.exception.ConflictException;
 import com.supermetrics.exception.NotFoundException;
+import com.supermetrics.exception.PreconditionFailedException;
 import com.supermetrics.mapper.DeviceMapper;
 import com.supermetrics.model.Device;
+import com.supermetrics.model.ReadingMeta;
 import com.supermetrics.model.enums.DeviceType;
 import com.supermetrics.repository.DeviceRepository;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class DeviceService {
 
+    // The attributes copied to readings and rollups as their ReadingMeta
+    private static final Set<String> META_FIELDS = Set.of("type", "zone", "active");
+
     private final DeviceRepository deviceRepository;
     private final DeviceMapper deviceMapper;
+    private final DeviceCache deviceCache;
+    private final DeviceRegistry deviceRegistry;
+    private final ReadingHotWindows hotWindows;
+    private final LatestReadingRegistry latestReadings;
 
     public Device save(DeviceDTO deviceDTO) {
         log.info("Saving device: {}", deviceDTO.name());
         Device device = deviceMapper.toEntity(deviceDTO);
-        return deviceRepository.save(device);
+        Device savedDevice;
+        try {
+            savedDevice = deviceRepository.save(device);
+        } catch (DuplicateKeyException e) {
+            throw serialNumberTaken(device.getSerialNumber());
+        }
+        deviceCache.invalidate(savedDevice.getId());
+        deviceRegistry.put(savedDevice);
+        return savedDevice;
     }
 
     public Device update(DeviceDTO deviceDTO) {
+        return update(deviceDTO, null);
+    }
+
+    // Replaces every attribute but the id, like a PATCH naming all of them
+    public Device update(DeviceDTO deviceDTO, Long expectedVersion) {
         log.info("Updating device: {}", deviceDTO.name());
         Device device = deviceMapper.toEntity(deviceDTO);
-        if (device.getId() == null || !deviceRepository.existsById(device.getId())) {
-            throw new NotFoundException("Device not found with id: " + device.getId());
-        }
-        return deviceRepository.save(device);
+        Map<String, Object> changes = new LinkedHashMap<>();
+        changes.put("name", device.getName());
+        changes.put("brand", device.getBrand());
+        changes.put("serialNumber", device.getSerialNumber());
+        changes.put("type", device.getType());
+        changes.put("zone", device.getZone());
+        changes.put("active", device.isActive());
+        return modify(device.getId(), expectedVersion, changes)
+                .orElseThrow(() -> new NotFoundException("Device not found with id: " + device.getId()));
+    }
+
+    public Device patch(String id, DevicePatchRequest patch, Long expectedVersion) {
+        log.info("Patching device with id: {}", id);
+        Map<String, Object> changes = new LinkedHashMap<>();
+        putIfPresent(changes, "name", patch.name());
+        putIfPresent(changes, "brand", patch.brand());
+        putIfPresent(changes, "serialNumber", patch.serialNumber());
+        putIfPresent(changes, "type", patch.type());
+        putIfPresent(changes, "zone", patch.zone());
+        putIfPresent(changes, "active", patch.active());
+        return modify(id, expectedVersion, changes)
+                .orElseThrow(() -> new NotFoundException("Device not found with id: " + id));
     }
 
     public void delete(String id) {
+        delete(id, null);
+    }
+
+    public void delete(String id, Long expectedVersion) {
         log.info("Performing logical delete for device with id: {}", id);
-        deviceRepository.findById(id)
-                .ifPresent(device -> {
-                    device.setActive(false);
-                    deviceRepository.save(device);
-                    log.info("Device with id: {} marked as inactive", id);
-                });
+        modify(id, expectedVersion, Map.of("active", false))
+                .ifPresent(device -> log.info("Device with id: {} marked as inactive", id));
     }
 
+    // Sets the changed fields with one findAndModify instead of reading the device and saving it back, so concurrent
+    // writers cannot overwrite each other. The device before the update is returned and the changes are applied
+    // to it here, which gives both the previous attributes for the readings and the new device without another read.
+    // Fields changed to null are removed rather than set to null, which the sparse serial number index would still hold.
+    // Changing an attribute readings carry marks the device metaSyncPending in the same write, so the copy done by
+    // ReadingMetaReconciler cannot be lost once the change is committed
+    private Optional<Device> modify(String id, Long expectedVersion, Map<String, Object> changes) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        Update update = new Update().inc("version", 1);
+        changes.forEach((field, value) -> {
+            if (value == null) {
+                update.unset(field);
+            } else {
+                update.set(field, value);
+            }
+        });
+        boolean marked = changes.keySet().stream().anyMatch(META_FIELDS::contains);
+        if (marked) {
+            update.set("metaSyncPending", true);
+        }
+        Device device;
+        try {
+            device = deviceRepository.findAndUpdate(id, expectedVersion, update);
+        } catch (DuplicateKeyException e) {
+            throw serialNumberTaken((String) changes.get("serialNumber"));
+        }
+        if (device == null) {
+            // Only a failed precondition pays for the second read that tells a stale version from a missing device
+            if (expectedVersion != null && deviceRepository.existsById(id)) {
+                throw new PreconditionFailedException("Device " + id + " is no longer at version " + expectedVersion);
+            }
+            return Optional.empty();
+        }
+
+        ReadingMeta previousMeta = ReadingMeta.of(device);
+        boolean wasPending = device.isMetaSyncPending();
+        PropertyAccessorFactory.forDirectFieldAccess(device).setPropertyValues(changes);
+        device.setVersion(device.getVersion() + 1);
+        if (marked && !wasPending && previousMeta.equals(ReadingMeta.of(device))) {
+            // Set to the values it had, so there is nothing to copy unless the device was changed again since
+            device.setMetaSyncPending(!deviceRepository.clearMetaSyncPending(id, device.getVersion()));
+        } else {
+            device.setMetaSyncPending(wasPending || marked);
+        }
+        deviceCache.invalidate(id);
+        deviceRegistry.put(device);
+        describe(device);
+        return Optional.of(device);
+    }
+
+    private static ConflictException serialNumberTaken(String serialNumber) {
+        return new ConflictException("Serial number " + serialNumber + " is already used by another device");
+    }
+
+    private static void putIfPresent(Map<String, Object> changes, String field, Object value) {
+        if (value != null) {
+            changes.put(field, value);
+        }
+    }
+
+    public List<Device> saveAll(List<DeviceDTO> deviceDTOs) {
+        log.info("Saving {} devices", deviceDTOs.size());
+        return upsertAll(deviceDTOs.stream().map(deviceMapper::toEntity).toList()).devices();
+    }
+
+    // Upserts by serial number with one bulk write. Devices that existed before are marked metaSyncPending like update
+    // does when the row changes an attribute their readings carry
+    public UpsertResult upsertAll(List<Device> devices) {
+        Set<String> serialNumbers = devices.stream().map(Device::getSerialNumber).collect(Collectors.toSet());
+        Map<String, Device> previousDevices = deviceRepository.findBySerialNumberIn(serialNumbers).stream()
+                .collect(Collectors.toMap(Device::getSerialNumber, Function.identity()));
+        devices.forEach(device -> {
+            Device previousDevice = previousDevices.get(device.getSerialNumber());
+            device.setMetaSyncPending(previousDevice != null && metaChanged(previousDevice, device));
+        });
+        Map<Integer, String> errors = deviceRepository.upsertBySerialNumber(devices);
+
+        int created = 0;
+        Set<String> existing = new HashSet<>(previousDevices.keySet());
+        for (int i = 0; i < devices.size(); i++) {
+            if (!errors.containsKey(i) && existing.add(devices.get(i).getSerialNumber())) {
+                created++;
+            }
+        }
+
+        List<Device> savedDevices = deviceRepository.findBySerialNumberIn(serialNumbers);
+        deviceRegistry.putAll(savedDevices);
+        savedDevices.forEach(device -> {
+            deviceCache.invalidate(device.getId());
+            if (previousDevices.containsKey(device.getSerialNumber())) {
+                describe(device);
+            }
+        });
+        return new UpsertResult(savedDevices, created, devices.size() - errors.size() - created, errors);
+    }
+
+    // Failed rows by their index in the upserted list
+    public record UpsertResult(List<Device> devices, int created, int updated, Map<Integer, String> errors) {
+    }
+
+    private static boolean metaChanged(Device previousDevice, Device device) {
+        return previousDevice.getType() != device.getType()
+                || !Objects.equals(previousDevice.getZone(), device.getZone())
+                || previousDevice.isActive() != device.isActive();
+    }
+
+    // The in-memory views of readings follow the device at once, stored readings and rollups through ReadingMetaReconciler
+    private void describe(Device device) {
+        hotWindows.describe(device);
+        latestReadings.describe(device);
+    }
+
+    // Devices missing from the registry may have just been created by another instance, so they are looked up in the database
     public Optional<Device> findById(String id) {
-        return deviceRepository.findById(id);
+        if (id == null) {
+            return Optional.empty();
+        }
+        return deviceRegistry.find(id)
+                .or(() -> deviceCache.get(id, deviceRepository::findById));
+    }
+
+    public Set<String> findExistingIds(Collection<String> ids) {
+        return findAllById(ids).keySet();
+    }
+
+    public Map<String, Device> findAllById(Collection<String> ids) {
+        Map<String, Device> devices = new HashMap<>(deviceRegistry.findAll(ids));
+        Set<String> missing = ids.stream()
+                .filter(id -> !devices.containsKey(id))
+                .collect(Collectors.toSet());
+        if (!missing.isEmpty()) {
+            deviceCache.getAll(missing, this::loadDevices).values().stream()
+                    .flatMap(Optional::stream)
+                    .forEach(device -> devices.put(device.getId(), device));
+        }
+        return devices;
+    }
+
+    private Map<String, Optional<Device>> loadDevices(Set<? extends String> ids) {
+        Map<String, Optional<Device>> devices = new HashMap<>();
+        ids.forEach(id -> devices.put(id, Optional.empty()));
+        deviceRepository.findAllById(Set.copyOf(ids)).forEach(device -> devices.put(device.getId(), Optional.of(device)));
+        return devices;
     }
 
     public List<Device> findByTypesIdsAndZone(List<DeviceType> types, List<String> ids, String zone) {
         log.info("Finding devices with filters - Types: {}, Ids: {}, Zone: {}", types, ids, zone);
-        return deviceRepository.findByTypesIdsAndOptionalZone(types, ids, zone);
+        return deviceRegistry.isLoaded()
+                ? deviceRegistry.find(types, ids, zone)
+                : deviceRepository.findByTypesIdsAndOptionalZone(types, ids, zone);
+    }
+
+    // Only asked when an aggregation is empty, so a miss is confirmed with the database in case the registry lags behind
+    public boolean existsByTypesIdsAndZone(List<DeviceType> types, List<String> ids, String zone) {
+        return deviceRegistry.exists(types, ids, zone) || deviceRepository.existsByTypesIdsAndOptionalZone(types, ids, zone);
     }
 
     public List<Device> findAll() {
@@ -62,7 +266,9 @@ public class DeviceService {
 
     public List<Device> findAllActiveDevices() {
         log.info("Finding all active devices");
-        return deviceRepository.findByActive(true);
+        return deviceRegistry.isLoaded()
+                ? deviceRegistry.findAllActive()
+                : deviceRepository.findByActive(true);
     }
 
 }
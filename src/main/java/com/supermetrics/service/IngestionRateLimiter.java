@@ -0,0 +1,120 @@
+package com.supermetrics.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.RateLimitProperties;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.mapper.ReadingRequestMapper;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+// Token buckets per device id and per device configuration, implemented with the generic cell rate algorithm:
+// each bucket is a single theoretical arrival time updated with compare-and-set, so admission never takes a lock
+@Component
+public class IngestionRateLimiter {
+
+    private static final String DEVICE_PREFIX = "device:";
+    private static final String BRAND_PREFIX = "brand:";
+
+    private final RateLimitProperties properties;
+    private final ReadingRequestMapper readingRequestMapper;
+    private final LongSupplier nanoClock;
+    private final Cache<String, AtomicLong> buckets;
+
+    private final Counter deviceLimited;
+    private final Counter brandLimited;
+
+    @Autowired
+    public IngestionRateLimiter(RateLimitProperties properties, ReadingRequestMapper readingRequestMapper, MeterRegistry meterRegistry) {
+        this(properties, readingRequestMapper, meterRegistry, System::nanoTime);
+    }
+
+    IngestionRateLimiter(RateLimitProperties properties, ReadingRequestMapper readingRequestMapper, MeterRegistry meterRegistry,
+                         LongSupplier nanoClock) {
+        this.properties = properties;
+        this.readingRequestMapper = readingRequestMapper;
+        this.nanoClock = nanoClock;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxTrackedKeys())
+                .expireAfterAccess(idleTimeout(properties))
+                .build();
+
+        this.deviceLimited = Counter.builder("readings.rate-limited")
+                .tag("scope", "device")
+                .description("Readings refused because their device exceeded its rate")
+                .register(meterRegistry);
+        this.brandLimited = Counter.builder("readings.rate-limited")
+                .tag("scope", "brand")
+                .description("Readings refused because their device configuration exceeded its rate")
+                .register(meterRegistry);
+    }
+
+    // Returns how long to wait when the reading is not admitted
+    public Optional<Duration> tryAcquire(String deviceId, ReadingRequest request) {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+
+        if (deviceId != null) {
+            long wait = tryAcquire(DEVICE_PREFIX + deviceId, properties.getDevice());
+            if (wait > 0) {
+                deviceLimited.increment();
+                return Optional.of(Duration.ofNanos(wait));
+            }
+        }
+
+        String deviceKey = readingRequestMapper.deviceKeyOf(request);
+        if (deviceKey != null) {
+            long wait = tryAcquire(BRAND_PREFIX + deviceKey, properties.brandLimit(deviceKey));
+            if (wait > 0) {
+                brandLimited.increment();
+                return Optional.of(Duration.ofNanos(wait));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    private long tryAcquire(String key, RateLimitProperties.Limit limit) {
+        long emissionInterval = (long) (TimeUnit.SECONDS.toNanos(1) / limit.getRate());
+        long burstTolerance = emissionInterval * (limit.getBurst() - 1L);
+        AtomicLong theoreticalArrival = buckets.get(key, ignored -> new AtomicLong(Long.MIN_VALUE));
+
+        while (true) {
+            long now = nanoClock.getAsLong();
+            long current = theoreticalArrival.get();
+            long start = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+            // Admitted while the bucket is no more than the burst ahead of real time
+            long wait = start - now - burstTolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(current, start + emissionInterval)) {
+                return 0;
+            }
+        }
+    }
+
+    // A bucket idle for longer than it takes to refill completely is indistinguishable from a new one
+    private static Duration idleTimeout(RateLimitProperties properties) {
+        return Stream.concat(Stream.of(properties.getDevice(), properties.getBrand()), properties.getBrands().values().stream())
+                .map(IngestionRateLimiter::refillTime)
+                .max(Comparator.naturalOrder())
+                .orElseThrow()
+                .plusSeconds(1);
+    }
+
+    private static Duration refillTime(RateLimitProperties.Limit limit) {
+        return Duration.ofNanos((long) (TimeUnit.SECONDS.toNanos(1) * limit.getBurst() / limit.getRate()));
+    }
+}
@@ -0,0 +1,229 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.LatestReadingProperties;
+import com.supermetrics.dto.LatestReadingResponse;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.DeviceRepository;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+// The latest reading of every device, kept in memory so current state queries never aggregate the readings.
+// Devices are also indexed by zone, the filter dashboards use most. Fed with every reading accepted by this instance,
+// and reloaded from the database once a minute for the readings other instances took
+@Slf4j
+@Component
+public class LatestReadingRegistry implements SmartLifecycle {
+
+    // Start after the layout migration, before readings are accepted
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 8189;
+    private static final int DEVICE_BATCH = 1000;
+
+    private final ReadingRepository readingRepository;
+    private final DeviceRepository deviceRepository;
+    private final LatestReadingProperties properties;
+    private final LongSupplier clock;
+    private final Map<String, LatestReading> latestReadings = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> devicesByZone = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+
+    @Autowired
+    public LatestReadingRegistry(ReadingRepository readingRepository, DeviceRepository deviceRepository,
+                                 LatestReadingProperties properties, MeterRegistry meterRegistry) {
+        this(readingRepository, deviceRepository, properties, meterRegistry, System::currentTimeMillis);
+    }
+
+    LatestReadingRegistry(ReadingRepository readingRepository, DeviceRepository deviceRepository,
+                          LatestReadingProperties properties, MeterRegistry meterRegistry, LongSupplier clock) {
+        this.readingRepository = readingRepository;
+        this.deviceRepository = deviceRepository;
+        this.properties = properties;
+        this.clock = clock;
+
+        Gauge.builder("readings.latest.devices", latestReadings, Map::size)
+                .description("Devices with a latest reading in memory")
+                .register(meterRegistry);
+    }
+
+    // A reading only replaces the latest one when it is newer, so late readings never roll the state back. Readings dated
+    // in the future beyond max-clock-skew are left out, they would hide every reading until the clock reaches them
+    public void record(Reading reading, String deviceName) {
+        if (toEpochMilli(reading.getTimestamp()) > clock.getAsLong() + properties.getMaxClockSkew().toMillis()) {
+            return;
+        }
+        latestReadings.compute(reading.getDeviceId(), (deviceId, previous) -> {
+            if (previous != null && previous.timestamp().isAfter(reading.getTimestamp())) {
+                return previous;
+            }
+            LatestReading latest = new LatestReading(deviceName != null || previous == null ? deviceName : previous.deviceName(),
+                    reading.getMeta(), reading.getValue(), reading.getUnit(), reading.getTimestamp());
+            index(deviceId, previous, latest);
+            return latest;
+        });
+    }
+
+    public void record(List<Reading> readings, Map<String, Device> devices) {
+        readings.forEach(reading -> {
+            Device device = devices.get(reading.getDeviceId());
+            record(reading, device == null ? null : device.getName());
+        });
+    }
+
+    // Keeps the name and filter attributes current when a device changes between its readings
+    public void describe(Device device) {
+        latestReadings.computeIfPresent(device.getId(), (deviceId, previous) -> {
+            LatestReading latest = previous.describe(device.getName(), ReadingMeta.of(device));
+            index(deviceId, previous, latest);
+            return latest;
+        });
+    }
+
+    // Same filters as DeviceRepositoryCustom.findByTypesIdsAndOptionalZone: optional types, ids and zone, active devices only
+    public List<LatestReadingResponse> find(List<DeviceType> types, List<String> ids, String zone) {
+        Collection<String> candidates;
+        if (ids != null && !ids.isEmpty()) {
+            candidates = new LinkedHashSet<>(ids);
+        } else if (zone != null) {
+            candidates = devicesByZone.getOrDefault(zone, Set.of());
+        } else {
+            candidates = latestReadings.keySet();
+        }
+
+        long now = clock.getAsLong();
+        List<LatestReadingResponse> results = new ArrayList<>();
+        for (String deviceId : candidates) {
+            LatestReading latest = latestReadings.get(deviceId);
+            if (latest != null && latest.matches(types, zone)) {
+                // Only readings within max-clock-skew of now are recorded, which read as current
+                results.add(new LatestReadingResponse(deviceId, latest.deviceName(), latest.value(), latest.unit(), latest.timestamp(),
+                        Math.max(0, now - toEpochMilli(latest.timestamp()))));
+            }
+        }
+        results.sort(Comparator.comparing(LatestReadingResponse::deviceName, Comparator.nullsLast(Comparator.naturalOrder())));
+        return results;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        long start = System.nanoTime();
+        int loaded = load();
+        log.info("Loaded the latest reading of {} devices in {} ms", loaded, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Takes up readings of other instances. Newer readings recorded meanwhile are kept, as record never rolls back
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void refresh() {
+        if (!running || !properties.isRefresh()) {
+            return;
+        }
+        try {
+            load();
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh the latest readings: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    // The lastpoint query, bounded like record so a reading dated in the future does not hide the ones before it.
+    // Names are not stored with the readings, they are loaded for every device seen for the first time
+    private int load() {
+        LocalDateTime until = toLocalDateTime(clock.getAsLong() + properties.getMaxClockSkew().toMillis());
+        List<String> newDeviceIds = new ArrayList<>();
+        int loaded = 0;
+        try (Stream<Reading> readings = readingRepository.streamLatestPerDevice(until)) {
+            for (Reading reading : (Iterable<Reading>) readings::iterator) {
+                if (!latestReadings.containsKey(reading.getDeviceId())) {
+                    newDeviceIds.add(reading.getDeviceId());
+                }
+                record(reading, null);
+                loaded++;
+            }
+        }
+
+        for (int from = 0; from < newDeviceIds.size(); from += DEVICE_BATCH) {
+            deviceRepository.findAllById(newDeviceIds.subList(from, Math.min(from + DEVICE_BATCH, newDeviceIds.size())))
+                    .forEach(this::describe);
+        }
+        return loaded;
+    }
+
+    private void index(String deviceId, LatestReading previous, LatestReading latest) {
+        String previousZone = previous == null ? null : previous.zone();
+        if (Objects.equals(previousZone, latest.zone())) {
+            return;
+        }
+        Set<String> previousZoneDevices = previousZone == null ? null : devicesByZone.get(previousZone);
+        if (previousZoneDevices != null) {
+            previousZoneDevices.remove(deviceId);
+        }
+        if (latest.zone() != null) {
+            devicesByZone.computeIfAbsent(latest.zone(), zone -> ConcurrentHashMap.newKeySet()).add(deviceId);
+        }
+    }
+
+    private static long toEpochMilli(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
+    }
+
+    private record LatestReading(String deviceName, ReadingMeta meta, double value, String unit, LocalDateTime timestamp) {
+
+        private String zone() {
+            return meta == null ? null : meta.getZone();
+        }
+
+        private LatestReading describe(String deviceName, ReadingMeta meta) {
+            return new LatestReading(deviceName, meta, value, unit, timestamp);
+        }
+
+        private boolean matches(List<DeviceType> types, String zone) {
+            return meta != null
+                    && meta.isActive()
+                    && (types == null || types.isEmpty() || types.contains(meta.getType()))
+                    && (zone == null || zone.equals(meta.getZone()));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.supermetrics.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.ReadingStorageProperties;
+import com.supermetrics.model.Reading;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
+
+// Applies the raw payload policy to readings right before they are written. With COMPRESS the payloads are taken off the
+// readings, and once the readings are written those of a whole write are stored as one gzip compressed block of JSON
+// lines, which compresses far better than single payloads. The block lists the reading ids in the order of its lines
+@Slf4j
+@Component
+public class RawPayloadArchiver {
+
+    private final MongoTemplate mongoTemplate;
+    private final ReadingStorageProperties properties;
+    private final ObjectWriter payloadWriter;
+
+    private final Counter archivedPayloads;
+    private final Counter failedPayloads;
+
+    public RawPayloadArchiver(MongoTemplate mongoTemplate, ReadingStorageProperties properties, ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.properties = properties;
+        this.payloadWriter = objectMapper.writer();
+
+        this.archivedPayloads = Counter.builder("readings.raw-payload.archived")
+                .description("Vendor payloads written to the compressed side collection")
+                .register(meterRegistry);
+        this.failedPayloads = Counter.builder("readings.raw-payload.failed")
+                .description("Vendor payloads lost because the compressed side collection could not be written")
+                .register(meterRegistry);
+    }
+
+    public List<DetachedPayload> apply(Reading reading) {
+        return apply(List.of(reading));
+    }
+
+    // Returns the payloads taken off the readings, which are only archived by passing them to archive after the write
+    public List<DetachedPayload> apply(List<Reading> readings) {
+        switch (properties.getRawPayload()) {
+            case KEEP -> {
+            }
+            case DROP -> readings.forEach(reading -> reading.setDeviceReading(null));
+            case SAMPLE -> readings.forEach(reading -> {
+                if (ThreadLocalRandom.current().nextDouble() >= properties.getRawPayloadSampleRate()) {
+                    reading.setDeviceReading(null);
+                }
+            });
+            case COMPRESS -> {
+                return detach(readings);
+            }
+        }
+        return List.of();
+    }
+
+    // Archives the payloads of the readings that were written, so a failed write leaves no payload without its reading
+    public void archive(List<DetachedPayload> payloads, List<Reading> written) {
+        if (payloads.isEmpty() || written.isEmpty()) {
+            return;
+        }
+        Set<Reading> writtenReadings = Collections.newSetFromMap(new IdentityHashMap<>());
+        writtenReadings.addAll(written);
+        List<DetachedPayload> archived = payloads.stream()
+                .filter(payload -> writtenReadings.contains(payload.reading()))
+                .toList();
+        if (archived.isEmpty()) {
+            return;
+        }
+
+        // A lost payload only loses the original vendor representation, the reading itself is already written
+        try {
+            Date from = archived.stream()
+                    .map(payload -> payload.reading().getTimestamp())
+                    .filter(Objects::nonNull)
+                    .min(Comparator.naturalOrder())
+                    .map(timestamp -> Date.from(timestamp.atZone(ZoneId.systemDefault()).toInstant()))
+                    .orElse(null);
+            Document block = new Document("t", from)
+                    .append("n", archived.size())
+                    .append("i", archived.stream().map(payload -> storedId(payload.reading())).toList())
+                    .append("p", new Binary(compress(archived)));
+            mongoTemplate.insert(block, properties.getRawPayloadCollection());
+            archivedPayloads.increment(archived.size());
+        } catch (IOException | RuntimeException e) {
+            failedPayloads.increment(archived.size());
+            log.warn("Failed to archive {} raw payloads: {}", archived.size(), e.getMessage());
+        }
+    }
+
+    // Readings get their id here rather than from the insert, so the archived block can name them
+    private static List<DetachedPayload> detach(List<Reading> readings) {
+        List<DetachedPayload> payloads = new ArrayList<>(readings.size());
+        for (Reading reading : readings) {
+            if (reading.getDeviceReading() == null) {
+                continue;
+            }
+            if (reading.getId() == null) {
+                reading.setId(new ObjectId().toHexString());
+            }
+            payloads.add(new DetachedPayload(reading, reading.getDeviceReading()));
+            reading.setDeviceReading(null);
+        }
+        return payloads;
+    }
+
+    // The id as the reading stores it, hex strings are mapped to ObjectIds
+    private static Object storedId(Reading reading) {
+        return ObjectId.isValid(reading.getId()) ? new ObjectId(reading.getId()) : reading.getId();
+    }
+
+    private byte[] compress(List<DetachedPayload> payloads) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            for (DetachedPayload payload : payloads) {
+                gzip.write(payloadWriter.writeValueAsBytes(payload.payload()));
+                gzip.write('\n');
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    public record DetachedPayload(Reading reading, Object payload) {
+    }
+}
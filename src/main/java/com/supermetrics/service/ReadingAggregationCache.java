@@ -0,0 +1,243 @@
+package com.supermetrics.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.AggregationCacheProperties;
+import com.supermetrics.dto.ReadingAggregationResponse;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.RollupResolution;
+import com.supermetrics.repository.ReadingAggregate;
+import com.supermetrics.repository.ReadingRollupPlan;
+import com.supermetrics.repository.ReadingRollupPlan.TimeRange;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// Aggregations are split into chunks aligned to the configured buckets. Chunks that ended in the past are cached by filter
+// until evicted, the unaligned start and the live tail of the range are always aggregated from the database.
+// Every chunk has a version that written readings bump, so a late reading invalidates the cached chunks it falls into.
+// Versions only follow the readings written by this instance, so chunks within the late-data horizon also expire after
+// a time to live, which bounds how long a late reading written by another instance is missing from them. Chunks beyond
+// the horizon rarely change and stay until they are evicted for size
+@Component
+public class ReadingAggregationCache {
+
+    private static final String CACHE_NAME = "reading-aggregations";
+
+    // Rough heap size of the cached objects, for the size bound
+    private static final int ENTRY_BYTES = 128;
+    private static final int AGGREGATE_BYTES = 96;
+    private static final int SKETCH_BIN_BYTES = 80;
+
+    // Caffeine treats durations of about 150 years or more as never expiring
+    private static final Duration NEVER = Duration.ofDays(365 * 200);
+
+    private final ReadingAggregationFanOut fanOut;
+    private final AggregationCacheProperties properties;
+    private final LongSupplier clock;
+    private final Cache<ChunkKey, List<ReadingAggregate>> cache;
+    private final Map<LocalDateTime, ChunkVersion> chunkVersions = new ConcurrentHashMap<>();
+    private final AtomicLong lastVersion = new AtomicLong();
+
+    @Autowired
+    public ReadingAggregationCache(ReadingAggregationFanOut fanOut, AggregationCacheProperties properties, MeterRegistry meterRegistry) {
+        this(fanOut, properties, meterRegistry, System::currentTimeMillis);
+    }
+
+    ReadingAggregationCache(ReadingAggregationFanOut fanOut, AggregationCacheProperties properties, MeterRegistry meterRegistry,
+                            LongSupplier clock) {
+        this.fanOut = fanOut;
+        this.properties = properties;
+        this.clock = clock;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaximumSize().toBytes())
+                .weigher(ReadingAggregationCache::weigh)
+                .expireAfter(Expiry.<ChunkKey, List<ReadingAggregate>>creating((key, aggregates) ->
+                        isSettled(key.chunkStart()) ? NEVER : properties.getTimeToLive()))
+                .ticker(() -> TimeUnit.MILLISECONDS.toNanos(clock.getAsLong()))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        Gauge.builder("readings.aggregation-cache.hit-ratio", cache, cache -> cache.stats().hitRate())
+                .description("Share of closed chunks answered from the cache")
+                .register(meterRegistry);
+        Gauge.builder("readings.aggregation-cache.bytes", cache, cache -> cache.policy().eviction()
+                        .map(eviction -> eviction.weightedSize().orElse(0))
+                        .orElse(0L))
+                .description("Estimated memory held by cached chunks")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public List<ReadingAggregationResponse> aggregate(DeviceCategory category, List<String> deviceIds, String zone,
+                                                      LocalDateTime startTime, LocalDateTime endTime) {
+
+        TimeRange range = ReadingRollupPlan.range(startTime, endTime);
+        RollupResolution chunk = properties.getChunk();
+        LocalDateTime closedUntil = chunk.truncate(now().minus(properties.getCloseAfter()));
+        LocalDateTime firstChunk = chunk.ceil(range.from());
+        LocalDateTime chunksEnd = min(chunk.truncate(range.to()), closedUntil);
+
+        List<TimeRange> uncached = new ArrayList<>();
+        List<LocalDateTime> chunks = new ArrayList<>();
+        if (properties.isEnabled() && firstChunk.isBefore(chunksEnd)) {
+            addIfNotEmpty(uncached, range.from(), firstChunk);
+            for (LocalDateTime chunkStart = firstChunk; chunkStart.isBefore(chunksEnd); chunkStart = chunkStart.plus(1, chunk.getUnit())) {
+                chunks.add(chunkStart);
+            }
+            addIfNotEmpty(uncached, chunksEnd, range.to());
+        } else {
+            uncached.add(range);
+        }
+
+        Map<String, ReadingAggregate> merged = new HashMap<>();
+        chunkAggregates(category, deviceIds, zone, chunks).forEach(aggregate -> merge(merged, aggregate));
+        if (!uncached.isEmpty()) {
+            fanOut.aggregate(category, deviceIds, zone, uncached)
+                    .forEach(aggregate -> merge(merged, aggregate));
+        }
+        return merged.values().stream()
+                .map(ReadingAggregate::toResponse)
+                .toList();
+    }
+
+    // Called once readings are written, so an aggregation that starts afterwards can no longer use a chunk cached before
+    public void invalidate(List<Reading> readings) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Set<LocalDateTime> chunks = new HashSet<>();
+        for (Reading reading : readings) {
+            chunks.add(properties.getChunk().truncate(reading.getTimestamp()));
+        }
+        long bumpedAt = clock.getAsLong();
+        chunks.forEach(chunkStart -> chunkVersions.put(chunkStart, new ChunkVersion(lastVersion.incrementAndGet(), bumpedAt)));
+    }
+
+    // A version is forgotten once every chunk cached under an older one has expired. Versions are unique, so the chunk
+    // falls back to version 0, which only chunks cached before its first invalidation had, and those are gone too.
+    // Chunks beyond the late-data horizon never expire, so their versions are kept, they are only bumped by late readings
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void pruneVersions() {
+        long expiredBefore = clock.getAsLong() - 2 * properties.getTimeToLive().toMillis();
+        chunkVersions.entrySet().removeIf(entry -> entry.getValue().bumpedAt() < expiredBefore && !isSettled(entry.getKey()));
+    }
+
+    // Whether the chunk ended before the late-data horizon, after which readings for it are rare
+    private boolean isSettled(LocalDateTime chunkStart) {
+        return !chunkStart.plus(1, properties.getChunk().getUnit()).isAfter(now().minus(properties.getLateDataHorizon()));
+    }
+
+    int versionCount() {
+        return chunkVersions.size();
+    }
+
+    // Cached chunks were filtered by the device attributes of their time, so they go when a device changes
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    // Chunks missing from the cache are aggregated by chunk in one query, and cached empty when they had no readings
+    private List<ReadingAggregate> chunkAggregates(DeviceCategory category, List<String> deviceIds, String zone, List<LocalDateTime> chunks) {
+        if (chunks.isEmpty()) {
+            return List.of();
+        }
+
+        List<String> sortedIds = deviceIds == null ? List.of() : deviceIds.stream().sorted().distinct().toList();
+        Map<LocalDateTime, ChunkKey> keys = new LinkedHashMap<>();
+        for (LocalDateTime chunkStart : chunks) {
+            // Versions are read before querying, so a chunk loaded while readings are written is cached under the old one
+            ChunkVersion version = chunkVersions.get(chunkStart);
+            keys.put(chunkStart, new ChunkKey(category, sortedIds, zone, chunkStart, version == null ? 0 : version.version()));
+        }
+        Map<ChunkKey, List<ReadingAggregate>> cached = cache.getAllPresent(keys.values());
+
+        List<ReadingAggregate> aggregates = new ArrayList<>();
+        cached.values().forEach(aggregates::addAll);
+        List<TimeRange> missing = new ArrayList<>();
+        keys.forEach((chunkStart, key) -> {
+            if (!cached.containsKey(key)) {
+                addOrExtend(missing, chunkStart, chunkStart.plus(1, properties.getChunk().getUnit()));
+            }
+        });
+        if (missing.isEmpty()) {
+            return aggregates;
+        }
+
+        Map<LocalDateTime, List<ReadingAggregate>> loaded = new HashMap<>();
+        fanOut.aggregateByBucket(category, deviceIds, zone, missing, properties.getChunk())
+                .forEach(aggregate -> loaded.computeIfAbsent(aggregate.bucketStart(), ignored -> new ArrayList<>()).add(aggregate));
+        keys.forEach((chunkStart, key) -> {
+            if (!cached.containsKey(key)) {
+                List<ReadingAggregate> chunkAggregates = loaded.getOrDefault(chunkStart, List.of());
+                cache.put(key, chunkAggregates);
+                aggregates.addAll(chunkAggregates);
+            }
+        });
+        return aggregates;
+    }
+
+    private LocalDateTime now() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(clock.getAsLong()), ZoneId.systemDefault());
+    }
+
+    private static void merge(Map<String, ReadingAggregate> merged, ReadingAggregate aggregate) {
+        merged.merge(aggregate.deviceId(), aggregate, ReadingAggregate::merge);
+    }
+
+    private static void addIfNotEmpty(List<TimeRange> ranges, LocalDateTime from, LocalDateTime to) {
+        if (from.isBefore(to)) {
+            ranges.add(new TimeRange(from, to));
+        }
+    }
+
+    // Consecutive missing chunks become one range, so the plan can use coarser buckets across them
+    private static void addOrExtend(List<TimeRange> ranges, LocalDateTime from, LocalDateTime to) {
+        int last = ranges.size() - 1;
+        if (last >= 0 && ranges.get(last).to().equals(from)) {
+            ranges.set(last, new TimeRange(ranges.get(last).from(), to));
+        } else {
+            ranges.add(new TimeRange(from, to));
+        }
+    }
+
+    private static LocalDateTime min(LocalDateTime first, LocalDateTime second) {
+        return first.isBefore(second) ? first : second;
+    }
+
+    private static int weigh(ChunkKey key, List<ReadingAggregate> aggregates) {
+        int bytes = ENTRY_BYTES + 2 * key.deviceIds().stream().mapToInt(String::length).sum();
+        for (ReadingAggregate aggregate : aggregates) {
+            bytes += AGGREGATE_BYTES + 2 * aggregate.deviceId().length() + SKETCH_BIN_BYTES * aggregate.sketch().size();
+        }
+        return bytes;
+    }
+
+    private record ChunkVersion(long version, long bumpedAt) {
+    }
+
+    private record ChunkKey(DeviceCategory category, List<String> deviceIds, String zone, LocalDateTime chunkStart, long version) {
+    }
+}
@@ -0,0 +1,159 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.AggregationFanOutProperties;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.RollupResolution;
+import com.supermetrics.repository.ReadingAggregate;
+import com.supermetrics.repository.ReadingRepository;
+import com.supermetrics.repository.ReadingRollupPlan.TimeRange;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+// One aggregation pipeline runs on a single thread in MongoDB, so long ranges and long device lists are split into chunks
+// that are aggregated concurrently and merged. Chunk boundaries fall on rollup buckets, so every chunk still reads whole
+// rollups and a bucket is never split between two chunks
+@Component
+public class ReadingAggregationFanOut {
+
+    private final ReadingRepository readingRepository;
+    private final ReadingRollupService rollupService;
+    private final AggregationFanOutProperties properties;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final DistributionSummary chunksPerAggregation;
+
+    public ReadingAggregationFanOut(ReadingRepository readingRepository, ReadingRollupService rollupService,
+                                    AggregationFanOutProperties properties, MeterRegistry meterRegistry) {
+        this.readingRepository = readingRepository;
+        this.rollupService = rollupService;
+        this.properties = properties;
+        // Chunks mostly wait on MongoDB, so each gets a virtual thread and the permits bound how many query at once
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("reading-aggregation-", 0).factory());
+        this.permits = new Semaphore(properties.getParallelism());
+        this.chunksPerAggregation = DistributionSummary.builder("readings.aggregation.fan-out.chunks")
+                .description("Chunks an aggregation was split into")
+                .register(meterRegistry);
+    }
+
+    // One partial per device over all ranges
+    public List<ReadingAggregate> aggregate(DeviceCategory category, List<String> deviceIds, String zone, List<TimeRange> ranges) {
+        List<ReadingAggregate> partials = fanOut(deviceIds, ranges, RollupResolution.DAY, (ids, chunk) ->
+                readingRepository.getAllAggregations(category, ids, zone, rollupService.plan(chunk, RollupResolution.DAY)));
+
+        Map<String, ReadingAggregate> merged = new HashMap<>();
+        partials.forEach(partial -> merged.merge(partial.deviceId(), partial, ReadingAggregate::merge));
+        return new ArrayList<>(merged.values());
+    }
+
+    // One partial per device and bucket, chunks never share a bucket so their results only need to be concatenated
+    public List<ReadingAggregate> aggregateByBucket(DeviceCategory category, List<String> deviceIds, String zone,
+                                                    List<TimeRange> ranges, RollupResolution bucket) {
+        return fanOut(deviceIds, ranges, bucket, (ids, chunk) ->
+                readingRepository.getAggregationsByBucket(category, ids, zone, rollupService.plan(chunk, bucket), bucket));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private List<ReadingAggregate> fanOut(List<String> deviceIds, List<TimeRange> ranges, RollupResolution alignment,
+                                          BiFunction<List<String>, List<TimeRange>, List<ReadingAggregate>> query) {
+        if (!properties.isEnabled()) {
+            return query.apply(deviceIds, ranges);
+        }
+
+        List<List<TimeRange>> timeChunks = splitRanges(ranges, alignment);
+        List<List<String>> deviceChunks = splitDevices(deviceIds);
+        chunksPerAggregation.record(timeChunks.size() * deviceChunks.size());
+        if (timeChunks.size() * deviceChunks.size() == 1) {
+            return query.apply(deviceIds, ranges);
+        }
+
+        List<CompletableFuture<List<ReadingAggregate>>> futures = new ArrayList<>();
+        for (List<String> ids : deviceChunks) {
+            for (List<TimeRange> chunk : timeChunks) {
+                futures.add(CompletableFuture.supplyAsync(() -> withPermit(() -> query.apply(ids, chunk)), executor));
+            }
+        }
+
+        List<ReadingAggregate> partials = new ArrayList<>();
+        try {
+            futures.forEach(future -> partials.addAll(future.join()));
+        } catch (CompletionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        return partials;
+    }
+
+    private <T> T withPermit(Supplier<T> query) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        try {
+            return query.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Ranges are cut where a chunk ends, rounded down to the alignment, and ranges close to each other share a chunk
+    List<List<TimeRange>> splitRanges(List<TimeRange> ranges, RollupResolution alignment) {
+        List<List<TimeRange>> chunks = new ArrayList<>();
+        List<TimeRange> chunk = new ArrayList<>();
+        for (TimeRange range : ranges) {
+            LocalDateTime from = range.from();
+            while (from.isBefore(range.to())) {
+                LocalDateTime end = alignment.truncate(from.plus(properties.getChunkSize()));
+                if (!end.isAfter(from)) {
+                    end = alignment.ceil(from.plus(properties.getChunkSize()));
+                }
+                if (end.isAfter(range.to())) {
+                    end = range.to();
+                }
+                if (!chunk.isEmpty() && chunk.get(0).from().plus(properties.getChunkSize()).isBefore(end)) {
+                    chunks.add(chunk);
+                    chunk = new ArrayList<>();
+                }
+                chunk.add(new TimeRange(from, end));
+                from = end;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    // Without device ids every device is aggregated, which only a single chunk can express
+    private List<List<String>> splitDevices(List<String> deviceIds) {
+        if (deviceIds == null || deviceIds.size() <= properties.getMaxDevicesPerChunk()) {
+            return Collections.singletonList(deviceIds);
+        }
+        List<List<String>> chunks = new ArrayList<>();
+        for (int start = 0; start < deviceIds.size(); start += properties.getMaxDevicesPerChunk()) {
+            chunks.add(deviceIds.subList(start, Math.min(start + properties.getMaxDevicesPerChunk(), deviceIds.size())));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,169 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.DeduplicationProperties;
+import com.supermetrics.model.Reading;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Detects readings already stored for the same device and timestamp, as sent again by devices retrying after a timeout.
+// Recent readings are kept in rotating Bloom filters, so only probable duplicates cost a database query
+@Component
+public class ReadingDeduplicator {
+
+    private final ReadingRepository readingRepository;
+    private final DeduplicationProperties properties;
+    private final long rotationNanos;
+
+    private final Counter probableDuplicates;
+    private final Counter confirmedDuplicates;
+
+    // Newest generation first, readings are added to the newest and looked up in all of them
+    private volatile BloomFilter[] generations;
+    private volatile long nextRotation;
+
+    public ReadingDeduplicator(ReadingRepository readingRepository, DeduplicationProperties properties, MeterRegistry meterRegistry) {
+        this.readingRepository = readingRepository;
+        this.properties = properties;
+        this.rotationNanos = properties.getWindow().toNanos() / properties.getGenerations();
+        this.generations = new BloomFilter[properties.getGenerations()];
+        for (int i = 0; i < generations.length; i++) {
+            generations[i] = newGeneration();
+        }
+        this.nextRotation = System.nanoTime() + rotationNanos;
+
+        this.probableDuplicates = Counter.builder("readings.deduplication.probable")
+                .description("Readings the filters reported as possibly seen, checked against the database")
+                .register(meterRegistry);
+        this.confirmedDuplicates = Counter.builder("readings.deduplication.duplicates")
+                .description("Readings skipped because they were already stored or repeated in the same batch")
+                .register(meterRegistry);
+    }
+
+    public boolean isDuplicate(Reading reading) {
+        return !findDuplicates(List.of(reading)).isEmpty();
+    }
+
+    // Returns the positions of readings that are already stored, or that repeat an earlier reading of the same list
+    public Set<Integer> findDuplicates(List<Reading> readings) {
+        if (!properties.isEnabled() || readings.isEmpty()) {
+            return Set.of();
+        }
+        rotateIfDue();
+
+        Set<Integer> duplicates = new HashSet<>();
+        Map<ReadingKey, Integer> firstPositions = new HashMap<>();
+        List<Integer> probable = new ArrayList<>();
+        BloomFilter[] current = generations;
+        for (int position = 0; position < readings.size(); position++) {
+            ReadingKey key = ReadingKey.of(readings.get(position));
+            if (firstPositions.putIfAbsent(key, position) != null) {
+                duplicates.add(position);
+            } else if (mightContain(current, key.hash())) {
+                probable.add(position);
+            }
+        }
+
+        if (!probable.isEmpty()) {
+            probableDuplicates.increment(probable.size());
+            Set<ReadingKey> stored = findStoredKeys(probable.stream().map(readings::get).toList());
+            probable.stream()
+                    .filter(position -> stored.contains(ReadingKey.of(readings.get(position))))
+                    .forEach(duplicates::add);
+        }
+
+        confirmedDuplicates.increment(duplicates.size());
+        return duplicates;
+    }
+
+    public void remember(List<Reading> readings) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        rotateIfDue();
+
+        BloomFilter newest = generations[0];
+        readings.forEach(reading -> newest.put(ReadingKey.of(reading).hash()));
+    }
+
+    public void remember(Reading reading) {
+        remember(List.of(reading));
+    }
+
+    private Set<ReadingKey> findStoredKeys(List<Reading> readings) {
+        Set<String> deviceIds = readings.stream().map(Reading::getDeviceId).collect(Collectors.toSet());
+        Set<LocalDateTime> timestamps = readings.stream().map(Reading::getTimestamp).collect(Collectors.toSet());
+        return readingRepository.findByMetaDeviceIdInAndTimestampIn(deviceIds, timestamps).stream()
+                .map(ReadingKey::of)
+                .collect(Collectors.toSet());
+    }
+
+    private static boolean mightContain(BloomFilter[] generations, long hash) {
+        for (BloomFilter generation : generations) {
+            if (generation.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rotateIfDue() {
+        long now = System.nanoTime();
+        if (now - nextRotation < 0) {
+            return;
+        }
+
+        synchronized (this) {
+            if (now - nextRotation < 0) {
+                return;
+            }
+
+            // After an idle period several generations may have expired at once
+            int expired = (int) Math.min(generations.length, (now - nextRotation) / rotationNanos + 1);
+            BloomFilter[] rotated = new BloomFilter[generations.length];
+            for (int i = 0; i < expired; i++) {
+                rotated[i] = newGeneration();
+            }
+            System.arraycopy(generations, 0, rotated, expired, generations.length - expired);
+            generations = rotated;
+            nextRotation = now + rotationNanos;
+        }
+    }
+
+    private BloomFilter newGeneration() {
+        return new BloomFilter(properties.getExpectedReadingsPerGeneration(), properties.getFalsePositiveRate());
+    }
+
+    // Timestamps are stored with millisecond precision, so the key uses the same precision
+    private record ReadingKey(String deviceId, LocalDateTime timestamp) {
+
+        static ReadingKey of(Reading reading) {
+            LocalDateTime timestamp = reading.getTimestamp() == null ? null : reading.getTimestamp().truncatedTo(ChronoUnit.MILLIS);
+            return new ReadingKey(reading.getDeviceId(), timestamp);
+        }
+
+        long hash() {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < deviceId.length(); i++) {
+                hash ^= deviceId.charAt(i);
+                hash *= 0x100000001B3L;
+            }
+            if (timestamp != null) {
+                hash ^= timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + timestamp.getNano();
+            }
+            return BloomFilter.mix(hash);
+        }
+    }
+}
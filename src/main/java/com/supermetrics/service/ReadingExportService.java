@@ -0,0 +1,68 @@
+package com.supermetrics.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import com.supermetrics.config.ReadingExportProperties;
+import com.supermetrics.dto.RawReadingResponse;
+import com.supermetrics.exception.BadRequestException;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Raw readings are read from a database cursor while they are written to the response, so memory stays the same
+// whatever the range. The streams hold that cursor and must be closed by the caller
+@Service
+@RequiredArgsConstructor
+public class ReadingExportService {
+
+    private final ReadingRepository readingRepository;
+    private final ReadingExportProperties properties;
+
+    // The next page starts after the device and timestamp of the last reading of this one
+    public Stream<RawReadingResponse> streamPage(
+            DeviceCategory category,
+            List<String> deviceIds,
+            String zone,
+            LocalDateTime startTime,
+            LocalDateTime endTime,
+            String afterDeviceId,
+            LocalDateTime afterTimestamp,
+            Integer limit) {
+
+        int pageSize = limit == null ? properties.getDefaultLimit() : limit;
+        if (pageSize < 1 || pageSize > properties.getMaxLimit()) {
+            throw new BadRequestException("Limit must be between 1 and " + properties.getMaxLimit());
+        }
+        return stream(category, deviceIds, zone, startTime, endTime, afterDeviceId, afterTimestamp, pageSize);
+    }
+
+    // An interrupted export is resumed the same way as a page, after the last reading received
+    public Stream<RawReadingResponse> streamExport(
+            DeviceCategory category,
+            List<String> deviceIds,
+            String zone,
+            LocalDateTime startTime,
+            LocalDateTime endTime,
+            String afterDeviceId,
+            LocalDateTime afterTimestamp) {
+
+        return stream(category, deviceIds, zone, startTime, endTime, afterDeviceId, afterTimestamp, 0);
+    }
+
+    private Stream<RawReadingResponse> stream(DeviceCategory category, List<String> deviceIds, String zone, LocalDateTime startTime,
+                                              LocalDateTime endTime, String afterDeviceId, LocalDateTime afterTimestamp, int limit) {
+        if (endTime.isBefore(startTime)) {
+            throw new BadRequestException("End time must not be before start time");
+        }
+        if ((afterDeviceId == null) != (afterTimestamp == null)) {
+            throw new BadRequestException("afterDeviceId and afterTimestamp must be given together");
+        }
+
+        return readingRepository.streamRaw(category, deviceIds, zone, startTime, endTime, afterDeviceId, afterTimestamp,
+                        limit, properties.getBatchSize())
+                .map(reading -> new RawReadingResponse(reading.getDeviceId(), reading.getTimestamp(), reading.getValue(), reading.getUnit()));
+    }
+}
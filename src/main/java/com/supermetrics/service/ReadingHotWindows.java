@@ -0,0 +1,227 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.HotWindowProperties;
+import com.supermetrics.dto.ReadingAggregationResponse;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.repository.DeviceRepository;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+// Rolling aggregations over the last minutes of every device, answered from memory without querying the database.
+// Fed with every reading accepted by this instance and warmed up from the database on startup, so it only sees every
+// reading while a single instance takes them, see HotWindowProperties
+@Slf4j
+@Component
+public class ReadingHotWindows implements SmartLifecycle {
+
+    // Start after the layout migration and the rollups, before readings are accepted
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 8190;
+    private static final int WARM_UP_DEVICE_BATCH = 1000;
+
+    private final HotWindowProperties properties;
+    private final ReadingRepository readingRepository;
+    private final DeviceRepository deviceRepository;
+    private final LongSupplier clock;
+    private final long[] windowMillis;
+    private final long maxClockSkewMillis;
+    private final Map<String, DeviceReadingWindow> devices = new ConcurrentHashMap<>();
+
+    private final Counter refusedReadings;
+
+    private volatile boolean running;
+
+    @Autowired
+    public ReadingHotWindows(HotWindowProperties properties, ReadingRepository readingRepository, DeviceRepository deviceRepository,
+                             MeterRegistry meterRegistry) {
+        this(properties, readingRepository, deviceRepository, meterRegistry, System::currentTimeMillis);
+    }
+
+    ReadingHotWindows(HotWindowProperties properties, ReadingRepository readingRepository, DeviceRepository deviceRepository,
+                      MeterRegistry meterRegistry, LongSupplier clock) {
+        this.properties = properties;
+        this.readingRepository = readingRepository;
+        this.deviceRepository = deviceRepository;
+        this.clock = clock;
+        this.windowMillis = properties.getWindows().stream()
+                .mapToLong(Duration::toMillis)
+                .filter(millis -> millis > 0)
+                .sorted()
+                .distinct()
+                .toArray();
+        this.maxClockSkewMillis = properties.getMaxClockSkew().toMillis();
+
+        Gauge.builder("readings.hot-window.devices", devices, Map::size)
+                .description("Devices with readings in the in-memory windows")
+                .register(meterRegistry);
+        this.refusedReadings = Counter.builder("readings.hot-window.refused")
+                .description("Readings left out of the in-memory windows, because they arrived out of order, too late or dated in the future, or the device limit was reached")
+                .register(meterRegistry);
+    }
+
+    public boolean supports(Duration window) {
+        return properties.isEnabled() && Arrays.binarySearch(windowMillis, window.toMillis()) >= 0;
+    }
+
+    public void record(Reading reading, String deviceName) {
+        if (!properties.isEnabled() || windowMillis.length == 0) {
+            return;
+        }
+
+        long timestamp = toEpochMilli(reading.getTimestamp());
+        long now = clock.getAsLong();
+        // Would stay the newest reading of its device and refuse every reading before it until it is reached
+        if (timestamp > now + maxClockSkewMillis) {
+            refusedReadings.increment();
+            return;
+        }
+        // Added under the map entry lock, so a window that is being evicted as idle never swallows a reading
+        devices.compute(reading.getDeviceId(), (deviceId, window) -> {
+            if (window == null) {
+                if (devices.size() >= properties.getMaxDevices()) {
+                    refusedReadings.increment();
+                    return null;
+                }
+                window = new DeviceReadingWindow(windowMillis, properties.getInitialCapacity(), properties.getMaxReadingsPerDevice());
+            }
+            if (!window.add(timestamp, reading.getValue(), now)) {
+                refusedReadings.increment();
+            }
+            window.describe(deviceName, reading.getMeta());
+            return window.isEmpty(now) ? null : window;
+        });
+    }
+
+    public void record(List<Reading> readings, Map<String, Device> devicesById) {
+        readings.forEach(reading -> record(reading, nameOf(devicesById.get(reading.getDeviceId()))));
+    }
+
+    // Keeps the filter attributes and name of a device current between its readings
+    public void describe(Device device) {
+        DeviceReadingWindow window = devices.get(device.getId());
+        if (window != null) {
+            window.describe(device.getName(), ReadingMeta.of(device));
+        }
+    }
+
+    // Same filters and shape as the aggregation over the database, for a window that ends now. Empty when a matching
+    // device dropped readings of the window to stay within max-readings-per-device or refused one that arrived out of
+    // order, as its statistics would be partial
+    public Optional<List<ReadingAggregationResponse>> aggregate(DeviceCategory category, List<String> deviceIds, String zone, Duration window) {
+        int windowIndex = Arrays.binarySearch(windowMillis, window.toMillis());
+        if (!properties.isEnabled() || windowIndex < 0) {
+            throw new IllegalArgumentException("No in-memory window of " + window);
+        }
+
+        long now = clock.getAsLong();
+        Collection<String> candidates = deviceIds == null || deviceIds.isEmpty() ? devices.keySet() : new HashSet<>(deviceIds);
+        List<ReadingAggregationResponse> results = new ArrayList<>();
+        for (String deviceId : candidates) {
+            DeviceReadingWindow deviceWindow = devices.get(deviceId);
+            if (deviceWindow == null || !matches(deviceWindow.meta(), category, zone)) {
+                continue;
+            }
+            if (deviceWindow.isIncomplete(windowIndex, now)) {
+                log.debug("Device {} left out readings of the last {}, aggregating from the database", deviceId, window);
+                return Optional.empty();
+            }
+            DeviceReadingWindow.Statistics statistics = deviceWindow.statistics(windowIndex, now);
+            if (statistics != null) {
+                results.add(new ReadingAggregationResponse(deviceId, deviceWindow.deviceName(), statistics.sum() / statistics.count(),
+                        statistics.max(), statistics.min(), statistics.count(), statistics.p50(), statistics.p95(), statistics.p99()));
+            }
+        }
+        return Optional.of(results);
+    }
+
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void evictIdleDevices() {
+        long now = clock.getAsLong();
+        devices.keySet().forEach(deviceId -> devices.computeIfPresent(deviceId, (id, window) -> window.isEmpty(now) ? null : window));
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (properties.isEnabled() && properties.isWarmUp() && windowMillis.length > 0) {
+            warmUp();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    // Readings come sorted by device and time, the order every device window needs
+    private void warmUp() {
+        long start = System.nanoTime();
+        LocalDateTime since = LocalDateTime.now().minus(Duration.ofMillis(windowMillis[windowMillis.length - 1]));
+        long count = 0;
+        try (Stream<Reading> readings = readingRepository.findByTimestampAfterOrderByMetaDeviceIdAscTimestampAsc(since)) {
+            for (Iterator<Reading> iterator = readings.iterator(); iterator.hasNext(); count++) {
+                record(iterator.next(), null);
+            }
+        }
+
+        // Names are not stored with the readings, they are loaded once for every device that has a window
+        List<String> deviceIds = new ArrayList<>(devices.keySet());
+        for (int from = 0; from < deviceIds.size(); from += WARM_UP_DEVICE_BATCH) {
+            deviceRepository.findAllById(deviceIds.subList(from, Math.min(from + WARM_UP_DEVICE_BATCH, deviceIds.size())))
+                    .forEach(this::describe);
+        }
+
+        log.info("Loaded {} readings of {} devices into the in-memory windows in {} ms", count, devices.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static boolean matches(ReadingMeta meta, DeviceCategory category, String zone) {
+        return meta != null
+                && meta.isActive()
+                && (category == null || category == meta.getCategory())
+                && (zone == null || zone.equals(meta.getZone()));
+    }
+
+    private static String nameOf(Device device) {
+        return device == null ? null : device.getName();
+    }
+
+    private static long toEpochMilli(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
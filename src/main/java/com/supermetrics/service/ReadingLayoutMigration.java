@@ -0,0 +1,484 @@
+package com.supermetrics.service;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.ReadingStorageProperties;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+// Copies readings stored with a previous layout (long field names, string device ids, inline vendor payloads and _class
+// hints, or a plain device id as metaField) from the legacy collection into the readings collection. A time series
+// collection can neither change its time or meta field nor be renamed, so readings with the current layout have a
+// collection of their own and the legacy one is only read. The copy is a background job that only runs when enabled, on
+// the one instance holding its lease, one time range of legacy readings after another. Progress is recorded after every
+// batch, so a migration that stopped continues in the range it was copying, on any instance
+@Slf4j
+@Component
+public class ReadingLayoutMigration implements SmartLifecycle {
+
+    // Start before anything that writes readings, so the readings collection is a time series before the first write
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 8192;
+
+    private static final String CURRENT_TIME_FIELD = "t";
+
+    static final String STATE_COLLECTION = "migrations";
+    static final String STATE_ID = "reading-layout";
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
+    private final ReadingRepository readingRepository;
+    private final DeviceService deviceService;
+    private final RawPayloadArchiver rawPayloadArchiver;
+    private final ReadingRollupService rollupService;
+    private final ReadingAggregationCache aggregationCache;
+    private final ReadingStorageProperties properties;
+    private final LongSupplier clock;
+    private final ExecutorService executor;
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // Set once this instance has queued the migration and until it returns, so it never runs twice here
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private volatile boolean completed;
+    private volatile boolean stopping;
+    private volatile boolean running;
+
+    @Autowired
+    public ReadingLayoutMigration(MongoTemplate mongoTemplate, MongoMappingContext mappingContext, ReadingRepository readingRepository,
+                                  DeviceService deviceService, RawPayloadArchiver rawPayloadArchiver, ReadingRollupService rollupService,
+                                  ReadingAggregationCache aggregationCache, ReadingStorageProperties properties) {
+        this(mongoTemplate, mappingContext, readingRepository, deviceService, rawPayloadArchiver, rollupService, aggregationCache,
+                properties, System::currentTimeMillis);
+    }
+
+    ReadingLayoutMigration(MongoTemplate mongoTemplate, MongoMappingContext mappingContext, ReadingRepository readingRepository,
+                           DeviceService deviceService, RawPayloadArchiver rawPayloadArchiver, ReadingRollupService rollupService,
+                           ReadingAggregationCache aggregationCache, ReadingStorageProperties properties, LongSupplier clock) {
+        this.mongoTemplate = mongoTemplate;
+        this.mappingContext = mappingContext;
+        this.readingRepository = readingRepository;
+        this.deviceService = deviceService;
+        this.rawPayloadArchiver = rawPayloadArchiver;
+        this.rollupService = rollupService;
+        this.aggregationCache = aggregationCache;
+        this.properties = properties;
+        this.clock = clock;
+        this.executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("reading-migration-"));
+    }
+
+    // Only reads the migration state, the copy itself never holds up startup
+    @Override
+    public void start() {
+        running = true;
+        ensureCollection();
+        if (!isPending()) {
+            return;
+        }
+        if (properties.getMigration().isEnabled()) {
+            submit();
+        } else {
+            log.warn("Readings in collection {} use a previous layout and are left out of every query until they are "
+                    + "migrated, set storage.readings.migration.enabled=true to copy them in the background",
+                    properties.getMigration().getLegacyCollection());
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    // Takes the migration over once the instance copying it stopped renewing its lease, and retries one that failed
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void resumeAbandoned() {
+        if (running && properties.getMigration().isEnabled() && isPending()) {
+            submit();
+        }
+    }
+
+    // A migration that is running is left as it is, and continues elsewhere once its lease expires
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        executor.shutdownNow();
+    }
+
+    private void submit() {
+        if (queued.compareAndSet(false, true)) {
+            executor.execute(this::run);
+        }
+    }
+
+    void run() {
+        try {
+            Document state = claim();
+            if (state == null) {
+                return;
+            }
+            try {
+                if (!migrate(state) && !stopping) {
+                    log.warn("The migration of readings was taken over by another instance");
+                }
+            } catch (RuntimeException e) {
+                if (stopping) {
+                    log.info("The migration of readings was stopped by shutdown");
+                    return;
+                }
+                log.error("The migration of readings failed, it is retried after {}", properties.getMigration().getLease(), e);
+            }
+        } finally {
+            queued.set(false);
+        }
+    }
+
+    // Index creation on startup creates the readings collection as a plain one when it does not exist yet, so as long as
+    // that one is still empty it is replaced by a time series collection
+    private void ensureCollection() {
+        String collection = mongoTemplate.getCollectionName(Reading.class);
+        Document options = collectionOptions(collection);
+        if (options != null && (options.containsKey("timeseries") || mongoTemplate.getCollection(collection).find().limit(1).first() != null)) {
+            return;
+        }
+        if (options != null) {
+            mongoTemplate.dropCollection(collection);
+        }
+        try {
+            mongoTemplate.createCollection(Reading.class);
+        } catch (RuntimeException e) {
+            // Another instance starting at the same time created it first
+            if (!mongoTemplate.collectionExists(collection)) {
+                throw e;
+            }
+            return;
+        }
+        IndexOperations indexOperations = mongoTemplate.indexOps(Reading.class);
+        IndexResolver.create(mappingContext).resolveIndexFor(Reading.class).forEach(indexOperations::createIndex);
+    }
+
+    // Once completed, or when there is no legacy collection, nothing is looked up again
+    private boolean isPending() {
+        if (completed) {
+            return false;
+        }
+        Document state = stateCollection().find(Filters.eq("_id", STATE_ID)).first();
+        completed = (state != null && state.getBoolean("completed", false))
+                || !mongoTemplate.collectionExists(properties.getMigration().getLegacyCollection());
+        return !completed;
+    }
+
+    // Atomic, so out of all instances looking at the migration only one copies readings. While another instance holds
+    // the lease, or the migration is completed, the upsert collides with the existing state and nothing is claimed
+    private Document claim() {
+        Instant now = now();
+        try {
+            return stateCollection().findOneAndUpdate(
+                    Filters.and(
+                            Filters.eq("_id", STATE_ID),
+                            Filters.ne("completed", true),
+                            Filters.or(
+                                    Filters.exists("owner", false),
+                                    Filters.lt("heartbeatAt", Date.from(now.minus(properties.getMigration().getLease()))))),
+                    Updates.combine(Updates.set("owner", instanceId), Updates.set("heartbeatAt", Date.from(now))),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        } catch (MongoCommandException e) {
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) == ErrorCategory.DUPLICATE_KEY) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    // False when the migration stopped before the end because of a shutdown or because another instance took it over
+    private boolean migrate(Document state) {
+        String legacyCollection = properties.getMigration().getLegacyCollection();
+        MongoCollection<Document> legacy = mongoTemplate.getCollection(legacyCollection);
+
+        // A migration claimed after it was started by someone else continues in the range that was being copied, some
+        // readings of which may already be written
+        boolean resuming = state.containsKey("timeField");
+        if (resuming) {
+            log.info("Resuming the migration of readings from {} at {}", legacyCollection, state.get("copiedUntil"));
+        } else {
+            state = begin(legacy, legacyCollection);
+            if (state == null) {
+                return false;
+            }
+        }
+
+        Date until = state.getDate("until");
+        Date from = state.getDate(state.containsKey("copiedUntil") ? "copiedUntil" : "from");
+        if (until != null) {
+            Instant rangeStart = from.toInstant();
+            boolean skipExisting = resuming;
+            while (rangeStart.isBefore(until.toInstant())) {
+                Instant rangeEnd = min(rangeStart.plus(properties.getMigration().getChunk()), until.toInstant());
+                if (!copyRange(legacy, state.getString("timeField"), rangeStart, rangeEnd, skipExisting)
+                        || !updateOwned(Updates.combine(Updates.set("copiedUntil", Date.from(rangeEnd)), Updates.set("heartbeatAt", Date.from(now()))))) {
+                    return false;
+                }
+                skipExisting = false;
+                rangeStart = rangeEnd;
+            }
+        }
+        return finish(legacyCollection);
+    }
+
+    // Records the time range to copy, the end is exclusive. New readings only go to the readings collection, so no
+    // legacy reading can appear after it
+    private Document begin(MongoCollection<Document> legacy, String legacyCollection) {
+        String timeField = legacyTimeField(legacy, legacyCollection);
+        Document range = legacy.aggregate(List.of(new Document("$group", new Document("_id", null)
+                .append("from", new Document("$min", "$" + timeField))
+                .append("until", new Document("$max", "$" + timeField))))).first();
+        String before = report(legacyCollection, null);
+        log.info("Migrating readings from {} to the current layout, before: {}", legacyCollection, before);
+
+        Date from = range == null ? null : range.getDate("from");
+        Date until = range == null || range.getDate("until") == null ? null : new Date(range.getDate("until").getTime() + 1);
+        Document update = new Document("timeField", timeField)
+                .append("from", from)
+                .append("until", until)
+                .append("before", before)
+                .append("copied", 0L)
+                .append("failed", 0L)
+                .append("heartbeatAt", Date.from(now()));
+        return updateOwned(new Document("$set", update)) ? update : null;
+    }
+
+    private boolean copyRange(MongoCollection<Document> legacy, String timeField, Instant from, Instant to, boolean skipExisting) {
+        int batchSize = properties.getMigration().getBatchSize();
+        List<Document> batch = new ArrayList<>(batchSize);
+        try (MongoCursor<Document> cursor = legacy.find(Filters.and(Filters.gte(timeField, Date.from(from)), Filters.lt(timeField, Date.from(to))))
+                .batchSize(batchSize)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == batchSize) {
+                    if (!copyBatch(batch, skipExisting)) {
+                        return false;
+                    }
+                    batch.clear();
+                }
+            }
+        }
+        return batch.isEmpty() || copyBatch(batch, skipExisting);
+    }
+
+    // The lease is renewed before every write, so an instance that lost it stops before writing into a range that
+    // another instance copies
+    private boolean copyBatch(List<Document> documents, boolean skipExisting) {
+        if (stopping || !updateOwned(Updates.set("heartbeatAt", Date.from(now())))) {
+            return false;
+        }
+        List<Reading> batch = documents.stream().map(ReadingLayoutMigration::toReading).toList();
+        List<Reading> remaining = skipExisting ? withoutExisting(batch) : batch;
+        int failed = remaining.isEmpty() ? 0 : write(remaining);
+        return updateOwned(Updates.combine(
+                Updates.inc("copied", (long) remaining.size() - failed),
+                Updates.inc("failed", (long) failed)));
+    }
+
+    // Readings keep their legacy _id, so the ones already written are found by it within the time span of the batch
+    private List<Reading> withoutExisting(List<Reading> readings) {
+        List<Reading> timed = readings.stream().filter(reading -> reading.getTimestamp() != null && reading.getId() != null).toList();
+        if (timed.isEmpty()) {
+            return readings;
+        }
+        LocalDateTime from = timed.stream().map(Reading::getTimestamp).min(Comparator.naturalOrder()).orElseThrow();
+        LocalDateTime to = timed.stream().map(Reading::getTimestamp).max(Comparator.naturalOrder()).orElseThrow();
+
+        Set<Object> existing = new HashSet<>();
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(Reading.class))
+                .find(Filters.and(
+                        Filters.gte(CURRENT_TIME_FIELD, toDate(from)),
+                        Filters.lte(CURRENT_TIME_FIELD, toDate(to)),
+                        Filters.in("_id", timed.stream().map(reading -> new ObjectId(reading.getId())).toList())))
+                .projection(new Document("_id", 1))
+                .forEach(document -> existing.add(document.getObjectId("_id").toHexString()));
+        return readings.stream().filter(reading -> !existing.contains(reading.getId())).toList();
+    }
+
+    private int write(List<Reading> batch) {
+        Map<String, Device> devices = deviceService.findAllById(batch.stream()
+                .map(Reading::getDeviceId)
+                .collect(Collectors.toSet()));
+        batch.forEach(reading -> Optional.ofNullable(devices.get(reading.getDeviceId()))
+                .ifPresent(device -> reading.setMeta(ReadingMeta.of(device))));
+
+        List<RawPayloadArchiver.DetachedPayload> payloads = rawPayloadArchiver.apply(batch);
+        Map<Integer, String> writeErrors = readingRepository.bulkInsert(batch);
+        if (!writeErrors.isEmpty()) {
+            log.error("Failed to migrate {} of {} readings: {}", writeErrors.size(), batch.size(), writeErrors.values());
+        }
+        List<Reading> written = new ArrayList<>(batch.size() - writeErrors.size());
+        for (int index = 0; index < batch.size(); index++) {
+            if (!writeErrors.containsKey(index)) {
+                written.add(batch.get(index));
+            }
+        }
+        rawPayloadArchiver.archive(payloads, written);
+        rollupService.record(written);
+        aggregationCache.invalidate(written);
+        return writeErrors.size();
+    }
+
+    private boolean finish(String legacyCollection) {
+        if (!updateOwned(Updates.combine(Updates.set("completed", true), Updates.set("completedAt", Date.from(now())), Updates.unset("owner")))) {
+            return false;
+        }
+        completed = true;
+        Document state = stateCollection().find(Filters.eq("_id", STATE_ID)).first();
+        long copied = state.get("copied", 0L);
+        long failed = state.get("failed", 0L);
+
+        log.info("Migrated {} readings ({} failed), before: {}, after: {}", copied, failed, state.get("before"),
+                report(mongoTemplate.getCollectionName(Reading.class), properties.getRawPayloadCollection()));
+
+        if (failed == 0 && properties.getMigration().isDropLegacy()) {
+            mongoTemplate.dropCollection(legacyCollection);
+            log.info("Dropped legacy readings collection {}", legacyCollection);
+        } else {
+            log.info("Legacy readings are kept in collection {}", legacyCollection);
+        }
+        return true;
+    }
+
+    // False once another instance has taken the migration over
+    private boolean updateOwned(Bson update) {
+        return stateCollection().updateOne(Filters.and(Filters.eq("_id", STATE_ID), Filters.eq("owner", instanceId)), update)
+                .getMatchedCount() > 0;
+    }
+
+    private MongoCollection<Document> stateCollection() {
+        return mongoTemplate.getCollection(STATE_COLLECTION);
+    }
+
+    // Reads both the original layout and the compact ones that kept the device id, or the device attributes, as metaField
+    private static Reading toReading(Document legacy) {
+        Document deviceReading = legacy.get(legacy.containsKey("deviceReading") ? "deviceReading" : "r", Document.class);
+        if (deviceReading != null) {
+            deviceReading.remove("_class");
+        }
+        Object deviceId = legacy.containsKey("deviceId") ? legacy.get("deviceId") : legacy.get("d");
+        if (deviceId instanceof Document meta) {
+            deviceId = meta.get("i");
+        }
+        Date timestamp = legacy.getDate(legacy.containsKey("timestamp") ? "timestamp" : "t");
+        Number value = legacy.get(legacy.containsKey("value") ? "value" : "v", Number.class);
+
+        // The legacy _id is kept, it is how a resumed migration recognises readings it already copied
+        Object id = legacy.get("_id");
+        return Reading.builder()
+                .id(id instanceof ObjectId objectId ? objectId.toHexString() : null)
+                .meta(ReadingMeta.of(deviceId instanceof ObjectId objectId ? objectId.toHexString() : String.valueOf(deviceId)))
+                .timestamp(timestamp == null ? null : LocalDateTime.ofInstant(timestamp.toInstant(), ZoneId.systemDefault()))
+                .value(value == null ? 0 : value.doubleValue())
+                .unit(legacy.getString(legacy.containsKey("unit") ? "unit" : "u"))
+                .deviceReading(deviceReading)
+                .metadata(legacy.get(legacy.containsKey("metadata") ? "metadata" : "m"))
+                .build();
+    }
+
+    // A legacy collection that is not a time series tells its layout by its documents
+    private String legacyTimeField(MongoCollection<Document> legacy, String legacyCollection) {
+        Document options = collectionOptions(legacyCollection);
+        Document timeseries = options == null ? null : options.get("timeseries", Document.class);
+        if (timeseries != null) {
+            return timeseries.getString("timeField");
+        }
+        return legacy.find(Filters.exists("timestamp")).limit(1).first() != null ? "timestamp" : CURRENT_TIME_FIELD;
+    }
+
+    private Document collectionOptions(String collection) {
+        Document info = mongoTemplate.getDb().listCollections().filter(new Document("name", collection)).first();
+        return info == null ? null : info.get("options", new Document());
+    }
+
+    // BSON bytes are the size of the documents as written, storage bytes what they take on disk after bucketing and compression
+    private String report(String collection, String sideCollection) {
+        Document sizes = mongoTemplate.getCollection(collection).aggregate(List.of(
+                new Document("$group", new Document("_id", null)
+                        .append("count", new Document("$sum", 1))
+                        .append("bytes", new Document("$sum", new Document("$bsonSize", "$$ROOT")))))).first();
+        long count = sizes == null ? 0 : sizes.get("count", Number.class).longValue();
+        long bsonBytes = sizes == null ? 0 : sizes.get("bytes", Number.class).longValue();
+
+        long storageBytes = storageSize(collection);
+        if (sideCollection != null && mongoTemplate.collectionExists(sideCollection)) {
+            storageBytes += storageSize(sideCollection);
+        }
+
+        if (count == 0) {
+            return "0 readings";
+        }
+        return String.format("%d readings, %.1f BSON bytes and %.1f storage bytes per reading",
+                count, (double) bsonBytes / count, (double) storageBytes / count);
+    }
+
+    private long storageSize(String collection) {
+        Document stats = mongoTemplate.getDb().runCommand(new Document("collStats", collection));
+        return stats.get("storageSize", Number.class).longValue();
+    }
+
+    private Instant now() {
+        return Instant.ofEpochMilli(clock.getAsLong());
+    }
+
+    private static Date toDate(LocalDateTime timestamp) {
+        return Date.from(timestamp.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private static Instant min(Instant first, Instant second) {
+        return first.isBefore(second) ? first : second;
+    }
+}
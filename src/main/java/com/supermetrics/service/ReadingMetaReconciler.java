@@ -0,0 +1,79 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.repository.DeviceRepository;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Readings and their rollups carry a copy of the device attributes they are filtered by. Writes that change one mark the
+// device metaSyncPending, and this copies the attributes of marked devices in the background. The mark is only removed
+// once the copy succeeded and while the device is still at the version that was copied, so failed copies, instances
+// stopped halfway and changes made meanwhile are all picked up again. Every instance runs it, copying twice is harmless
+@Slf4j
+@Component
+public class ReadingMetaReconciler {
+
+    // As many as DeviceRepository.findTop100ByMetaSyncPendingTrue returns
+    private static final int BATCH_SIZE = 100;
+
+    private final DeviceRepository deviceRepository;
+    private final ReadingRepository readingRepository;
+    private final ReadingRollupService rollupService;
+    private final ReadingAggregationCache aggregationCache;
+    private final Counter failedDevices;
+
+    public ReadingMetaReconciler(DeviceRepository deviceRepository, ReadingRepository readingRepository,
+                                 ReadingRollupService rollupService, ReadingAggregationCache aggregationCache,
+                                 MeterRegistry meterRegistry) {
+        this.deviceRepository = deviceRepository;
+        this.readingRepository = readingRepository;
+        this.rollupService = rollupService;
+        this.aggregationCache = aggregationCache;
+        this.failedDevices = Counter.builder("readings.meta.failed")
+                .description("Attempts to copy device attributes to readings that failed and are retried")
+                .register(meterRegistry);
+    }
+
+    // Continues with the next batch while the whole previous one was copied, devices that keep failing wait for the next run
+    @Scheduled(fixedDelay = 5, timeUnit = TimeUnit.SECONDS)
+    public void reconcile() {
+        List<Device> devices;
+        int copied;
+        do {
+            devices = deviceRepository.findTop100ByMetaSyncPendingTrue();
+            copied = 0;
+            for (Device device : devices) {
+                if (copy(device)) {
+                    copied++;
+                }
+            }
+            if (copied > 0) {
+                aggregationCache.invalidateAll();
+            }
+        } while (devices.size() == BATCH_SIZE && copied == devices.size());
+    }
+
+    private boolean copy(Device device) {
+        ReadingMeta meta = ReadingMeta.of(device);
+        try {
+            long updated = readingRepository.updateMeta(meta);
+            rollupService.updateMeta(meta);
+            boolean cleared = deviceRepository.clearMetaSyncPending(device.getId(), device.getVersion());
+            log.info("Copied attributes of device {} to its readings, {} modified{}", device.getId(), updated,
+                    cleared ? "" : ", copying again as it changed since");
+            return true;
+        } catch (RuntimeException e) {
+            failedDevices.increment();
+            log.warn("Failed to copy attributes of device {} to its readings, retrying: {}", device.getId(), e.getMessage());
+            return false;
+        }
+    }
+}
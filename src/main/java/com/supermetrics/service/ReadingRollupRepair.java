@@ -0,0 +1,116 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.RollupProperties;
+import com.supermetrics.repository.ReadingRollupRepository;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Recomputes the rollups of the days marked in reading_rollups_dirty, one device and day at a time, on its own thread so
+// neither startup nor other scheduled jobs wait for it. Every instance repairs, repairing a day twice gives the same rollups.
+// A full rebuild marks every day and leaves the rest to the repair
+@Slf4j
+@Component
+public class ReadingRollupRepair {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final ReadingRollupRepository rollupRepository;
+    private final ReadingRollupService rollupService;
+    private final ReadingAggregationCache aggregationCache;
+    private final RollupProperties properties;
+    private final ExecutorService executor;
+    private final Counter repairedDays;
+
+    // Set once a repair is queued and until it returns, so scheduled runs never pile up behind a long one
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private volatile boolean stopping;
+
+    public ReadingRollupRepair(ReadingRollupRepository rollupRepository, ReadingRollupService rollupService,
+                               ReadingAggregationCache aggregationCache, RollupProperties properties, MeterRegistry meterRegistry) {
+        this.rollupRepository = rollupRepository;
+        this.rollupService = rollupService;
+        this.aggregationCache = aggregationCache;
+        this.properties = properties;
+        this.executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("reading-rollup-repair-"));
+        this.repairedDays = Counter.builder("readings.rollups.repaired")
+                .description("Days of a device whose rollups were recomputed from the readings")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void repairDirty() {
+        if (properties.isEnabled() && queued.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                try {
+                    repair();
+                } finally {
+                    queued.set(false);
+                }
+            });
+        }
+    }
+
+    // Completes once every day is marked, the rollups are recomputed by the repairs that follow
+    public CompletableFuture<Void> rebuild() {
+        return CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            rollupRepository.markAllDirty();
+            log.info("Marked every day of the readings for a rollup rebuild in {} ms", (System.nanoTime() - start) / 1_000_000);
+            repair();
+        }, executor);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        executor.shutdownNow();
+    }
+
+    // Goes on while a batch repaired any of its days. Days that do not add up are left marked for the next run
+    void repair() {
+        try {
+            rollupService.markUnmarkedDays();
+            int repaired = 0;
+            List<Document> marks;
+            int batchRepaired;
+            do {
+                marks = rollupRepository.findDirty(BATCH_SIZE);
+                batchRepaired = 0;
+                for (Document mark : marks) {
+                    if (stopping) {
+                        return;
+                    }
+                    if (rollupRepository.repair(mark)) {
+                        rollupRepository.clearDirty(mark);
+                        batchRepaired++;
+                    }
+                }
+                repaired += batchRepaired;
+            } while (!marks.isEmpty() && batchRepaired > 0);
+
+            if (repaired > 0) {
+                repairedDays.increment(repaired);
+                aggregationCache.invalidateAll();
+                log.info("Repaired the rollups of {} days", repaired);
+            }
+            if (marks.isEmpty() && !rollupService.hasUnmarkedDays()) {
+                rollupService.checkComplete();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to repair reading rollups, retrying on the next run: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.RollupProperties;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.RollupResolution;
+import com.supermetrics.repository.ReadingRepository;
+import com.supermetrics.repository.ReadingRollupPlan;
+import com.supermetrics.repository.ReadingRollupRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps the minute, hour and day rollups in step with the readings. Rollups are updated right after readings are written
+// instead of by a periodic job, so late and back-dated readings land in their buckets as well. Days whose readings could
+// not be added are marked for ReadingRollupRepair
+@Slf4j
+@Component
+public class ReadingRollupService implements SmartLifecycle {
+
+    // Start after the layout migration and before anything that writes readings
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 8191;
+
+    private final ReadingRollupRepository rollupRepository;
+    private final ReadingRepository readingRepository;
+    private final RollupProperties properties;
+    private final Counter failedReadings;
+
+    // Days that could not be marked either, most likely in the same outage, until ReadingRollupRepair marks them
+    private final Set<Document> unmarkedDays = ConcurrentHashMap.newKeySet();
+
+    // False while rollups are missing or were left marked by a previous run, aggregations read raw readings until then
+    private volatile boolean complete = true;
+    private volatile boolean running;
+
+    public ReadingRollupService(ReadingRollupRepository rollupRepository, ReadingRepository readingRepository,
+                                RollupProperties properties, MeterRegistry meterRegistry) {
+        this.rollupRepository = rollupRepository;
+        this.readingRepository = readingRepository;
+        this.properties = properties;
+        this.failedReadings = Counter.builder("readings.rollups.failed")
+                .description("Written readings that could not be added to the rollups")
+                .register(meterRegistry);
+    }
+
+    public void record(Reading reading) {
+        record(List.of(reading));
+    }
+
+    // A reading is already stored when it gets here, so a failure only leaves the buckets of its day behind until
+    // ReadingRollupRepair recomputes them
+    public void record(List<Reading> readings) {
+        if (!properties.isEnabled() || readings.isEmpty()) {
+            return;
+        }
+
+        try {
+            rollupRepository.record(readings);
+        } catch (RuntimeException e) {
+            failedReadings.increment(readings.size());
+            log.error("Failed to add {} readings to the rollups, marking their days for repair: {}", readings.size(), e.getMessage());
+            markDirty(rollupRepository.dirtyDays(readings));
+        }
+    }
+
+    void markDirty(Set<Document> days) {
+        try {
+            rollupRepository.markDirty(days);
+        } catch (RuntimeException e) {
+            unmarkedDays.addAll(days);
+        }
+    }
+
+    // Marks the days kept here, called by the repair before it reads the marks
+    void markUnmarkedDays() {
+        Set<Document> days = Set.copyOf(unmarkedDays);
+        if (!days.isEmpty()) {
+            rollupRepository.markDirty(days);
+            unmarkedDays.removeAll(days);
+        }
+    }
+
+    boolean hasUnmarkedDays() {
+        return !unmarkedDays.isEmpty();
+    }
+
+    public void updateMeta(ReadingMeta meta) {
+        if (properties.isEnabled()) {
+            rollupRepository.updateMeta(meta);
+        }
+    }
+
+    public ReadingRollupPlan plan(LocalDateTime startTime, LocalDateTime endTime) {
+        return useRollups()
+                ? ReadingRollupPlan.of(startTime, endTime)
+                : ReadingRollupPlan.raw(startTime, endTime);
+    }
+
+    public ReadingRollupPlan plan(LocalDateTime startTime, LocalDateTime endTime, RollupResolution coarsest) {
+        return useRollups()
+                ? ReadingRollupPlan.of(startTime, endTime, coarsest)
+                : ReadingRollupPlan.raw(startTime, endTime);
+    }
+
+    public ReadingRollupPlan plan(List<ReadingRollupPlan.TimeRange> ranges, RollupResolution coarsest) {
+        return useRollups()
+                ? ReadingRollupPlan.of(ranges, coarsest)
+                : ReadingRollupPlan.raw(ranges);
+    }
+
+    private boolean useRollups() {
+        return properties.isEnabled() && complete;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    // Called by the repair once no day is marked any more. Rollups that were never built stay unused until they are rebuilt
+    void checkComplete() {
+        if (!complete && !isMissing()) {
+            complete = true;
+            log.info("Reading rollups are complete, aggregations use them again");
+        }
+    }
+
+    private boolean isMissing() {
+        return rollupRepository.lacksSketches() || (rollupRepository.isEmpty() && readingRepository.count() > 0);
+    }
+
+    // Only looks at the rollups, which are never rebuilt here, so startup does not wait for them
+    @Override
+    public void start() {
+        running = true;
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        rollupRepository.ensureIndexes();
+        if (isMissing()) {
+            complete = false;
+            log.warn("Reading rollups are missing or lack sketches, aggregations read the raw readings until they are "
+                    + "rebuilt with POST /readings/rollups/rebuild");
+        } else if (rollupRepository.hasDirty()) {
+            complete = false;
+            log.info("Reading rollups have days marked for repair, aggregations read the raw readings until they are repaired");
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+}
@@ -2,30 +2,54 @@ package com.supermetrics.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
+import com.supermetrics.dto.BatchReadingItemResult;
+import com.supermetrics.dto.BatchReadingResponse;
+import com.supermetrics.dto.LatestReadingResponse;
 import com.supermetrics.dto.ReadingAggregationResponse;
 import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.dto.ReadingSeriesPoint;
+import com.supermetrics.exception.BadRequestException;
 import com.supermetrics.exception.NotFoundException;
+import com.supermetrics.exception.TooManyRequestsException;
 import com.supermetrics.mapper.ReadingMapper;
 import com.supermetrics.model.Device;
 import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
 import com.supermetrics.model.enums.DeviceCategory;
 import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.model.enums.SeriesInterval;
 import com.supermetrics.repository.ReadingRepository;
+import com.supermetrics.security.DeviceAccess;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class ReadingService {
 
+    public static final int MAX_BATCH_SIZE = 10_000;
+
     private final ReadingRepository readingRepository;
     private final DeviceService deviceService;
     private final ReadingMapper readingMapper;
+    private final ReadingWriteBehindBuffer writeBehindBuffer;
+    private final ReadingDeduplicator deduplicator;
+    private final IngestionRateLimiter rateLimiter;
+    private final RawPayloadArchiver rawPayloadArchiver;
+    private final ReadingRollupService rollupService;
+    private final ReadingHotWindows hotWindows;
+    private final LatestReadingRegistry latestReadings;
+    private final ReadingAggregationCache aggregationCache;
 
     public List<ReadingAggregationResponse> findByDeviceCategoryWithAggregation(
             DeviceCategory category,
@@ -34,20 +58,90 @@ public class ReadingService {
             LocalDateTime startTime,
             LocalDateTime endTime) {
 
-        List<DeviceType> deviceTypes = DeviceType.getDevicesByCategory(category);
-        List<Device> devices = deviceService.findByTypesIdsAndZone(deviceTypes, deviceIds, zone);
+        List<ReadingAggregationResponse> results = aggregationCache.aggregate(category, deviceIds, zone, startTime, endTime);
+
+        // Only an empty result needs the devices collection, to tell apart unknown devices from a quiet period
+        if (results.isEmpty()) {
+            if (!deviceService.existsByTypesIdsAndZone(DeviceType.getDevicesByCategory(category), deviceIds, zone)) {
+                throw new NotFoundException("No devices found for the given criteria");
+            }
+            return results;
+        }
+
+        Map<String, Device> deviceMap = deviceService.findAllById(results.stream()
+                .map(ReadingAggregationResponse::getDeviceId)
+                .toList());
+
+        return filterAndSortAggregationResults(results, deviceMap);
+    }
+
+    // Windows kept in memory are answered without touching the database, any other window, or one that is missing
+    // readings in memory, falls back to the readings
+    public List<ReadingAggregationResponse> findRecentWithAggregation(
+            DeviceCategory category,
+            List<String> deviceIds,
+            String zone,
+            Duration window) {
+
+        if (window.isNegative() || window.isZero()) {
+            throw new BadRequestException("Window must be positive");
+        }
+
+        Optional<List<ReadingAggregationResponse>> hotResults = hotWindows.supports(window)
+                ? hotWindows.aggregate(category, deviceIds, zone, window)
+                : Optional.empty();
+        if (hotResults.isEmpty()) {
+            LocalDateTime endTime = LocalDateTime.now();
+            return findByDeviceCategoryWithAggregation(category, deviceIds, zone, endTime.minus(window), endTime);
+        }
 
-        if (devices.isEmpty()) {
+        List<ReadingAggregationResponse> results = hotResults.get();
+        if (results.isEmpty() && !deviceService.existsByTypesIdsAndZone(DeviceType.getDevicesByCategory(category), deviceIds, zone)) {
             throw new NotFoundException("No devices found for the given criteria");
         }
+        return results.stream()
+                .sorted(Comparator.comparing(ReadingAggregationResponse::getDeviceName, Comparator.nullsLast(Comparator.naturalOrder())))
+                .toList();
+    }
 
-        Map<String, Device> deviceMap = devices.stream()
-                .collect(Collectors.toMap(Device::getId, Function.identity()));
+    // The stream holds a database cursor and must be closed by the caller
+    public Stream<ReadingSeriesPoint> streamSeries(
+            DeviceCategory category,
+            List<String> deviceIds,
+            String zone,
+            String interval,
+            LocalDateTime startTime,
+            LocalDateTime endTime,
+            boolean fillGaps) {
 
-        List<ReadingAggregationResponse> results = readingRepository
-                .getAllAggregations(new ArrayList<>(deviceMap.keySet()), startTime, endTime);
+        SeriesInterval seriesInterval = SeriesInterval.fromValue(interval)
+                .orElseThrow(() -> new BadRequestException("Interval must be one of " + Arrays.stream(SeriesInterval.values())
+                        .map(SeriesInterval::getValue)
+                        .collect(Collectors.joining(", "))));
+        if (endTime.isBefore(startTime)) {
+            throw new BadRequestException("End time must not be before start time");
+        }
 
-        return filterAndSortAggregationResults(results, deviceMap);
+        Stream<ReadingSeriesPoint> points = readingRepository.streamSeries(category, deviceIds, zone,
+                rollupService.plan(startTime, endTime, seriesInterval.getResolution()), seriesInterval);
+        if (!fillGaps) {
+            return points;
+        }
+        SeriesGapFiller filled = new SeriesGapFiller(points.iterator(), seriesInterval, startTime, endTime);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(filled, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(points::close);
+    }
+
+    public List<LatestReadingResponse> findLatest(DeviceCategory category, List<DeviceType> types, List<String> deviceIds, String zone) {
+        List<DeviceType> deviceTypes = types == null ? List.of() : types;
+        if (category != null) {
+            List<DeviceType> categoryTypes = DeviceType.getDevicesByCategory(category);
+            deviceTypes = deviceTypes.isEmpty() ? categoryTypes : deviceTypes.stream().filter(categoryTypes::contains).toList();
+            if (deviceTypes.isEmpty()) {
+                return List.of();
+            }
+        }
+        return latestReadings.find(deviceTypes, deviceIds, zone);
     }
 
     private List<ReadingAggregationResponse> filterAndSortAggregationResults(List<ReadingAggregationResponse> results, Map<String, Device> deviceMap) {
@@ -56,17 +150,132 @@ public class ReadingService {
                         .ifPresent(device -> result.setDeviceName(device.getName())));
 
         return results.stream()
-                .sorted(Comparator.comparing(ReadingAggregationResponse::getDeviceName))
+                .sorted(Comparator.comparing(ReadingAggregationResponse::getDeviceName, Comparator.nullsLast(Comparator.naturalOrder())))
                 .toList();
     }
 
     public void saveReading(ReadingRequest request) {
         Reading reading = readingMapper.mapToReading(request);
 
-        deviceService.findById(reading.getDeviceId())
+        if (!DeviceAccess.writableDevices().test(reading.getDeviceId())) {
+            throw new AccessDeniedException("Not allowed to submit readings for device: " + reading.getDeviceId());
+        }
+
+        rateLimiter.tryAcquire(reading.getDeviceId(), request).ifPresent(retryAfter -> {
+            throw new TooManyRequestsException("Rate limit exceeded for device: " + reading.getDeviceId(), retryAfter);
+        });
+
+        Device device = deviceService.findById(reading.getDeviceId())
                 .orElseThrow(() -> new NotFoundException("Device not found: " + reading.getId()));
+        reading.setMeta(ReadingMeta.of(device));
+
+        // A retried reading is accepted again without being stored twice
+        if (deduplicator.isDuplicate(reading)) {
+            log.debug("Skipping duplicate reading for device {} at {}", reading.getDeviceId(), reading.getTimestamp());
+            return;
+        }
+
+        if (writeBehindBuffer.isEnabled()) {
+            writeBehindBuffer.submit(reading);
+        } else {
+            List<RawPayloadArchiver.DetachedPayload> payloads = rawPayloadArchiver.apply(reading);
+            readingRepository.save(reading);
+            rawPayloadArchiver.archive(payloads, List.of(reading));
+            rollupService.record(reading);
+            aggregationCache.invalidate(List.of(reading));
+        }
+        deduplicator.remember(reading);
+        hotWindows.record(reading, device.getName());
+        latestReadings.record(reading, device.getName());
+    }
+
+    public BatchReadingResponse saveReadings(List<Supplier<ReadingRequest>> requests) {
+        if (requests.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestException("Batch size exceeds the limit of " + MAX_BATCH_SIZE + " readings");
+        }
+
+        BatchReadingItemResult[] results = new BatchReadingItemResult[requests.size()];
+        Map<Integer, Reading> mappedReadings = new LinkedHashMap<>();
+        Predicate<String> writableDevices = DeviceAccess.writableDevices();
+        // A batch is charged once per device, so backfilling a device is limited by the number of batches it takes
+        Map<String, Optional<Duration>> admissions = new HashMap<>();
+
+        for (int index = 0; index < requests.size(); index++) {
+            try {
+                ReadingRequest request = requests.get(index).get();
+                Reading reading = readingMapper.mapToReading(request);
+                if (!writableDevices.test(reading.getDeviceId())) {
+                    results[index] = BatchReadingItemResult.rejected(index, "Not allowed to submit readings for device: " + reading.getDeviceId());
+                    continue;
+                }
+
+                Optional<Duration> retryAfter = admissions.computeIfAbsent(reading.getDeviceId(), deviceId -> rateLimiter.tryAcquire(deviceId, request));
+                if (retryAfter.isPresent()) {
+                    results[index] = BatchReadingItemResult.rejected(index, "Rate limit exceeded for device: " + reading.getDeviceId()
+                            + ", retry after " + retryAfter.get().toMillis() + " ms");
+                } else {
+                    mappedReadings.put(index, reading);
+                }
+            } catch (RuntimeException e) {
+                results[index] = BatchReadingItemResult.rejected(index, e.getMessage());
+            }
+        }
+
+        Map<String, Device> existingDevices = deviceService.findAllById(mappedReadings.values().stream()
+                .map(Reading::getDeviceId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet()));
+
+        List<Integer> candidateIndexes = new ArrayList<>(mappedReadings.size());
+        List<Reading> candidates = new ArrayList<>(mappedReadings.size());
+        mappedReadings.forEach((index, reading) -> {
+            Device device = existingDevices.get(reading.getDeviceId());
+            if (device != null) {
+                reading.setMeta(ReadingMeta.of(device));
+                candidateIndexes.add(index);
+                candidates.add(reading);
+            } else {
+                results[index] = BatchReadingItemResult.rejected(index, "Device not found: " + reading.getDeviceId());
+            }
+        });
+
+        Set<Integer> duplicates = deduplicator.findDuplicates(candidates);
+        List<Integer> indexes = new ArrayList<>(candidates.size());
+        List<Reading> readings = new ArrayList<>(candidates.size());
+        for (int position = 0; position < candidates.size(); position++) {
+            int index = candidateIndexes.get(position);
+            if (duplicates.contains(position)) {
+                results[index] = BatchReadingItemResult.duplicate(index);
+            } else {
+                indexes.add(index);
+                readings.add(candidates.get(position));
+            }
+        }
+
+        List<RawPayloadArchiver.DetachedPayload> payloads = rawPayloadArchiver.apply(readings);
+        Map<Integer, String> writeErrors = readingRepository.bulkInsert(readings);
+        List<Reading> savedReadings = new ArrayList<>(readings.size());
+        for (int position = 0; position < readings.size(); position++) {
+            int index = indexes.get(position);
+            String writeError = writeErrors.get(position);
+            if (writeError == null) {
+                results[index] = BatchReadingItemResult.saved(index);
+                savedReadings.add(readings.get(position));
+            } else {
+                results[index] = BatchReadingItemResult.rejected(index, writeError);
+            }
+        }
+        rawPayloadArchiver.archive(payloads, savedReadings);
+        deduplicator.remember(savedReadings);
+        rollupService.record(savedReadings);
+        aggregationCache.invalidate(savedReadings);
+        hotWindows.record(savedReadings, existingDevices);
+        latestReadings.record(savedReadings, existingDevices);
 
-        readingRepository.save(reading);
+        int saved = savedReadings.size();
+        int rejected = requests.size() - saved - duplicates.size();
+        log.debug("Saved {} of {} readings in batch, {} duplicates", saved, requests.size(), duplicates.size());
+        return new BatchReadingResponse(requests.size(), saved, rejected, duplicates.size(), Arrays.asList(results));
     }
 
 }
@@ -0,0 +1,226 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import com.supermetrics.config.WriteBehindProperties;
+import com.supermetrics.exception.ServiceUnavailableException;
+import com.supermetrics.model.Reading;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Component
+public class ReadingWriteBehindBuffer implements SmartLifecycle {
+
+    // Stop after the web server, so in-flight requests can still enqueue before the partitions are drained
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    private final ReadingRepository readingRepository;
+    private final RawPayloadArchiver rawPayloadArchiver;
+    private final ReadingRollupService rollupService;
+    private final ReadingAggregationCache aggregationCache;
+    private final WriteBehindProperties properties;
+    private final List<BlockingQueue<Reading>> partitions;
+
+    private final DistributionSummary flushSize;
+    private final Timer flushLatency;
+    private final Counter rejectedReadings;
+    private final Counter failedReadings;
+
+    private ExecutorService writers;
+    private volatile boolean running;
+
+    public ReadingWriteBehindBuffer(ReadingRepository readingRepository, RawPayloadArchiver rawPayloadArchiver,
+                                    ReadingRollupService rollupService, ReadingAggregationCache aggregationCache,
+                                    WriteBehindProperties properties, MeterRegistry meterRegistry) {
+        this.readingRepository = readingRepository;
+        this.rawPayloadArchiver = rawPayloadArchiver;
+        this.rollupService = rollupService;
+        this.aggregationCache = aggregationCache;
+        this.properties = properties;
+        this.partitions = new ArrayList<>(properties.getPartitions());
+        for (int i = 0; i < properties.getPartitions(); i++) {
+            partitions.add(new ArrayBlockingQueue<>(properties.getPartitionCapacity()));
+        }
+
+        Gauge.builder("readings.write-behind.queue.depth", this, ReadingWriteBehindBuffer::size)
+                .description("Readings accepted but not yet written to the database")
+                .register(meterRegistry);
+        this.flushSize = DistributionSummary.builder("readings.write-behind.flush.size")
+                .description("Readings written per bulk insert")
+                .register(meterRegistry);
+        this.flushLatency = Timer.builder("readings.write-behind.flush.latency")
+                .description("Time spent writing a bulk insert")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.rejectedReadings = Counter.builder("readings.write-behind.rejected")
+                .description("Readings refused because their partition was full")
+                .register(meterRegistry);
+        this.failedReadings = Counter.builder("readings.write-behind.failed")
+                .description("Readings that could not be written after every attempt")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public int size() {
+        return partitions.stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    public void submit(Reading reading) {
+        if (!running) {
+            throw new ServiceUnavailableException("Ingestion is not accepting readings", properties.getRetryAfter());
+        }
+
+        BlockingQueue<Reading> partition = partitions.get(Math.floorMod(reading.getDeviceId().hashCode(), partitions.size()));
+        if (!partition.offer(reading)) {
+            rejectedReadings.increment();
+            throw new ServiceUnavailableException("Ingestion buffer is full, retry later", properties.getRetryAfter());
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        log.info("Starting write-behind ingestion with {} partitions of {} readings",
+                properties.getPartitions(), properties.getPartitionCapacity());
+        running = true;
+        writers = Executors.newFixedThreadPool(partitions.size(), new CustomizableThreadFactory("reading-writer-"));
+        partitions.forEach(partition -> writers.execute(() -> drain(partition)));
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        log.info("Stopping write-behind ingestion, draining {} readings", size());
+        running = false;
+        writers.shutdown();
+        try {
+            if (!writers.awaitTermination(properties.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                log.error("Write-behind ingestion did not drain in time, {} readings were lost", size());
+                writers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writers.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    private void drain(BlockingQueue<Reading> partition) {
+        long flushIntervalNanos = properties.getFlushInterval().toNanos();
+
+        while (running || !partition.isEmpty()) {
+            try {
+                Reading first = partition.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<Reading> batch = new ArrayList<>(properties.getBatchSize());
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < properties.getBatchSize() && running) {
+                    partition.drainTo(batch, properties.getBatchSize() - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= properties.getBatchSize() || remaining <= 0) {
+                        break;
+                    }
+                    Reading next = partition.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                partition.drainTo(batch, properties.getBatchSize() - batch.size());
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Only the readings the bulk insert reported as failed are retried. Any other exception leaves it unknown which
+    // readings were stored, so the batch is not retried rather than risk writing readings twice
+    private void flush(List<Reading> batch) {
+        List<RawPayloadArchiver.DetachedPayload> payloads = rawPayloadArchiver.apply(batch);
+        List<Reading> pending = batch;
+        List<Reading> written = new ArrayList<>(batch.size());
+        for (int attempt = 1; ; attempt++) {
+            List<Reading> attempted = pending;
+            Map<Integer, String> writeErrors;
+            try {
+                writeErrors = flushLatency.record(() -> readingRepository.bulkInsert(attempted));
+            } catch (RuntimeException e) {
+                failedReadings.increment(attempted.size());
+                log.error("Failed to write {} buffered readings, not retrying as some may have been written: {}", attempted.size(), e.getMessage());
+                break;
+            }
+            flushSize.record(attempted.size());
+            written.addAll(select(attempted, writeErrors, false));
+            if (writeErrors.isEmpty()) {
+                break;
+            }
+            if (attempt >= properties.getMaxFlushAttempts()) {
+                failedReadings.increment(writeErrors.size());
+                log.error("Dropping {} buffered readings after {} attempts: {}", writeErrors.size(), attempt, writeErrors.values());
+                break;
+            }
+            log.warn("Attempt {} failed to write {} of {} buffered readings, retrying them: {}", attempt, writeErrors.size(), attempted.size(), writeErrors.values());
+            pending = select(attempted, writeErrors, true);
+        }
+
+        if (!written.isEmpty()) {
+            rawPayloadArchiver.archive(payloads, written);
+            rollupService.record(written);
+            aggregationCache.invalidate(written);
+        }
+    }
+
+    // The readings of the batch whose index is, or is not, among the write errors
+    private static List<Reading> select(List<Reading> batch, Map<Integer, String> writeErrors, boolean failed) {
+        if (writeErrors.isEmpty()) {
+            return failed ? List.of() : batch;
+        }
+        List<Reading> selected = new ArrayList<>(failed ? writeErrors.size() : batch.size() - writeErrors.size());
+        for (int index = 0; index < batch.size(); index++) {
+            if (writeErrors.containsKey(index) == failed) {
+                selected.add(batch.get(index));
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,68 @@
+package com.supermetrics.service;
+
+import com.supermetrics.dto.ReadingSeriesPoint;
+import com.supermetrics.model.enums.SeriesInterval;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Adds an empty point for every bucket without readings, between the first and the last bucket of the range.
+// Points must arrive sorted by device and time; gaps are generated lazily, so filling never buffers a series
+final class SeriesGapFiller implements Iterator<ReadingSeriesPoint> {
+
+    private final Iterator<ReadingSeriesPoint> points;
+    private final SeriesInterval interval;
+    private final LocalDateTime firstBucket;
+    private final LocalDateTime lastBucket;
+
+    private ReadingSeriesPoint pending;
+    private String deviceId;
+    private LocalDateTime cursor;
+
+    SeriesGapFiller(Iterator<ReadingSeriesPoint> points, SeriesInterval interval, LocalDateTime startTime, LocalDateTime endTime) {
+        this.points = points;
+        this.interval = interval;
+        this.firstBucket = interval.truncate(startTime);
+        this.lastBucket = interval.truncate(endTime);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending != null || points.hasNext() || (deviceId != null && !cursor.isAfter(lastBucket));
+    }
+
+    @Override
+    public ReadingSeriesPoint next() {
+        if (pending == null && points.hasNext()) {
+            pending = points.next();
+        }
+
+        boolean pendingIsNextOfDevice = pending != null && pending.deviceId().equals(deviceId) && !cursor.isBefore(pending.timestamp());
+        if (deviceId != null && !cursor.isAfter(lastBucket) && !pendingIsNextOfDevice) {
+            return gap();
+        }
+        if (pending == null) {
+            throw new NoSuchElementException();
+        }
+
+        if (!pending.deviceId().equals(deviceId)) {
+            deviceId = pending.deviceId();
+            cursor = firstBucket;
+            if (cursor.isBefore(pending.timestamp())) {
+                return gap();
+            }
+        }
+
+        ReadingSeriesPoint point = pending;
+        pending = null;
+        cursor = interval.next(point.timestamp());
+        return point;
+    }
+
+    private ReadingSeriesPoint gap() {
+        ReadingSeriesPoint empty = ReadingSeriesPoint.empty(deviceId, cursor);
+        cursor = interval.next(cursor);
+        return empty;
+    }
+}
@@ -6,7 +6,11 @@ import com.supermetrics.dto.DeviceDTO;
 import com.supermetrics.model.Device;
 import com.supermetrics.service.DeviceService;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
 
 import static com.supermetrics.model.enums.DeviceType.*;
 
@@ -17,7 +21,13 @@ public class DeviceSimulator {
     private final DeviceService deviceService;
 
     public List<Device> generateAllDevices() {
-        List<DeviceDTO> devices = List.of(
+        return deviceService.saveAll(List.copyOf(generateDevicesByBrand().values()));
+    }
+
+    // One device of every brand readings can be simulated for
+    public Map<String, DeviceDTO> generateDevicesByBrand() {
+        Map<String, DeviceDTO> devices = new LinkedHashMap<>();
+        Stream.of(
                 generateAppleHeartDevice(),
                 generateFitbitHeartDevice(),
                 generateBMWFuelSensorDevice(),
@@ -25,11 +35,8 @@ public class DeviceSimulator {
                 generateNestThermostatDevice(),
                 generateHoneywellThermostatDevice(),
                 generateGarminBloodLevelDevice()
-        );
-
-        return devices.stream()
-                .map(deviceService::save)
-                .toList();
+        ).forEach(device -> devices.put(device.brand(), device));
+        return devices;
     }
 
     public DeviceDTO generateAppleHeartDevice() {
@@ -37,7 +44,7 @@ public class DeviceSimulator {
                 null,
                 "Apple Heart Device",
                 "Apple",
-                "SN-" + System.currentTimeMillis(),
+                serialNumber("SN-"),
                 HEART_RATE_MONITOR,
                 "Zone 1",
                 true
@@ -49,7 +56,7 @@ public class DeviceSimulator {
                 null,
                 "Fitbit Heart Device",
                 "Fitbit",
-                "SN-" + System.currentTimeMillis(),
+                serialNumber("SN-"),
                 HEART_RATE_MONITOR,
                 "Zone 2",
                 true
@@ -61,7 +68,7 @@ public class DeviceSimulator {
                 null,
                 "Garmin Speed runner",
                 "Garmin",
-                "G-" + System.currentTimeMillis(),
+                serialNumber("G-"),
                 OXYGEN_LEVEL_MONITOR,
                 "Zone 2",
                 true
@@ -73,7 +80,7 @@ public class DeviceSimulator {
                 null,
                 "BMW Fuel Sensor",
                 "BMW",
-                "SN-" + System.currentTimeMillis(),
+                serialNumber("SN-"),
                 FUEL_CONSUMPTION_SENSOR,
                 "Zone 3",
                 true
@@ -85,7 +92,7 @@ public class DeviceSimulator {
                 null,
                 "Ford Fuel Sensor",
                 "Ford",
-                "SN-" + System.currentTimeMillis(),
+                serialNumber("SN-"),
                 FUEL_CONSUMPTION_SENSOR,
                 "Zone 4",
                 true
@@ -97,7 +104,7 @@ public class DeviceSimulator {
                 null,
                 "Nest Thermostat",
                 "Nest",
-                "SN-" + System.currentTimeMillis(),
+                serialNumber("SN-"),
                 TEMPERATURE_SENSOR,
                 "Zone 5",
                 true
@@ -109,11 +116,14 @@ public class DeviceSimulator {
                 null,
                 "Honeywell Thermostat",
                 "Honeywell",
-                "SN-" + System.currentTimeMillis(),
+                serialNumber("SN-"),
                 TEMPERATURE_SENSOR,
                 "Zone 6",
                 true);
     }
 
-
+    // Serial numbers are unique per device, devices are created and updated by them
+    private static String serialNumber(String prefix) {
+        return prefix + UUID.randomUUID();
+    }
 }
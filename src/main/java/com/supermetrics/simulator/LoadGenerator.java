@@ -0,0 +1,282 @@
+package com.supermetrics.simulator;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import com.supermetrics.config.LoadGeneratorProperties;
+import com.supermetrics.dto.DeviceDTO;
+import com.supermetrics.dto.LoadTestReport;
+import com.supermetrics.dto.LoadTestRequest;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.exception.BadRequestException;
+import com.supermetrics.exception.NotFoundException;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.enums.LoadTarget;
+import com.supermetrics.model.enums.LoadTestStatus;
+import com.supermetrics.service.DeviceService;
+import com.supermetrics.service.ReadingService;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Drives up to hundreds of thousands of virtual devices for load tests. A single thread turns the timer wheel of the
+// current run and readings are answered asynchronously, by a small pool in process or by the HTTP client, so the
+// number of devices is only bounded by the readings in flight and not by threads
+@Slf4j
+@Service
+public class LoadGenerator {
+
+    private final DeviceService deviceService;
+    private final DeviceSimulator deviceSimulator;
+    private final ReadingsSimulator readingsSimulator;
+    private final ReadingService readingService;
+    private final ObjectMapper objectMapper;
+    private final LoadGeneratorProperties properties;
+    private final LongSupplier nanoClock;
+    private final ScheduledExecutorService wheel;
+    private final ExecutorService senders;
+    private final HttpClient httpClient;
+    private final URI readingsUri;
+    private final String authorization;
+
+    private LoadRun run;
+
+    @Autowired
+    public LoadGenerator(DeviceService deviceService, DeviceSimulator deviceSimulator, ReadingsSimulator readingsSimulator,
+                         ReadingService readingService, ObjectMapper objectMapper, LoadGeneratorProperties properties) {
+        this(deviceService, deviceSimulator, readingsSimulator, readingService, objectMapper, properties, System::nanoTime);
+    }
+
+    LoadGenerator(DeviceService deviceService, DeviceSimulator deviceSimulator, ReadingsSimulator readingsSimulator,
+                  ReadingService readingService, ObjectMapper objectMapper, LoadGeneratorProperties properties,
+                  LongSupplier nanoClock) {
+        this.deviceService = deviceService;
+        this.deviceSimulator = deviceSimulator;
+        this.readingsSimulator = readingsSimulator;
+        this.readingService = readingService;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.nanoClock = nanoClock;
+        this.wheel = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("load-generator-wheel-"));
+        // Every reading in flight waits on the service or the network on its own virtual thread, max-in-flight bounds them
+        this.senders = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("load-generator-", 0).factory());
+        this.httpClient = HttpClient.newBuilder()
+                .executor(senders)
+                .connectTimeout(properties.getRequestTimeout())
+                .build();
+        this.readingsUri = URI.create(properties.getBaseUrl() + "/readings");
+        this.authorization = "Basic " + Base64.getEncoder()
+                .encodeToString((properties.getUsername() + ":" + properties.getPassword()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public synchronized LoadTestReport start(LoadTestRequest request) {
+        if (run != null && run.isActive()) {
+            throw new BadRequestException("A load test is already running");
+        }
+
+        int devices = request.devices() != null ? request.devices() : properties.getDevices();
+        double readingsPerSecond = request.readingsPerSecond() != null ? request.readingsPerSecond() : properties.getReadingsPerSecond();
+        Duration duration = request.duration() != null ? request.duration() : properties.getDuration();
+        LoadTarget target = request.target() != null ? request.target() : LoadTarget.IN_PROCESS;
+        validate(devices, readingsPerSecond, duration);
+
+        Map<String, DeviceDTO> templates = deviceSimulator.generateDevicesByBrand();
+        Map<String, Integer> brandMix = request.brandMix();
+        if (brandMix == null || brandMix.isEmpty()) {
+            brandMix = new LinkedHashMap<>();
+            for (String brand : templates.keySet()) {
+                brandMix.put(brand, 1);
+            }
+        }
+        Map<String, Integer> devicesPerBrand = devicesPerBrand(devices, brandMix, templates.keySet());
+
+        LoadRun loadRun = new LoadRun(target, devices, readingsPerSecond, duration, properties.getTick(),
+                properties.getMaxInFlight(), sender(target), readingsSimulator::generateReadings, nanoClock);
+        run = loadRun;
+        log.info("Starting load test with {} devices at {} readings per second each for {} against {}",
+                devices, readingsPerSecond, duration, target);
+        wheel.execute(() -> register(loadRun, templates, devicesPerBrand));
+        return loadRun.report();
+    }
+
+    public synchronized LoadTestReport stop() {
+        LoadRun loadRun = current();
+        log.info("Stopping load test");
+        loadRun.finish(LoadTestStatus.STOPPED);
+        return loadRun.report();
+    }
+
+    public synchronized LoadTestReport report() {
+        return current().report();
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (run != null) {
+            run.finish(LoadTestStatus.STOPPED);
+        }
+        wheel.shutdownNow();
+        httpClient.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    // Largest remainder, so the brand shares add up to exactly the number of devices
+    static Map<String, Integer> devicesPerBrand(int devices, Map<String, Integer> brandMix, Set<String> brands) {
+        List<String> unknown = brandMix.keySet().stream().filter(brand -> !brands.contains(brand)).toList();
+        if (!unknown.isEmpty()) {
+            throw new BadRequestException("Unknown brands " + unknown + ", readings can be simulated for " + brands);
+        }
+        if (brandMix.values().stream().anyMatch(weight -> weight == null || weight < 0)) {
+            throw new BadRequestException("Brand shares must not be negative");
+        }
+        long total = brandMix.values().stream().mapToLong(Integer::longValue).sum();
+        if (total == 0) {
+            throw new BadRequestException("At least one brand needs a share above 0");
+        }
+
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        brandMix.forEach((brand, weight) -> counts.put(brand, (int) (devices * (long) weight / total)));
+        int remaining = devices - counts.values().stream().mapToInt(Integer::intValue).sum();
+        brandMix.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Integer> share) -> devices * (long) share.getValue() % total).reversed())
+                .limit(remaining)
+                .forEach(share -> counts.merge(share.getKey(), 1, Integer::sum));
+        return counts;
+    }
+
+    private void validate(int devices, double readingsPerSecond, Duration duration) {
+        if (devices < 1 || devices > properties.getMaxDevices()) {
+            throw new BadRequestException("Devices must be between 1 and " + properties.getMaxDevices());
+        }
+        // A device is due at most once per tick
+        double maxReadingsPerSecond = 1e9 / properties.getTick().toNanos();
+        if (!(readingsPerSecond > 0) || readingsPerSecond > maxReadingsPerSecond) {
+            throw new BadRequestException("Readings per second must be above 0 and at most " + maxReadingsPerSecond + " per device");
+        }
+        if (duration.isNegative() || duration.isZero()) {
+            throw new BadRequestException("Duration must be positive");
+        }
+    }
+
+    private LoadRun current() {
+        if (run == null) {
+            throw new NotFoundException("No load test has been started");
+        }
+        return run;
+    }
+
+    // Runs on the wheel thread before the first tick. Serial numbers follow brand and index, so the next load test
+    // upserts the same devices instead of adding new ones
+    private void register(LoadRun loadRun, Map<String, DeviceDTO> templates, Map<String, Integer> devicesPerBrand) {
+        try {
+            List<Device> devices = new ArrayList<>();
+            List<Device> batch = new ArrayList<>(properties.getRegisterBatchSize());
+            for (Map.Entry<String, Integer> brand : devicesPerBrand.entrySet()) {
+                DeviceDTO template = templates.get(brand.getKey());
+                for (int i = 0; i < brand.getValue() && loadRun.isActive(); i++) {
+                    batch.add(Device.builder()
+                            .name(template.name())
+                            .brand(template.brand())
+                            .serialNumber("LOAD-" + template.brand() + "-" + i)
+                            .type(template.type())
+                            .zone(template.zone())
+                            .active(true)
+                            .build());
+                    if (batch.size() == properties.getRegisterBatchSize()) {
+                        devices.addAll(upsert(batch));
+                        batch.clear();
+                    }
+                }
+            }
+            devices.addAll(upsert(batch));
+
+            if (loadRun.begin(devices)) {
+                log.info("Registered {} virtual devices, sending readings", devices.size());
+                tick(loadRun);
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not register virtual devices for the load test", e);
+            loadRun.fail(e.getMessage());
+        }
+    }
+
+    private List<Device> upsert(List<Device> batch) {
+        if (batch.isEmpty()) {
+            return List.of();
+        }
+        DeviceService.UpsertResult result = deviceService.upsertAll(List.copyOf(batch));
+        if (!result.errors().isEmpty()) {
+            throw new IllegalStateException("Could not register virtual devices: " + result.errors().values().iterator().next());
+        }
+        return result.devices();
+    }
+
+    // Every tick schedules the next one for when it is due, a late tick is followed by the next one right away
+    private void tick(LoadRun loadRun) {
+        try {
+            if (loadRun.tick()) {
+                wheel.schedule(() -> tick(loadRun), loadRun.nanosUntilNextTick(), TimeUnit.NANOSECONDS);
+            } else {
+                loadRun.finish(LoadTestStatus.COMPLETED);
+                LoadTestReport report = loadRun.report();
+                log.info("Load test {}: {} readings sent, {} failed, {} dropped, {} per second, p99 {} ms",
+                        report.status(), report.sent(), report.failed(), report.dropped(),
+                        Math.round(report.achievedThroughput()), report.latency().p99());
+            }
+        } catch (RuntimeException e) {
+            log.error("Load test failed", e);
+            loadRun.fail(e.getMessage());
+        }
+    }
+
+    private LoadRun.Sender sender(LoadTarget target) {
+        return switch (target) {
+            case IN_PROCESS -> request -> CompletableFuture.runAsync(() -> readingService.saveReading(request), senders);
+            case HTTP -> this::postReading;
+        };
+    }
+
+    private CompletableFuture<?> postReading(ReadingRequest request) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(request);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest httpRequest = HttpRequest.newBuilder(readingsUri)
+                .timeout(properties.getRequestTimeout())
+                .header(HttpHeaders.AUTHORIZATION, authorization)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding())
+                .thenAccept(response -> {
+                    if (response.statusCode() >= 300) {
+                        throw new LoadRun.RejectedException("HTTP " + response.statusCode());
+                    }
+                });
+    }
+}
@@ -0,0 +1,207 @@
+package com.supermetrics.simulator;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import com.supermetrics.dto.LoadTestLatency;
+import com.supermetrics.dto.LoadTestReport;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.enums.LoadTarget;
+import com.supermetrics.model.enums.LoadTestStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+// One load test. Devices are spread over the slots of a timer wheel that turns once per reading period: the device at
+// index i is due in slot i % slots, so a tick only walks the devices due in it and nothing is ever rescheduled.
+// Latency is measured from when a reading was due rather than when it was sent, so a target slow enough to hold the
+// wheel back still shows in the percentiles
+final class LoadRun {
+
+    // Completes once the reading is answered, exceptionally when the target rejects it
+    interface Sender {
+        CompletableFuture<?> send(ReadingRequest request);
+    }
+
+    static final class RejectedException extends RuntimeException {
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private final LoadTarget target;
+    private final int deviceCount;
+    private final long tickNanos;
+    private final int slots;
+    private final long durationNanos;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Sender sender;
+    private final Function<Device, ReadingRequest> readings;
+    private final LongSupplier nanoClock;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    // Recorded in microseconds by any sender, added up whenever a report is taken
+    private final Recorder latencies = new Recorder(3);
+    private final Histogram totalLatencies = new Histogram(3);
+    private Histogram intervalLatencies;
+
+    private volatile LoadTestStatus status = LoadTestStatus.REGISTERING;
+    private volatile String error;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile long startNanos;
+    private volatile long finishedNanos;
+
+    // Only touched by the thread turning the wheel
+    private Device[] devices;
+    private long ticks;
+
+    LoadRun(LoadTarget target, int deviceCount, double readingsPerSecond, Duration duration, Duration tick, int maxInFlight,
+            Sender sender, Function<Device, ReadingRequest> readings, LongSupplier nanoClock) {
+        this.target = target;
+        this.deviceCount = deviceCount;
+        this.tickNanos = tick.toNanos();
+        this.slots = (int) Math.max(1, Math.round(1_000_000_000 / readingsPerSecond / tickNanos));
+        this.durationNanos = duration.toNanos();
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.sender = sender;
+        this.readings = readings;
+        this.nanoClock = nanoClock;
+    }
+
+    // False when the run was stopped while its devices were registered
+    synchronized boolean begin(List<Device> registeredDevices) {
+        if (status != LoadTestStatus.REGISTERING) {
+            return false;
+        }
+        devices = registeredDevices.toArray(Device[]::new);
+        startNanos = nanoClock.getAsLong();
+        startedAt = Instant.now();
+        status = LoadTestStatus.RUNNING;
+        return true;
+    }
+
+    // Sends the readings due in the next slot, false once the run is over
+    boolean tick() {
+        if (status != LoadTestStatus.RUNNING || ticks * tickNanos >= durationNanos) {
+            return false;
+        }
+        long dueNanos = startNanos + ticks * tickNanos;
+        int slot = (int) (ticks++ % slots);
+        for (int i = slot; i < devices.length; i += slots) {
+            send(devices[i], dueNanos);
+        }
+        return true;
+    }
+
+    long nanosUntilNextTick() {
+        return startNanos + ticks * tickNanos - nanoClock.getAsLong();
+    }
+
+    boolean isActive() {
+        return status == LoadTestStatus.REGISTERING || status == LoadTestStatus.RUNNING;
+    }
+
+    synchronized void finish(LoadTestStatus finalStatus) {
+        if (isActive()) {
+            finishedNanos = nanoClock.getAsLong();
+            finishedAt = Instant.now();
+            status = finalStatus;
+        }
+    }
+
+    synchronized void fail(String message) {
+        if (isActive()) {
+            error = message;
+            finish(LoadTestStatus.FAILED);
+        }
+    }
+
+    synchronized LoadTestReport report() {
+        intervalLatencies = latencies.getIntervalHistogram(intervalLatencies);
+        totalLatencies.add(intervalLatencies);
+
+        double seconds = startedAt == null
+                ? 0
+                : ((status == LoadTestStatus.RUNNING ? nanoClock.getAsLong() : finishedNanos) - startNanos) / 1e9;
+        long accepted = succeeded.sum();
+        Map<String, Long> failed = new TreeMap<>();
+        failures.forEach((reason, count) -> failed.put(reason, count.sum()));
+        double readingsPerSecond = 1e9 / (slots * tickNanos);
+        return new LoadTestReport(
+                status,
+                target,
+                deviceCount,
+                readingsPerSecond,
+                deviceCount * readingsPerSecond,
+                seconds > 0 ? accepted / seconds : 0,
+                sent.sum(),
+                accepted,
+                failed.values().stream().mapToLong(Long::longValue).sum(),
+                dropped.sum(),
+                maxInFlight - inFlight.availablePermits(),
+                failed,
+                latency(totalLatencies),
+                startedAt,
+                finishedAt,
+                error);
+    }
+
+    private void send(Device device, long dueNanos) {
+        if (!inFlight.tryAcquire()) {
+            dropped.increment();
+            return;
+        }
+        sent.increment();
+        CompletableFuture<?> response;
+        try {
+            response = sender.send(readings.apply(device));
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((result, error) -> {
+            latencies.recordValue(Math.max(0, (nanoClock.getAsLong() - dueNanos) / 1000));
+            if (error == null) {
+                succeeded.increment();
+            } else {
+                failures.computeIfAbsent(reason(error), key -> new LongAdder()).increment();
+            }
+            inFlight.release();
+        });
+    }
+
+    private static String reason(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof RejectedException ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private static LoadTestLatency latency(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return new LoadTestLatency(0, 0, 0, 0, 0, 0, 0);
+        }
+        return new LoadTestLatency(
+                histogram.getTotalCount(),
+                histogram.getMean() / 1000,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+}
@@ -12,8 +12,8 @@ import com.supermetrics.service.ReadingService;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
-import java.util.Random;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Slf4j
 @Service
@@ -37,7 +37,6 @@ public class ReadingsSimulator {
     private static final double TARGET_TEMPERATURE = 21.0;
     private static final double TARGET_TEMPERATURE_VARIATION = 2.0;
 
-    private final Random random = new Random();
     private ScheduledFuture<?> scheduledTask;
 
     private final DeviceSimulator deviceSimulator;
@@ -87,7 +86,7 @@ public class ReadingsSimulator {
     }
 
     private ReadingRequest generateHeartRateReading(Device device) {
-        double heartRate = BASE_HEART_RATE + (random.nextDouble() * 2 - 1) * HEART_RATE_VARIATION;
+        double heartRate = BASE_HEART_RATE + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * HEART_RATE_VARIATION;
         int bpm = (int) Math.round(heartRate);
         String activity = "running";
 
@@ -112,7 +111,7 @@ public class ReadingsSimulator {
     }
 
     private ReadingRequest generateOxygenLevelReading(Device device) {
-        int oxygenLevel = 90 + random.nextInt(11);
+        int oxygenLevel = 90 + ThreadLocalRandom.current().nextInt(11);
 
         return new GarminBloodOxygenReadingRequest(
                 device.getId(),
@@ -124,14 +123,14 @@ public class ReadingsSimulator {
     }
 
     private ReadingRequest generateFuelConsumptionReading(Device device) {
-        double fuelConsumption = BASE_FUEL_CONSUMPTION + (random.nextDouble() * 2 - 1) * FUEL_CONSUMPTION_VARIATION;
+        double fuelConsumption = BASE_FUEL_CONSUMPTION + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * FUEL_CONSUMPTION_VARIATION;
         fuelConsumption = Math.round(fuelConsumption * 10.0) / 10.0;
 
         int fuelLevelPercent = (int) Math.round(100 - (fuelConsumption / 15.0) * 100);
         fuelLevelPercent = Math.max(10, Math.min(90, fuelLevelPercent)); // Keep between 10% and 90%
 
         int rangeKm = (int) Math.round(BASE_RANGE_KM * (fuelLevelPercent / 100.0) +
-                (random.nextDouble() * 2 - 1) * RANGE_VARIATION_KM);
+                (ThreadLocalRandom.current().nextDouble() * 2 - 1) * RANGE_VARIATION_KM);
 
         double fuelLiters = TANK_CAPACITY_LITERS * (fuelLevelPercent / 100.0);
 
@@ -158,10 +157,10 @@ public class ReadingsSimulator {
     }
 
     private ReadingRequest generateTemperatureReading(Device device) {
-        double temperature = BASE_TEMPERATURE + (random.nextDouble() * 2 - 1) * TEMPERATURE_VARIATION;
+        double temperature = BASE_TEMPERATURE + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * TEMPERATURE_VARIATION;
         temperature = Math.round(temperature * 10.0) / 10.0;
 
-        double targetTemp = TARGET_TEMPERATURE + (random.nextDouble() * 2 - 1) * TARGET_TEMPERATURE_VARIATION;
+        double targetTemp = TARGET_TEMPERATURE + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * TARGET_TEMPERATURE_VARIATION;
         targetTemp = Math.round(targetTemp * 10.0) / 10.0;
 
         if (device.getName().toLowerCase().contains("nest")) {
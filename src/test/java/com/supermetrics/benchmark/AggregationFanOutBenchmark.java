@@ -0,0 +1,115 @@
+package com.supermetrics.benchmark;
+
+import com.supermetrics.Application;
+import com.supermetrics.config.AggregationFanOutProperties;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.ReadingAggregate;
+import com.supermetrics.repository.ReadingRepository;
+import com.supermetrics.repository.ReadingRollupPlan.TimeRange;
+import com.supermetrics.service.ReadingAggregationFanOut;
+import com.supermetrics.service.ReadingRollupRepair;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.MongoDBContainer;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Latency of a per-device aggregation against the length of its range, aggregated as one pipeline or fanned out in chunks.
+// Seeds a year of readings for a few devices into a throwaway MongoDB and rolls them up before measuring.
+// Run with: java -cp <test classpath> com.supermetrics.benchmark.AggregationFanOutBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregationFanOutBenchmark {
+
+    private static final LocalDateTime END = LocalDateTime.of(2024, 12, 31, 0, 0);
+    private static final int DEVICES = 20;
+    private static final int READING_INTERVAL_MINUTES = 10;
+    private static final int BATCH_SIZE = 10_000;
+
+    @Param({"1", "7", "30", "90", "365"})
+    public int rangeDays;
+
+    @Param({"false", "true"})
+    public boolean fanOut;
+
+    private MongoDBContainer mongoDBContainer;
+    private ConfigurableApplicationContext context;
+    private ReadingAggregationFanOut aggregationFanOut;
+    private List<TimeRange> ranges;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mongoDBContainer = new MongoDBContainer("mongo:6.0.6");
+        mongoDBContainer.start();
+        context = new SpringApplicationBuilder(Application.class)
+                .properties("spring.data.mongodb.uri=" + mongoDBContainer.getReplicaSetUrl(),
+                        "server.port=0",
+                        "readings.hot-window.warm-up=false")
+                .run();
+
+        seed(context.getBean(ReadingRepository.class));
+        context.getBean(ReadingRollupRepair.class).rebuild().join();
+        context.getBean(AggregationFanOutProperties.class).setEnabled(fanOut);
+        aggregationFanOut = context.getBean(ReadingAggregationFanOut.class);
+        // Starts mid-day, so each range reads hourly rollups at its start next to the daily ones
+        ranges = List.of(new TimeRange(END.minusDays(rangeDays).plusHours(7), END));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        mongoDBContainer.stop();
+    }
+
+    @Benchmark
+    public List<ReadingAggregate> aggregate() {
+        return aggregationFanOut.aggregate(DeviceCategory.HEALTH, null, null, ranges);
+    }
+
+    private static void seed(ReadingRepository readingRepository) {
+        Random random = new Random(7);
+        List<Reading> batch = new ArrayList<>(BATCH_SIZE);
+        for (int device = 0; device < DEVICES; device++) {
+            ReadingMeta meta = ReadingMeta.builder()
+                    .deviceId(new ObjectId().toHexString())
+                    .type(DeviceType.HEART_RATE_MONITOR)
+                    .category(DeviceCategory.HEALTH)
+                    .active(true)
+                    .build();
+            for (LocalDateTime timestamp = END.minusDays(366); timestamp.isBefore(END); timestamp = timestamp.plusMinutes(READING_INTERVAL_MINUTES)) {
+                batch.add(Reading.builder()
+                        .meta(meta)
+                        .timestamp(timestamp)
+                        .value(60 + random.nextGaussian() * 10)
+                        .build());
+                if (batch.size() == BATCH_SIZE) {
+                    readingRepository.insert(batch);
+                    batch.clear();
+                }
+            }
+        }
+        readingRepository.insert(batch);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AggregationFanOutBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
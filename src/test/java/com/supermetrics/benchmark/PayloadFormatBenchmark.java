@@ -0,0 +1,95 @@
+package com.supermetrics.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.supermetrics.dto.ReadingAggregationResponse;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.mapper.PayloadFormat;
+import com.supermetrics.mapper.ReadingRequestMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Compares JSON with the binary encodings on both directions: decoding a reading as POST /readings does
+// and encoding an aggregation response as GET /readings does. Payload sizes are printed before the run.
+// Run with: java -cp <test classpath> com.supermetrics.benchmark.PayloadFormatBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadFormatBenchmark {
+
+    private static final String READING = """
+            {"brand":"BMW","device_id":"65a1f0c2e4b0a1b2c3d4e5f6","type":"X5","timestamp":"2024-01-01T12:00:00Z","fuel_level_percent":75,"range_km":450}""";
+    private static final int AGGREGATION_ROWS = 100;
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    public PayloadFormat format;
+
+    private byte[] reading;
+    private List<ReadingAggregationResponse> aggregations;
+    private ObjectWriter aggregationWriter;
+    private ReadingRequestMapper readingRequestMapper;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper mapper = mapperFor(format);
+        reading = mapper.writeValueAsBytes(new ObjectMapper().readValue(READING, Object.class));
+        aggregations = aggregations();
+        aggregationWriter = mapper.writerFor(mapper.getTypeFactory().constructCollectionType(List.class, ReadingAggregationResponse.class));
+        readingRequestMapper = new ReadingRequestMapper();
+    }
+
+    @Benchmark
+    public ReadingRequest decodeReading() {
+        return readingRequestMapper.readReadingRequest(reading, format);
+    }
+
+    @Benchmark
+    public byte[] encodeAggregations() throws IOException {
+        return aggregationWriter.writeValueAsBytes(aggregations);
+    }
+
+    private static ObjectMapper mapperFor(PayloadFormat format) {
+        return switch (format) {
+            case JSON -> new ObjectMapper();
+            case CBOR -> new CBORMapper();
+            case SMILE -> new SmileMapper();
+        };
+    }
+
+    private static List<ReadingAggregationResponse> aggregations() {
+        List<ReadingAggregationResponse> aggregations = new ArrayList<>(AGGREGATION_ROWS);
+        for (int i = 0; i < AGGREGATION_ROWS; i++) {
+            aggregations.add(new ReadingAggregationResponse("65a1f0c2e4b0a1b2c3d4e" + String.format("%03d", i),
+                    "Living Room Thermostat " + i, 21.5 + i % 7, 25.0 + i % 5, 18.25 + i % 3, 1440L + i,
+                    21.0 + i % 7, 24.5 + i % 5, 24.9 + i % 5));
+        }
+        return aggregations;
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        for (PayloadFormat format : PayloadFormat.values()) {
+            ObjectMapper mapper = mapperFor(format);
+            int readingSize = mapper.writeValueAsBytes(new ObjectMapper().readValue(READING, Object.class)).length;
+            int aggregationSize = mapper.writeValueAsBytes(aggregations()).length;
+            System.out.printf("%-5s reading: %4d bytes, %d aggregation rows: %5d bytes%n", format, readingSize, AGGREGATION_ROWS, aggregationSize);
+        }
+
+        new Runner(new OptionsBuilder()
+                .include(PayloadFormatBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,71 @@
+package com.supermetrics.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.mapper.ReadingRequestMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Compares binding a reading to a Map and converting it to the record, as POST /readings did,
+// with the streaming decoder. Run with: java -cp <test classpath> com.supermetrics.benchmark.ReadingDecodingBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadingDecodingBenchmark {
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    // BMW has the brand first, Ford has the manufacturer after most fields and exercises token buffering
+    @Param({"BMW", "FORD"})
+    public String brand;
+
+    private byte[] payload;
+    private ObjectMapper requestBodyMapper;
+    private ReadingRequestMapper readingRequestMapper;
+
+    @Setup
+    public void setUp() {
+        String json = switch (brand) {
+            case "BMW" -> """
+                    {"brand":"BMW","device_id":"65a1f0c2e4b0a1b2c3d4e5f6","type":"X5","timestamp":"2024-01-01T12:00:00Z","fuel_level_percent":75,"range_km":450}""";
+            case "FORD" -> """
+                    {"vehicleId":"65a1f0c2e4b0a1b2c3d4e5f6","sensorType":"Fuel","time":"2024-01-01T12:00:00Z","fuelLiters":45.5,"tankCapacityLiters":60.0,"manufacturer":"Ford","remainingRangeKm":450}""";
+            default -> throw new IllegalArgumentException(brand);
+        };
+        payload = json.getBytes(StandardCharsets.UTF_8);
+        requestBodyMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        readingRequestMapper = new ReadingRequestMapper();
+    }
+
+    @Benchmark
+    public ReadingRequest mapThenConvert() throws IOException {
+        Map<String, Object> request = requestBodyMapper.readValue(payload, MAP_TYPE);
+        return readingRequestMapper.mapToReadingRequest(request);
+    }
+
+    @Benchmark
+    public ReadingRequest streaming() {
+        return readingRequestMapper.readReadingRequest(payload);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ReadingDecodingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
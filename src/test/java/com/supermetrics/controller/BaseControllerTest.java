@@ -12,8 +12,12 @@ import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import com.supermetrics.model.Device;
 import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.DeviceCredentialRepository;
 import com.supermetrics.repository.DeviceRepository;
 import com.supermetrics.repository.ReadingRepository;
+import com.supermetrics.repository.ReadingRollupRepository;
+import com.supermetrics.service.DeviceRegistry;
+import com.supermetrics.service.ReadingAggregationCache;
 import org.testcontainers.containers.MongoDBContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
@@ -41,6 +45,18 @@ public abstract class BaseControllerTest {
     @Autowired
     protected ReadingRepository readingRepository;
 
+    @Autowired
+    protected ReadingRollupRepository readingRollupRepository;
+
+    @Autowired
+    protected DeviceCredentialRepository deviceCredentialRepository;
+
+    @Autowired
+    protected ReadingAggregationCache readingAggregationCache;
+
+    @Autowired
+    protected DeviceRegistry deviceRegistry;
+
     @BeforeEach
     public void setUp() {
         RestAssured.port = port;
@@ -51,6 +67,10 @@ public abstract class BaseControllerTest {
 
         deviceRepository.deleteAll();
         readingRepository.deleteAll();
+        readingRollupRepository.deleteAll();
+        deviceCredentialRepository.deleteAll();
+        readingAggregationCache.invalidateAll();
+        deviceRegistry.reload();
     }
 
     protected RequestSpecification givenUserAuth() {
@@ -65,6 +85,12 @@ public abstract class BaseControllerTest {
                 .contentType(ContentType.JSON);
     }
 
+    protected RequestSpecification givenApiKeyAuth(String apiKey) {
+        return RestAssured.given()
+                .header("X-API-Key", apiKey)
+                .contentType(ContentType.JSON);
+    }
+
     protected Device createTestDevice(String name, String zone) {
         Device device = Device.builder()
                 .name(name)
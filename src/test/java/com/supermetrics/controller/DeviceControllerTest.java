@@ -3,6 +3,7 @@ package com.supermetrics.controller;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import com.supermetrics.dto.DeviceDTO;
+import com.supermetrics.dto.DevicePatchRequest;
 import com.supermetrics.model.Device;
 import com.supermetrics.model.enums.DeviceType;
 
@@ -27,6 +28,82 @@ class DeviceControllerTest extends BaseControllerTest {
                 .body("name", hasItems(device1.getName(), device2.getName()));
     }
 
+    @Test
+    void getAllDevices_withLimit_shouldPageThroughDevicesInIdOrder() {
+        List<String> ids = List.of(
+                createTestDevice("Test Device 1", "Zone A").getId(),
+                createTestDevice("Test Device 2", "Zone A").getId(),
+                createTestDevice("Test Device 3", "Zone A").getId()).stream().sorted().toList();
+
+        String next = givenUserAuth()
+                .queryParam("limit", 2)
+                .when()
+                .get("/devices")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .body("id", contains(ids.get(0), ids.get(1)))
+                .header("Link", containsString("after=" + ids.get(1)))
+                .extract().header("Link");
+
+        givenUserAuth()
+                .queryParam("limit", 2)
+                .queryParam("after", ids.get(1))
+                .when()
+                .get("/devices")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .body("id", contains(ids.get(2)))
+                .header("Link", nullValue());
+        assertTrue(next.endsWith(">; rel=\"next\""));
+    }
+
+    @Test
+    void getAllDevices_withFilters_shouldReturnMatchingDevices() {
+        Device matching = createTestDevice("Test Device 1", "Zone A");
+        createTestDevice("Test Device 2", "Zone B");
+        Device inactive = createTestDevice("Test Device 3", "Zone A");
+        inactive.setActive(false);
+        deviceRepository.save(inactive);
+
+        givenUserAuth()
+                .queryParam("type", DeviceType.HEART_RATE_MONITOR)
+                .queryParam("zone", "Zone A")
+                .queryParam("active", true)
+                .when()
+                .get("/devices")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .body("id", contains(matching.getId()));
+    }
+
+    @Test
+    void getAllDevices_asNdjson_shouldStreamOneDevicePerLine() {
+        createTestDevice("Test Device 1", "Zone A");
+        createTestDevice("Test Device 2", "Zone A");
+
+        String body = givenUserAuth()
+                .accept("application/x-ndjson")
+                .when()
+                .get("/devices")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .contentType(containsString("application/x-ndjson"))
+                .extract().asString();
+
+        assertEquals(2, body.lines().count());
+        assertTrue(body.lines().allMatch(line -> line.startsWith("{\"id\":")));
+    }
+
+    @Test
+    void getAllDevices_withLimitOverMaximum_shouldReturnBadRequest() {
+        givenUserAuth()
+                .queryParam("limit", 10_001)
+                .when()
+                .get("/devices")
+                .then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
     @Test
     void getDeviceById_withValidId_shouldReturnDevice() {
         Device device = createTestDevice("Test Device", "Zone A");
@@ -138,4 +215,80 @@ class DeviceControllerTest extends BaseControllerTest {
                 .statusCode(HttpStatus.NO_CONTENT.value());
     }
 
+    @Test
+    void patchDevice_withCurrentETag_shouldChangeOnlyGivenFields() {
+        Device device = createTestDevice("Original Name", "Zone A");
+
+        String eTag = givenUserAuth()
+                .when()
+                .get("/devices/{id}", device.getId())
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .header("ETag", equalTo("\"0\""))
+                .extract().header("ETag");
+
+        givenUserAuth()
+                .contentType("application/merge-patch+json")
+                .header("If-Match", eTag)
+                .body("{\"zone\": \"Zone B\"}")
+                .when()
+                .patch("/devices/{id}", device.getId())
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .header("ETag", equalTo("\"1\""))
+                .body("name", equalTo("Original Name"))
+                .body("zone", equalTo("Zone B"));
+
+        Device patchedDevice = deviceRepository.findById(device.getId()).orElseThrow();
+        assertEquals("Original Name", patchedDevice.getName());
+        assertEquals("Zone B", patchedDevice.getZone());
+        assertEquals(1, patchedDevice.getVersion());
+    }
+
+    @Test
+    void patchDevice_withStaleETag_shouldReturnPreconditionFailed() {
+        Device device = createTestDevice("Original Name", "Zone A");
+
+        givenUserAuth()
+                .body(new DevicePatchRequest("First", null, null, null, null, null))
+                .when()
+                .patch("/devices/{id}", device.getId())
+                .then()
+                .statusCode(HttpStatus.OK.value());
+
+        givenUserAuth()
+                .header("If-Match", "\"0\"")
+                .body(new DevicePatchRequest("Second", null, null, null, null, null))
+                .when()
+                .patch("/devices/{id}", device.getId())
+                .then()
+                .statusCode(HttpStatus.PRECONDITION_FAILED.value());
+
+        assertEquals("First", deviceRepository.findById(device.getId()).orElseThrow().getName());
+    }
+
+    @Test
+    void patchDevice_withInvalidId_shouldReturn404() {
+        givenUserAuth()
+                .body(new DevicePatchRequest("Name", null, null, null, null, null))
+                .when()
+                .patch("/devices/{id}", "nonexistent-id")
+                .then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    void deleteDevice_withStaleETag_shouldKeepDeviceActive() {
+        Device device = createTestDevice("Device to Delete", "Zone A");
+
+        givenUserAuth()
+                .header("If-Match", "\"7\"")
+                .when()
+                .delete("/devices/{id}", device.getId())
+                .then()
+                .statusCode(HttpStatus.PRECONDITION_FAILED.value());
+
+        assertTrue(deviceRepository.findById(device.getId()).orElseThrow().isActive());
+    }
+
 }
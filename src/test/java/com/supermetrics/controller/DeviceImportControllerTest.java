@@ -0,0 +1,199 @@
+package com.supermetrics.controller;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.HttpStatus;
+import com.supermetrics.config.DeviceImportProperties;
+import com.supermetrics.dto.DeviceImportResponse;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.model.enums.ImportStatus;
+import com.supermetrics.service.DeviceSerialNumberMigration;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceImportControllerTest extends BaseControllerTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Tests of the serial number migration drop its index, it is created again once their devices are gone
+    @AfterEach
+    void restoreSerialNumberIndex() {
+        deviceRepository.deleteAll();
+        migration(false).migrate();
+    }
+
+    @Test
+    void importDevices_withCsv_shouldCreateAndUpdateDevicesBySerialNumber() throws InterruptedException {
+        Device existing = createTestDevice("Old Name", "Zone A");
+        String csv = "serialNumber,name,type,zone\n"
+                + existing.getSerialNumber() + ",New Name,HEART_RATE_MONITOR,Zone B\n"
+                + "SN-import-1,Thermostat,TEMPERATURE_SENSOR,Zone C\n"
+                + "SN-import-2,Toaster,TOASTER,Zone C\n";
+
+        String id = givenUserAuth()
+                .contentType("text/csv")
+                .body(csv)
+                .when()
+                .post("/devices/imports")
+                .then()
+                .statusCode(HttpStatus.ACCEPTED.value())
+                .header("Location", containsString("/api/devices/imports/"))
+                .body("totalLines", equalTo(4))
+                .extract().path("id");
+
+        DeviceImportResponse response = awaitFinished(id);
+
+        assertEquals(ImportStatus.COMPLETED, response.status());
+        assertEquals(4, response.linesRead());
+        assertEquals(1, response.created());
+        assertEquals(1, response.updated());
+        assertEquals(1, response.failed());
+        assertEquals(4, response.errors().get(0).line());
+        assertEquals(2, deviceRepository.count());
+        Device updated = deviceRepository.findById(existing.getId()).orElseThrow();
+        assertEquals("New Name", updated.getName());
+        assertEquals("Zone B", updated.getZone());
+        Device created = deviceRepository.findBySerialNumberIn(List.of("SN-import-1")).get(0);
+        assertEquals(DeviceType.TEMPERATURE_SENSOR, created.getType());
+        assertTrue(created.isActive());
+        assertTrue(deviceRegistry.find(created.getId()).isPresent());
+    }
+
+    @Test
+    void importDevices_withNdjson_shouldImportEveryLine() throws InterruptedException {
+        String ndjson = """
+                {"serialNumber":"SN-json-1","name":"Watch","type":"HEART_RATE_MONITOR","zone":"Zone A"}
+                {"serialNumber":"SN-json-2","name":"Car","type":"FUEL_CONSUMPTION_SENSOR","zone":"Zone A","active":false}
+                """;
+
+        String id = givenUserAuth()
+                .contentType("application/x-ndjson")
+                .body(ndjson)
+                .when()
+                .post("/devices/imports")
+                .then()
+                .statusCode(HttpStatus.ACCEPTED.value())
+                .extract().path("id");
+
+        DeviceImportResponse response = awaitFinished(id);
+
+        assertEquals(ImportStatus.COMPLETED, response.status());
+        assertEquals(2, response.created());
+        assertEquals(0, response.failed());
+        assertEquals(2, deviceRepository.count());
+    }
+
+    @Test
+    void importDevices_withUnsupportedContentType_shouldReturnUnsupportedMediaType() {
+        givenUserAuth()
+                .body("[]")
+                .when()
+                .post("/devices/imports")
+                .then()
+                .statusCode(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value());
+    }
+
+    @Test
+    void getImport_withUnknownId_shouldReturnNotFound() {
+        givenUserAuth()
+                .when()
+                .get("/devices/imports/{id}", "665f1c2e8b3e4a1d2c9f0a11")
+                .then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    void migrate_withDuplicateSerialNumbers_shouldFailListingThem() {
+        dropSerialNumberIndex();
+        Device first = saveDevice(new ObjectId(new Date(1_000_000_000L)).toHexString(), "SN-dup");
+        Device second = saveDevice(new ObjectId(new Date(2_000_000_000L)).toHexString(), "SN-dup");
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> migration(false).migrate());
+
+        assertTrue(exception.getMessage().contains("SN-dup on devices"));
+        assertTrue(exception.getMessage().contains(first.getId()));
+        assertTrue(exception.getMessage().contains(second.getId()));
+        assertEquals(2, deviceRepository.findBySerialNumberIn(List.of("SN-dup")).size());
+        assertFalse(hasSerialNumberIndex());
+    }
+
+    @Test
+    void migrate_whenResolvingDuplicates_shouldKeepTheSerialNumberOnTheOldestDevice() {
+        dropSerialNumberIndex();
+        Device newer = saveDevice(new ObjectId(new Date(2_000_000_000L)).toHexString(), "SN-dup");
+        Device older = saveDevice(new ObjectId(new Date(1_000_000_000L)).toHexString(), "SN-dup");
+
+        migration(true).migrate();
+
+        assertEquals("SN-dup", deviceRepository.findById(older.getId()).orElseThrow().getSerialNumber());
+        Device resolved = deviceRepository.findById(newer.getId()).orElseThrow();
+        assertNull(resolved.getSerialNumber());
+        assertEquals(newer.getVersion() + 1, resolved.getVersion());
+        assertTrue(hasSerialNumberIndex());
+    }
+
+    @Test
+    void migrate_whenResolvingDuplicatesOfDevicesWithClientIds_shouldFailListingThem() {
+        dropSerialNumberIndex();
+        saveDevice("device-b", "SN-dup");
+        saveDevice("device-a", "SN-dup");
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> migration(true).migrate());
+
+        assertTrue(exception.getMessage().contains("SN-dup on devices"));
+        assertTrue(exception.getMessage().contains("device-a"));
+        assertTrue(exception.getMessage().contains("ids given by clients"));
+        assertEquals(2, deviceRepository.findBySerialNumberIn(List.of("SN-dup")).size());
+        assertFalse(hasSerialNumberIndex());
+    }
+
+    private DeviceSerialNumberMigration migration(boolean resolveDuplicates) {
+        DeviceImportProperties properties = new DeviceImportProperties();
+        properties.setResolveDuplicateSerialNumbers(resolveDuplicates);
+        return new DeviceSerialNumberMigration(mongoTemplate, properties);
+    }
+
+    private void dropSerialNumberIndex() {
+        mongoTemplate.indexOps(Device.class).dropIndex("serialNumber");
+    }
+
+    private boolean hasSerialNumberIndex() {
+        return mongoTemplate.indexOps(Device.class).getIndexInfo().stream().anyMatch(index -> "serialNumber".equals(index.getName()));
+    }
+
+    private Device saveDevice(String id, String serialNumber) {
+        return deviceRepository.save(Device.builder()
+                .id(id)
+                .name("Device " + id)
+                .serialNumber(serialNumber)
+                .type(DeviceType.HEART_RATE_MONITOR)
+                .zone("Zone A")
+                .active(true)
+                .build());
+    }
+
+    private DeviceImportResponse awaitFinished(String id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        DeviceImportResponse response;
+        do {
+            Thread.sleep(50);
+            response = givenUserAuth()
+                    .when()
+                    .get("/devices/imports/{id}", id)
+                    .then()
+                    .statusCode(HttpStatus.OK.value())
+                    .extract().as(DeviceImportResponse.class);
+        } while ((response.status() == ImportStatus.PENDING || response.status() == ImportStatus.RUNNING)
+                && System.currentTimeMillis() < deadline);
+        return response;
+    }
+}
@@ -1,21 +1,28 @@
 package com.supermetrics.controller;
 
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
+import com.supermetrics.dto.BatchReadingResponse;
 import com.supermetrics.dto.ErrorResponse;
 import com.supermetrics.dto.ReadingAggregationResponse;
 import com.supermetrics.model.Device;
 import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static io.restassured.RestAssured.given;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 class ReadingControllerTest extends BaseControllerTest {
 
@@ -52,6 +59,187 @@ class ReadingControllerTest extends BaseControllerTest {
         }
     }
 
+    @Test
+    void aggregate_acrossRollupBuckets_shouldMatchRawReadings() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+        LocalDateTime startTime = LocalDateTime.now().minusDays(3).withHour(10).withMinute(15).withSecond(30).withNano(0);
+        LocalDateTime endTime = startTime.plusDays(2).withHour(12).withMinute(0).withSecond(0);
+
+        // Edges of the range are read raw, the whole minutes, hours and days in between come from the rollups
+        createTestReading(device, 10.0, startTime.minusSeconds(1));
+        createTestReading(device, 20.0, startTime);
+        createTestReading(device, 30.0, startTime.plusMinutes(5));
+        createTestReading(device, 40.0, startTime.plusHours(3));
+        createTestReading(device, 50.0, startTime.plusDays(1));
+        createTestReading(device, 60.0, endTime);
+        createTestReading(device, 70.0, endTime.plusSeconds(1));
+
+        List<ReadingAggregationResponse> response = givenUserAuth()
+                .queryParam("startTime", startTime.toString())
+                .queryParam("endTime", endTime.toString())
+                .when()
+                .get("/readings")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .jsonPath()
+                .getList("", ReadingAggregationResponse.class);
+
+        assertEquals(1, response.size());
+        assertEquals(5, response.get(0).getCount());
+        assertEquals(40.0, response.get(0).getAvgValue());
+        assertEquals(20.0, response.get(0).getMinValue());
+        assertEquals(60.0, response.get(0).getMaxValue());
+        // Percentiles merge the sketches of raw edges and rollups, and are estimated within 1%
+        assertEquals(40.0, response.get(0).getP50Value(), 0.4);
+        assertEquals(60.0, response.get(0).getP95Value(), 0.6);
+        assertEquals(60.0, response.get(0).getP99Value(), 0.6);
+    }
+
+    @Test
+    void aggregate_afterLateReading_shouldNotServeStaleCachedDay() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+        LocalDateTime day = LocalDateTime.now().minusDays(3).withHour(10).withMinute(0).withSecond(0).withNano(0);
+        createTestReading(device, 70.0, day);
+
+        assertEquals(1L, aggregateCount(device, day.minusDays(1), LocalDateTime.now()));
+
+        Map<String, Object> readingData = new HashMap<>();
+        readingData.put("brand", "BMW");
+        readingData.put("device_id", device.getId());
+        readingData.put("type", "X5");
+        readingData.put("fuel_level_percent", 80);
+        readingData.put("range_km", 450);
+        readingData.put("timestamp", day.plusHours(1).atZone(ZoneId.systemDefault()).toInstant().toString());
+        givenDeviceAuth()
+                .contentType(ContentType.JSON)
+                .body(readingData)
+                .when()
+                .post("/readings")
+                .then()
+                .statusCode(HttpStatus.OK.value());
+
+        assertEquals(2L, aggregateCount(device, day.minusDays(1), LocalDateTime.now()));
+    }
+
+    @Test
+    void series_withFill_shouldReturnHourlyBucketsWithGaps() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+        LocalDateTime startTime = LocalDateTime.now().minusDays(2).withHour(10).withMinute(0).withSecond(0).withNano(0);
+        LocalDateTime endTime = startTime.plusHours(3).minusSeconds(1);
+
+        createTestReading(device, 10.0, startTime.plusMinutes(10));
+        createTestReading(device, 20.0, startTime.plusMinutes(50));
+        createTestReading(device, 40.0, startTime.plusHours(2).plusMinutes(30));
+
+        JsonPath response = givenUserAuth()
+                .queryParam("deviceIds", device.getId())
+                .queryParam("interval", "1h")
+                .queryParam("fill", true)
+                .queryParam("startTime", startTime.toString())
+                .queryParam("endTime", endTime.toString())
+                .when()
+                .get("/readings/series")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .jsonPath();
+
+        assertEquals(List.of(2, 0, 1), response.getList("count", Integer.class));
+        assertEquals(15.0, response.getDouble("[0].avgValue"));
+        assertNull(response.get("[1].avgValue"));
+        assertEquals(40.0, response.getDouble("[2].maxValue"));
+    }
+
+    @Test
+    void series_withUnknownInterval_shouldReturnBadRequest() {
+        givenUserAuth()
+                .queryParam("interval", "2h")
+                .queryParam("startTime", LocalDateTime.now().minusHours(3).toString())
+                .queryParam("endTime", LocalDateTime.now().toString())
+                .when()
+                .get("/readings/series")
+                .then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    void raw_withLimit_shouldResumeAfterLastReading() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+        LocalDateTime startTime = LocalDateTime.now().minusHours(3).withNano(0);
+        for (int i = 0; i < 5; i++) {
+            createTestReading(device, i, startTime.plusMinutes(10 + i));
+        }
+
+        List<String> firstPage = rawPage(device, startTime, 3, null, null);
+        assertEquals(3, firstPage.size());
+        JsonPath last = JsonPath.from(firstPage.get(2));
+        List<String> secondPage = rawPage(device, startTime, 3, last.getString("deviceId"), last.getString("timestamp"));
+
+        assertEquals(2, secondPage.size());
+        JsonPath first = JsonPath.from(secondPage.get(0));
+        assertEquals(device.getId(), first.getString("deviceId"));
+        assertEquals(3.0, first.getDouble("value"));
+        assertNull(first.get("deviceReading"));
+    }
+
+    @Test
+    void export_withCsvAccept_shouldReturnCsvAttachment() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+        LocalDateTime timestamp = LocalDateTime.now().minusHours(2).withNano(0);
+        createTestReading(device, 21.5, timestamp);
+
+        String response = givenUserAuth()
+                .accept("text/csv")
+                .queryParam("startTime", timestamp.minusHours(1).toString())
+                .queryParam("endTime", LocalDateTime.now().toString())
+                .when()
+                .get("/readings/raw/export")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .contentType("text/csv")
+                .header("Content-Disposition", "attachment; filename=\"readings.csv\"")
+                .extract()
+                .asString();
+
+        assertEquals(List.of("deviceId,timestamp,value,unit", device.getId() + "," + timestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) + ",21.5,"),
+                response.lines().toList());
+    }
+
+    @Test
+    void raw_withAfterDeviceIdOnly_shouldReturnBadRequest() {
+        givenUserAuth()
+                .queryParam("startTime", LocalDateTime.now().minusHours(3).toString())
+                .queryParam("endTime", LocalDateTime.now().toString())
+                .queryParam("afterDeviceId", "device-123")
+                .when()
+                .get("/readings/raw")
+                .then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    void aggregate_withCborAccept_shouldReturnCbor() throws Exception {
+        Device device = createTestDevice("Test Device", "Test Zone");
+        createTestReading(device, 75.5, LocalDateTime.now().minusHours(2));
+
+        byte[] response = givenUserAuth()
+                .accept("application/cbor")
+                .queryParam("startTime", LocalDateTime.now().minusHours(3).toString())
+                .queryParam("endTime", LocalDateTime.now().toString())
+                .when()
+                .get("/readings")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .contentType("application/cbor")
+                .extract()
+                .asByteArray();
+
+        ReadingAggregationResponse[] results = new CBORMapper().readValue(response, ReadingAggregationResponse[].class);
+        assertEquals(1, results.length);
+        assertEquals(75.5, results[0].getAvgValue());
+    }
+
     @Test
     void aggregate_withDeviceInvalidIdFilter_shouldReturnError() {
         Device device1 = createTestDevice("Test Device 1", "Test Zone");
@@ -129,6 +317,137 @@ class ReadingControllerTest extends BaseControllerTest {
                 .statusCode(HttpStatus.OK.value());
     }
 
+    @Test
+    void aggregateRecent_afterSave_shouldAnswerFromMemory() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+
+        for (int fuelLevel : new int[]{70, 80}) {
+            Map<String, Object> readingData = new HashMap<>();
+            readingData.put("brand", "BMW");
+            readingData.put("device_id", device.getId());
+            readingData.put("type", "X5");
+            readingData.put("fuel_level_percent", fuelLevel);
+            readingData.put("range_km", 450);
+            readingData.put("timestamp", Instant.now().toString());
+
+            givenDeviceAuth()
+                    .body(readingData)
+                    .when()
+                    .post("/readings")
+                    .then()
+                    .statusCode(HttpStatus.OK.value());
+        }
+
+        List<ReadingAggregationResponse> response = givenUserAuth()
+                .queryParam("deviceIds", device.getId())
+                .queryParam("window", "PT5M")
+                .when()
+                .get("/readings/recent")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .jsonPath()
+                .getList("", ReadingAggregationResponse.class);
+
+        assertEquals(1, response.size());
+        assertEquals(device.getId(), response.get(0).getDeviceId());
+        assertEquals("Test Device", response.get(0).getDeviceName());
+        assertEquals(2, response.get(0).getCount());
+        assertEquals(75.0, response.get(0).getAvgValue());
+    }
+
+    @Test
+    void latest_afterSave_shouldReturnNewestReadingOfDevice() {
+        Device device = createTestDevice("Test Device", "Latest Zone");
+
+        for (int fuelLevel : new int[]{70, 80}) {
+            Map<String, Object> readingData = new HashMap<>();
+            readingData.put("brand", "BMW");
+            readingData.put("device_id", device.getId());
+            readingData.put("type", "X5");
+            readingData.put("fuel_level_percent", fuelLevel);
+            readingData.put("range_km", 450);
+            readingData.put("timestamp", Instant.now().toString());
+
+            givenDeviceAuth()
+                    .body(readingData)
+                    .when()
+                    .post("/readings")
+                    .then()
+                    .statusCode(HttpStatus.OK.value());
+        }
+
+        JsonPath response = givenUserAuth()
+                .queryParam("zone", "Latest Zone")
+                .when()
+                .get("/readings/latest")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .jsonPath();
+
+        assertEquals(List.of(device.getId()), response.getList("deviceId", String.class));
+        assertEquals(80.0, response.getDouble("[0].value"));
+    }
+
+    @Test
+    void save_withCborPayload_shouldSaveReading() throws Exception {
+        Device device = createTestDevice("Test Device", "Test Zone");
+
+        Map<String, Object> readingData = new HashMap<>();
+        readingData.put("brand", "BMW");
+        readingData.put("device_id", device.getId());
+        readingData.put("type", "X5");
+        readingData.put("fuel_level_percent", 75);
+        readingData.put("range_km", 450);
+        readingData.put("timestamp", Instant.now().toString());
+
+        givenDeviceAuth()
+                .contentType("application/cbor")
+                .body(new CBORMapper().writeValueAsBytes(readingData))
+                .when()
+                .post("/readings")
+                .then()
+                .statusCode(HttpStatus.OK.value());
+
+        assertEquals(1, readingRepository.count());
+    }
+
+    @Test
+    void save_withRetriedReading_shouldStoreItOnce() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+
+        Map<String, Object> readingData = new HashMap<>();
+        readingData.put("brand", "BMW");
+        readingData.put("device_id", device.getId());
+        readingData.put("type", "X5");
+        readingData.put("fuel_level_percent", 75);
+        readingData.put("range_km", 450);
+        readingData.put("timestamp", Instant.now().toString());
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            givenDeviceAuth()
+                    .body(readingData)
+                    .when()
+                    .post("/readings")
+                    .then()
+                    .statusCode(HttpStatus.OK.value());
+        }
+
+        BatchReadingResponse response = givenDeviceAuth()
+                .body(List.of(readingData, readingData))
+                .when()
+                .post("/readings/batch")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(BatchReadingResponse.class);
+
+        assertEquals(0, response.saved());
+        assertEquals(2, response.duplicates());
+        assertEquals(1, readingRepository.count());
+    }
+
     @Test
     void save_withInvalidData_shouldSaveReading() {
         Device device = createTestDevice("Test Device", "Test Zone");
@@ -154,6 +473,110 @@ class ReadingControllerTest extends BaseControllerTest {
         assertEquals("Unknown device configuration", response.message());
     }
 
+    @Test
+    void saveBatch_withMixedData_shouldReportEachReading() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+
+        Map<String, Object> validReading = new HashMap<>();
+        validReading.put("brand", "BMW");
+        validReading.put("device_id", device.getId());
+        validReading.put("type", "X5");
+        validReading.put("fuel_level_percent", 75);
+        validReading.put("range_km", 450);
+        validReading.put("timestamp", Instant.now().toString());
+
+        Map<String, Object> unknownDeviceReading = new HashMap<>(validReading);
+        unknownDeviceReading.put("device_id", "unknown-device");
+
+        Map<String, Object> unknownBrandReading = new HashMap<>(validReading);
+        unknownBrandReading.put("brand", "wrong brand");
+
+        BatchReadingResponse response = givenDeviceAuth()
+                .contentType(ContentType.JSON)
+                .body(List.of(validReading, unknownDeviceReading, unknownBrandReading))
+                .when()
+                .post("/readings/batch")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(BatchReadingResponse.class);
+
+        assertEquals(3, response.received());
+        assertEquals(1, response.saved());
+        assertEquals(2, response.rejected());
+        assertEquals("Device not found: unknown-device", response.results().get(1).message());
+        assertEquals("Unknown device configuration", response.results().get(2).message());
+        assertEquals(1, readingRepository.count());
+    }
+
+    @Test
+    void saveBatch_withNdjson_shouldSaveEveryLine() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+
+        String line = "{\"brand\":\"Apple\",\"id\":\"" + device.getId() + "\",\"collected_at\":\"%s\",\"bpm\":72,\"activity\":\"Running\"}";
+        String body = String.format(line, Instant.now().minusSeconds(1)) + "\n" + String.format(line, Instant.now()) + "\n";
+
+        BatchReadingResponse response = givenDeviceAuth()
+                .contentType("application/x-ndjson")
+                .body(body)
+                .when()
+                .post("/readings/batch")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .as(BatchReadingResponse.class);
+
+        assertEquals(2, response.saved());
+        assertEquals(0, response.rejected());
+        assertEquals(2, readingRepository.count());
+    }
+
+    @Test
+    void save_withApiKey_shouldOnlyAcceptBoundDevice() {
+        Device device = createTestDevice("Test Device", "Test Zone");
+        Device otherDevice = createTestDevice("Other Device", "Test Zone");
+
+        String apiKey = givenUserAuth()
+                .when()
+                .post("/devices/{id}/api-keys", device.getId())
+                .then()
+                .statusCode(HttpStatus.CREATED.value())
+                .extract()
+                .path("apiKey");
+
+        Map<String, Object> readingData = new HashMap<>();
+        readingData.put("brand", "BMW");
+        readingData.put("device_id", device.getId());
+        readingData.put("type", "X5");
+        readingData.put("fuel_level_percent", 75);
+        readingData.put("range_km", 450);
+        readingData.put("timestamp", Instant.now().toString());
+
+        givenApiKeyAuth(apiKey)
+                .body(readingData)
+                .when()
+                .post("/readings")
+                .then()
+                .statusCode(HttpStatus.OK.value());
+
+        readingData.put("device_id", otherDevice.getId());
+        givenApiKeyAuth(apiKey)
+                .body(readingData)
+                .when()
+                .post("/readings")
+                .then()
+                .statusCode(HttpStatus.UNAUTHORIZED.value());
+
+        givenApiKeyAuth(apiKey + "x")
+                .body(readingData)
+                .when()
+                .post("/readings")
+                .then()
+                .statusCode(HttpStatus.UNAUTHORIZED.value());
+
+        assertEquals(1, readingRepository.count());
+    }
+
     @Test
     void givenWrongAuth_shouldReturnUnauthorized() {
         Device device = createTestDevice("Test Device", "Test Zone");
@@ -201,12 +624,51 @@ class ReadingControllerTest extends BaseControllerTest {
                 .statusCode(HttpStatus.UNAUTHORIZED.value());
     }
 
+    private long aggregateCount(Device device, LocalDateTime startTime, LocalDateTime endTime) {
+        return givenUserAuth()
+                .queryParam("deviceIds", device.getId())
+                .queryParam("startTime", startTime.toString())
+                .queryParam("endTime", endTime.toString())
+                .when()
+                .get("/readings")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract()
+                .jsonPath()
+                .getLong("[0].count");
+    }
+
+    private List<String> rawPage(Device device, LocalDateTime startTime, int limit, String afterDeviceId, String afterTimestamp) {
+        Map<String, Object> after = new HashMap<>();
+        if (afterDeviceId != null) {
+            after.put("afterDeviceId", afterDeviceId);
+            after.put("afterTimestamp", afterTimestamp);
+        }
+        return givenUserAuth()
+                .queryParam("deviceIds", device.getId())
+                .queryParam("startTime", startTime.toString())
+                .queryParam("endTime", LocalDateTime.now().toString())
+                .queryParam("limit", limit)
+                .queryParams(after)
+                .when()
+                .get("/readings/raw")
+                .then()
+                .statusCode(HttpStatus.OK.value())
+                .contentType("application/x-ndjson")
+                .extract()
+                .asString()
+                .lines()
+                .toList();
+    }
+
     private Reading createTestReading(Device device, double value, LocalDateTime timestamp) {
         Reading reading = Reading.builder()
-                .deviceId(device.getId())
+                .meta(ReadingMeta.of(device))
                 .value(value)
                 .timestamp(timestamp)
                 .build();
-        return readingRepository.save(reading);
+        Reading saved = readingRepository.save(reading);
+        readingRollupRepository.record(List.of(saved));
+        return saved;
     }
 }
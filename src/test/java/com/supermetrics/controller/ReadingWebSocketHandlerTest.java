@@ -0,0 +1,175 @@
+package com.supermetrics.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import com.supermetrics.config.WebSocketIngestionProperties;
+import com.supermetrics.dto.BatchReadingItemResult;
+import com.supermetrics.dto.BatchReadingResponse;
+import com.supermetrics.dto.ReadingAck;
+import com.supermetrics.mapper.ReadingRequestMapper;
+import com.supermetrics.security.ApiKeyAuthenticationToken;
+import com.supermetrics.security.DevicePrincipal;
+import com.supermetrics.service.ReadingService;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReadingWebSocketHandlerTest {
+
+    private static final String READING = """
+            {"brand":"BMW","device_id":"bmw-123456","type":"X5","timestamp":"2024-01-01T12:00:00Z","fuel_level_percent":75,"range_km":450}""";
+
+    @Mock
+    private ReadingService readingService;
+
+    @Mock
+    private WebSocketSession session;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final ApiKeyAuthenticationToken authentication =
+            new ApiKeyAuthenticationToken(new DevicePrincipal("key-id", Set.of("bmw-123456")));
+
+    private ReadingWebSocketHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        WebSocketIngestionProperties properties = new WebSocketIngestionProperties();
+        properties.setBatchSize(2);
+        properties.setFlushInterval(Duration.ofHours(1));
+        handler = new ReadingWebSocketHandler(readingService, new ReadingRequestMapper(), objectMapper, properties);
+
+        lenient().when(session.getId()).thenReturn("session-1");
+        lenient().when(session.getAttributes()).thenReturn(attributes);
+        lenient().when(session.isOpen()).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        handler.shutdown();
+    }
+
+    @Test
+    void afterConnectionEstablished_withoutAuthentication_shouldCloseSession() throws Exception {
+        handler.afterConnectionEstablished(session);
+
+        verify(session).close(any(CloseStatus.class));
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    void handleMessage_withFullBatch_shouldSaveAsAuthenticatedDeviceAndAcknowledge() throws Exception {
+        when(session.getPrincipal()).thenReturn(authentication);
+        when(readingService.saveReadings(any())).thenAnswer(invocation -> {
+            assertSame(authentication, SecurityContextHolder.getContext().getAuthentication());
+            return new BatchReadingResponse(2, 1, 1, 0, List.of(
+                    BatchReadingItemResult.saved(0),
+                    BatchReadingItemResult.rejected(1, "Device not found: bmw-123456")));
+        });
+
+        handler.afterConnectionEstablished(session);
+        handler.handleMessage(session, new TextMessage(READING + "\n" + READING + "\n" + READING));
+
+        verify(readingService, times(1)).saveReadings(any());
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
+
+        ReadingAck ack = sentAcks().get(0);
+        assertEquals(0, ack.firstSequence());
+        assertEquals(1, ack.lastSequence());
+        assertEquals(1, ack.saved());
+        assertEquals(List.of(new ReadingAck.Rejected(1, "Device not found: bmw-123456")), ack.rejected());
+    }
+
+    @Test
+    void afterConnectionClosed_withPendingReadings_shouldSaveThem() throws Exception {
+        when(session.getPrincipal()).thenReturn(authentication);
+        when(readingService.saveReadings(any())).thenReturn(new BatchReadingResponse(1, 1, 0, 0, List.of(BatchReadingItemResult.saved(0))));
+
+        handler.afterConnectionEstablished(session);
+        handler.handleMessage(session, new TextMessage(READING));
+        verify(readingService, never()).saveReadings(any());
+
+        handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+
+        verify(readingService).saveReadings(argThat(batch -> batch.size() == 1));
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    void flush_withFailingService_shouldRejectWholeBatch() throws Exception {
+        when(session.getPrincipal()).thenReturn(authentication);
+        when(readingService.saveReadings(any())).thenThrow(new IllegalStateException("Database unavailable"));
+
+        handler.afterConnectionEstablished(session);
+        handler.handleMessage(session, new TextMessage(READING + "\n" + READING));
+
+        ReadingAck ack = sentAcks().get(0);
+        assertEquals(0, ack.saved());
+        assertEquals(List.of(new ReadingAck.Rejected(0, "Database unavailable"), new ReadingAck.Rejected(1, "Database unavailable")),
+                ack.rejected());
+    }
+
+    @Test
+    void flushInterval_shouldWriteOnFlushWorkerNotTimerThread() throws Exception {
+        WebSocketIngestionProperties properties = new WebSocketIngestionProperties();
+        properties.setFlushInterval(Duration.ofMillis(10));
+        ReadingWebSocketHandler timedHandler = new ReadingWebSocketHandler(readingService, new ReadingRequestMapper(), objectMapper, properties);
+        CountDownLatch saved = new CountDownLatch(1);
+        AtomicReference<String> savingThread = new AtomicReference<>();
+        when(session.getPrincipal()).thenReturn(authentication);
+        when(readingService.saveReadings(any())).thenAnswer(invocation -> {
+            savingThread.set(Thread.currentThread().getName());
+            saved.countDown();
+            return new BatchReadingResponse(1, 1, 0, 0, List.of(BatchReadingItemResult.saved(0)));
+        });
+
+        try {
+            timedHandler.afterConnectionEstablished(session);
+            timedHandler.handleMessage(session, new TextMessage(READING));
+
+            assertTrue(saved.await(5, TimeUnit.SECONDS));
+            assertTrue(savingThread.get().startsWith("reading-ws-flush-"), savingThread.get());
+        } finally {
+            timedHandler.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ReadingAck> sentAcks() throws Exception {
+        ArgumentCaptor<WebSocketMessage<?>> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(session, atLeastOnce()).sendMessage(captor.capture());
+        return captor.getAllValues().stream()
+                .map(message -> readAck(((TextMessage) message).getPayload()))
+                .toList();
+    }
+
+    private ReadingAck readAck(String payload) {
+        try {
+            return objectMapper.readValue(payload, ReadingAck.class);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.supermetrics.listener;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.core.context.SecurityContextHolder;
+import com.supermetrics.config.LineProtocolProperties;
+import com.supermetrics.dto.BMWFuelReadingRequest;
+import com.supermetrics.dto.BatchReadingResponse;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.mapper.LineProtocolMapper;
+import com.supermetrics.security.DevicePrincipal;
+import com.supermetrics.service.DeviceCredentialService;
+import com.supermetrics.service.ReadingService;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LineProtocolListenerTest {
+
+    private static final String API_KEY = "key-id.secret";
+    private static final String READING = "bmw-123456,BMW,1704110400000,75,type=X5,range_km=450";
+
+    @Mock
+    private ReadingService readingService;
+
+    @Mock
+    private DeviceCredentialService credentialService;
+
+    private final DevicePrincipal principal = new DevicePrincipal("key-id", Set.of("bmw-123456"));
+    private final List<ReadingRequest> saved = new CopyOnWriteArrayList<>();
+    private LineProtocolListener listener;
+
+    @BeforeEach
+    void setUp() {
+        LineProtocolProperties properties = new LineProtocolProperties();
+        properties.setEnabled(true);
+        properties.setHost("127.0.0.1");
+        properties.setTcpPort(0);
+        properties.setUdpPort(0);
+        properties.setFlushInterval(Duration.ofMillis(20));
+        listener = new LineProtocolListener(properties, new LineProtocolMapper(), readingService, credentialService,
+                new SimpleMeterRegistry());
+
+        lenient().when(credentialService.authenticate(anyString())).thenReturn(Optional.empty());
+        lenient().when(credentialService.authenticate(API_KEY)).thenReturn(Optional.of(principal));
+        lenient().when(readingService.saveReadings(any())).thenAnswer(invocation -> {
+            assertSame(principal, SecurityContextHolder.getContext().getAuthentication().getPrincipal());
+            List<Supplier<ReadingRequest>> readings = invocation.getArgument(0);
+            readings.forEach(reading -> saved.add(reading.get()));
+            return new BatchReadingResponse(readings.size(), readings.size(), 0, 0, List.of());
+        });
+        listener.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.stop();
+    }
+
+    @Test
+    void tcp_withAuthenticatedConnection_shouldSaveReadingsInBatches() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", listener.getTcpPort())) {
+            OutputStream output = socket.getOutputStream();
+            BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            output.write(("AUTH " + API_KEY + "\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals("OK", input.readLine());
+
+            output.write((READING + "\r\n" + READING + "\n" + READING.substring(0, 10)).getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            output.write((READING.substring(10) + "\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        }
+
+        awaitSaved(3);
+        listener.stop();
+
+        assertEquals(3, saved.size());
+        assertEquals(new BMWFuelReadingRequest("bmw-123456", "BMW", "X5", Instant.ofEpochMilli(1704110400000L), 75, 450),
+                saved.get(0));
+    }
+
+    @Test
+    void tcp_withoutAuthentication_shouldCloseConnection() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", listener.getTcpPort())) {
+            socket.getOutputStream().write((READING + "\n").getBytes(StandardCharsets.UTF_8));
+            BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            assertEquals("ERR authentication required", input.readLine());
+            assertNull(input.readLine());
+        }
+
+        listener.stop();
+        verify(readingService, never()).saveReadings(any());
+    }
+
+    @Test
+    void udp_withAuthenticatedDatagram_shouldSaveReadings() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            byte[] authenticated = ("AUTH " + API_KEY + "\n" + READING + "\n" + READING).getBytes(StandardCharsets.UTF_8);
+            byte[] anonymous = (READING + "\n").getBytes(StandardCharsets.UTF_8);
+            socket.send(new DatagramPacket(authenticated, authenticated.length, InetAddress.getLoopbackAddress(), listener.getUdpPort()));
+            socket.send(new DatagramPacket(anonymous, anonymous.length, InetAddress.getLoopbackAddress(), listener.getUdpPort()));
+        }
+
+        awaitSaved(2);
+        listener.stop();
+
+        assertEquals(2, saved.size());
+    }
+
+    private void awaitSaved(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (saved.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.supermetrics.mapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import com.supermetrics.dto.DeviceDTO;
+import com.supermetrics.model.enums.DeviceType;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceRowReaderTest {
+
+    private final DeviceRowReader reader = new DeviceRowReader(new ObjectMapper());
+
+    @Test
+    void read_csvRow_shouldMapColumnsByHeader() {
+        List<String> header = reader.readHeader("\uFEFFserialNumber,name,type,zone,firmware");
+
+        DeviceDTO device = reader.read("SN-1,\"Thermostat, \"\"hall\"\"\",TEMPERATURE_SENSOR,,2.1", ExportFormat.CSV, header);
+
+        assertEquals(new DeviceDTO(null, "Thermostat, \"hall\"", null, "SN-1", DeviceType.TEMPERATURE_SENSOR, null, true), device);
+    }
+
+    @Test
+    void read_ndjsonRow_shouldKeepExplicitActiveAndIgnoreUnknownFields() {
+        DeviceDTO device = reader.read("{\"id\":\"x\",\"serialNumber\":\"SN-2\",\"type\":\"HEART_RATE_MONITOR\",\"active\":false,\"firmware\":\"2.1\"}",
+                ExportFormat.NDJSON, null);
+
+        assertEquals("SN-2", device.serialNumber());
+        assertEquals(DeviceType.HEART_RATE_MONITOR, device.type());
+        assertFalse(device.active());
+    }
+
+    @Test
+    void read_invalidRows_shouldThrowWithReason() {
+        List<String> header = reader.readHeader("serialNumber,type");
+
+        assertEquals("serialNumber is required",
+                assertThrows(IllegalArgumentException.class, () -> reader.read(",TEMPERATURE_SENSOR", ExportFormat.CSV, header)).getMessage());
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> reader.read("SN-3,TOASTER", ExportFormat.CSV, header))
+                .getMessage().contains("TOASTER"));
+        assertThrows(IllegalArgumentException.class, () -> reader.read("SN-3,TEMPERATURE_SENSOR,extra", ExportFormat.CSV, header));
+        assertThrows(IllegalArgumentException.class, () -> reader.read("{\"serialNumber\":", ExportFormat.NDJSON, null));
+        assertThrows(IllegalArgumentException.class, () -> reader.read("[1, 2]", ExportFormat.NDJSON, null));
+    }
+
+    @Test
+    void readHeader_withoutRequiredColumns_shouldThrow() {
+        assertThrows(IllegalArgumentException.class, () -> reader.readHeader("name,type,zone"));
+    }
+}
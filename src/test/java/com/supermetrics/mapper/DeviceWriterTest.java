@@ -0,0 +1,54 @@
+package com.supermetrics.mapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import com.supermetrics.dto.DeviceDTO;
+import com.supermetrics.model.enums.DeviceType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceWriterTest {
+
+    private static final List<DeviceDTO> DEVICES = List.of(
+            new DeviceDTO("device-1", "Thermostat", "Nest", "SN-1", DeviceType.TEMPERATURE_SENSOR, "Zone A", true),
+            new DeviceDTO("device-2", "Watch", "Apple", "SN-2", DeviceType.HEART_RATE_MONITOR, null, false));
+
+    private final DeviceWriter writer = new DeviceWriter(new ObjectMapper());
+
+    @Test
+    void writeJson_shouldWriteArray() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        writer.writeJson(DEVICES.iterator(), output);
+
+        assertEquals("[{\"id\":\"device-1\",\"name\":\"Thermostat\",\"brand\":\"Nest\",\"serialNumber\":\"SN-1\",\"type\":\"TEMPERATURE_SENSOR\",\"zone\":\"Zone A\",\"active\":true},"
+                + "{\"id\":\"device-2\",\"name\":\"Watch\",\"brand\":\"Apple\",\"serialNumber\":\"SN-2\",\"type\":\"HEART_RATE_MONITOR\",\"zone\":null,\"active\":false}]",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void writeNdjson_shouldWriteOneObjectPerLine() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        writer.writeNdjson(DEVICES.iterator(), output);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("{\"id\":\"device-1\""));
+        assertTrue(lines[1].startsWith("{\"id\":\"device-2\""));
+    }
+
+    @Test
+    void writeJson_withoutDevices_shouldWriteEmptyArray() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        writer.writeJson(List.<DeviceDTO>of().iterator(), output);
+
+        assertEquals("[]", output.toString(StandardCharsets.UTF_8));
+    }
+}
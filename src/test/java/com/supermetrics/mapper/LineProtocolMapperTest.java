@@ -0,0 +1,50 @@
+package com.supermetrics.mapper;
+
+import org.junit.jupiter.api.Test;
+import com.supermetrics.dto.BMWFuelReadingRequest;
+import com.supermetrics.dto.FordFuelReadingRequest;
+import com.supermetrics.dto.NestThermostatReadingRequest;
+import com.supermetrics.exception.BadRequestException;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineProtocolMapperTest {
+
+    private static final long TIMESTAMP = 1704110400000L;
+
+    private final LineProtocolMapper mapper = new LineProtocolMapper();
+
+    @Test
+    void mapToReadingRequest_withOptionalFields_shouldBuildBrandRequest() {
+        assertEquals(new BMWFuelReadingRequest("bmw-123456", "BMW", "X5", Instant.ofEpochMilli(TIMESTAMP), 75, 450),
+                mapper.mapToReadingRequest("bmw-123456,BMW," + TIMESTAMP + ",75,type=X5,range_km=450"));
+    }
+
+    @Test
+    void mapToReadingRequest_withoutOptionalFields_shouldUseDefaults() {
+        assertEquals(new NestThermostatReadingRequest("nest-1", "Nest", null, Instant.ofEpochMilli(TIMESTAMP), 21.5, 0),
+                mapper.mapToReadingRequest("nest-1,Nest," + TIMESTAMP + ",21.5"));
+    }
+
+    @Test
+    void mapToReadingRequest_withFordWithoutTankCapacity_shouldThrowBadRequestException() {
+        BadRequestException exception = assertThrows(BadRequestException.class,
+                () -> mapper.mapToReadingRequest("ford-1,Ford," + TIMESTAMP + ",30.5"));
+        assertEquals("Malformed reading line: missing field tankCapacityLiters", exception.getMessage());
+
+        FordFuelReadingRequest request = (FordFuelReadingRequest) mapper.mapToReadingRequest("ford-1,Ford," + TIMESTAMP + ",30.5,tankCapacityLiters=61");
+        assertEquals(61, request.tankCapacityLiters());
+    }
+
+    @Test
+    void mapToReadingRequest_withInvalidLine_shouldThrowBadRequestException() {
+        assertThrows(BadRequestException.class, () -> mapper.mapToReadingRequest("bmw-1,BMW," + TIMESTAMP));
+        assertThrows(BadRequestException.class, () -> mapper.mapToReadingRequest("bmw-1,BMW,yesterday,75"));
+        assertThrows(BadRequestException.class, () -> mapper.mapToReadingRequest("bmw-1,BMW," + TIMESTAMP + ",full"));
+        assertThrows(BadRequestException.class, () -> mapper.mapToReadingRequest("bmw-1,BMW," + TIMESTAMP + ",75,X5"));
+        assertEquals("Unknown device configuration", assertThrows(BadRequestException.class,
+                () -> mapper.mapToReadingRequest("tesla-1,Tesla," + TIMESTAMP + ",75")).getMessage());
+    }
+}
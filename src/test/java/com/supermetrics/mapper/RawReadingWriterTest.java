@@ -0,0 +1,57 @@
+package com.supermetrics.mapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import com.supermetrics.dto.RawReadingResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RawReadingWriterTest {
+
+    private static final List<RawReadingResponse> READINGS = List.of(
+            new RawReadingResponse("device-1", LocalDateTime.of(2024, 1, 1, 12, 0), 21.5, "celsius"),
+            new RawReadingResponse("device-2", LocalDateTime.of(2024, 1, 1, 12, 0, 30, 500_000_000), -3.0, "say \"hi\", ok"));
+
+    private final RawReadingWriter writer = new RawReadingWriter(new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS));
+
+    @Test
+    void write_asNdjson_shouldWriteOneObjectPerLine() throws IOException {
+        assertEquals("""
+                {"deviceId":"device-1","timestamp":"2024-01-01T12:00:00","value":21.5,"unit":"celsius"}
+                {"deviceId":"device-2","timestamp":"2024-01-01T12:00:30.5","value":-3.0,"unit":"say \\"hi\\", ok"}
+                """, write(ExportFormat.NDJSON));
+    }
+
+    @Test
+    void write_asCsv_shouldQuoteFieldsWithSeparators() throws IOException {
+        assertEquals("""
+                deviceId,timestamp,value,unit
+                device-1,2024-01-01T12:00:00,21.5,celsius
+                device-2,2024-01-01T12:00:30.5,-3.0,"say ""hi"", ok"
+                """, write(ExportFormat.CSV));
+    }
+
+    @Test
+    void fromAccept_shouldPickFirstKnownFormat() {
+        assertEquals(ExportFormat.CSV, ExportFormat.fromAccept("application/json, text/csv"));
+        assertEquals(ExportFormat.NDJSON, ExportFormat.fromAccept("*/*"));
+        assertEquals(ExportFormat.NDJSON, ExportFormat.fromAccept("not a type"));
+        assertEquals(ExportFormat.NDJSON, ExportFormat.fromAccept(null));
+    }
+
+    private String write(ExportFormat format) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writer.write(READINGS.iterator(), outputStream, format);
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,149 @@
+package com.supermetrics.mapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import com.supermetrics.dto.BMWFuelReadingRequest;
+import com.supermetrics.dto.FordFuelReadingRequest;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.exception.BadRequestException;
+import com.supermetrics.exception.TechnicalException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadingRequestMapperTest {
+
+    private static final String BMW_PAYLOAD = """
+            {"brand":"BMW","device_id":"bmw-123456","type":"X5","timestamp":"2024-01-01T12:00:00Z","fuel_level_percent":75,"range_km":450}""";
+
+    private final ReadingRequestMapper mapper = new ReadingRequestMapper();
+
+    @Test
+    void readReadingRequest_shouldMatchMapBasedMapping() {
+        Map<String, Object> request = new HashMap<>();
+        request.put("brand", "BMW");
+        request.put("device_id", "bmw-123456");
+        request.put("type", "X5");
+        request.put("timestamp", "2024-01-01T12:00:00Z");
+        request.put("fuel_level_percent", 75);
+        request.put("range_km", 450);
+
+        ReadingRequest expected = mapper.mapToReadingRequest(request);
+        ReadingRequest result = mapper.readReadingRequest(bytes(BMW_PAYLOAD));
+
+        assertEquals(expected, result);
+    }
+
+    @Test
+    void readReadingRequest_withManufacturerAfterOtherFields_shouldReplayBufferedFields() {
+        String payload = """
+                {"vehicleId":"ford-123456","sensorType":"Fuel","fuelLiters":45.5,"tankCapacityLiters":60.0,
+                 "manufacturer":"Ford","time":"2024-01-01T12:00:00Z","remainingRangeKm":450}""";
+
+        ReadingRequest result = mapper.readReadingRequest(bytes(payload));
+
+        assertEquals(new FordFuelReadingRequest("ford-123456", "Ford", "Fuel",
+                Instant.parse("2024-01-01T12:00:00Z"), 45.5, 60.0, 450), result);
+    }
+
+    @Test
+    void readReadingRequest_withManufacturerBeforeBrand_shouldPreferBrand() {
+        String payload = """
+                {"manufacturer":"Ford","brand":"BMW","device_id":"bmw-123456"}""";
+        Map<String, Object> request = Map.of("manufacturer", "Ford", "brand", "BMW", "device_id", "bmw-123456");
+
+        TechnicalException expected = assertThrows(TechnicalException.class, () -> mapper.mapToReadingRequest(request));
+        TechnicalException exception = assertThrows(TechnicalException.class, () -> mapper.readReadingRequest(bytes(payload)));
+
+        assertEquals("Failed to map request for device: " + ReadingRequestMapper.DEVICE_KEY_BMW_FUEL_SENSOR, exception.getMessage());
+        assertEquals(expected.getMessage(), exception.getMessage());
+    }
+
+    @Test
+    void readReadingRequest_withNullBrand_shouldFallBackToManufacturer() {
+        String payload = """
+                {"brand":null,"vehicleId":"ford-123456","manufacturer":"Ford"}""";
+
+        TechnicalException exception = assertThrows(TechnicalException.class, () -> mapper.readReadingRequest(bytes(payload)));
+
+        assertEquals("Failed to map request for device: " + ReadingRequestMapper.DEVICE_KEY_FORD_FUEL_SENSOR, exception.getMessage());
+    }
+
+    @Test
+    void readReadingRequest_withUnknownBrand_shouldThrowBadRequestException() {
+        BadRequestException exception = assertThrows(BadRequestException.class,
+                () -> mapper.readReadingRequest(bytes("{\"brand\":\"wrong brand\",\"device_id\":\"1\"}")));
+
+        assertEquals("Unknown device configuration", exception.getMessage());
+    }
+
+    @Test
+    void readReadingRequest_withoutBrand_shouldThrowBadRequestException() {
+        assertThrows(BadRequestException.class, () -> mapper.readReadingRequest(bytes("{\"device_id\":\"1\"}")));
+    }
+
+    @Test
+    void readReadingRequest_withUnknownField_shouldThrowTechnicalException() {
+        assertThrows(TechnicalException.class,
+                () -> mapper.readReadingRequest(bytes("{\"brand\":\"BMW\",\"unknown\":1}")));
+    }
+
+    @Test
+    void readReadingRequests_shouldIsolateEachElement() {
+        List<Supplier<ReadingRequest>> requests = mapper.readReadingRequests(
+                bytes("[" + BMW_PAYLOAD + ",{\"brand\":\"wrong brand\"}," + BMW_PAYLOAD + "]"));
+
+        assertEquals(3, requests.size());
+        assertInstanceOf(BMWFuelReadingRequest.class, requests.get(0).get());
+        assertThrows(BadRequestException.class, () -> requests.get(1).get());
+        assertInstanceOf(BMWFuelReadingRequest.class, requests.get(2).get());
+    }
+
+    @Test
+    void readReadingRequestLines_shouldSkipBlankLinesAndIsolateMalformedLines() {
+        List<Supplier<ReadingRequest>> requests = mapper.readReadingRequestLines(
+                bytes(BMW_PAYLOAD + "\n\n{not json\n" + BMW_PAYLOAD + "\n"));
+
+        assertEquals(3, requests.size());
+        assertInstanceOf(BMWFuelReadingRequest.class, requests.get(0).get());
+        assertThrows(BadRequestException.class, () -> requests.get(1).get());
+        assertInstanceOf(BMWFuelReadingRequest.class, requests.get(2).get());
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = PayloadFormat.class, names = {"CBOR", "SMILE"})
+    void readReadingRequest_withBinaryFormat_shouldMatchJson(PayloadFormat format) throws Exception {
+        ObjectMapper binaryMapper = format == PayloadFormat.CBOR ? new CBORMapper() : new SmileMapper();
+        Object json = new ObjectMapper().readValue(BMW_PAYLOAD, Object.class);
+
+        ReadingRequest result = mapper.readReadingRequest(binaryMapper.writeValueAsBytes(json), format);
+        List<Supplier<ReadingRequest>> batch = mapper.readReadingRequests(binaryMapper.writeValueAsBytes(List.of(json, json)), format);
+
+        assertEquals(mapper.readReadingRequest(bytes(BMW_PAYLOAD)), result);
+        assertEquals(2, batch.size());
+        assertEquals(result, batch.get(1).get());
+    }
+
+    @Test
+    void payloadFormat_fromContentType_shouldDefaultToJson() {
+        assertEquals(PayloadFormat.CBOR, PayloadFormat.fromContentType("application/cbor"));
+        assertEquals(PayloadFormat.SMILE, PayloadFormat.fromContentType("application/x-jackson-smile"));
+        assertEquals(PayloadFormat.JSON, PayloadFormat.fromContentType("application/json;charset=UTF-8"));
+        assertEquals(PayloadFormat.JSON, PayloadFormat.fromContentType(null));
+        assertEquals(PayloadFormat.JSON, PayloadFormat.fromContentType("not a media type"));
+    }
+
+    private static byte[] bytes(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,115 @@
+package com.supermetrics.repository;
+
+import org.junit.jupiter.api.Test;
+import com.supermetrics.model.enums.RollupResolution;
+import com.supermetrics.repository.ReadingRollupPlan.TimeRange;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadingRollupPlanTest {
+
+    @Test
+    void of_withUnalignedRange_shouldUseCoarsestBucketsAndReadEdgesRaw() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 15, 30);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 3, 12, 0);
+
+        ReadingRollupPlan plan = ReadingRollupPlan.of(start, end);
+
+        assertEquals(List.of(
+                new TimeRange(start, LocalDateTime.of(2024, 1, 1, 10, 16)),
+                new TimeRange(end, end.plusNanos(1_000_000))), plan.rawRanges());
+        assertEquals(Map.of(
+                RollupResolution.MINUTE, List.of(new TimeRange(LocalDateTime.of(2024, 1, 1, 10, 16), LocalDateTime.of(2024, 1, 1, 11, 0))),
+                RollupResolution.HOUR, List.of(
+                        new TimeRange(LocalDateTime.of(2024, 1, 1, 11, 0), LocalDateTime.of(2024, 1, 2, 0, 0)),
+                        new TimeRange(LocalDateTime.of(2024, 1, 3, 0, 0), end)),
+                RollupResolution.DAY, List.of(new TimeRange(LocalDateTime.of(2024, 1, 2, 0, 0), LocalDateTime.of(2024, 1, 3, 0, 0)))),
+                plan.rollupRanges());
+        assertContiguous(plan, start, end.plusNanos(1_000_000));
+    }
+
+    @Test
+    void of_withCoarsestResolution_shouldNotUseLargerBuckets() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 15, 30);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 3, 12, 0);
+
+        ReadingRollupPlan plan = ReadingRollupPlan.of(start, end, RollupResolution.HOUR);
+
+        assertEquals(List.of(
+                new TimeRange(LocalDateTime.of(2024, 1, 1, 11, 0), LocalDateTime.of(2024, 1, 3, 12, 0))),
+                plan.rollupRanges().get(RollupResolution.HOUR));
+        assertFalse(plan.rollupRanges().containsKey(RollupResolution.DAY));
+        assertContiguous(plan, start, end.plusNanos(1_000_000));
+    }
+
+    @Test
+    void of_withinOneMinute_shouldOnlyReadRaw() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 15, 10);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 1, 10, 15, 50);
+
+        ReadingRollupPlan plan = ReadingRollupPlan.of(start, end);
+
+        assertEquals(List.of(new TimeRange(start, end.plusNanos(1_000_000))), plan.rawRanges());
+        assertTrue(plan.rollupRanges().isEmpty());
+    }
+
+    @Test
+    void of_withSubMillisecondBounds_shouldTruncateToStoredPrecision() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 15, 10, 123_456_789);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 1, 10, 15, 20, 987_654_321);
+
+        ReadingRollupPlan plan = ReadingRollupPlan.of(start, end);
+
+        assertEquals(List.of(new TimeRange(
+                LocalDateTime.of(2024, 1, 1, 10, 15, 10, 123_000_000),
+                LocalDateTime.of(2024, 1, 1, 10, 15, 20, 988_000_000))), plan.rawRanges());
+    }
+
+    @Test
+    void of_withRandomRanges_shouldCoverEachInstantExactlyOnce() {
+        LocalDateTime origin = LocalDateTime.of(2024, 3, 1, 0, 0);
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            LocalDateTime start = origin.plusSeconds(random.nextInt(5 * 24 * 3600));
+            LocalDateTime end = start.plusSeconds(random.nextInt(4 * 24 * 3600));
+
+            assertContiguous(ReadingRollupPlan.of(start, end), start, end.plusNanos(1_000_000));
+        }
+    }
+
+    @Test
+    void raw_shouldReadWholeRangeRaw() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 5, 0, 0);
+
+        ReadingRollupPlan plan = ReadingRollupPlan.raw(start, end);
+
+        assertEquals(List.of(new TimeRange(start, end.plusNanos(1_000_000))), plan.rawRanges());
+        assertTrue(plan.rollupRanges().isEmpty());
+    }
+
+    private static void assertContiguous(ReadingRollupPlan plan, LocalDateTime from, LocalDateTime to) {
+        List<TimeRange> ranges = new ArrayList<>(plan.rawRanges());
+        plan.rollupRanges().forEach((resolution, rollupRanges) -> rollupRanges.forEach(range -> {
+            assertEquals(resolution.truncate(range.from()), range.from());
+            assertEquals(resolution.truncate(range.to()), range.to());
+            ranges.add(range);
+        }));
+        ranges.sort(Comparator.comparing(TimeRange::from));
+
+        LocalDateTime cursor = from;
+        for (TimeRange range : ranges) {
+            assertEquals(cursor, range.from());
+            assertTrue(range.from().isBefore(range.to()));
+            cursor = range.to();
+        }
+        assertEquals(to, cursor);
+    }
+}
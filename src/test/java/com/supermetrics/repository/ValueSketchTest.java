@@ -0,0 +1,88 @@
+package com.supermetrics.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueSketchTest {
+
+    @Test
+    void quantile_withRandomValues_shouldBeWithinRelativeAccuracy() {
+        Random random = new Random(11);
+        ValueSketch sketch = new ValueSketch();
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            double value = Math.exp(random.nextGaussian() * 3) * (random.nextInt(4) == 0 ? -1 : 1);
+            sketch.add(value);
+            values.add(value);
+        }
+        values.sort(null);
+
+        for (double q : new double[]{0, 0.01, 0.25, 0.5, 0.9, 0.95, 0.99, 1}) {
+            double expected = values.get((int) (q * (values.size() - 1)));
+            assertEquals(expected, sketch.quantile(q), Math.abs(expected) * ValueSketch.RELATIVE_ACCURACY, "quantile " + q);
+        }
+    }
+
+    @Test
+    void add_byKey_shouldMergeSketchesExactly() {
+        Random random = new Random(3);
+        ValueSketch merged = new ValueSketch();
+        ValueSketch whole = new ValueSketch();
+        Map<String, Long> first = new TreeMap<>();
+        Map<String, Long> second = new TreeMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            double value = 40 + random.nextDouble() * 160;
+            whole.add(value);
+            (i % 3 == 0 ? first : second).merge(ValueSketch.key(value), 1L, Long::sum);
+        }
+        first.forEach(merged::add);
+        second.forEach(merged::add);
+
+        assertEquals(whole.count(), merged.count());
+        for (double q : new double[]{0, 0.5, 0.95, 0.99, 1}) {
+            assertEquals(whole.quantile(q), merged.quantile(q));
+        }
+    }
+
+    @Test
+    void remove_shouldForgetValues() {
+        ValueSketch sketch = new ValueSketch();
+        sketch.add(10);
+        sketch.add(0);
+        sketch.add(-5);
+        sketch.add(1000);
+
+        sketch.remove(1000);
+        sketch.remove(-5);
+
+        assertEquals(2, sketch.count());
+        assertEquals(0.0, sketch.quantile(0));
+        assertEquals(10.0, sketch.quantile(1), 0.1);
+    }
+
+    @Test
+    void quantile_shouldStayWithinMinAndMax() {
+        ValueSketch sketch = new ValueSketch();
+        sketch.add(60);
+
+        assertEquals(60.0, sketch.quantile(0.99, 60, 60));
+        assertNull(new ValueSketch().quantile(0.5));
+    }
+
+    @Test
+    void key_shouldSeparatePositiveNegativeAndZero() {
+        assertEquals("z", ValueSketch.key(0));
+        assertEquals("z", ValueSketch.key(1e-12));
+        assertTrue(ValueSketch.key(2.5).startsWith("p"));
+        assertTrue(ValueSketch.key(-2.5).startsWith("m"));
+        assertEquals(ValueSketch.key(2.5).substring(1), ValueSketch.key(-2.5).substring(1));
+        assertThrows(IllegalArgumentException.class, () -> new ValueSketch().add("x1", 1));
+    }
+}
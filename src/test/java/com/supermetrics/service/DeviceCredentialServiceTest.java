@@ -0,0 +1,129 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.supermetrics.config.ApiKeyProperties;
+import com.supermetrics.dto.ApiKeyResponse;
+import com.supermetrics.exception.NotFoundException;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.DeviceCredential;
+import com.supermetrics.repository.DeviceCredentialRepository;
+import com.supermetrics.security.DevicePrincipal;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceCredentialServiceTest {
+
+    @Mock
+    private DeviceCredentialRepository credentialRepository;
+
+    @Mock
+    private DeviceService deviceService;
+
+    private DeviceCredentialService credentialService;
+
+    private ApiKeyResponse lastIssued;
+
+    @BeforeEach
+    void setUp() {
+        credentialService = new DeviceCredentialService(credentialRepository, deviceService,
+                new ApiKeyProperties(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void issue_withExistingDevice_shouldStoreOnlySecretHash() {
+        DeviceCredential credential = issueKey("device-id-1");
+
+        ApiKeyResponse response = lastIssued;
+        assertEquals(credential.getKeyId(), response.keyId());
+        assertEquals(Set.of("device-id-1"), response.deviceIds());
+        assertTrue(response.apiKey().startsWith(response.keyId() + "."));
+        assertEquals(32, credential.getSecretHash().length);
+        assertFalse(credential.isRevoked());
+    }
+
+    @Test
+    void issue_withNonExistingDevice_shouldThrowNotFoundException() {
+        when(deviceService.findById("unknown")).thenReturn(Optional.empty());
+
+        assertThrows(NotFoundException.class, () -> credentialService.issue("unknown"));
+        verify(credentialRepository, never()).save(any());
+    }
+
+    @Test
+    void authenticate_withValidKey_shouldReturnBoundDevicesAndCacheCredential() {
+        DeviceCredential credential = issueKey("device-id-1");
+        when(credentialRepository.findByKeyId(credential.getKeyId())).thenReturn(Optional.of(credential));
+
+        Optional<DevicePrincipal> first = credentialService.authenticate(lastIssued.apiKey());
+        Optional<DevicePrincipal> second = credentialService.authenticate(lastIssued.apiKey());
+
+        assertTrue(first.isPresent());
+        assertTrue(first.get().canWrite("device-id-1"));
+        assertFalse(first.get().canWrite("device-id-2"));
+        assertEquals(first, second);
+        verify(credentialRepository, times(1)).findByKeyId(credential.getKeyId());
+    }
+
+    @Test
+    void authenticate_withWrongSecret_shouldReturnEmpty() {
+        DeviceCredential credential = issueKey("device-id-1");
+        when(credentialRepository.findByKeyId(credential.getKeyId())).thenReturn(Optional.of(credential));
+
+        assertTrue(credentialService.authenticate(credential.getKeyId() + ".wrong-secret").isEmpty());
+    }
+
+    @Test
+    void authenticate_withMalformedOrUnknownKey_shouldReturnEmpty() {
+        when(credentialRepository.findByKeyId("unknown")).thenReturn(Optional.empty());
+
+        assertTrue(credentialService.authenticate("no-separator").isEmpty());
+        assertTrue(credentialService.authenticate(".secret").isEmpty());
+        assertTrue(credentialService.authenticate("unknown.secret").isEmpty());
+        assertTrue(credentialService.authenticate("unknown.secret").isEmpty());
+        verify(credentialRepository, times(1)).findByKeyId("unknown");
+    }
+
+    @Test
+    void revoke_withIssuedKey_shouldRejectKeyImmediately() {
+        DeviceCredential credential = issueKey("device-id-1");
+        when(credentialRepository.findByKeyId(credential.getKeyId())).thenReturn(Optional.of(credential));
+        assertTrue(credentialService.authenticate(lastIssued.apiKey()).isPresent());
+
+        credentialService.revoke("device-id-1", credential.getKeyId());
+
+        assertTrue(credential.isRevoked());
+        assertTrue(credentialService.authenticate(lastIssued.apiKey()).isEmpty());
+    }
+
+    @Test
+    void revoke_withKeyOfOtherDevice_shouldThrowNotFoundException() {
+        DeviceCredential credential = issueKey("device-id-1");
+        when(credentialRepository.findByKeyId(credential.getKeyId())).thenReturn(Optional.of(credential));
+
+        assertThrows(NotFoundException.class, () -> credentialService.revoke("device-id-2", credential.getKeyId()));
+        assertFalse(credential.isRevoked());
+    }
+
+    private DeviceCredential issueKey(String deviceId) {
+        when(deviceService.findById(deviceId)).thenReturn(Optional.of(Device.builder().id(deviceId).build()));
+        when(credentialRepository.save(any(DeviceCredential.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        lastIssued = credentialService.issue(deviceId);
+
+        ArgumentCaptor<DeviceCredential> captor = ArgumentCaptor.forClass(DeviceCredential.class);
+        verify(credentialRepository).save(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,202 @@
+package com.supermetrics.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import com.supermetrics.config.DeviceImportProperties;
+import com.supermetrics.mapper.DeviceMapperImpl;
+import com.supermetrics.mapper.DeviceRowReader;
+import com.supermetrics.mapper.ExportFormat;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.DeviceImport;
+import com.supermetrics.model.DeviceImport.RowError;
+import com.supermetrics.model.enums.ImportStatus;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceImportServiceTest {
+
+    // Line 3 names an unknown type and line 5 is blank
+    private static final String CSV = """
+            serialNumber,type,name
+            SN-1,TEMPERATURE_SENSOR,Hall
+            SN-2,TOASTER,Kitchen
+            SN-3,HEART_RATE_MONITOR,Watch
+
+            SN-4,TEMPERATURE_SENSOR,Garage
+            """;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private GridFsTemplate gridFsTemplate;
+
+    @Mock
+    private DeviceService deviceService;
+
+    private DeviceImportService importService;
+    private DeviceImport deviceImport;
+
+    @BeforeEach
+    void setUp() {
+        DeviceImportProperties properties = new DeviceImportProperties();
+        properties.setBatchSize(2);
+        importService = new DeviceImportService(mongoTemplate, gridFsTemplate, deviceService, new DeviceMapperImpl(),
+                new DeviceRowReader(new ObjectMapper()), properties, new SimpleMeterRegistry(), () -> 1_000_000L);
+        deviceImport = DeviceImport.builder()
+                .id("import-1")
+                .fileId(new ObjectId().toHexString())
+                .format(ExportFormat.CSV)
+                .status(ImportStatus.RUNNING)
+                .totalLines(6)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        importService.shutdown();
+    }
+
+    @Test
+    void run_shouldUpsertInBatchesAndRecordRowErrorsByLine() {
+        givenClaimedImport(CSV);
+        givenOwned(true);
+        when(deviceService.upsertAll(any()))
+                .thenReturn(new DeviceService.UpsertResult(List.of(), 1, 0, Map.of()))
+                .thenReturn(new DeviceService.UpsertResult(List.of(), 1, 0, Map.of(1, "duplicate key")));
+
+        importService.run("import-1");
+
+        assertEquals(List.of(List.of("SN-1"), List.of("SN-3", "SN-4")), upsertedSerialNumbers(2));
+        List<Document> updates = updates(4);
+        assertEquals(3L, set(updates.get(0)).get("linesRead"));
+        List<RowError> firstErrors = errors(updates.get(0));
+        assertEquals(1, firstErrors.size());
+        assertEquals(3, firstErrors.get(0).line());
+        assertTrue(firstErrors.get(0).message().contains("TOASTER"));
+        assertEquals(6L, set(updates.get(1)).get("linesRead"));
+        assertEquals(List.of(new RowError(6, "duplicate key")), errors(updates.get(1)));
+        assertEquals(6L, set(updates.get(2)).get("linesRead"));
+        assertEquals(ImportStatus.COMPLETED, set(updates.get(3)).get("status"));
+        verify(gridFsTemplate).delete(any(Query.class));
+    }
+
+    @Test
+    void run_whenResumed_shouldSkipLinesAlreadyWritten() {
+        deviceImport.setLinesRead(4);
+        givenClaimedImport(CSV);
+        givenOwned(true);
+        when(deviceService.upsertAll(any())).thenReturn(new DeviceService.UpsertResult(List.of(), 1, 0, Map.of()));
+
+        importService.run("import-1");
+
+        assertEquals(List.of(List.of("SN-4")), upsertedSerialNumbers(1));
+        assertEquals(ImportStatus.COMPLETED, set(updates(2).get(1)).get("status"));
+    }
+
+    @Test
+    void run_whenTakenOver_shouldStopWithoutCompleting() {
+        givenClaimedImport(CSV);
+        givenOwned(false);
+        when(deviceService.upsertAll(any())).thenReturn(new DeviceService.UpsertResult(List.of(), 1, 0, Map.of()));
+
+        importService.run("import-1");
+
+        assertEquals(1, updates(1).size());
+        verify(deviceService, times(1)).upsertAll(any());
+        verify(gridFsTemplate, never()).delete(any());
+    }
+
+    @Test
+    void run_withInvalidHeader_shouldFailAndKeepFile() {
+        givenClaimedImport("name,zone\nHall,Zone 1\n");
+        givenOwned(true);
+
+        importService.run("import-1");
+
+        Document update = updates(1).get(0);
+        assertEquals(ImportStatus.FAILED, set(update).get("status"));
+        assertNotNull(set(update).get("error"));
+        verifyNoInteractions(deviceService);
+        verify(gridFsTemplate, never()).delete(any());
+    }
+
+    @Test
+    void run_whenClaimedElsewhere_shouldDoNothing() {
+        importService.run("import-1");
+
+        verifyNoInteractions(gridFsTemplate, deviceService);
+    }
+
+    private void givenClaimedImport(String content) {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(DeviceImport.class)))
+                .thenReturn(deviceImport);
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        GridFSFile file = new GridFSFile(new BsonObjectId(new ObjectId(deviceImport.getFileId())), "devices.csv", bytes.length,
+                1024, new Date(), null);
+        when(gridFsTemplate.findOne(any())).thenReturn(file);
+        when(gridFsTemplate.getResource(file)).thenReturn(new GridFsResource(file, new ByteArrayInputStream(bytes)));
+    }
+
+    private void givenOwned(boolean owned) {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(DeviceImport.class)))
+                .thenReturn(UpdateResult.acknowledged(owned ? 1 : 0, owned ? 1L : 0L, null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<String>> upsertedSerialNumbers(int batches) {
+        ArgumentCaptor<List<Device>> devices = ArgumentCaptor.forClass(List.class);
+        verify(deviceService, times(batches)).upsertAll(devices.capture());
+        return devices.getAllValues().stream()
+                .map(batch -> batch.stream().map(Device::getSerialNumber).toList())
+                .toList();
+    }
+
+    private List<Document> updates(int count) {
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(count)).updateFirst(any(Query.class), updates.capture(), eq(DeviceImport.class));
+        return updates.getAllValues().stream().map(Update::getUpdateObject).toList();
+    }
+
+    private static Document set(Document update) {
+        return update.get("$set", Document.class);
+    }
+
+    private static List<RowError> errors(Document update) {
+        Update.Modifiers modifiers = (Update.Modifiers) update.get("$push", Document.class).get("errors");
+        return modifiers.getModifiers().stream()
+                .filter(modifier -> modifier.getKey().equals("$each"))
+                .flatMap(each -> Arrays.stream((Object[]) each.getValue()))
+                .map(RowError.class::cast)
+                .toList();
+    }
+}
@@ -0,0 +1,79 @@
+package com.supermetrics.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.supermetrics.config.DeviceListingProperties;
+import com.supermetrics.exception.BadRequestException;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.DeviceRepository;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceListingServiceTest {
+
+    @Mock
+    private DeviceRepository deviceRepository;
+
+    private DeviceListingProperties properties;
+    private DeviceListingService listingService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DeviceListingProperties();
+        listingService = new DeviceListingService(deviceRepository, properties);
+    }
+
+    @Test
+    void findPage_withMoreDevices_shouldReturnPageAndNextCursor() {
+        AtomicBoolean closed = new AtomicBoolean();
+        when(deviceRepository.streamByFilters(List.of(DeviceType.TEMPERATURE_SENSOR), "Zone A", true, "device-0", 3, 1000))
+                .thenReturn(devices(3).onClose(() -> closed.set(true)));
+
+        DeviceListingService.DevicePage page = listingService.findPage(List.of(DeviceType.TEMPERATURE_SENSOR), "Zone A", true,
+                "device-0", 2);
+
+        assertEquals(List.of("device-1", "device-2"), page.devices().stream().map(Device::getId).toList());
+        assertEquals("device-2", page.nextAfterId());
+        assertTrue(closed.get());
+    }
+
+    @Test
+    void findPage_onLastPage_shouldReturnNoCursor() {
+        when(deviceRepository.streamByFilters(isNull(), isNull(), isNull(), isNull(), eq(1001), eq(1000))).thenReturn(devices(2));
+
+        DeviceListingService.DevicePage page = listingService.findPage(null, null, null, null, null);
+
+        assertEquals(2, page.devices().size());
+        assertNull(page.nextAfterId());
+    }
+
+    @Test
+    void findPage_withLimitOutOfRange_shouldThrowBadRequest() {
+        assertThrows(BadRequestException.class, () -> listingService.findPage(null, null, null, null, 0));
+        assertThrows(BadRequestException.class, () -> listingService.findPage(null, null, null, null, properties.getMaxLimit() + 1));
+        verifyNoInteractions(deviceRepository);
+    }
+
+    @Test
+    void stream_withoutLimit_shouldNotLimitCursor() {
+        when(deviceRepository.streamByFilters(null, null, false, null, 0, 1000)).thenReturn(devices(5));
+
+        assertEquals(5, listingService.stream(null, null, false, null, null).count());
+    }
+
+    private static Stream<Device> devices(int count) {
+        return IntStream.rangeClosed(1, count).mapToObj(i -> Device.builder().id("device-" + i).build());
+    }
+}
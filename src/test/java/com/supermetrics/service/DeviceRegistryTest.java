@@ -0,0 +1,132 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import com.supermetrics.config.DeviceRegistryProperties;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.DeviceRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceRegistryTest {
+
+    @Mock
+    private DeviceRepository deviceRepository;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ReadingAggregationCache aggregationCache;
+
+    private SimpleMeterRegistry meterRegistry;
+    private DeviceRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new DeviceRegistry(deviceRepository, mongoTemplate, new DeviceRegistryProperties(), aggregationCache, meterRegistry);
+    }
+
+    @Test
+    void find_beforeReload_shouldMiss() {
+        registry.put(device("a", DeviceType.HEART_RATE_MONITOR, "Zone A", true));
+
+        assertFalse(registry.isLoaded());
+        assertEquals(Optional.empty(), registry.find("a"));
+        assertFalse(registry.exists(null, null, null));
+        assertEquals(List.of(), registry.findAllActive());
+    }
+
+    @Test
+    void find_shouldFilterByTypesIdsZoneAndActive() {
+        Device a = device("a", DeviceType.HEART_RATE_MONITOR, "Zone A", true);
+        Device b = device("b", DeviceType.TEMPERATURE_SENSOR, "Zone A", true);
+        Device c = device("c", DeviceType.HEART_RATE_MONITOR, "Zone B", true);
+        Device d = device("d", DeviceType.HEART_RATE_MONITOR, "Zone A", false);
+        when(deviceRepository.findAll()).thenReturn(List.of(a, b, c, d));
+        registry.reload();
+
+        assertEquals(List.of(a, c), registry.find(List.of(DeviceType.HEART_RATE_MONITOR), null, null));
+        assertEquals(List.of(a, b), registry.find(null, null, "Zone A"));
+        assertEquals(List.of(c), registry.find(null, List.of("c", "d", "unknown"), null));
+        assertEquals(List.of(), registry.find(List.of(DeviceType.TEMPERATURE_SENSOR), null, "Zone B"));
+        assertEquals(List.of(a, b, c), registry.findAllActive());
+        assertTrue(registry.exists(List.of(DeviceType.TEMPERATURE_SENSOR), List.of("b"), "Zone A"));
+        assertFalse(registry.exists(null, null, "Zone C"));
+        assertEquals(Map.of("a", a, "d", d), registry.findAll(List.of("a", "d", "unknown")));
+        assertEquals(4.0, meterRegistry.get("devices.registry.devices").gauge().value());
+    }
+
+    @Test
+    void put_withChangedDevice_shouldMoveItBetweenIndexes() {
+        when(deviceRepository.findAll()).thenReturn(List.of(device("a", DeviceType.HEART_RATE_MONITOR, "Zone A", true)));
+        registry.reload();
+
+        Device moved = device("a", DeviceType.TEMPERATURE_SENSOR, "Zone B", true);
+        registry.put(moved);
+
+        assertEquals(List.of(), registry.find(null, null, "Zone A"));
+        assertEquals(List.of(), registry.find(List.of(DeviceType.HEART_RATE_MONITOR), null, null));
+        assertEquals(List.of(moved), registry.find(List.of(DeviceType.TEMPERATURE_SENSOR), null, "Zone B"));
+
+        registry.put(device("a", DeviceType.TEMPERATURE_SENSOR, "Zone B", false));
+        assertEquals(List.of(), registry.findAllActive());
+
+        registry.remove("a");
+        assertEquals(Optional.empty(), registry.find("a"));
+        assertEquals(Map.of(), registry.findAll(List.of("a")));
+    }
+
+    @Test
+    void find_withRandomDevices_shouldMatchLinearScan() {
+        Random random = new Random(5);
+        List<DeviceType> types = List.of(DeviceType.values());
+        List<String> zones = List.of("Zone A", "Zone B", "Zone C");
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            devices.add(device("device-" + i, types.get(random.nextInt(types.size())), zones.get(random.nextInt(zones.size())),
+                    random.nextInt(5) > 0));
+        }
+        when(deviceRepository.findAll()).thenReturn(devices);
+        registry.reload();
+
+        for (int query = 0; query < 50; query++) {
+            List<DeviceType> queryTypes = random.nextBoolean() ? null : List.of(types.get(random.nextInt(types.size())));
+            String zone = random.nextBoolean() ? null : zones.get(random.nextInt(zones.size()));
+            List<String> ids = random.nextBoolean() ? null : random.ints(20, 0, 2000).mapToObj(i -> "device-" + i).toList();
+
+            List<Device> expected = devices.stream()
+                    .filter(Device::isActive)
+                    .filter(device -> queryTypes == null || queryTypes.contains(device.getType()))
+                    .filter(device -> zone == null || zone.equals(device.getZone()))
+                    .filter(device -> ids == null || ids.contains(device.getId()))
+                    .toList();
+            assertEquals(expected, registry.find(queryTypes, ids, zone));
+        }
+    }
+
+    private static Device device(String id, DeviceType type, String zone, boolean active) {
+        return Device.builder()
+                .id(id)
+                .name("Device " + id)
+                .type(type)
+                .zone(zone)
+                .active(active)
+                .build();
+    }
+}
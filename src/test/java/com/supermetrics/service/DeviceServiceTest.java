@@ -1,24 +1,38 @@
 package com.supermetrics.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.supermetrics.config.DeviceCacheProperties;
 import com.supermetrics.dto.DeviceDTO;
+import com.supermetrics.dto.DevicePatchRequest;
+import com.supermetrics.exception.ConflictException;
 import com.supermetrics.exception.NotFoundException;
+import com.supermetrics.exception.PreconditionFailedException;
 import com.supermetrics.mapper.DeviceMapper;
 import com.supermetrics.model.Device;
 import com.supermetrics.model.enums.DeviceType;
 import com.supermetrics.repository.DeviceRepository;
+import org.bson.Document;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 
@@ -31,6 +45,18 @@ class DeviceServiceTest {
     @Mock
     private DeviceMapper deviceMapper;
 
+    @Mock
+    private ReadingHotWindows hotWindows;
+
+    @Mock
+    private LatestReadingRegistry latestReadings;
+
+    @Mock
+    private DeviceRegistry deviceRegistry;
+
+    @Spy
+    private DeviceCache deviceCache = new DeviceCache(new DeviceCacheProperties(), new SimpleMeterRegistry());
+
     @InjectMocks
     private DeviceService deviceService;
 
@@ -77,49 +103,193 @@ class DeviceServiceTest {
     @Test
     void update_withExistingDevice_shouldUpdateAndReturnDevice() {
         when(deviceMapper.toEntity(deviceDTO)).thenReturn(device);
-        when(deviceRepository.existsById(device.getId())).thenReturn(true);
-        when(deviceRepository.save(device)).thenReturn(device);
+        when(deviceRepository.findAndUpdate(eq(device.getId()), isNull(), any(Update.class))).thenReturn(storedDevice("Zone A", 4));
 
         Device result = deviceService.update(deviceDTO);
 
         assertNotNull(result);
         assertEquals(device.getId(), result.getId());
         assertEquals(device.getName(), result.getName());
+        assertEquals(5, result.getVersion());
         verify(deviceMapper).toEntity(deviceDTO);
-        verify(deviceRepository).existsById(device.getId());
-        verify(deviceRepository).save(device);
+        Document set = updateOf(device.getId()).get("$set", Document.class);
+        assertEquals(Set.of("name", "brand", "serialNumber", "type", "zone", "active", "metaSyncPending"), set.keySet());
+        verify(deviceRepository, never()).findById(any());
+        verify(deviceRepository, never()).save(any());
+        // Type, zone and active flag were set to the values they had
+        verify(deviceRepository).clearMetaSyncPending(device.getId(), 5);
+    }
+
+    @Test
+    void update_withChangedZone_shouldMarkReadingMetaPending() {
+        Device previousDevice = Device.builder()
+                .id(device.getId())
+                .name(device.getName())
+                .type(device.getType())
+                .zone("Zone B")
+                .active(true)
+                .build();
+        when(deviceMapper.toEntity(deviceDTO)).thenReturn(device);
+        when(deviceRepository.findAndUpdate(eq(device.getId()), isNull(), any(Update.class))).thenReturn(previousDevice);
+
+        Device result = deviceService.update(deviceDTO);
+
+        assertEquals(true, updateOf(device.getId()).get("$set", Document.class).get("metaSyncPending"));
+        assertTrue(result.isMetaSyncPending());
+        verify(deviceRepository, never()).clearMetaSyncPending(any(), anyLong());
+        verify(hotWindows).describe(result);
+        verify(latestReadings).describe(result);
+    }
+
+    @Test
+    void update_withSameZoneWhileSyncPending_shouldKeepItPending() {
+        Device previousDevice = storedDevice("Zone A", 4);
+        previousDevice.setMetaSyncPending(true);
+        when(deviceMapper.toEntity(deviceDTO)).thenReturn(device);
+        when(deviceRepository.findAndUpdate(eq(device.getId()), isNull(), any(Update.class))).thenReturn(previousDevice);
+
+        Device result = deviceService.update(deviceDTO);
+
+        assertTrue(result.isMetaSyncPending());
+        verify(deviceRepository, never()).clearMetaSyncPending(any(), anyLong());
+    }
+
+    @Test
+    void upsertAll_shouldCountRowsAndMarkReadingMetaOfChangedDevicesPending() {
+        Device previousDevice = Device.builder()
+                .id(device.getId())
+                .serialNumber(device.getSerialNumber())
+                .type(device.getType())
+                .zone("Zone B")
+                .active(true)
+                .build();
+        Device newDevice = Device.builder().serialNumber("SN-new").type(DeviceType.TEMPERATURE_SENSOR).active(true).build();
+        Device failingDevice = Device.builder().serialNumber("SN-failing").type(DeviceType.TEMPERATURE_SENSOR).build();
+        Device savedNewDevice = Device.builder().id("device-id-2").serialNumber("SN-new").type(DeviceType.TEMPERATURE_SENSOR).active(true).build();
+        List<Device> devices = List.of(device, newDevice, failingDevice);
+        when(deviceRepository.findBySerialNumberIn(Set.of("SN12345", "SN-new", "SN-failing")))
+                .thenReturn(List.of(previousDevice))
+                .thenReturn(List.of(device, savedNewDevice));
+        when(deviceRepository.upsertBySerialNumber(devices)).thenReturn(Map.of(2, "duplicate key"));
+
+        DeviceService.UpsertResult result = deviceService.upsertAll(devices);
+
+        assertEquals(1, result.created());
+        assertEquals(1, result.updated());
+        assertEquals(Map.of(2, "duplicate key"), result.errors());
+        assertEquals(List.of(device, savedNewDevice), result.devices());
+        verify(deviceRegistry).putAll(List.of(device, savedNewDevice));
+        assertTrue(device.isMetaSyncPending());
+        assertFalse(newDevice.isMetaSyncPending());
+        assertFalse(failingDevice.isMetaSyncPending());
+        verify(hotWindows).describe(device);
+        verify(hotWindows, never()).describe(savedNewDevice);
     }
 
     @Test
     void update_withNonExistingDevice_shouldThrowNotFoundException() {
         when(deviceMapper.toEntity(deviceDTO)).thenReturn(device);
-        when(deviceRepository.existsById(device.getId())).thenReturn(false);
 
         assertThrows(NotFoundException.class, () -> deviceService.update(deviceDTO));
         verify(deviceMapper).toEntity(deviceDTO);
-        verify(deviceRepository).existsById(device.getId());
+        verify(deviceRepository).findAndUpdate(eq(device.getId()), isNull(), any(Update.class));
         verify(deviceRepository, never()).save(any());
+        verifyNoInteractions(deviceRegistry);
+    }
+
+    @Test
+    void update_withStaleVersion_shouldThrowPreconditionFailed() {
+        when(deviceMapper.toEntity(deviceDTO)).thenReturn(device);
+        when(deviceRepository.existsById(device.getId())).thenReturn(true);
+
+        assertThrows(PreconditionFailedException.class, () -> deviceService.update(deviceDTO, 3L));
+        verify(deviceRepository).findAndUpdate(eq(device.getId()), eq(3L), any(Update.class));
+        verifyNoInteractions(deviceRegistry, hotWindows);
+    }
+
+    @Test
+    void patch_shouldSetOnlyGivenFieldsAndApplyThemToPreviousDevice() {
+        when(deviceRepository.findAndUpdate(eq(device.getId()), eq(4L), any(Update.class))).thenReturn(storedDevice("Zone A", 4));
+
+        Device result = deviceService.patch(device.getId(), new DevicePatchRequest("Renamed", null, null, null, "Zone C", null), 4L);
+
+        Document update = updateOf(device.getId());
+        assertEquals(new Document("name", "Renamed").append("zone", "Zone C").append("metaSyncPending", true),
+                update.get("$set", Document.class));
+        assertEquals(new Document("version", 1), update.get("$inc", Document.class));
+        assertEquals("Renamed", result.getName());
+        assertEquals("Zone C", result.getZone());
+        assertEquals(device.getBrand(), result.getBrand());
+        assertTrue(result.isActive());
+        assertEquals(5, result.getVersion());
+        verify(deviceRegistry).put(result);
+        verify(deviceCache).invalidate(device.getId());
+        assertTrue(result.isMetaSyncPending());
+    }
+
+    @Test
+    void update_withoutSerialNumber_shouldUnsetIt() {
+        Device withoutSerialNumber = storedDevice("Zone A", 4);
+        withoutSerialNumber.setSerialNumber(null);
+        when(deviceMapper.toEntity(deviceDTO)).thenReturn(withoutSerialNumber);
+        when(deviceRepository.findAndUpdate(eq(device.getId()), isNull(), any(Update.class))).thenReturn(storedDevice("Zone A", 4));
+
+        Device result = deviceService.update(deviceDTO);
+
+        Document update = updateOf(device.getId());
+        assertFalse(update.get("$set", Document.class).containsKey("serialNumber"));
+        assertEquals(Set.of("serialNumber"), update.get("$unset", Document.class).keySet());
+        assertNull(result.getSerialNumber());
+    }
+
+    @Test
+    void patch_withSerialNumberOfAnotherDevice_shouldThrowConflict() {
+        when(deviceRepository.findAndUpdate(eq(device.getId()), isNull(), any(Update.class)))
+                .thenThrow(new DuplicateKeyException("E11000 duplicate key error"));
+
+        assertThrows(ConflictException.class,
+                () -> deviceService.patch(device.getId(), new DevicePatchRequest(null, null, "SN-TAKEN", null, null, null), null));
+        verifyNoInteractions(deviceRegistry, deviceCache, hotWindows);
+    }
+
+    @Test
+    void patch_withNonExistingDevice_shouldThrowNotFoundException() {
+        when(deviceRepository.existsById("non-existing-id")).thenReturn(false);
+
+        assertThrows(NotFoundException.class,
+                () -> deviceService.patch("non-existing-id", new DevicePatchRequest("Renamed", null, null, null, null, null), 1L));
     }
 
     @Test
     void delete_withExistingDevice_shouldMarkDeviceAsInactive() {
-        when(deviceRepository.findById(device.getId())).thenReturn(Optional.of(device));
+        when(deviceRepository.findAndUpdate(eq(device.getId()), isNull(), any(Update.class))).thenReturn(device);
 
         deviceService.delete(device.getId());
 
         assertFalse(device.isActive());
-        verify(deviceRepository).findById(device.getId());
-        verify(deviceRepository).save(device);
+        assertEquals(new Document("active", false).append("metaSyncPending", true),
+                updateOf(device.getId()).get("$set", Document.class));
+        verify(deviceRepository, never()).findById(any());
+        verify(deviceRepository, never()).save(any());
+        verify(deviceRegistry).put(device);
+        assertTrue(device.isMetaSyncPending());
     }
 
     @Test
     void delete_withNonExistingDevice_shouldDoNothing() {
-        when(deviceRepository.findById("non-existing-id")).thenReturn(Optional.empty());
-
         deviceService.delete("non-existing-id");
 
-        verify(deviceRepository).findById("non-existing-id");
-        verify(deviceRepository, never()).save(any());
+        verify(deviceRepository).findAndUpdate(eq("non-existing-id"), isNull(), any(Update.class));
+        verify(deviceRepository, never()).existsById(any());
+        verifyNoInteractions(deviceRegistry, hotWindows);
+    }
+
+    @Test
+    void delete_withStaleVersion_shouldThrowPreconditionFailed() {
+        when(deviceRepository.existsById(device.getId())).thenReturn(true);
+
+        assertThrows(PreconditionFailedException.class, () -> deviceService.delete(device.getId(), 2L));
+        verifyNoInteractions(deviceRegistry, hotWindows);
     }
 
     @Test
@@ -143,6 +313,65 @@ class DeviceServiceTest {
         verify(deviceRepository).findById("non-existing-id");
     }
 
+    @Test
+    void findById_calledTwice_shouldQueryRepositoryOnce() {
+        when(deviceRepository.findById(device.getId())).thenReturn(Optional.of(device));
+
+        deviceService.findById(device.getId());
+        Optional<Device> result = deviceService.findById(device.getId());
+
+        assertTrue(result.isPresent());
+        verify(deviceRepository, times(1)).findById(device.getId());
+    }
+
+    @Test
+    void findById_withNonExistingDevice_shouldCacheMiss() {
+        when(deviceRepository.findById("non-existing-id")).thenReturn(Optional.empty());
+
+        deviceService.findById("non-existing-id");
+        Optional<Device> result = deviceService.findById("non-existing-id");
+
+        assertFalse(result.isPresent());
+        verify(deviceRepository, times(1)).findById("non-existing-id");
+    }
+
+    @Test
+    void update_shouldInvalidateCachedDevice() {
+        when(deviceRepository.findById(device.getId())).thenReturn(Optional.of(device));
+        when(deviceMapper.toEntity(deviceDTO)).thenReturn(device);
+        when(deviceRepository.findAndUpdate(eq(device.getId()), isNull(), any(Update.class))).thenReturn(storedDevice("Zone A", 0));
+
+        deviceService.findById(device.getId());
+        deviceService.update(deviceDTO);
+        deviceService.findById(device.getId());
+
+        verify(deviceCache).invalidate(device.getId());
+        // Once to fill the cache and once after the invalidation, the update itself reads nothing
+        verify(deviceRepository, times(2)).findById(device.getId());
+    }
+
+    @Test
+    void findExistingIds_shouldLoadMissingDevicesInOneQuery() {
+        when(deviceRepository.findAllById(Set.of(device.getId(), "non-existing-id"))).thenReturn(List.of(device));
+
+        Set<String> result = deviceService.findExistingIds(List.of(device.getId(), "non-existing-id"));
+        Optional<Device> cached = deviceService.findById(device.getId());
+
+        assertEquals(Set.of(device.getId()), result);
+        assertTrue(cached.isPresent());
+        verify(deviceRepository).findAllById(Set.of(device.getId(), "non-existing-id"));
+        verify(deviceRepository, never()).findById(any());
+    }
+
+    @Test
+    void findAllById_shouldReturnOnlyExistingDevices() {
+        when(deviceRepository.findAllById(Set.of(device.getId(), "non-existing-id"))).thenReturn(List.of(device));
+
+        Map<String, Device> result = deviceService.findAllById(List.of(device.getId(), "non-existing-id"));
+
+        assertEquals(Map.of(device.getId(), device), result);
+    }
+
     @Test
     void findByTypesIdsAndZone_shouldReturnFilteredDevices() {
         List<DeviceType> types = List.of(DeviceType.HEART_RATE_MONITOR);
@@ -182,4 +411,75 @@ class DeviceServiceTest {
         assertEquals(expectedDevices.get(0).getId(), result.get(0).getId());
         verify(deviceRepository).findByActive(true);
     }
-}
\ No newline at end of file
+
+    @Test
+    void findById_withRegisteredDevice_shouldNotQueryRepository() {
+        when(deviceRegistry.find(device.getId())).thenReturn(Optional.of(device));
+
+        Optional<Device> result = deviceService.findById(device.getId());
+
+        assertEquals(Optional.of(device), result);
+        verifyNoInteractions(deviceRepository);
+    }
+
+    @Test
+    void findAllById_shouldOnlyLoadDevicesMissingFromRegistry() {
+        when(deviceRegistry.findAll(List.of(device.getId(), "other-id"))).thenReturn(Map.of(device.getId(), device));
+        when(deviceRepository.findAllById(Set.of("other-id"))).thenReturn(List.of());
+
+        Map<String, Device> result = deviceService.findAllById(List.of(device.getId(), "other-id"));
+
+        assertEquals(Map.of(device.getId(), device), result);
+        verify(deviceRepository).findAllById(Set.of("other-id"));
+    }
+
+    @Test
+    void existsByTypesIdsAndZone_withRegistryMiss_shouldAskRepository() {
+        List<DeviceType> types = List.of(DeviceType.HEART_RATE_MONITOR);
+        when(deviceRepository.existsByTypesIdsAndOptionalZone(types, null, "Zone A")).thenReturn(true);
+
+        assertTrue(deviceService.existsByTypesIdsAndZone(types, null, "Zone A"));
+
+        when(deviceRegistry.exists(types, null, "Zone B")).thenReturn(true);
+        assertTrue(deviceService.existsByTypesIdsAndZone(types, null, "Zone B"));
+        verify(deviceRepository, never()).existsByTypesIdsAndOptionalZone(types, null, "Zone B");
+    }
+
+    @Test
+    void findAllActiveDevices_withLoadedRegistry_shouldNotQueryRepository() {
+        when(deviceRegistry.isLoaded()).thenReturn(true);
+        when(deviceRegistry.findAllActive()).thenReturn(List.of(device));
+
+        assertEquals(List.of(device), deviceService.findAllActiveDevices());
+        verifyNoInteractions(deviceRepository);
+    }
+
+    @Test
+    void save_shouldRegisterDevice() {
+        when(deviceMapper.toEntity(deviceDTO)).thenReturn(device);
+        when(deviceRepository.save(device)).thenReturn(device);
+
+        deviceService.save(deviceDTO);
+
+        verify(deviceRegistry).put(device);
+    }
+
+    private Device storedDevice(String zone, long version) {
+        return Device.builder()
+                .id(device.getId())
+                .name(device.getName())
+                .brand(device.getBrand())
+                .serialNumber(device.getSerialNumber())
+                .type(device.getType())
+                .zone(zone)
+                .active(true)
+                .version(version)
+                .build();
+    }
+
+    private Document updateOf(String id) {
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(deviceRepository).findAndUpdate(eq(id), any(), update.capture());
+        return update.getValue().getUpdateObject();
+    }
+}
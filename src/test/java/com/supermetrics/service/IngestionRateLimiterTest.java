@@ -0,0 +1,106 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.supermetrics.config.RateLimitProperties;
+import com.supermetrics.dto.BMWFuelReadingRequest;
+import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.mapper.ReadingRequestMapper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionRateLimiterTest {
+
+    private static final ReadingRequest BMW_REQUEST = new BMWFuelReadingRequest("bmw-1", "BMW", "X5", Instant.now(), 75, 450);
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+    private RateLimitProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        properties = new RateLimitProperties();
+        properties.setDevice(new RateLimitProperties.Limit(10, 5));
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void tryAcquire_withinBurst_shouldAdmitReadings() {
+        IngestionRateLimiter rateLimiter = rateLimiter();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rateLimiter.tryAcquire("bmw-1", BMW_REQUEST).isEmpty());
+        }
+    }
+
+    @Test
+    void tryAcquire_beyondBurst_shouldReturnTimeUntilNextToken() {
+        IngestionRateLimiter rateLimiter = rateLimiter();
+        exhaust(rateLimiter, "bmw-1", 5);
+
+        Optional<Duration> retryAfter = rateLimiter.tryAcquire("bmw-1", BMW_REQUEST);
+
+        assertEquals(Optional.of(Duration.ofMillis(100)), retryAfter);
+        assertEquals(1, meterRegistry.get("readings.rate-limited").tag("scope", "device").counter().count());
+    }
+
+    @Test
+    void tryAcquire_afterWaiting_shouldRefillAtConfiguredRate() {
+        IngestionRateLimiter rateLimiter = rateLimiter();
+        exhaust(rateLimiter, "bmw-1", 5);
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+
+        assertTrue(rateLimiter.tryAcquire("bmw-1", BMW_REQUEST).isEmpty());
+        assertTrue(rateLimiter.tryAcquire("bmw-1", BMW_REQUEST).isEmpty());
+        assertTrue(rateLimiter.tryAcquire("bmw-1", BMW_REQUEST).isPresent());
+    }
+
+    @Test
+    void tryAcquire_withExhaustedDevice_shouldNotAffectOtherDevices() {
+        IngestionRateLimiter rateLimiter = rateLimiter();
+        exhaust(rateLimiter, "bmw-1", 5);
+
+        assertTrue(rateLimiter.tryAcquire("bmw-1", BMW_REQUEST).isPresent());
+        assertTrue(rateLimiter.tryAcquire("bmw-2", BMW_REQUEST).isEmpty());
+    }
+
+    @Test
+    void tryAcquire_withBrandOverride_shouldLimitAcrossDevices() {
+        properties.getBrands().put(ReadingRequestMapper.DEVICE_KEY_BMW_FUEL_SENSOR, new RateLimitProperties.Limit(1, 2));
+        IngestionRateLimiter rateLimiter = rateLimiter();
+
+        assertTrue(rateLimiter.tryAcquire("bmw-1", BMW_REQUEST).isEmpty());
+        assertTrue(rateLimiter.tryAcquire("bmw-2", BMW_REQUEST).isEmpty());
+
+        assertEquals(Optional.of(Duration.ofSeconds(1)), rateLimiter.tryAcquire("bmw-3", BMW_REQUEST));
+        assertEquals(1, meterRegistry.get("readings.rate-limited").tag("scope", "brand").counter().count());
+    }
+
+    @Test
+    void tryAcquire_whenDisabled_shouldAdmitEverything() {
+        properties.setEnabled(false);
+        IngestionRateLimiter rateLimiter = rateLimiter();
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(rateLimiter.tryAcquire("bmw-1", BMW_REQUEST).isEmpty());
+        }
+    }
+
+    private IngestionRateLimiter rateLimiter() {
+        return new IngestionRateLimiter(properties, new ReadingRequestMapper(), meterRegistry, clock::get);
+    }
+
+    private static void exhaust(IngestionRateLimiter rateLimiter, String deviceId, int readings) {
+        for (int i = 0; i < readings; i++) {
+            rateLimiter.tryAcquire(deviceId, BMW_REQUEST);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.supermetrics.config.LatestReadingProperties;
+import com.supermetrics.dto.LatestReadingResponse;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.DeviceRepository;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LatestReadingRegistryTest {
+
+    private static final long NOW = Instant.parse("2024-01-01T10:00:00Z").toEpochMilli();
+
+    @Mock
+    private ReadingRepository readingRepository;
+
+    @Mock
+    private DeviceRepository deviceRepository;
+
+    private LatestReadingRegistry registry;
+    private Device thermostat;
+    private Device heartRateMonitor;
+
+    @BeforeEach
+    void setUp() {
+        registry = new LatestReadingRegistry(readingRepository, deviceRepository, new LatestReadingProperties(), new SimpleMeterRegistry(), () -> NOW);
+        thermostat = Device.builder().id("device-id-1").name("Thermostat").type(DeviceType.TEMPERATURE_SENSOR).zone("Zone 2").active(true).build();
+        heartRateMonitor = Device.builder().id("device-id-2").name("Heart Rate").type(DeviceType.HEART_RATE_MONITOR).zone("Zone 1").active(true).build();
+    }
+
+    @Test
+    void find_shouldReturnNewestReadingWithStaleness() {
+        registry.record(reading(thermostat, -5_000, 21.0), thermostat.getName());
+        registry.record(reading(thermostat, -1_000, 22.0), thermostat.getName());
+        registry.record(reading(thermostat, -9_000, 19.0), thermostat.getName());
+
+        List<LatestReadingResponse> results = registry.find(null, null, null);
+
+        assertEquals(List.of(new LatestReadingResponse(thermostat.getId(), "Thermostat", 22.0, "celsius", timestamp(-1_000), 1_000)), results);
+        verifyNoInteractions(readingRepository, deviceRepository);
+    }
+
+    @Test
+    void record_datedBeyondTheClockSkew_shouldNotBecomeTheLatestReading() {
+        registry.record(reading(thermostat, -1_000, 22.0), thermostat.getName());
+        registry.record(reading(thermostat, 3_600_000, 99.0), thermostat.getName());
+        registry.record(reading(thermostat, 2_000, 23.0), thermostat.getName());
+
+        assertEquals(23.0, registry.find(null, null, null).get(0).value());
+        assertEquals(0, registry.find(null, null, null).get(0).stalenessMillis());
+    }
+
+    @Test
+    void find_shouldApplyDeviceFilters() {
+        registry.record(reading(thermostat, -1_000, 22.0), thermostat.getName());
+        registry.record(reading(heartRateMonitor, -1_000, 70.0), heartRateMonitor.getName());
+
+        assertEquals(List.of("device-id-2", "device-id-1"), ids(registry.find(List.of(), null, null)));
+        assertEquals(List.of("device-id-1"), ids(registry.find(null, null, "Zone 2")));
+        assertEquals(List.of("device-id-2"), ids(registry.find(List.of(DeviceType.HEART_RATE_MONITOR), null, null)));
+        assertEquals(List.of("device-id-1"), ids(registry.find(null, List.of("device-id-1", "unknown"), null)));
+        assertTrue(registry.find(null, List.of("device-id-1"), "Zone 1").isEmpty());
+    }
+
+    @Test
+    void describe_shouldMoveDeviceBetweenZonesAndHideInactiveDevices() {
+        registry.record(reading(thermostat, -1_000, 22.0), thermostat.getName());
+
+        thermostat.setZone("Zone 3");
+        registry.describe(thermostat);
+        assertTrue(registry.find(null, null, "Zone 2").isEmpty());
+        assertEquals(List.of("device-id-1"), ids(registry.find(null, null, "Zone 3")));
+
+        thermostat.setActive(false);
+        registry.describe(thermostat);
+        assertTrue(registry.find(null, null, null).isEmpty());
+    }
+
+    @Test
+    void start_shouldLoadLatestReadingsAndDeviceNames() {
+        when(readingRepository.streamLatestPerDevice(timestamp(5_000))).thenReturn(Stream.of(reading(thermostat, -60_000, 20.0)));
+        when(deviceRepository.findAllById(List.of(thermostat.getId()))).thenReturn(List.of(thermostat));
+
+        registry.start();
+
+        List<LatestReadingResponse> results = registry.find(null, null, "Zone 2");
+        assertEquals(1, results.size());
+        assertEquals("Thermostat", results.get(0).deviceName());
+        assertEquals(60_000, results.get(0).stalenessMillis());
+    }
+
+    @Test
+    void refresh_shouldTakeUpNewerReadingsAndNewDevicesFromTheDatabase() {
+        when(readingRepository.streamLatestPerDevice(timestamp(5_000)))
+                .thenReturn(Stream.of(reading(thermostat, -60_000, 20.0)))
+                .thenReturn(Stream.of(reading(thermostat, -10_000, 21.0), reading(heartRateMonitor, -5_000, 70.0)));
+        when(deviceRepository.findAllById(List.of(thermostat.getId()))).thenReturn(List.of(thermostat));
+        when(deviceRepository.findAllById(List.of(heartRateMonitor.getId()))).thenReturn(List.of(heartRateMonitor));
+        registry.start();
+        registry.record(reading(thermostat, -1_000, 22.0), null);
+
+        registry.refresh();
+
+        List<LatestReadingResponse> results = registry.find(null, null, null);
+        assertEquals(List.of("device-id-2", "device-id-1"), ids(results));
+        assertEquals("Heart Rate", results.get(0).deviceName());
+        assertEquals(22.0, results.get(1).value());
+        assertEquals("Thermostat", results.get(1).deviceName());
+    }
+
+    private static Reading reading(Device device, long offsetMillis, double value) {
+        return Reading.builder()
+                .meta(ReadingMeta.of(device))
+                .timestamp(timestamp(offsetMillis))
+                .value(value)
+                .unit("celsius")
+                .build();
+    }
+
+    private static LocalDateTime timestamp(long offsetMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(NOW + offsetMillis), ZoneId.systemDefault());
+    }
+
+    private static List<String> ids(List<LatestReadingResponse> results) {
+        return results.stream().map(LatestReadingResponse::deviceId).toList();
+    }
+}
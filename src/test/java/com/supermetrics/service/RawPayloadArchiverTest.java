@@ -0,0 +1,159 @@
+package com.supermetrics.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import com.supermetrics.config.ReadingStorageProperties;
+import com.supermetrics.config.ReadingStorageProperties.RawPayloadPolicy;
+import com.supermetrics.dto.BMWFuelReadingRequest;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RawPayloadArchiverTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private ReadingStorageProperties properties;
+    private RawPayloadArchiver archiver;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ReadingStorageProperties();
+        archiver = new RawPayloadArchiver(mongoTemplate, properties, new ObjectMapper().registerModule(new JavaTimeModule()),
+                new SimpleMeterRegistry());
+    }
+
+    @Test
+    void apply_withKeepPolicy_shouldKeepPayloads() {
+        properties.setRawPayload(RawPayloadPolicy.KEEP);
+        List<Reading> readings = List.of(reading("bmw-1"), reading("bmw-2"));
+
+        archiver.apply(readings);
+
+        assertTrue(readings.stream().allMatch(reading -> reading.getDeviceReading() != null));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void apply_withDropPolicy_shouldRemovePayloads() {
+        properties.setRawPayload(RawPayloadPolicy.DROP);
+        List<Reading> readings = List.of(reading("bmw-1"), reading("bmw-2"));
+
+        archiver.apply(readings);
+
+        assertTrue(readings.stream().allMatch(reading -> reading.getDeviceReading() == null));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void apply_withSamplePolicy_shouldKeepConfiguredShare() {
+        properties.setRawPayload(RawPayloadPolicy.SAMPLE);
+        properties.setRawPayloadSampleRate(0);
+        Reading dropped = reading("bmw-1");
+        archiver.apply(dropped);
+
+        properties.setRawPayloadSampleRate(1);
+        Reading kept = reading("bmw-2");
+        archiver.apply(kept);
+
+        assertNull(dropped.getDeviceReading());
+        assertNotNull(kept.getDeviceReading());
+    }
+
+    @Test
+    void archive_withCompressPolicy_shouldArchivePayloadsAsOneBlockNamingTheReadings() throws IOException {
+        properties.setRawPayload(RawPayloadPolicy.COMPRESS);
+        List<Reading> readings = List.of(reading("bmw-1"), reading("bmw-2"));
+
+        List<RawPayloadArchiver.DetachedPayload> payloads = archiver.apply(readings);
+        assertTrue(readings.stream().allMatch(reading -> reading.getDeviceReading() == null));
+        verifyNoInteractions(mongoTemplate);
+
+        archiver.archive(payloads, readings);
+
+        ArgumentCaptor<Document> block = ArgumentCaptor.forClass(Document.class);
+        verify(mongoTemplate).insert(block.capture(), eq("reading_payloads"));
+        assertEquals(2, block.getValue().getInteger("n"));
+        assertEquals(readings.stream().map(reading -> new ObjectId(reading.getId())).toList(), block.getValue().getList("i", ObjectId.class));
+        String lines = decompress(block.getValue().get("p", Binary.class).getData());
+        assertEquals(2, lines.lines().count());
+        assertTrue(lines.lines().findFirst().orElseThrow().contains("\"device_id\":\"bmw-1\""));
+    }
+
+    @Test
+    void archive_withCompressPolicy_shouldSkipPayloadsOfReadingsNotWritten() throws IOException {
+        properties.setRawPayload(RawPayloadPolicy.COMPRESS);
+        Reading written = reading("bmw-1");
+        Reading failed = reading("bmw-2");
+
+        List<RawPayloadArchiver.DetachedPayload> payloads = archiver.apply(List.of(written, failed));
+        archiver.archive(payloads, List.of(written));
+
+        ArgumentCaptor<Document> block = ArgumentCaptor.forClass(Document.class);
+        verify(mongoTemplate).insert(block.capture(), eq("reading_payloads"));
+        assertEquals(List.of(new ObjectId(written.getId())), block.getValue().getList("i", ObjectId.class));
+        assertFalse(decompress(block.getValue().get("p", Binary.class).getData()).contains("bmw-2"));
+    }
+
+    @Test
+    void archive_withNothingWritten_shouldNotArchive() {
+        properties.setRawPayload(RawPayloadPolicy.COMPRESS);
+        List<Reading> readings = List.of(reading("bmw-1"));
+
+        archiver.archive(archiver.apply(readings), List.of());
+
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void archive_withFailingArchive_shouldStillStripPayloads() {
+        properties.setRawPayload(RawPayloadPolicy.COMPRESS);
+        when(mongoTemplate.insert(any(Document.class), anyString())).thenThrow(new IllegalStateException("Database unavailable"));
+        Reading reading = reading("bmw-1");
+
+        archiver.archive(archiver.apply(reading), List.of(reading));
+
+        assertNull(reading.getDeviceReading());
+    }
+
+    private static Reading reading(String deviceId) {
+        return Reading.builder()
+                .meta(ReadingMeta.of(deviceId))
+                .timestamp(LocalDateTime.of(2024, 1, 1, 12, 0))
+                .value(75)
+                .unit("%")
+                .deviceReading(new BMWFuelReadingRequest(deviceId, "BMW", "X5", Instant.parse("2024-01-01T12:00:00Z"), 75, 450))
+                .build();
+    }
+
+    private static String decompress(byte[] compressed) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
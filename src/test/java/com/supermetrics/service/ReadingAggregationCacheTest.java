@@ -0,0 +1,207 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.supermetrics.config.AggregationCacheProperties;
+import com.supermetrics.config.AggregationFanOutProperties;
+import com.supermetrics.config.RollupProperties;
+import com.supermetrics.dto.ReadingAggregationResponse;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.RollupResolution;
+import com.supermetrics.repository.ReadingAggregate;
+import com.supermetrics.repository.ReadingRepository;
+import com.supermetrics.repository.ReadingRollupPlan;
+import com.supermetrics.repository.ReadingRollupPlan.TimeRange;
+import com.supermetrics.repository.ReadingRollupRepository;
+import com.supermetrics.repository.ValueSketch;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReadingAggregationCacheTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 1, 10, 12, 0);
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 7, 6, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2024, 1, 10, 11, 0);
+    private static final String DEVICE_ID = "device-id-1";
+
+    @Mock
+    private ReadingRepository readingRepository;
+
+    @Mock
+    private ReadingRollupRepository rollupRepository;
+
+    private final AtomicLong clock = new AtomicLong(NOW.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    private AggregationCacheProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private ReadingAggregationCache aggregationCache;
+
+    @BeforeEach
+    void setUp() {
+        properties = new AggregationCacheProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        ReadingRollupService rollupService = new ReadingRollupService(rollupRepository, readingRepository, new RollupProperties(), meterRegistry);
+        ReadingAggregationFanOut fanOut = new ReadingAggregationFanOut(readingRepository, rollupService, new AggregationFanOutProperties(), meterRegistry);
+        aggregationCache = new ReadingAggregationCache(fanOut, properties, meterRegistry, clock::get);
+    }
+
+    @Test
+    void aggregate_shouldMergeClosedChunksWithUncachedEdges() {
+        when(readingRepository.getAggregationsByBucket(eq(DeviceCategory.HEALTH), isNull(), isNull(), any(), eq(RollupResolution.DAY)))
+                .thenReturn(List.of(aggregate(LocalDateTime.of(2024, 1, 8, 0, 0), 10, 20), aggregate(LocalDateTime.of(2024, 1, 9, 0, 0), 30)));
+        when(readingRepository.getAllAggregations(eq(DeviceCategory.HEALTH), isNull(), isNull(), any()))
+                .thenReturn(List.of(aggregate(null, 40)));
+
+        ReadingAggregationResponse result = aggregationCache.aggregate(DeviceCategory.HEALTH, null, null, START, END).get(0);
+
+        assertEquals(4L, result.getCount());
+        assertEquals(25.0, result.getAvgValue());
+        assertEquals(10.0, result.getMinValue());
+        assertEquals(40.0, result.getMaxValue());
+        assertEquals(20.0, result.getP50Value(), 0.2);
+
+        ArgumentCaptor<ReadingRollupPlan> chunkPlan = ArgumentCaptor.forClass(ReadingRollupPlan.class);
+        verify(readingRepository).getAggregationsByBucket(any(), any(), any(), chunkPlan.capture(), any());
+        assertEquals(Map.of(RollupResolution.DAY, List.of(new TimeRange(day(8), day(10)))), chunkPlan.getValue().rollupRanges());
+
+        ArgumentCaptor<ReadingRollupPlan> edgePlan = ArgumentCaptor.forClass(ReadingRollupPlan.class);
+        verify(readingRepository).getAllAggregations(any(), any(), any(), edgePlan.capture());
+        assertEquals(Map.of(RollupResolution.HOUR, List.of(new TimeRange(START, day(8)), new TimeRange(day(10), END))),
+                edgePlan.getValue().rollupRanges());
+        assertEquals(List.of(new TimeRange(END, END.plusNanos(1_000_000))), edgePlan.getValue().rawRanges());
+    }
+
+    @Test
+    void aggregate_again_shouldAnswerClosedChunksFromCache() {
+        when(readingRepository.getAggregationsByBucket(any(), any(), any(), any(), any()))
+                .thenReturn(List.of(aggregate(LocalDateTime.of(2024, 1, 8, 0, 0), 10)));
+        when(readingRepository.getAllAggregations(any(), any(), any(), any())).thenReturn(List.of());
+
+        aggregationCache.aggregate(null, List.of("b", "a"), "Zone A", START, END);
+        List<ReadingAggregationResponse> results = aggregationCache.aggregate(null, List.of("a", "b"), "Zone A", START, END);
+
+        assertEquals(1L, results.get(0).getCount());
+        verify(readingRepository, times(1)).getAggregationsByBucket(any(), any(), any(), any(), any());
+        verify(readingRepository, times(2)).getAllAggregations(any(), any(), any(), any());
+        assertEquals(0.5, meterRegistry.get("readings.aggregation-cache.hit-ratio").gauge().value());
+        assertTrue(meterRegistry.get("readings.aggregation-cache.bytes").gauge().value() > 0);
+    }
+
+    @Test
+    void invalidate_withLateReading_shouldOnlyReloadItsChunk() {
+        when(readingRepository.getAggregationsByBucket(any(), any(), any(), any(), any())).thenReturn(List.of());
+        when(readingRepository.getAllAggregations(any(), any(), any(), any())).thenReturn(List.of());
+        aggregationCache.aggregate(null, null, null, START, END);
+
+        aggregationCache.invalidate(List.of(Reading.builder().timestamp(LocalDateTime.of(2024, 1, 9, 3, 0)).build()));
+        aggregationCache.aggregate(null, null, null, START, END);
+
+        ArgumentCaptor<ReadingRollupPlan> chunkPlan = ArgumentCaptor.forClass(ReadingRollupPlan.class);
+        verify(readingRepository, times(2)).getAggregationsByBucket(any(), any(), any(), chunkPlan.capture(), any());
+        assertEquals(Map.of(RollupResolution.DAY, List.of(new TimeRange(day(9), day(10)))), chunkPlan.getValue().rollupRanges());
+    }
+
+    @Test
+    void aggregate_afterTimeToLive_shouldOnlyReloadChunksWithinTheLateDataHorizon() {
+        when(readingRepository.getAggregationsByBucket(any(), any(), any(), any(), any())).thenReturn(List.of());
+        when(readingRepository.getAllAggregations(any(), any(), any(), any())).thenReturn(List.of());
+        aggregationCache.aggregate(null, null, null, START, END);
+
+        clock.addAndGet(properties.getTimeToLive().toMillis() - 1);
+        aggregationCache.aggregate(null, null, null, START, END);
+        clock.addAndGet(1);
+        aggregationCache.aggregate(null, null, null, START, END);
+
+        // The 8th ended a day and a half ago, beyond the horizon, the 9th is reloaded
+        ArgumentCaptor<ReadingRollupPlan> chunkPlan = ArgumentCaptor.forClass(ReadingRollupPlan.class);
+        verify(readingRepository, times(2)).getAggregationsByBucket(any(), any(), any(), chunkPlan.capture(), any());
+        assertEquals(Map.of(RollupResolution.DAY, List.of(new TimeRange(day(9), day(10)))), chunkPlan.getValue().rollupRanges());
+    }
+
+    @Test
+    void pruneVersions_shouldForgetVersionsOnceOlderChunksExpired() {
+        aggregationCache.invalidate(List.of(Reading.builder().timestamp(LocalDateTime.of(2024, 1, 9, 3, 0)).build()));
+
+        clock.addAndGet(2 * properties.getTimeToLive().toMillis());
+        aggregationCache.pruneVersions();
+        assertEquals(1, aggregationCache.versionCount());
+
+        clock.addAndGet(1);
+        aggregationCache.pruneVersions();
+        assertEquals(0, aggregationCache.versionCount());
+    }
+
+    @Test
+    void pruneVersions_shouldKeepVersionsOfChunksBeyondTheLateDataHorizon() {
+        when(readingRepository.getAggregationsByBucket(any(), any(), any(), any(), any())).thenReturn(List.of());
+        when(readingRepository.getAllAggregations(any(), any(), any(), any())).thenReturn(List.of());
+        aggregationCache.aggregate(null, null, null, START, END);
+        aggregationCache.invalidate(List.of(Reading.builder().timestamp(LocalDateTime.of(2024, 1, 8, 3, 0)).build()));
+
+        clock.addAndGet(2 * properties.getTimeToLive().toMillis() + 1);
+        aggregationCache.pruneVersions();
+        aggregationCache.aggregate(null, null, null, START, END);
+
+        assertEquals(1, aggregationCache.versionCount());
+        // Reloaded once for the late reading, the chunk cached before it is not answered again
+        ArgumentCaptor<ReadingRollupPlan> chunkPlan = ArgumentCaptor.forClass(ReadingRollupPlan.class);
+        verify(readingRepository, times(2)).getAggregationsByBucket(any(), any(), any(), chunkPlan.capture(), any());
+        assertEquals(Map.of(RollupResolution.DAY, List.of(new TimeRange(day(8), day(10)))), chunkPlan.getValue().rollupRanges());
+    }
+
+    @Test
+    void aggregate_withinOpenChunk_shouldNotCache() {
+        when(readingRepository.getAllAggregations(any(), any(), any(), any())).thenReturn(List.of());
+
+        aggregationCache.aggregate(null, null, null, day(10), END);
+        aggregationCache.aggregate(null, null, null, day(10), END);
+
+        verify(readingRepository, times(2)).getAllAggregations(any(), any(), any(), any());
+        verify(readingRepository, never()).getAggregationsByBucket(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void aggregate_whenDisabled_shouldAggregateWholeRange() {
+        properties.setEnabled(false);
+        when(readingRepository.getAllAggregations(any(), any(), any(), any())).thenReturn(List.of());
+
+        aggregationCache.aggregate(null, null, null, START, END);
+
+        verify(readingRepository, never()).getAggregationsByBucket(any(), any(), any(), any(), any());
+        verify(readingRepository).getAllAggregations(null, null, null, ReadingRollupPlan.of(START, END));
+    }
+
+    private static ReadingAggregate aggregate(LocalDateTime bucketStart, double... values) {
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        List<ReadingAggregate.SketchBin> bins = new ArrayList<>();
+        for (double value : values) {
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            bins.add(new ReadingAggregate.SketchBin(ValueSketch.key(value), 1));
+        }
+        return new ReadingAggregate(DEVICE_ID, bucketStart, sum, min, max, values.length, bins);
+    }
+
+    private static LocalDateTime day(int dayOfMonth) {
+        return LocalDateTime.of(2024, 1, dayOfMonth, 0, 0);
+    }
+}
@@ -0,0 +1,172 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.supermetrics.config.AggregationFanOutProperties;
+import com.supermetrics.config.RollupProperties;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.RollupResolution;
+import com.supermetrics.repository.ReadingAggregate;
+import com.supermetrics.repository.ReadingRepository;
+import com.supermetrics.repository.ReadingRollupPlan;
+import com.supermetrics.repository.ReadingRollupPlan.TimeRange;
+import com.supermetrics.repository.ReadingRollupRepository;
+import com.supermetrics.repository.ValueSketch;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReadingAggregationFanOutTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 6, 30);
+    private static final LocalDateTime END = LocalDateTime.of(2024, 12, 31, 18, 0);
+
+    @Mock
+    private ReadingRepository readingRepository;
+
+    @Mock
+    private ReadingRollupRepository rollupRepository;
+
+    private AggregationFanOutProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private ReadingAggregationFanOut fanOut;
+
+    @BeforeEach
+    void setUp() {
+        properties = new AggregationFanOutProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        ReadingRollupService rollupService = new ReadingRollupService(rollupRepository, readingRepository, new RollupProperties(), meterRegistry);
+        fanOut = new ReadingAggregationFanOut(readingRepository, rollupService, properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fanOut.shutdown();
+    }
+
+    @Test
+    void splitRanges_shouldCoverRangeWithChunksAlignedToBuckets() {
+        List<List<TimeRange>> chunks = fanOut.splitRanges(List.of(new TimeRange(START, END)), RollupResolution.DAY);
+
+        assertEquals(13, chunks.size());
+        assertEquals(START, chunks.get(0).get(0).from());
+        assertEquals(END, chunks.get(chunks.size() - 1).get(0).to());
+        for (int i = 0; i < chunks.size(); i++) {
+            TimeRange chunk = chunks.get(i).get(0);
+            assertFalse(chunk.from().plus(properties.getChunkSize()).isBefore(chunk.to()));
+            if (i > 0) {
+                assertEquals(chunks.get(i - 1).get(0).to(), chunk.from());
+                assertEquals(RollupResolution.DAY.truncate(chunk.from()), chunk.from());
+            }
+        }
+    }
+
+    @Test
+    void splitRanges_withChunkShorterThanBucket_shouldStillAdvanceByWholeBuckets() {
+        properties.setChunkSize(Duration.ofMinutes(10));
+
+        List<List<TimeRange>> chunks = fanOut.splitRanges(List.of(new TimeRange(START, START.plusHours(3))), RollupResolution.HOUR);
+
+        assertEquals(List.of(
+                List.of(new TimeRange(START, START.plusMinutes(30))),
+                List.of(new TimeRange(START.plusMinutes(30), START.plusMinutes(90))),
+                List.of(new TimeRange(START.plusMinutes(90), START.plusMinutes(150))),
+                List.of(new TimeRange(START.plusMinutes(150), START.plusHours(3)))), chunks);
+    }
+
+    @Test
+    void aggregate_overYear_shouldMergeChunksExactly() {
+        when(readingRepository.getAllAggregations(eq(DeviceCategory.HEALTH), isNull(), isNull(), any()))
+                .thenAnswer(invocation -> List.of(aggregate("device-1", 10, 20), aggregate("device-2", 5)));
+
+        List<ReadingAggregate> results = fanOut.aggregate(DeviceCategory.HEALTH, null, null, List.of(new TimeRange(START, END)));
+
+        assertEquals(2, results.size());
+        ReadingAggregate first = results.stream().filter(result -> result.deviceId().equals("device-1")).findFirst().orElseThrow();
+        assertEquals(13 * 2, first.count());
+        assertEquals(13 * 30.0, first.sum());
+        assertEquals(10.0, first.min());
+        assertEquals(20.0, first.max());
+        assertEquals(13 * 2, first.sketch().stream().mapToLong(ReadingAggregate.SketchBin::v).sum());
+
+        ArgumentCaptor<ReadingRollupPlan> plans = ArgumentCaptor.forClass(ReadingRollupPlan.class);
+        verify(readingRepository, times(13)).getAllAggregations(any(), any(), any(), plans.capture());
+        // Aligned chunks read the same rollups as the whole range would
+        ReadingRollupPlan whole = ReadingRollupPlan.of(List.of(new TimeRange(START, END)), RollupResolution.DAY);
+        for (RollupResolution resolution : RollupResolution.values()) {
+            assertEquals(coverage(List.of(whole), resolution), coverage(plans.getAllValues(), resolution), resolution.name());
+        }
+        assertEquals(13.0, meterRegistry.get("readings.aggregation.fan-out.chunks").summary().max());
+    }
+
+    @Test
+    void aggregateByBucket_withManyDevices_shouldSplitDevices() {
+        properties.setMaxDevicesPerChunk(40);
+        List<String> deviceIds = IntStream.range(0, 100).mapToObj(i -> "device-" + i).toList();
+        when(readingRepository.getAggregationsByBucket(any(), any(), any(), any(), eq(RollupResolution.DAY)))
+                .thenAnswer(invocation -> List.<String>copyOf(invocation.getArgument(1)).stream().map(id -> aggregate(id, 1)).toList());
+
+        List<ReadingAggregate> results = fanOut.aggregateByBucket(null, deviceIds, null,
+                List.of(new TimeRange(START, START.plusDays(10))), RollupResolution.DAY);
+
+        assertEquals(100, results.size());
+        assertEquals(Set.copyOf(deviceIds), results.stream().map(ReadingAggregate::deviceId).collect(Collectors.toSet()));
+        verify(readingRepository, times(3)).getAggregationsByBucket(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void aggregate_whenDisabled_shouldQueryWholeRangeOnce() {
+        properties.setEnabled(false);
+        when(readingRepository.getAllAggregations(any(), any(), any(), any())).thenReturn(List.of());
+
+        fanOut.aggregate(null, null, null, List.of(new TimeRange(START, END)));
+
+        verify(readingRepository, times(1)).getAllAggregations(any(), any(), any(), any());
+    }
+
+    @Test
+    void aggregate_whenChunkFails_shouldRethrowCause() {
+        when(readingRepository.getAllAggregations(any(), any(), any(), any())).thenThrow(new IllegalStateException("boom"));
+
+        assertThrows(IllegalStateException.class, () -> fanOut.aggregate(null, null, null, List.of(new TimeRange(START, END))));
+    }
+
+    private static Duration coverage(List<ReadingRollupPlan> plans, RollupResolution resolution) {
+        return plans.stream()
+                .flatMap(plan -> plan.rollupRanges().getOrDefault(resolution, List.of()).stream())
+                .map(range -> Duration.between(range.from(), range.to()))
+                .reduce(Duration.ZERO, Duration::plus);
+    }
+
+    private static ReadingAggregate aggregate(String deviceId, double... values) {
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        List<ReadingAggregate.SketchBin> bins = Arrays.stream(values)
+                .mapToObj(value -> new ReadingAggregate.SketchBin(ValueSketch.key(value), 1))
+                .toList();
+        return new ReadingAggregate(deviceId, null, sum, min, max, values.length, bins);
+    }
+}
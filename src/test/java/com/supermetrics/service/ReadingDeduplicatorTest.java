@@ -0,0 +1,109 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.supermetrics.config.DeduplicationProperties;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReadingDeduplicatorTest {
+
+    private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 1, 1, 12, 0, 0, 123_456_789);
+
+    @Mock
+    private ReadingRepository readingRepository;
+
+    private DeduplicationProperties properties;
+    private ReadingDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DeduplicationProperties();
+        properties.setExpectedReadingsPerGeneration(10_000);
+        deduplicator = new ReadingDeduplicator(readingRepository, properties, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void findDuplicates_withUnseenReadings_shouldNotQueryDatabase() {
+        Set<Integer> duplicates = deduplicator.findDuplicates(List.of(reading("device-1", TIMESTAMP), reading("device-2", TIMESTAMP)));
+
+        assertTrue(duplicates.isEmpty());
+        verifyNoInteractions(readingRepository);
+    }
+
+    @Test
+    void findDuplicates_withRepeatedReadingInBatch_shouldReportLaterOccurrence() {
+        Set<Integer> duplicates = deduplicator.findDuplicates(List.of(
+                reading("device-1", TIMESTAMP), reading("device-2", TIMESTAMP), reading("device-1", TIMESTAMP)));
+
+        assertEquals(Set.of(2), duplicates);
+        verifyNoInteractions(readingRepository);
+    }
+
+    @Test
+    void findDuplicates_withRememberedReading_shouldConfirmWithDatabase() {
+        Reading original = reading("device-1", TIMESTAMP);
+        deduplicator.remember(original);
+        // The stored copy only keeps millisecond precision
+        Reading stored = reading("device-1", TIMESTAMP.withNano(123_000_000));
+        when(readingRepository.findByMetaDeviceIdInAndTimestampIn(Set.of("device-1"), Set.of(TIMESTAMP))).thenReturn(List.of(stored));
+
+        assertTrue(deduplicator.isDuplicate(reading("device-1", TIMESTAMP)));
+    }
+
+    @Test
+    void findDuplicates_withFilterHitNotInDatabase_shouldNotReportDuplicate() {
+        deduplicator.remember(reading("device-1", TIMESTAMP));
+        when(readingRepository.findByMetaDeviceIdInAndTimestampIn(any(), any())).thenReturn(List.of());
+
+        assertFalse(deduplicator.isDuplicate(reading("device-1", TIMESTAMP)));
+    }
+
+    @Test
+    void findDuplicates_whenDisabled_shouldReportNothing() {
+        properties.setEnabled(false);
+        deduplicator.remember(reading("device-1", TIMESTAMP));
+
+        assertTrue(deduplicator.findDuplicates(List.of(reading("device-1", TIMESTAMP), reading("device-1", TIMESTAMP))).isEmpty());
+        verifyNoInteractions(readingRepository);
+    }
+
+    @Test
+    void bloomFilter_shouldHaveNoFalseNegativesAndBoundedFalsePositives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (long i = 0; i < 10_000; i++) {
+            filter.put(BloomFilter.mix(i));
+        }
+
+        int falsePositives = 0;
+        for (long i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain(BloomFilter.mix(i)));
+            if (filter.mightContain(BloomFilter.mix(i + 1_000_000))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 200, "false positives: " + falsePositives);
+    }
+
+    private static Reading reading(String deviceId, LocalDateTime timestamp) {
+        return Reading.builder()
+                .meta(ReadingMeta.of(deviceId))
+                .value(75.0)
+                .timestamp(timestamp)
+                .build();
+    }
+}
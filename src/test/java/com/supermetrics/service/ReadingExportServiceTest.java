@@ -0,0 +1,88 @@
+package com.supermetrics.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.supermetrics.config.ReadingExportProperties;
+import com.supermetrics.dto.RawReadingResponse;
+import com.supermetrics.exception.BadRequestException;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReadingExportServiceTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2024, 1, 2, 0, 0);
+
+    @Mock
+    private ReadingRepository readingRepository;
+
+    private ReadingExportProperties properties;
+    private ReadingExportService exportService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ReadingExportProperties();
+        exportService = new ReadingExportService(readingRepository, properties);
+    }
+
+    @Test
+    void streamPage_shouldMapReadingsAndKeepCursorClosable() {
+        AtomicBoolean closed = new AtomicBoolean();
+        Reading reading = Reading.builder()
+                .meta(ReadingMeta.of("device-1"))
+                .timestamp(START.plusHours(1))
+                .value(21.5)
+                .unit("celsius")
+                .build();
+        when(readingRepository.streamRaw(DeviceCategory.ENVIRONMENTAL, List.of("device-1"), "Zone A", START, END,
+                "device-0", START, 1000, 2000))
+                .thenReturn(Stream.of(reading).onClose(() -> closed.set(true)));
+
+        List<RawReadingResponse> results;
+        try (Stream<RawReadingResponse> readings = exportService.streamPage(DeviceCategory.ENVIRONMENTAL, List.of("device-1"),
+                "Zone A", START, END, "device-0", START, null)) {
+            results = readings.toList();
+        }
+
+        assertEquals(List.of(new RawReadingResponse("device-1", START.plusHours(1), 21.5, "celsius")), results);
+        assertTrue(closed.get());
+    }
+
+    @Test
+    void streamExport_shouldNotLimitReadings() {
+        when(readingRepository.streamRaw(any(), any(), any(), any(), any(), any(), any(), anyInt(), anyInt())).thenReturn(Stream.empty());
+
+        exportService.streamExport(null, null, null, START, END, null, null);
+
+        verify(readingRepository).streamRaw(null, null, null, START, END, null, null, 0, properties.getBatchSize());
+    }
+
+    @Test
+    void streamPage_withLimitAboveMax_shouldThrowBadRequest() {
+        assertThrows(BadRequestException.class, () -> exportService.streamPage(null, null, null, START, END, null, null, 10_001));
+        assertThrows(BadRequestException.class, () -> exportService.streamPage(null, null, null, START, END, null, null, 0));
+        verifyNoInteractions(readingRepository);
+    }
+
+    @Test
+    void streamPage_withIncompleteCursor_shouldThrowBadRequest() {
+        assertThrows(BadRequestException.class, () -> exportService.streamPage(null, null, null, START, END, "device-1", null, null));
+        assertThrows(BadRequestException.class, () -> exportService.streamExport(null, null, null, END, START, null, null));
+        verifyNoInteractions(readingRepository);
+    }
+}
@@ -0,0 +1,257 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.supermetrics.config.HotWindowProperties;
+import com.supermetrics.dto.ReadingAggregationResponse;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceCategory;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.DeviceRepository;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class ReadingHotWindowsTest {
+
+    private static final Duration ONE_MINUTE = Duration.ofMinutes(1);
+    private static final Duration FIVE_MINUTES = Duration.ofMinutes(5);
+
+    @Mock
+    private ReadingRepository readingRepository;
+
+    @Mock
+    private DeviceRepository deviceRepository;
+
+    private final AtomicLong clock = new AtomicLong(Instant.parse("2024-01-01T10:00:00Z").toEpochMilli());
+    private HotWindowProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private Device device;
+
+    @BeforeEach
+    void setUp() {
+        properties = new HotWindowProperties();
+        properties.setWindows(List.of(FIVE_MINUTES, ONE_MINUTE));
+        meterRegistry = new SimpleMeterRegistry();
+        device = Device.builder()
+                .id("device-id-1")
+                .name("Test Device")
+                .type(DeviceType.HEART_RATE_MONITOR)
+                .zone("Zone A")
+                .active(true)
+                .build();
+    }
+
+    @Test
+    void aggregate_shouldOnlyCountReadingsInsideEachWindow() {
+        ReadingHotWindows hotWindows = hotWindows();
+        record(hotWindows, device, -290_000, 10.0);
+        record(hotWindows, device, -90_000, 50.0);
+        record(hotWindows, device, -30_000, 20.0);
+        record(hotWindows, device, -10_000, 30.0);
+
+        ReadingAggregationResponse lastFiveMinutes = hotWindows.aggregate(null, null, null, FIVE_MINUTES).orElseThrow().get(0);
+        ReadingAggregationResponse lastMinute = hotWindows.aggregate(null, null, null, ONE_MINUTE).orElseThrow().get(0);
+
+        assertAggregation(new ReadingAggregationResponse(device.getId(), "Test Device", 27.5, 50.0, 10.0, 4L, 20.0, 30.0, 30.0), lastFiveMinutes);
+        assertAggregation(new ReadingAggregationResponse(device.getId(), "Test Device", 25.0, 30.0, 20.0, 2L, 20.0, 20.0, 20.0), lastMinute);
+        verifyNoInteractions(readingRepository, deviceRepository);
+    }
+
+    @Test
+    void aggregate_asTimePasses_shouldExpireOldReadings() {
+        ReadingHotWindows hotWindows = hotWindows();
+        record(hotWindows, device, -50_000, 10.0);
+        record(hotWindows, device, -5_000, 20.0);
+
+        clock.addAndGet(20_000);
+        assertEquals(1L, hotWindows.aggregate(null, null, null, ONE_MINUTE).orElseThrow().get(0).getCount());
+
+        clock.addAndGet(60_000);
+        assertTrue(hotWindows.aggregate(null, null, null, ONE_MINUTE).orElseThrow().isEmpty());
+        assertEquals(2L, hotWindows.aggregate(null, null, null, FIVE_MINUTES).orElseThrow().get(0).getCount());
+    }
+
+    @Test
+    void aggregate_shouldApplyDeviceFilters() {
+        ReadingHotWindows hotWindows = hotWindows();
+        Device otherZone = Device.builder().id("device-id-2").name("Other").type(DeviceType.TEMPERATURE_SENSOR).zone("Zone B").active(true).build();
+        Device inactive = Device.builder().id("device-id-3").name("Inactive").type(DeviceType.HEART_RATE_MONITOR).zone("Zone A").active(false).build();
+        record(hotWindows, device, -1_000, 1.0);
+        record(hotWindows, otherZone, -1_000, 2.0);
+        record(hotWindows, inactive, -1_000, 3.0);
+
+        assertEquals(2, hotWindows.aggregate(null, null, null, ONE_MINUTE).orElseThrow().size());
+        assertEquals(List.of(device.getId()), ids(hotWindows.aggregate(DeviceCategory.HEALTH, null, null, ONE_MINUTE).orElseThrow()));
+        assertEquals(List.of("device-id-2"), ids(hotWindows.aggregate(null, null, "Zone B", ONE_MINUTE).orElseThrow()));
+        assertEquals(List.of("device-id-2"), ids(hotWindows.aggregate(null, List.of("device-id-2", "unknown"), null, ONE_MINUTE).orElseThrow()));
+
+        otherZone.setZone("Zone A");
+        hotWindows.describe(otherZone);
+        assertTrue(hotWindows.aggregate(null, null, "Zone B", ONE_MINUTE).orElseThrow().isEmpty());
+    }
+
+    @Test
+    void record_tooOldOrInTheFuture_shouldBeRefused() {
+        ReadingHotWindows hotWindows = hotWindows();
+        record(hotWindows, device, -1_000, 1.0);
+        record(hotWindows, device, -400_000, 3.0);
+        record(hotWindows, device, 60_000, 4.0);
+        record(hotWindows, device, 0, 5.0);
+
+        assertEquals(2L, hotWindows.aggregate(null, null, null, FIVE_MINUTES).orElseThrow().get(0).getCount());
+        assertEquals(2.0, meterRegistry.get("readings.hot-window.refused").counter().count());
+    }
+
+    @Test
+    void record_outOfOrder_shouldNotAnswerWindowsItBelongsToUntilItExpires() {
+        ReadingHotWindows hotWindows = hotWindows();
+        record(hotWindows, device, -1_000, 1.0);
+        record(hotWindows, device, -90_000, 2.0);
+
+        assertEquals(1.0, meterRegistry.get("readings.hot-window.refused").counter().count());
+        assertTrue(hotWindows.aggregate(null, null, null, FIVE_MINUTES).isEmpty());
+        // Older than the minute window, which does not miss it
+        assertEquals(1L, hotWindows.aggregate(null, null, null, ONE_MINUTE).orElseThrow().get(0).getCount());
+
+        clock.addAndGet(209_999);
+        assertTrue(hotWindows.aggregate(null, null, null, FIVE_MINUTES).isEmpty());
+        clock.addAndGet(1);
+        assertEquals(1L, hotWindows.aggregate(null, null, null, FIVE_MINUTES).orElseThrow().get(0).getCount());
+    }
+
+    @Test
+    void record_beyondMaxReadings_shouldNotAnswerWindowUntilDroppedReadingsExpire() {
+        properties.setInitialCapacity(2);
+        properties.setMaxReadingsPerDevice(4);
+        ReadingHotWindows hotWindows = hotWindows();
+        for (int i = 0; i < 6; i++) {
+            record(hotWindows, device, -10_000 + i, i);
+        }
+
+        assertTrue(hotWindows.aggregate(null, null, null, ONE_MINUTE).isEmpty());
+
+        // The newest dropped reading leaves the minute window, the four kept ones are still inside it
+        clock.addAndGet(50_001);
+        ReadingAggregationResponse result = hotWindows.aggregate(null, null, null, ONE_MINUTE).orElseThrow().get(0);
+
+        assertEquals(4L, result.getCount());
+        assertEquals(2.0, result.getMinValue());
+        assertEquals(5.0, result.getMaxValue());
+    }
+
+    @Test
+    void aggregate_withRandomReadings_shouldMatchFullScan() {
+        properties.setMaxReadingsPerDevice(1 << 16);
+        ReadingHotWindows hotWindows = hotWindows();
+        Random random = new Random(7);
+        List<Long> timestamps = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        long timestamp = clock.get() - 300_000;
+
+        for (int i = 0; i < 20_000; i++) {
+            timestamp += random.nextInt(100);
+            clock.set(Math.max(clock.get(), timestamp));
+            double value = Math.round(random.nextGaussian() * 1000) / 10.0;
+            record(hotWindows, device, timestamp - clock.get(), value);
+            timestamps.add(timestamp);
+            values.add(value);
+
+            if (i % 997 == 0) {
+                for (Duration window : List.of(ONE_MINUTE, FIVE_MINUTES)) {
+                    long cutoff = clock.get() - window.toMillis();
+                    long count = 0;
+                    double sum = 0;
+                    double min = Double.POSITIVE_INFINITY;
+                    double max = Double.NEGATIVE_INFINITY;
+                    List<Double> inWindow = new ArrayList<>();
+                    for (int j = 0; j < values.size(); j++) {
+                        if (timestamps.get(j) > cutoff) {
+                            count++;
+                            sum += values.get(j);
+                            min = Math.min(min, values.get(j));
+                            max = Math.max(max, values.get(j));
+                            inWindow.add(values.get(j));
+                        }
+                    }
+                    inWindow.sort(null);
+
+                    List<ReadingAggregationResponse> results = hotWindows.aggregate(null, null, null, window).orElseThrow();
+                    if (count == 0) {
+                        assertTrue(results.isEmpty());
+                        continue;
+                    }
+                    ReadingAggregationResponse result = results.get(0);
+                    assertEquals(count, result.getCount());
+                    assertEquals(min, result.getMinValue());
+                    assertEquals(max, result.getMaxValue());
+                    assertEquals(sum / count, result.getAvgValue(), 1e-9);
+                    assertPercentile(inWindow.get((int) (0.5 * (count - 1))), result.getP50Value());
+                    assertPercentile(inWindow.get((int) (0.99 * (count - 1))), result.getP99Value());
+                }
+            }
+        }
+    }
+
+    @Test
+    void supports_shouldOnlyAcceptConfiguredWindows() {
+        ReadingHotWindows hotWindows = hotWindows();
+
+        assertTrue(hotWindows.supports(ONE_MINUTE));
+        assertFalse(hotWindows.supports(Duration.ofMinutes(2)));
+
+        properties.setEnabled(false);
+        assertFalse(hotWindows.supports(ONE_MINUTE));
+    }
+
+    private static void assertAggregation(ReadingAggregationResponse expected, ReadingAggregationResponse actual) {
+        assertEquals(expected.getDeviceId(), actual.getDeviceId());
+        assertEquals(expected.getDeviceName(), actual.getDeviceName());
+        assertEquals(expected.getAvgValue(), actual.getAvgValue());
+        assertEquals(expected.getMaxValue(), actual.getMaxValue());
+        assertEquals(expected.getMinValue(), actual.getMinValue());
+        assertEquals(expected.getCount(), actual.getCount());
+        assertPercentile(expected.getP50Value(), actual.getP50Value());
+        assertPercentile(expected.getP95Value(), actual.getP95Value());
+        assertPercentile(expected.getP99Value(), actual.getP99Value());
+    }
+
+    // Percentiles are estimated within 1% of the value
+    private static void assertPercentile(double expected, Double actual) {
+        assertEquals(expected, actual, Math.abs(expected) * 0.01);
+    }
+
+    private ReadingHotWindows hotWindows() {
+        return new ReadingHotWindows(properties, readingRepository, deviceRepository, meterRegistry, clock::get);
+    }
+
+    private void record(ReadingHotWindows hotWindows, Device device, long offsetMillis, double value) {
+        Reading reading = Reading.builder()
+                .meta(ReadingMeta.of(device))
+                .timestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(clock.get() + offsetMillis), ZoneId.systemDefault()))
+                .value(value)
+                .build();
+        hotWindows.record(reading, device.getName());
+    }
+
+    private static List<String> ids(List<ReadingAggregationResponse> results) {
+        return results.stream().map(ReadingAggregationResponse::getDeviceId).toList();
+    }
+}
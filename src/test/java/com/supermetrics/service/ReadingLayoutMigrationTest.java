@@ -0,0 +1,197 @@
+package com.supermetrics.service;
+
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.TimeSeriesOptions;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import com.supermetrics.config.ReadingStorageProperties;
+import com.supermetrics.controller.BaseControllerTest;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadingLayoutMigrationTest extends BaseControllerTest {
+
+    private static final String LEGACY_COLLECTION = "readings";
+    private static final Instant FIRST_DAY = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoMappingContext mappingContext;
+
+    @Autowired
+    private DeviceService deviceService;
+
+    @Autowired
+    private RawPayloadArchiver rawPayloadArchiver;
+
+    @Autowired
+    private ReadingRollupService rollupService;
+
+    private ReadingStorageProperties properties;
+    private Device device;
+    private List<Document> legacyReadings;
+
+    @BeforeEach
+    void setUpLegacyReadings() {
+        properties = new ReadingStorageProperties();
+        properties.getMigration().setBatchSize(2);
+
+        device = createTestDevice("Watch", "Bedroom");
+        mongoTemplate.getDb().createCollection(LEGACY_COLLECTION, new CreateCollectionOptions()
+                .timeSeriesOptions(new TimeSeriesOptions("timestamp").metaField("deviceId")));
+
+        // Four readings on each of three days, so every day is a range of two batches
+        legacyReadings = new ArrayList<>();
+        for (int day = 0; day < 3; day++) {
+            for (int hour = 0; hour < 24; hour += 6) {
+                legacyReadings.add(new Document("_id", new ObjectId())
+                        .append("deviceId", device.getId())
+                        .append("timestamp", Date.from(FIRST_DAY.plusSeconds(day * 86_400L + hour * 3_600L)))
+                        .append("value", 60.0 + hour)
+                        .append("unit", "bpm")
+                        .append("deviceReading", new Document("_class", "com.supermetrics.dto.AppleHeartReadingRequest")
+                                .append("heartRate", 60 + hour)));
+            }
+        }
+        mongoTemplate.getCollection(LEGACY_COLLECTION).insertMany(legacyReadings);
+    }
+
+    @AfterEach
+    void dropLegacyReadings() {
+        mongoTemplate.dropCollection(LEGACY_COLLECTION);
+        mongoTemplate.dropCollection(ReadingLayoutMigration.STATE_COLLECTION);
+    }
+
+    @Test
+    void run_withLegacyReadings_shouldCopyThemIntoTheCurrentLayout() {
+        newMigration().run();
+
+        List<Reading> readings = mongoTemplate.findAll(Reading.class);
+        assertEquals(legacyIds(), readings.stream().map(Reading::getId).collect(Collectors.toSet()));
+        assertEquals(legacyIds().size(), readings.size());
+        Reading reading = readings.get(0);
+        assertEquals(device.getId(), reading.getDeviceId());
+        assertEquals("Bedroom", reading.getMeta().getZone());
+        assertEquals("bpm", reading.getUnit());
+        assertFalse(((Document) reading.getDeviceReading()).containsKey("_class"));
+
+        Document state = state();
+        assertTrue(state.getBoolean("completed"));
+        assertEquals(12L, state.get("copied"));
+        assertEquals(0L, state.get("failed"));
+        assertFalse(state.containsKey("owner"));
+        assertTrue(mongoTemplate.collectionExists(LEGACY_COLLECTION));
+    }
+
+    @Test
+    void run_afterAnInterruptedMigration_shouldResumeWithoutCopyingReadingsTwice() {
+        // The first day was copied, and the second one had one of its two batches written when the instance stopped
+        List<Reading> copied = legacyReadings.subList(0, 6).stream().map(this::toReading).toList();
+        readingRepository.bulkInsert(new ArrayList<>(copied));
+        mongoTemplate.getCollection(ReadingLayoutMigration.STATE_COLLECTION).insertOne(new Document("_id", ReadingLayoutMigration.STATE_ID)
+                .append("owner", "stopped-instance")
+                .append("heartbeatAt", new Date(0))
+                .append("timeField", "timestamp")
+                .append("from", Date.from(FIRST_DAY))
+                .append("until", new Date(legacyReadings.get(11).getDate("timestamp").getTime() + 1))
+                .append("copiedUntil", Date.from(FIRST_DAY.plusSeconds(86_400)))
+                .append("before", "12 readings")
+                .append("copied", 6L)
+                .append("failed", 0L));
+
+        newMigration().run();
+
+        List<Reading> readings = mongoTemplate.findAll(Reading.class);
+        assertEquals(legacyIds().size(), readings.size());
+        assertEquals(legacyIds(), readings.stream().map(Reading::getId).collect(Collectors.toSet()));
+        assertTrue(state().getBoolean("completed"));
+        assertEquals(12L, state().get("copied"));
+    }
+
+    @Test
+    void run_whileAnotherInstanceHoldsTheLease_shouldLeaveTheMigrationToIt() {
+        mongoTemplate.getCollection(ReadingLayoutMigration.STATE_COLLECTION).insertOne(new Document("_id", ReadingLayoutMigration.STATE_ID)
+                .append("owner", "other-instance")
+                .append("heartbeatAt", new Date()));
+
+        newMigration().run();
+
+        assertEquals(0, readingRepository.count());
+        assertEquals("other-instance", state().getString("owner"));
+    }
+
+    @Test
+    void run_onTwoInstancesAtOnce_shouldCopyEveryReadingOnce() {
+        ReadingLayoutMigration first = newMigration();
+        ReadingLayoutMigration second = newMigration();
+        CountDownLatch start = new CountDownLatch(1);
+
+        CompletableFuture<Void> firstRun = CompletableFuture.runAsync(() -> awaitThenRun(start, first));
+        CompletableFuture<Void> secondRun = CompletableFuture.runAsync(() -> awaitThenRun(start, second));
+        start.countDown();
+        CompletableFuture.allOf(firstRun, secondRun).join();
+
+        List<Reading> readings = mongoTemplate.findAll(Reading.class);
+        assertEquals(legacyIds().size(), readings.size());
+        assertEquals(legacyIds(), readings.stream().map(Reading::getId).collect(Collectors.toSet()));
+        assertTrue(state().getBoolean("completed"));
+        assertEquals(12L, state().get("copied"));
+    }
+
+    private ReadingLayoutMigration newMigration() {
+        return new ReadingLayoutMigration(mongoTemplate, mappingContext, readingRepository, deviceService, rawPayloadArchiver,
+                rollupService, readingAggregationCache, properties);
+    }
+
+    private static void awaitThenRun(CountDownLatch start, ReadingLayoutMigration migration) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        migration.run();
+    }
+
+    private Reading toReading(Document legacy) {
+        return Reading.builder()
+                .id(legacy.getObjectId("_id").toHexString())
+                .meta(ReadingMeta.of(device))
+                .timestamp(LocalDateTime.ofInstant(legacy.getDate("timestamp").toInstant(), ZoneId.systemDefault()))
+                .value(legacy.getDouble("value"))
+                .unit(legacy.getString("unit"))
+                .build();
+    }
+
+    private Set<String> legacyIds() {
+        return legacyReadings.stream().map(document -> document.getObjectId("_id").toHexString()).collect(Collectors.toSet());
+    }
+
+    private Document state() {
+        return mongoTemplate.getCollection(ReadingLayoutMigration.STATE_COLLECTION)
+                .find(new Document("_id", ReadingLayoutMigration.STATE_ID))
+                .first();
+    }
+}
@@ -0,0 +1,108 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.repository.DeviceRepository;
+import com.supermetrics.repository.ReadingRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReadingMetaReconcilerTest {
+
+    @Mock
+    private DeviceRepository deviceRepository;
+
+    @Mock
+    private ReadingRepository readingRepository;
+
+    @Mock
+    private ReadingRollupService rollupService;
+
+    @Mock
+    private ReadingAggregationCache aggregationCache;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ReadingMetaReconciler reconciler;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        reconciler = new ReadingMetaReconciler(deviceRepository, readingRepository, rollupService, aggregationCache, meterRegistry);
+    }
+
+    @Test
+    void reconcile_shouldCopyAttributesAndClearTheMarkAtTheCopiedVersion() {
+        Device device = device("device-1", 3);
+        when(deviceRepository.findTop100ByMetaSyncPendingTrue()).thenReturn(List.of(device));
+
+        reconciler.reconcile();
+
+        verify(readingRepository).updateMeta(ReadingMeta.of(device));
+        verify(rollupService).updateMeta(ReadingMeta.of(device));
+        verify(deviceRepository).clearMetaSyncPending("device-1", 3);
+        verify(aggregationCache).invalidateAll();
+    }
+
+    @Test
+    void reconcile_whenTheCopyFails_shouldKeepTheMarkAndCountTheFailure() {
+        Device failing = device("device-1", 3);
+        Device other = device("device-2", 1);
+        when(deviceRepository.findTop100ByMetaSyncPendingTrue()).thenReturn(List.of(failing, other));
+        when(readingRepository.updateMeta(ReadingMeta.of(failing))).thenThrow(new DataAccessResourceFailureException("timeout"));
+
+        reconciler.reconcile();
+
+        verify(deviceRepository, never()).clearMetaSyncPending(eq("device-1"), anyLong());
+        verify(deviceRepository).clearMetaSyncPending("device-2", 1);
+        verify(aggregationCache).invalidateAll();
+        assertEquals(1.0, meterRegistry.counter("readings.meta.failed").count());
+    }
+
+    @Test
+    void reconcile_withoutMarkedDevices_shouldKeepTheCache() {
+        when(deviceRepository.findTop100ByMetaSyncPendingTrue()).thenReturn(List.of());
+
+        reconciler.reconcile();
+
+        verifyNoInteractions(readingRepository, rollupService, aggregationCache);
+    }
+
+    @Test
+    void reconcile_withAFullBatch_shouldContinueWithTheNextOne() {
+        List<Device> fullBatch = IntStream.range(0, 100).mapToObj(i -> device("device-" + i, 1)).toList();
+        when(deviceRepository.findTop100ByMetaSyncPendingTrue())
+                .thenReturn(fullBatch)
+                .thenReturn(List.of(device("device-100", 1)));
+
+        reconciler.reconcile();
+
+        verify(deviceRepository, times(2)).findTop100ByMetaSyncPendingTrue();
+        verify(readingRepository, times(101)).updateMeta(any());
+    }
+
+    private static Device device(String id, long version) {
+        return Device.builder()
+                .id(id)
+                .type(DeviceType.HEART_RATE_MONITOR)
+                .zone("Zone A")
+                .active(true)
+                .version(version)
+                .metaSyncPending(true)
+                .build();
+    }
+}
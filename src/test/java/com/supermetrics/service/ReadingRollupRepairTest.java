@@ -0,0 +1,138 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.supermetrics.config.RollupProperties;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.repository.ReadingRepository;
+import com.supermetrics.repository.ReadingRollupRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReadingRollupRepairTest {
+
+    @Mock
+    private ReadingRollupRepository rollupRepository;
+
+    @Mock
+    private ReadingRepository readingRepository;
+
+    @Mock
+    private ReadingAggregationCache aggregationCache;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ReadingRollupService rollupService;
+    private ReadingRollupRepair repair;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        RollupProperties properties = new RollupProperties();
+        rollupService = new ReadingRollupService(rollupRepository, readingRepository, properties, meterRegistry);
+        repair = new ReadingRollupRepair(rollupRepository, rollupService, aggregationCache, properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        repair.shutdown();
+    }
+
+    @Test
+    void record_whenTheRollupsFail_shouldMarkTheDaysOfTheReadings() {
+        List<Reading> readings = List.of(reading());
+        Set<Document> days = Set.of(mark("device-1").get("_id", Document.class));
+        doThrow(new DataAccessResourceFailureException("timeout")).when(rollupRepository).record(readings);
+        when(rollupRepository.dirtyDays(readings)).thenReturn(days);
+
+        rollupService.record(readings);
+
+        verify(rollupRepository).markDirty(days);
+        assertEquals(1.0, meterRegistry.counter("readings.rollups.failed").count());
+    }
+
+    @Test
+    void repair_withDaysThatCouldNotBeMarked_shouldMarkThemFirst() {
+        List<Reading> readings = List.of(reading());
+        Set<Document> days = Set.of(mark("device-1").get("_id", Document.class));
+        doThrow(new DataAccessResourceFailureException("timeout")).when(rollupRepository).record(readings);
+        when(rollupRepository.dirtyDays(readings)).thenReturn(days);
+        doThrow(new DataAccessResourceFailureException("timeout")).doNothing().when(rollupRepository).markDirty(days);
+        rollupService.record(readings);
+        assertTrue(rollupService.hasUnmarkedDays());
+
+        repair.repair();
+
+        verify(rollupRepository, times(2)).markDirty(days);
+        assertFalse(rollupService.hasUnmarkedDays());
+    }
+
+    @Test
+    void repair_shouldClearTheMarksOfRepairedDaysOnly() {
+        Document repaired = mark("device-1");
+        Document stillOff = mark("device-2");
+        when(rollupRepository.findDirty(anyInt())).thenReturn(List.of(repaired, stillOff)).thenReturn(List.of(stillOff));
+        when(rollupRepository.repair(repaired)).thenReturn(true);
+        when(rollupRepository.repair(stillOff)).thenReturn(false);
+
+        repair.repair();
+
+        verify(rollupRepository).clearDirty(repaired);
+        verify(rollupRepository, never()).clearDirty(stillOff);
+        verify(aggregationCache).invalidateAll();
+        assertEquals(1.0, meterRegistry.counter("readings.rollups.repaired").count());
+    }
+
+    @Test
+    void repair_onceNoDayIsMarked_shouldUseTheRollupsAgain() {
+        when(rollupRepository.hasDirty()).thenReturn(true);
+        rollupService.start();
+        assertFalse(rollupService.isComplete());
+        when(rollupRepository.findDirty(anyInt())).thenReturn(List.of());
+
+        repair.repair();
+
+        assertTrue(rollupService.isComplete());
+        verifyNoInteractions(aggregationCache);
+    }
+
+    @Test
+    void repair_whileRollupsWereNeverBuilt_shouldKeepReadingRawReadings() {
+        when(rollupRepository.isEmpty()).thenReturn(true);
+        when(readingRepository.count()).thenReturn(10L);
+        rollupService.start();
+        when(rollupRepository.findDirty(anyInt())).thenReturn(List.of());
+
+        repair.repair();
+
+        assertFalse(rollupService.isComplete());
+        assertTrue(rollupService.plan(LocalDateTime.now().minusDays(2), LocalDateTime.now()).rollupRanges().isEmpty());
+    }
+
+    private static Document mark(String deviceId) {
+        return new Document("_id", new Document("i", deviceId).append("t", new Date(0))).append("at", new Date());
+    }
+
+    private static Reading reading() {
+        return Reading.builder()
+                .meta(ReadingMeta.builder().deviceId("device-1").build())
+                .timestamp(LocalDateTime.now())
+                .value(1.0)
+                .build();
+    }
+}
@@ -1,26 +1,44 @@
 package com.supermetrics.service;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import com.supermetrics.dto.BatchReadingItemResult;
+import com.supermetrics.dto.BatchReadingResponse;
 import com.supermetrics.dto.ReadingAggregationResponse;
 import com.supermetrics.dto.ReadingRequest;
+import com.supermetrics.dto.ReadingSeriesPoint;
+import com.supermetrics.exception.BadRequestException;
 import com.supermetrics.exception.NotFoundException;
+import com.supermetrics.exception.TooManyRequestsException;
 import com.supermetrics.mapper.ReadingMapper;
 import com.supermetrics.model.Device;
 import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
 import com.supermetrics.model.enums.DeviceCategory;
 import com.supermetrics.model.enums.DeviceType;
+import com.supermetrics.model.enums.RollupResolution;
+import com.supermetrics.model.enums.SeriesInterval;
 import com.supermetrics.repository.ReadingRepository;
+import com.supermetrics.repository.ReadingRollupPlan;
+import com.supermetrics.security.ApiKeyAuthenticationToken;
+import com.supermetrics.security.DevicePrincipal;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -39,6 +57,30 @@ class ReadingServiceTest {
     @Mock
     private ReadingMapper readingMapper;
 
+    @Mock
+    private ReadingWriteBehindBuffer writeBehindBuffer;
+
+    @Mock
+    private ReadingDeduplicator deduplicator;
+
+    @Mock
+    private IngestionRateLimiter rateLimiter;
+
+    @Mock
+    private RawPayloadArchiver rawPayloadArchiver;
+
+    @Mock
+    private ReadingRollupService rollupService;
+
+    @Mock
+    private ReadingHotWindows hotWindows;
+
+    @Mock
+    private LatestReadingRegistry latestReadings;
+
+    @Mock
+    private ReadingAggregationCache aggregationCache;
+
     @InjectMocks
     private ReadingService readingService;
 
@@ -47,8 +89,14 @@ class ReadingServiceTest {
     private ReadingRequest readingRequest;
     private LocalDateTime startTime;
     private LocalDateTime endTime;
+    private ReadingRollupPlan plan;
     private List<ReadingAggregationResponse> aggregationResponses;
 
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
     @BeforeEach
     void setUp() {
         device = Device.builder()
@@ -63,13 +111,14 @@ class ReadingServiceTest {
 
         reading = Reading.builder()
                 .id("reading-id-1")
-                .deviceId(device.getId())
+                .meta(ReadingMeta.of(device.getId()))
                 .value(75.0)
                 .timestamp(LocalDateTime.now())
                 .build();
 
         startTime = LocalDateTime.now().minusDays(7);
         endTime = LocalDateTime.now();
+        plan = ReadingRollupPlan.of(startTime, endTime);
 
         ReadingAggregationResponse aggregationResponse = new ReadingAggregationResponse();
         aggregationResponse.setDeviceId(device.getId());
@@ -87,11 +136,9 @@ class ReadingServiceTest {
         DeviceCategory category = DeviceCategory.HEALTH;
         List<String> deviceIds = List.of(device.getId());
         String zone = "Zone A";
-        List<DeviceType> deviceTypes = DeviceType.getDevicesByCategory(category);
-        List<Device> devices = List.of(device);
 
-        when(deviceService.findByTypesIdsAndZone(deviceTypes, deviceIds, zone)).thenReturn(devices);
-        when(readingRepository.getAllAggregations(any(), eq(startTime), eq(endTime))).thenReturn(aggregationResponses);
+        when(aggregationCache.aggregate(category, deviceIds, zone, startTime, endTime)).thenReturn(aggregationResponses);
+        when(deviceService.findAllById(List.of(device.getId()))).thenReturn(Map.of(device.getId(), device));
 
         List<ReadingAggregationResponse> result = readingService.findByDeviceCategoryWithAggregation(
                 category, deviceIds, zone, startTime, endTime);
@@ -100,8 +147,24 @@ class ReadingServiceTest {
         assertEquals(1, result.size());
         assertEquals(device.getId(), result.get(0).getDeviceId());
         assertEquals(device.getName(), result.get(0).getDeviceName());
-        verify(deviceService).findByTypesIdsAndZone(deviceTypes, deviceIds, zone);
-        verify(readingRepository).getAllAggregations(any(), eq(startTime), eq(endTime));
+        verify(aggregationCache).aggregate(category, deviceIds, zone, startTime, endTime);
+        verify(deviceService, never()).findByTypesIdsAndZone(any(), any(), any());
+    }
+
+    @Test
+    void findByDeviceCategoryWithAggregation_withNoReadings_shouldReturnEmptyList() {
+        DeviceCategory category = DeviceCategory.HEALTH;
+        List<String> deviceIds = List.of(device.getId());
+        String zone = "Zone A";
+        List<DeviceType> deviceTypes = DeviceType.getDevicesByCategory(category);
+
+        when(aggregationCache.aggregate(category, deviceIds, zone, startTime, endTime)).thenReturn(List.of());
+        when(deviceService.existsByTypesIdsAndZone(deviceTypes, deviceIds, zone)).thenReturn(true);
+
+        List<ReadingAggregationResponse> result = readingService.findByDeviceCategoryWithAggregation(
+                category, deviceIds, zone, startTime, endTime);
+
+        assertTrue(result.isEmpty());
     }
 
     @Test
@@ -111,12 +174,97 @@ class ReadingServiceTest {
         String zone = "Zone A";
         List<DeviceType> deviceTypes = DeviceType.getDevicesByCategory(category);
 
-        when(deviceService.findByTypesIdsAndZone(deviceTypes, deviceIds, zone)).thenReturn(List.of());
+        when(aggregationCache.aggregate(category, deviceIds, zone, startTime, endTime)).thenReturn(List.of());
+        when(deviceService.existsByTypesIdsAndZone(deviceTypes, deviceIds, zone)).thenReturn(false);
 
         assertThrows(NotFoundException.class, () -> readingService.findByDeviceCategoryWithAggregation(
                 category, deviceIds, zone, startTime, endTime));
-        verify(deviceService).findByTypesIdsAndZone(deviceTypes, deviceIds, zone);
-        verify(readingRepository, never()).getAllAggregations(any(), any(), any());
+        verify(deviceService).existsByTypesIdsAndZone(deviceTypes, deviceIds, zone);
+    }
+
+    @Test
+    void findRecentWithAggregation_withInMemoryWindow_shouldNotQueryReadings() {
+        Duration window = Duration.ofMinutes(5);
+        ReadingAggregationResponse other = new ReadingAggregationResponse("device-id-2", "Another Device", 1.0, 1.0, 1.0, 1L, 1.0, 1.0, 1.0);
+        when(hotWindows.supports(window)).thenReturn(true);
+        when(hotWindows.aggregate(DeviceCategory.HEALTH, null, null, window)).thenReturn(Optional.of(List.of(aggregationResponses.get(0), other)));
+
+        List<ReadingAggregationResponse> result = readingService.findRecentWithAggregation(DeviceCategory.HEALTH, null, null, window);
+
+        assertEquals(List.of("Another Device", "Test Device"), result.stream().map(ReadingAggregationResponse::getDeviceName).toList());
+        verifyNoInteractions(readingRepository, aggregationCache);
+    }
+
+    @Test
+    void findRecentWithAggregation_withOtherWindow_shouldAggregateReadings() {
+        Duration window = Duration.ofMinutes(7);
+        when(hotWindows.supports(window)).thenReturn(false);
+        when(aggregationCache.aggregate(eq(DeviceCategory.HEALTH), isNull(), isNull(), any(), any())).thenReturn(aggregationResponses);
+        when(deviceService.findAllById(List.of(device.getId()))).thenReturn(Map.of(device.getId(), device));
+
+        List<ReadingAggregationResponse> result = readingService.findRecentWithAggregation(DeviceCategory.HEALTH, null, null, window);
+
+        assertEquals(aggregationResponses, result);
+        verify(hotWindows, never()).aggregate(any(), any(), any(), any());
+    }
+
+    @Test
+    void findRecentWithAggregation_withTruncatedInMemoryWindow_shouldAggregateReadings() {
+        Duration window = Duration.ofMinutes(5);
+        when(hotWindows.supports(window)).thenReturn(true);
+        when(hotWindows.aggregate(DeviceCategory.HEALTH, null, null, window)).thenReturn(Optional.empty());
+        when(aggregationCache.aggregate(eq(DeviceCategory.HEALTH), isNull(), isNull(), any(), any())).thenReturn(aggregationResponses);
+        when(deviceService.findAllById(List.of(device.getId()))).thenReturn(Map.of(device.getId(), device));
+
+        List<ReadingAggregationResponse> result = readingService.findRecentWithAggregation(DeviceCategory.HEALTH, null, null, window);
+
+        assertEquals(aggregationResponses, result);
+    }
+
+    @Test
+    void findRecentWithAggregation_withNonPositiveWindow_shouldThrowBadRequestException() {
+        assertThrows(BadRequestException.class,
+                () -> readingService.findRecentWithAggregation(DeviceCategory.HEALTH, null, null, Duration.ZERO));
+    }
+
+    @Test
+    void streamSeries_withFill_shouldFillGapsFromRepositoryStream() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 0);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 1, 12, 0);
+        ReadingSeriesPoint point = new ReadingSeriesPoint(device.getId(), LocalDateTime.of(2024, 1, 1, 11, 0), 75.0, 80.0, 70.0, 10);
+        when(rollupService.plan(start, end, RollupResolution.HOUR)).thenReturn(plan);
+        when(readingRepository.streamSeries(DeviceCategory.HEALTH, null, null, plan, SeriesInterval.ONE_HOUR)).thenReturn(Stream.of(point));
+
+        try (Stream<ReadingSeriesPoint> series = readingService.streamSeries(DeviceCategory.HEALTH, null, null, "1h", start, end, true)) {
+            assertEquals(List.of(
+                    ReadingSeriesPoint.empty(device.getId(), start),
+                    point,
+                    ReadingSeriesPoint.empty(device.getId(), end)), series.toList());
+        }
+    }
+
+    @Test
+    void streamSeries_withUnknownInterval_shouldThrowBadRequestException() {
+        BadRequestException exception = assertThrows(BadRequestException.class,
+                () -> readingService.streamSeries(null, null, null, "2h", startTime, endTime, false));
+
+        assertEquals("Interval must be one of 1m, 5m, 1h, 1d", exception.getMessage());
+        verifyNoInteractions(readingRepository);
+    }
+
+    @Test
+    void findLatest_withCategoryAndTypes_shouldOnlyKeepTypesOfCategory() {
+        readingService.findLatest(DeviceCategory.HEALTH, List.of(DeviceType.HEART_RATE_MONITOR, DeviceType.TEMPERATURE_SENSOR), null, "Zone A");
+        readingService.findLatest(DeviceCategory.HEALTH, null, null, null);
+
+        verify(latestReadings).find(List.of(DeviceType.HEART_RATE_MONITOR), null, "Zone A");
+        verify(latestReadings).find(DeviceType.getDevicesByCategory(DeviceCategory.HEALTH), null, null);
+    }
+
+    @Test
+    void findLatest_withTypesOutsideCategory_shouldReturnEmptyList() {
+        assertTrue(readingService.findLatest(DeviceCategory.HEALTH, List.of(DeviceType.TEMPERATURE_SENSOR), null, null).isEmpty());
+        verifyNoInteractions(latestReadings);
     }
 
     @Test
@@ -128,7 +276,71 @@ class ReadingServiceTest {
 
         verify(readingMapper).mapToReading(readingRequest);
         verify(deviceService).findById(device.getId());
+        verify(rawPayloadArchiver).apply(reading);
         verify(readingRepository).save(reading);
+        verify(rollupService).record(reading);
+        verify(aggregationCache).invalidate(List.of(reading));
+        verify(hotWindows).record(reading, device.getName());
+        verify(latestReadings).record(reading, device.getName());
+        assertEquals(ReadingMeta.of(device), reading.getMeta());
+    }
+
+    @Test
+    void saveReading_withWriteBehindEnabled_shouldSubmitToBuffer() {
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading);
+        when(deviceService.findById(device.getId())).thenReturn(Optional.of(device));
+        when(writeBehindBuffer.isEnabled()).thenReturn(true);
+
+        readingService.saveReading(readingRequest);
+
+        verify(writeBehindBuffer).submit(reading);
+        verify(rawPayloadArchiver, never()).apply(any(Reading.class));
+        verify(readingRepository, never()).save(any());
+        verify(rollupService, never()).record(any(Reading.class));
+    }
+
+    @Test
+    void saveReading_withApiKeyForOtherDevice_shouldThrowAccessDeniedException() {
+        authenticateWithApiKey("other-device");
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading);
+
+        assertThrows(AccessDeniedException.class, () -> readingService.saveReading(readingRequest));
+        verify(deviceService, never()).findById(any());
+        verify(readingRepository, never()).save(any());
+    }
+
+    @Test
+    void saveReading_withApiKeyForDevice_shouldSaveReading() {
+        authenticateWithApiKey(device.getId());
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading);
+        when(deviceService.findById(device.getId())).thenReturn(Optional.of(device));
+
+        readingService.saveReading(readingRequest);
+
+        verify(readingRepository).save(reading);
+    }
+
+    @Test
+    void saveReading_withDuplicate_shouldSkipSave() {
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading);
+        when(deviceService.findById(device.getId())).thenReturn(Optional.of(device));
+        when(deduplicator.isDuplicate(reading)).thenReturn(true);
+
+        readingService.saveReading(readingRequest);
+
+        verify(readingRepository, never()).save(any());
+        verify(deduplicator, never()).remember(any(Reading.class));
+    }
+
+    @Test
+    void saveReading_withRateLimitExceeded_shouldThrowTooManyRequestsException() {
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading);
+        when(rateLimiter.tryAcquire(device.getId(), readingRequest)).thenReturn(Optional.of(Duration.ofMillis(50)));
+
+        TooManyRequestsException exception = assertThrows(TooManyRequestsException.class, () -> readingService.saveReading(readingRequest));
+        assertEquals(Duration.ofMillis(50), exception.getRetryAfter());
+        verify(deviceService, never()).findById(any());
+        verify(readingRepository, never()).save(any());
     }
 
     @Test
@@ -141,4 +353,109 @@ class ReadingServiceTest {
         verify(deviceService).findById(device.getId());
         verify(readingRepository, never()).save(any());
     }
+
+    @Test
+    void saveReadings_withMixedData_shouldReportEachReadingByIndex() {
+        Reading unknownDeviceReading = Reading.builder()
+                .meta(ReadingMeta.of("unknown-device"))
+                .value(80.0)
+                .timestamp(LocalDateTime.now())
+                .build();
+        ReadingRequest unknownDeviceRequest = mock(ReadingRequest.class);
+
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading);
+        when(readingMapper.mapToReading(unknownDeviceRequest)).thenReturn(unknownDeviceReading);
+        when(deviceService.findAllById(Set.of(device.getId(), "unknown-device"))).thenReturn(Map.of(device.getId(), device));
+        when(readingRepository.bulkInsert(List.of(reading))).thenReturn(Map.of());
+
+        List<Supplier<ReadingRequest>> requests = List.of(
+                () -> readingRequest,
+                () -> {
+                    throw new BadRequestException("Unknown device configuration");
+                },
+                () -> unknownDeviceRequest
+        );
+
+        BatchReadingResponse response = readingService.saveReadings(requests);
+
+        assertEquals(3, response.received());
+        assertEquals(1, response.saved());
+        assertEquals(2, response.rejected());
+        assertEquals(BatchReadingItemResult.saved(0), response.results().get(0));
+        assertEquals(BatchReadingItemResult.rejected(1, "Unknown device configuration"), response.results().get(1));
+        assertEquals(BatchReadingItemResult.rejected(2, "Device not found: unknown-device"), response.results().get(2));
+        verify(readingRepository).bulkInsert(List.of(reading));
+        verify(readingRepository, never()).save(any());
+    }
+
+    @Test
+    void saveReadings_withWriteError_shouldRejectOnlyFailedReading() {
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading);
+        when(deviceService.findAllById(Set.of(device.getId()))).thenReturn(Map.of(device.getId(), device));
+        when(readingRepository.bulkInsert(List.of(reading, reading))).thenReturn(Map.of(1, "Write failed"));
+
+        BatchReadingResponse response = readingService.saveReadings(List.of(() -> readingRequest, () -> readingRequest));
+
+        assertEquals(1, response.saved());
+        assertEquals(BatchReadingItemResult.saved(0), response.results().get(0));
+        assertEquals(BatchReadingItemResult.rejected(1, "Write failed"), response.results().get(1));
+        verify(deduplicator).remember(List.of(reading));
+        verify(rollupService).record(List.of(reading));
+    }
+
+    @Test
+    void saveReadings_withDuplicates_shouldSkipThemAndRememberSavedReadings() {
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading);
+        when(deviceService.findAllById(Set.of(device.getId()))).thenReturn(Map.of(device.getId(), device));
+        when(deduplicator.findDuplicates(List.of(reading, reading, reading))).thenReturn(Set.of(1, 2));
+        when(readingRepository.bulkInsert(List.of(reading))).thenReturn(Map.of());
+
+        BatchReadingResponse response = readingService.saveReadings(
+                List.of(() -> readingRequest, () -> readingRequest, () -> readingRequest));
+
+        assertEquals(1, response.saved());
+        assertEquals(0, response.rejected());
+        assertEquals(2, response.duplicates());
+        assertEquals(BatchReadingItemResult.duplicate(2), response.results().get(2));
+        verify(deduplicator).remember(List.of(reading));
+    }
+
+    @Test
+    void saveReadings_withRateLimitExceeded_shouldRejectOnlyReadingsOfLimitedDevices() {
+        ReadingRequest otherRequest = mock(ReadingRequest.class);
+        Reading otherReading = Reading.builder().meta(ReadingMeta.of("device-id-2")).value(1.0).timestamp(LocalDateTime.now()).build();
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading);
+        when(readingMapper.mapToReading(otherRequest)).thenReturn(otherReading);
+        when(rateLimiter.tryAcquire(device.getId(), readingRequest)).thenReturn(Optional.empty());
+        when(rateLimiter.tryAcquire("device-id-2", otherRequest)).thenReturn(Optional.of(Duration.ofMillis(50)));
+        when(deviceService.findAllById(Set.of(device.getId()))).thenReturn(Map.of(device.getId(), device));
+        when(readingRepository.bulkInsert(List.of(reading))).thenReturn(Map.of());
+
+        BatchReadingResponse response = readingService.saveReadings(List.of(() -> readingRequest, () -> otherRequest));
+
+        assertEquals(1, response.saved());
+        assertEquals(1, response.rejected());
+        assertEquals(BatchReadingItemResult.rejected(1, "Rate limit exceeded for device: device-id-2, retry after 50 ms"),
+                response.results().get(1));
+        verify(readingRepository).bulkInsert(List.of(reading));
+    }
+
+    @Test
+    void saveReadings_withManyReadingsOfOneDevice_shouldChargeTheRateLimitOnce() {
+        Reading later = Reading.builder().meta(ReadingMeta.of(device.getId())).value(76.0).timestamp(reading.getTimestamp().plusSeconds(1)).build();
+        when(readingMapper.mapToReading(readingRequest)).thenReturn(reading, later);
+        when(rateLimiter.tryAcquire(device.getId(), readingRequest)).thenReturn(Optional.empty());
+        when(deviceService.findAllById(Set.of(device.getId()))).thenReturn(Map.of(device.getId(), device));
+        when(readingRepository.bulkInsert(List.of(reading, later))).thenReturn(Map.of());
+
+        BatchReadingResponse response = readingService.saveReadings(List.of(() -> readingRequest, () -> readingRequest));
+
+        assertEquals(2, response.saved());
+        verify(rateLimiter, times(1)).tryAcquire(device.getId(), readingRequest);
+    }
+
+    private void authenticateWithApiKey(String... deviceIds) {
+        SecurityContextHolder.getContext().setAuthentication(
+                new ApiKeyAuthenticationToken(new DevicePrincipal("key-id", Set.of(deviceIds))));
+    }
 }
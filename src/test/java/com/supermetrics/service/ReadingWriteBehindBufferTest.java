@@ -0,0 +1,145 @@
+package com.supermetrics.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import com.supermetrics.config.WriteBehindProperties;
+import com.supermetrics.exception.ServiceUnavailableException;
+import com.supermetrics.model.Reading;
+import com.supermetrics.model.ReadingMeta;
+import com.supermetrics.repository.ReadingRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReadingWriteBehindBufferTest {
+
+    @Mock
+    private ReadingRepository readingRepository;
+
+    @Mock
+    private RawPayloadArchiver rawPayloadArchiver;
+
+    @Mock
+    private ReadingRollupService rollupService;
+
+    @Mock
+    private ReadingAggregationCache aggregationCache;
+
+    private WriteBehindProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        properties = new WriteBehindProperties();
+        properties.setEnabled(true);
+        properties.setPartitions(1);
+        properties.setPartitionCapacity(1);
+        properties.setBatchSize(1);
+        properties.setFlushInterval(Duration.ofMillis(10));
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void submit_beforeStart_shouldThrowServiceUnavailableException() {
+        ReadingWriteBehindBuffer buffer = new ReadingWriteBehindBuffer(readingRepository, rawPayloadArchiver, rollupService, aggregationCache, properties, meterRegistry);
+
+        assertThrows(ServiceUnavailableException.class, () -> buffer.submit(reading("device-id-1")));
+        verify(readingRepository, never()).bulkInsert(any());
+    }
+
+    @Test
+    void submit_whenPartitionIsFull_shouldThrowServiceUnavailableAndDrainOnStop() throws InterruptedException {
+        CountDownLatch flushStarted = new CountDownLatch(1);
+        CountDownLatch releaseFlush = new CountDownLatch(1);
+        when(readingRepository.bulkInsert(any())).thenAnswer(invocation -> {
+            flushStarted.countDown();
+            releaseFlush.await(5, TimeUnit.SECONDS);
+            return Map.of();
+        });
+
+        ReadingWriteBehindBuffer buffer = new ReadingWriteBehindBuffer(readingRepository, rawPayloadArchiver, rollupService, aggregationCache, properties, meterRegistry);
+        buffer.start();
+
+        Reading first = reading("device-id-1");
+        Reading second = reading("device-id-1");
+        buffer.submit(first);
+        assertTrue(flushStarted.await(5, TimeUnit.SECONDS));
+
+        buffer.submit(second);
+        assertEquals(1, buffer.size());
+        assertThrows(ServiceUnavailableException.class, () -> buffer.submit(reading("device-id-1")));
+
+        releaseFlush.countDown();
+        buffer.stop();
+
+        assertEquals(0, buffer.size());
+        assertFalse(buffer.isRunning());
+        verify(readingRepository).bulkInsert(List.of(first));
+        verify(readingRepository).bulkInsert(List.of(second));
+        verify(rollupService).record(List.of(first));
+        verify(rollupService).record(List.of(second));
+        verify(aggregationCache).invalidate(List.of(second));
+        assertEquals(1.0, meterRegistry.get("readings.write-behind.rejected").counter().count());
+        assertEquals(2, meterRegistry.get("readings.write-behind.flush.size").summary().count());
+    }
+
+    @Test
+    void flush_whenSomeReadingsFail_shouldRetryOnlyThoseReadings() {
+        properties.setPartitionCapacity(2);
+        properties.setBatchSize(2);
+        properties.setFlushInterval(Duration.ofSeconds(5));
+        Reading first = reading("device-id-1");
+        Reading second = reading("device-id-1");
+        when(readingRepository.bulkInsert(List.of(first, second))).thenReturn(Map.of(1, "write concern timeout"));
+        when(readingRepository.bulkInsert(List.of(second))).thenReturn(Map.of());
+
+        ReadingWriteBehindBuffer buffer = new ReadingWriteBehindBuffer(readingRepository, rawPayloadArchiver, rollupService, aggregationCache, properties, meterRegistry);
+        buffer.start();
+        buffer.submit(first);
+        buffer.submit(second);
+        buffer.stop();
+
+        verify(readingRepository).bulkInsert(List.of(first, second));
+        verify(readingRepository).bulkInsert(List.of(second));
+        verify(rollupService).record(List.of(first, second));
+        verify(aggregationCache).invalidate(List.of(first, second));
+        assertEquals(0.0, meterRegistry.get("readings.write-behind.failed").counter().count());
+    }
+
+    @Test
+    void flush_whenOutcomeIsUnknown_shouldNotRetry() {
+        Reading first = reading("device-id-1");
+        when(readingRepository.bulkInsert(any())).thenThrow(new DataAccessResourceFailureException("Socket read timed out"));
+
+        ReadingWriteBehindBuffer buffer = new ReadingWriteBehindBuffer(readingRepository, rawPayloadArchiver, rollupService, aggregationCache, properties, meterRegistry);
+        buffer.start();
+        buffer.submit(first);
+        buffer.stop();
+
+        verify(readingRepository, times(1)).bulkInsert(any());
+        verifyNoInteractions(rollupService, aggregationCache);
+        assertEquals(1.0, meterRegistry.get("readings.write-behind.failed").counter().count());
+    }
+
+    private Reading reading(String deviceId) {
+        return Reading.builder()
+                .meta(ReadingMeta.of(deviceId))
+                .value(75.0)
+                .timestamp(LocalDateTime.now())
+                .build();
+    }
+}
@@ -0,0 +1,62 @@
+package com.supermetrics.service;
+
+import org.junit.jupiter.api.Test;
+import com.supermetrics.dto.ReadingSeriesPoint;
+import com.supermetrics.model.enums.SeriesInterval;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeriesGapFillerTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 10, 2, 30);
+    private static final LocalDateTime END = LocalDateTime.of(2024, 1, 1, 10, 17, 0);
+
+    @Test
+    void next_shouldFillGapsOfEveryDeviceAcrossWholeRange() {
+        ReadingSeriesPoint first = point("device-1", 10, 5);
+        ReadingSeriesPoint second = point("device-2", 0, 1);
+        ReadingSeriesPoint third = point("device-2", 15, 2);
+
+        List<ReadingSeriesPoint> filled = fill(List.of(first, second, third));
+
+        assertEquals(List.of(
+                ReadingSeriesPoint.empty("device-1", at(0)),
+                ReadingSeriesPoint.empty("device-1", at(5)),
+                first,
+                ReadingSeriesPoint.empty("device-1", at(15)),
+                second,
+                ReadingSeriesPoint.empty("device-2", at(5)),
+                ReadingSeriesPoint.empty("device-2", at(10)),
+                third), filled);
+    }
+
+    @Test
+    void next_withoutGaps_shouldReturnPointsUnchanged() {
+        List<ReadingSeriesPoint> points = List.of(point("device-1", 0, 1), point("device-1", 5, 1), point("device-1", 10, 1), point("device-1", 15, 1));
+
+        assertEquals(points, fill(points));
+    }
+
+    @Test
+    void next_withoutPoints_shouldReturnNothing() {
+        assertTrue(fill(List.of()).isEmpty());
+    }
+
+    private static List<ReadingSeriesPoint> fill(List<ReadingSeriesPoint> points) {
+        List<ReadingSeriesPoint> filled = new ArrayList<>();
+        new SeriesGapFiller(points.iterator(), SeriesInterval.FIVE_MINUTES, START, END).forEachRemaining(filled::add);
+        return filled;
+    }
+
+    private static ReadingSeriesPoint point(String deviceId, int minute, long count) {
+        return new ReadingSeriesPoint(deviceId, at(minute), 1.0, 1.0, 1.0, count);
+    }
+
+    private static LocalDateTime at(int minute) {
+        return LocalDateTime.of(2024, 1, 1, 10, 0).plusMinutes(minute);
+    }
+}
@@ -0,0 +1,140 @@
+package com.supermetrics.simulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.supermetrics.config.LoadGeneratorProperties;
+import com.supermetrics.dto.AppleHeartReadingRequest;
+import com.supermetrics.dto.LoadTestReport;
+import com.supermetrics.dto.LoadTestRequest;
+import com.supermetrics.exception.BadRequestException;
+import com.supermetrics.exception.NotFoundException;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.enums.LoadTarget;
+import com.supermetrics.model.enums.LoadTestStatus;
+import com.supermetrics.service.DeviceService;
+import com.supermetrics.service.ReadingService;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LoadGeneratorTest {
+
+    @Mock
+    private DeviceService deviceService;
+
+    @Mock
+    private ReadingsSimulator readingsSimulator;
+
+    @Mock
+    private ReadingService readingService;
+
+    private LoadGenerator loadGenerator;
+
+    @BeforeEach
+    void setUp() {
+        LoadGeneratorProperties properties = new LoadGeneratorProperties();
+        properties.setMaxDevices(100);
+        properties.setRegisterBatchSize(8);
+        loadGenerator = new LoadGenerator(deviceService, new DeviceSimulator(deviceService), readingsSimulator, readingService,
+                new ObjectMapper(), properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        loadGenerator.shutdown();
+    }
+
+    @Test
+    void start_inProcess_shouldRegisterDevicesAndSendEveryDueReading() throws InterruptedException {
+        when(deviceService.upsertAll(any())).thenAnswer(LoadGeneratorTest::upserted);
+        when(readingsSimulator.generateReadings(any()))
+                .thenAnswer(invocation -> new AppleHeartReadingRequest(invocation.<Device>getArgument(0).getId(), "Apple",
+                        Instant.EPOCH, 70, "Resting"));
+
+        // A reading per tick from each of 20 devices for 20 ticks
+        LoadTestReport started = loadGenerator.start(new LoadTestRequest(20, 100.0, Map.of("Apple", 1, "Nest", 3),
+                Duration.ofMillis(200), LoadTarget.IN_PROCESS));
+        assertEquals(LoadTestStatus.REGISTERING, started.status());
+        LoadTestReport report = awaitFinished();
+
+        assertEquals(LoadTestStatus.COMPLETED, report.status());
+        assertEquals(400, report.sent());
+        assertEquals(400, report.succeeded());
+        assertEquals(0, report.dropped());
+        assertEquals(400, report.latency().count());
+        verify(readingService, times(400)).saveReading(any());
+        verify(deviceService, times(3)).upsertAll(any());
+    }
+
+    @Test
+    void start_whileRunning_shouldThrowBadRequest() {
+        // Registration may not have started when the test stops the run
+        lenient().when(deviceService.upsertAll(any())).thenAnswer(LoadGeneratorTest::upserted);
+        loadGenerator.start(new LoadTestRequest(1, 1.0, Map.of("Apple", 1), Duration.ofMinutes(1), LoadTarget.IN_PROCESS));
+
+        assertThrows(BadRequestException.class, () -> loadGenerator.start(new LoadTestRequest(null, null, null, null, null)));
+
+        assertEquals(LoadTestStatus.STOPPED, loadGenerator.stop().status());
+    }
+
+    @Test
+    void start_withInvalidParameters_shouldThrowBadRequest() {
+        assertThrows(BadRequestException.class,
+                () -> loadGenerator.start(new LoadTestRequest(101, null, null, null, null)));
+        // A 10 ms tick sends at most 100 readings per second per device
+        assertThrows(BadRequestException.class,
+                () -> loadGenerator.start(new LoadTestRequest(10, 150.0, null, null, null)));
+        assertThrows(BadRequestException.class,
+                () -> loadGenerator.start(new LoadTestRequest(10, null, Map.of("Acme", 1), null, null)));
+        assertThrows(BadRequestException.class,
+                () -> loadGenerator.start(new LoadTestRequest(10, null, null, Duration.ZERO, null)));
+        assertThrows(NotFoundException.class, () -> loadGenerator.report());
+    }
+
+    @Test
+    void devicesPerBrand_shouldSplitByShareAndHandOutRemaindersToLargestFractions() {
+        Map<String, Integer> brandMix = new LinkedHashMap<>();
+        brandMix.put("Apple", 1);
+        brandMix.put("Nest", 1);
+        brandMix.put("BMW", 2);
+
+        Map<String, Integer> devices = LoadGenerator.devicesPerBrand(7, brandMix, Set.of("Apple", "Nest", "BMW", "Ford"));
+
+        assertEquals(Map.of("Apple", 2, "Nest", 2, "BMW", 3), devices);
+        assertEquals(Map.of("Apple", 0, "Ford", 5),
+                LoadGenerator.devicesPerBrand(5, Map.of("Apple", 0, "Ford", 1), Set.of("Apple", "Ford")));
+        assertThrows(BadRequestException.class, () -> LoadGenerator.devicesPerBrand(5, Map.of("Apple", 0), Set.of("Apple")));
+    }
+
+    private static DeviceService.UpsertResult upserted(InvocationOnMock invocation) {
+        List<Device> batch = invocation.getArgument(0);
+        batch.forEach(device -> device.setId(device.getSerialNumber()));
+        return new DeviceService.UpsertResult(batch, batch.size(), 0, Map.of());
+    }
+
+    private LoadTestReport awaitFinished() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        LoadTestReport report;
+        do {
+            Thread.sleep(20);
+            report = loadGenerator.report();
+        } while ((report.status() == LoadTestStatus.REGISTERING || report.status() == LoadTestStatus.RUNNING || report.inFlight() > 0)
+                && System.currentTimeMillis() < deadline);
+        return report;
+    }
+}
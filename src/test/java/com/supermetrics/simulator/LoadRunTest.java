@@ -0,0 +1,117 @@
+package com.supermetrics.simulator;
+
+import org.junit.jupiter.api.Test;
+import com.supermetrics.dto.AppleHeartReadingRequest;
+import com.supermetrics.dto.LoadTestReport;
+import com.supermetrics.model.Device;
+import com.supermetrics.model.enums.LoadTarget;
+import com.supermetrics.model.enums.LoadTestStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadRunTest {
+
+    private long now;
+
+    @Test
+    void tick_shouldSendEveryDeviceOncePerRevolutionUntilDurationPassed() {
+        List<String> sent = new ArrayList<>();
+        // 10 readings per second with a 10 ms tick gives 10 slots
+        LoadRun run = begin(run(25, 10, Duration.ofMillis(200), 100, request -> {
+            sent.add(((AppleHeartReadingRequest) request).id());
+            return CompletableFuture.completedFuture(null);
+        }), 25);
+
+        assertTrue(run.tick());
+        assertEquals(List.of("device-0", "device-10", "device-20"), sent);
+        for (int i = 1; i < 10; i++) {
+            assertTrue(run.tick());
+        }
+        assertEquals(25, sent.size());
+        assertEquals(25, sent.stream().distinct().count());
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(run.tick());
+        }
+        assertFalse(run.tick());
+        assertEquals(50, sent.size());
+        LoadTestReport report = run.report();
+        assertEquals(10.0, report.readingsPerSecond(), 0.001);
+        assertEquals(250.0, report.targetThroughput(), 0.001);
+        assertEquals(50, report.succeeded());
+    }
+
+    @Test
+    void tick_withAllReadingsInFlight_shouldDropInsteadOfQueueing() {
+        LoadRun run = begin(run(5, 100, Duration.ofSeconds(1), 2, request -> new CompletableFuture<>()), 5);
+
+        run.tick();
+
+        LoadTestReport report = run.report();
+        assertEquals(2, report.sent());
+        assertEquals(3, report.dropped());
+        assertEquals(2, report.inFlight());
+    }
+
+    @Test
+    void report_shouldCountFailuresByReasonAndMeasureLatencyFromDueTime() {
+        CompletableFuture<Void> slow = new CompletableFuture<>();
+        LoadRun run = begin(run(3, 100, Duration.ofSeconds(1), 10, request -> switch (((AppleHeartReadingRequest) request).id()) {
+            case "device-0" -> CompletableFuture.failedFuture(new CompletionException(new LoadRun.RejectedException("HTTP 429")));
+            case "device-1" -> throw new IllegalStateException("boom");
+            default -> slow;
+        }), 3);
+
+        run.tick();
+        now += Duration.ofMillis(5).toNanos();
+        slow.complete(null);
+        now = Duration.ofSeconds(1).toNanos();
+
+        LoadTestReport report = run.report();
+        assertEquals(LoadTestStatus.RUNNING, report.status());
+        assertEquals(3, report.sent());
+        assertEquals(1, report.succeeded());
+        assertEquals(2, report.failed());
+        assertEquals(Map.of("HTTP 429", 1L, "IllegalStateException", 1L), report.failures());
+        assertEquals(1.0, report.achievedThroughput(), 0.001);
+        assertEquals(3, report.latency().count());
+        assertEquals(5.0, report.latency().max(), 0.01);
+        assertEquals(0, report.inFlight());
+    }
+
+    @Test
+    void begin_afterStopWhileRegistering_shouldNotStart() {
+        LoadRun run = run(1, 1, Duration.ofSeconds(1), 10, request -> CompletableFuture.completedFuture(null));
+
+        run.finish(LoadTestStatus.STOPPED);
+
+        assertFalse(run.begin(devices(1)));
+        assertFalse(run.tick());
+        assertEquals(LoadTestStatus.STOPPED, run.report().status());
+    }
+
+    private LoadRun run(int devices, double readingsPerSecond, Duration duration, int maxInFlight, LoadRun.Sender sender) {
+        return new LoadRun(LoadTarget.IN_PROCESS, devices, readingsPerSecond, duration, Duration.ofMillis(10), maxInFlight, sender,
+                device -> new AppleHeartReadingRequest(device.getId(), "Apple", Instant.EPOCH, 70, "Resting"), () -> now);
+    }
+
+    private LoadRun begin(LoadRun run, int devices) {
+        assertTrue(run.begin(devices(devices)));
+        return run;
+    }
+
+    private static List<Device> devices(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> Device.builder().id("device-" + i).build())
+                .toList();
+    }
+}